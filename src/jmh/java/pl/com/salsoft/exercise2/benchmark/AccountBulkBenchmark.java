@@ -0,0 +1,107 @@
+package pl.com.salsoft.exercise2.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pl.com.salsoft.exercise2.dao.AccountDao;
+import pl.com.salsoft.exercise2.dao.CompactAccountStore;
+import pl.com.salsoft.exercise2.model.AccountImportStats;
+import pl.com.salsoft.exercise2.service.AccountBulkService;
+import pl.com.salsoft.exercise2.service.AccountBulkService.Format;
+
+/**
+ * Benchmarks of importing accounts from a file into an empty compact store and of exporting them, reported
+ * per row. The import uses as many threads as there are available processors.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AccountBulkBenchmark {
+	private static final int ACCOUNTS = 1_000_000;
+
+	@Param({"csv", "ndjson"})
+	public String format;
+
+	private Format fileFormat;
+	private Path directory;
+	private Path file;
+	private AccountBulkService exporting;
+	private AccountBulkService importing;
+
+	@Setup(Level.Trial)
+	public void setUpFile() throws IOException {
+		fileFormat = Format.parse(format);
+		directory = Files.createTempDirectory("bulk-benchmark");
+		file = directory.resolve("accounts." + format);
+		writeAccounts();
+		exporting = new AccountBulkService(new AccountDao(new CompactAccountStore(0)));
+		exporting.importFile(file, fileFormat);
+	}
+
+	@Setup(Level.Iteration)
+	public void setUpStore() {
+		importing = new AccountBulkService(new AccountDao(new CompactAccountStore(0)));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ACCOUNTS)
+	public AccountImportStats importFile() {
+		return importing.importFile(file, fileFormat);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ACCOUNTS)
+	public long export() {
+		return exporting.export(OutputStream.nullOutputStream(), fileFormat);
+	}
+
+	/**
+	 * Writes accounts with 13-digit numbers and balances derived from the numbers.
+	 */
+	private void writeAccounts() throws IOException {
+		try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			if (fileFormat == Format.CSV) {
+				writer.write("number,balance\n");
+			}
+			for (int i = 0; i < ACCOUNTS; i++) {
+				final long number = 1_000_000_000_000L + i;
+				final String balance = String.format("%d.%02d", i * 7 % 10_000, i % 100);
+				writer.write(fileFormat == Format.CSV ? number + "," + balance + "\n"
+						: "{\"number\":\"" + number + "\",\"balance\":" + balance + "}\n");
+			}
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package pl.com.salsoft.exercise2.benchmark;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Pre-generated sequence of account numbers, picked either uniformly or with Zipf distribution
+ * (account of rank k is picked with probability proportional to 1/k). Numbers are drawn before
+ * the measurement, so benchmarks don't measure the random generator.
+ */
+final class AccountPicker {
+	static final String UNIFORM = "uniform";
+	static final String ZIPF = "zipf";
+	private static final int SEQUENCE_LENGTH = 1 << 16;
+
+	private final String[] sequence = new String[SEQUENCE_LENGTH];
+	private int next;
+
+	/**
+	 * Draws the sequence.
+	 * @param accounts Number of distinct accounts.
+	 * @param skew Distribution - UNIFORM or ZIPF.
+	 * @param seed Seed of the random generator, so every thread can get a different sequence.
+	 */
+	AccountPicker(final int accounts, final String skew, final long seed) {
+		final SplittableRandom random = new SplittableRandom(seed);
+		final double[] cumulative = ZIPF.equals(skew) ? zipf(accounts) : null;
+		if (cumulative == null && !UNIFORM.equals(skew)) {
+			throw new IllegalArgumentException("Unknown skew: " + skew);
+		}
+		for (int i = 0; i < SEQUENCE_LENGTH; i++) {
+			final int account = cumulative == null ? random.nextInt(accounts) : pick(cumulative, random.nextDouble());
+			sequence[i] = number(account);
+		}
+	}
+
+	/**
+	 * @return Next account number of the sequence. Wraps around at the end.
+	 */
+	String next() {
+		final String number = sequence[next];
+		next = (next + 1) & (SEQUENCE_LENGTH - 1);
+		return number;
+	}
+
+	/**
+	 * @param account Index of the account.
+	 * @return Number of the account with given index.
+	 */
+	static String number(final int account) {
+		return Integer.toString(1_000_000 + account);
+	}
+
+	private static double[] zipf(final int accounts) {
+		final double[] cumulative = new double[accounts];
+		double sum = 0;
+		for (int rank = 1; rank <= accounts; rank++) {
+			sum += 1.0 / rank;
+			cumulative[rank - 1] = sum;
+		}
+		for (int i = 0; i < accounts; i++) {
+			cumulative[i] /= sum;
+		}
+		return cumulative;
+	}
+
+	private static int pick(final double[] cumulative, final double value) {
+		final int index = Arrays.binarySearch(cumulative, value);
+		return Math.min(index >= 0 ? index : -index - 1, cumulative.length - 1);
+	}
+}
@@ -0,0 +1,62 @@
+package pl.com.salsoft.exercise2.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pl.com.salsoft.exercise2.dao.AccountStore;
+import pl.com.salsoft.exercise2.dao.CompactAccountStore;
+import pl.com.salsoft.exercise2.dao.MapAccountStore;
+
+/**
+ * Benchmark of filling an empty account store with accounts, reported per account. Run with -prof gc:
+ * gc.alloc.rate.norm is then the memory taken per account (including garbage of the tables resized on the way).
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AccountStoreBenchmark {
+	private static final int ACCOUNTS = 500_000;
+
+	@Param({"map", "compact"})
+	public String store;
+
+	private final String[] numbers = new String[ACCOUNTS];
+	private AccountStore accountStore;
+
+	@Setup(Level.Trial)
+	public void setUpNumbers() {
+		for (int i = 0; i < ACCOUNTS; i++) {
+			numbers[i] = String.format("%010d", 3_000_000_000L + i * 7919L);
+		}
+	}
+
+	@Setup(Level.Iteration)
+	public void setUpStore() {
+		accountStore = "compact".equals(store) ? new CompactAccountStore(0) : new MapAccountStore(0);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ACCOUNTS)
+	public AccountStore fill() {
+		for (final String number : numbers) {
+			accountStore.getOrCreate(number);
+		}
+		return accountStore;
+	}
+}
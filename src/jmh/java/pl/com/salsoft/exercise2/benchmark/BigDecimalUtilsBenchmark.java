@@ -0,0 +1,41 @@
+package pl.com.salsoft.exercise2.benchmark;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pl.com.salsoft.exercise2.utils.BigDecimalUtils;
+
+/**
+ * Benchmarks of conversions between prices and their internal representation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class BigDecimalUtilsBenchmark {
+	private final BigDecimal price = new BigDecimal("1234.56");
+	private long value = 123456;
+
+	@Benchmark
+	public long fromPrice() {
+		return BigDecimalUtils.fromPrice(price);
+	}
+
+	@Benchmark
+	public BigDecimal toPrice() {
+		// Changing value, so the result can't be cached.
+		return BigDecimalUtils.toPrice(value++);
+	}
+}
@@ -0,0 +1,107 @@
+package pl.com.salsoft.exercise2.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pl.com.salsoft.exercise2.binary.BinaryClient;
+import pl.com.salsoft.exercise2.binary.BinaryServer;
+import pl.com.salsoft.exercise2.dao.AccountDao;
+import pl.com.salsoft.exercise2.dao.MapAccountStore;
+import pl.com.salsoft.exercise2.model.PaymentRequest;
+import pl.com.salsoft.exercise2.model.PaymentResult;
+import pl.com.salsoft.exercise2.service.AccountService;
+import pl.com.salsoft.exercise2.service.PaymentService;
+
+/**
+ * Benchmarks of payments over the binary protocol, against a server listening on a free local port.
+ * Every benchmark thread has its own connection. Payments are made one by one (waiting for every response)
+ * or pipelined - PIPELINE requests are sent before the first response is read.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BinaryProtocolBenchmark {
+	private static final long INITIAL_BALANCE = Long.MAX_VALUE / 4;
+	private static final int ACCOUNTS = 1000;
+	private static final int WORKERS = 4;
+	private static final int PIPELINE = 1000;
+	private static final long AMOUNT = 1;
+
+	/**
+	 * Server shared by all threads.
+	 */
+	@State(Scope.Benchmark)
+	public static class Server {
+		private final AtomicLong seeds = new AtomicLong();
+		private BinaryServer server;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			final AccountDao accountDao = new AccountDao(new MapAccountStore(INITIAL_BALANCE));
+			for (int i = 0; i < ACCOUNTS; i++) {
+				accountDao.getOrCreate(AccountPicker.number(i));
+			}
+			server = new BinaryServer(new PaymentService(accountDao), new AccountService(accountDao), 0, WORKERS);
+			server.init();
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+			server.close();
+		}
+	}
+
+	/**
+	 * Connection and accounts of a single thread.
+	 */
+	@State(Scope.Thread)
+	public static class Client {
+		private final List<PaymentRequest> pipeline = new ArrayList<>(PIPELINE);
+		private AccountPicker picker;
+		private BinaryClient client;
+
+		@Setup(Level.Trial)
+		public void setUp(final Server server) {
+			picker = new AccountPicker(ACCOUNTS, AccountPicker.UNIFORM, server.seeds.incrementAndGet());
+			for (int i = 0; i < PIPELINE; i++) {
+				pipeline.add(new PaymentRequest(picker.next(), picker.next(), AMOUNT));
+			}
+			client = new BinaryClient("localhost", server.server.getPort());
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+			client.close();
+		}
+	}
+
+	@Benchmark
+	public PaymentResult newPayment(final Client client) {
+		return client.client.newPayment(Long.parseLong(client.picker.next()), Long.parseLong(client.picker.next()), AMOUNT);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PIPELINE)
+	public List<PaymentResult> pipelined(final Client client) {
+		return client.client.newPayments(client.pipeline);
+	}
+}
@@ -0,0 +1,94 @@
+package pl.com.salsoft.exercise2.benchmark;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pl.com.salsoft.exercise2.model.Account;
+
+/**
+ * Benchmarks of credits with a skewed workload - most credits go to a few hot accounts (merchants),
+ * the rest is spread over cold accounts. Compares a plain atomic add (deposit()) with credit(), which moves
+ * contended accounts to striped cells. Run with -t equal to the number of cores - without contention
+ * accounts are never promoted and both benchmarks do the same.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HotAccountBenchmark {
+	private static final int COLD_ACCOUNTS = 10_000;
+	private static final int SEQUENCE_LENGTH = 1 << 16;
+
+	/**
+	 * Accounts shared by all threads.
+	 */
+	@State(Scope.Benchmark)
+	public static class Accounts {
+		@Param({"1", "4"})
+		public int hotAccounts;
+
+		@Param({"90"})
+		public int hotPercent;
+
+		private final AtomicLong seeds = new AtomicLong();
+		private Account[] accounts;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			accounts = new Account[hotAccounts + COLD_ACCOUNTS];
+			for (int i = 0; i < accounts.length; i++) {
+				accounts[i] = new Account(AccountPicker.number(i), new AtomicLong());
+			}
+		}
+	}
+
+	/**
+	 * Accounts credited by a single thread, drawn before the measurement.
+	 */
+	@State(Scope.Thread)
+	public static class Picker {
+		private final int[] sequence = new int[SEQUENCE_LENGTH];
+		private int next;
+
+		@Setup(Level.Trial)
+		public void setUp(final Accounts accounts) {
+			final SplittableRandom random = new SplittableRandom(accounts.seeds.incrementAndGet());
+			for (int i = 0; i < SEQUENCE_LENGTH; i++) {
+				sequence[i] = random.nextInt(100) < accounts.hotPercent
+						? random.nextInt(accounts.hotAccounts)
+						: accounts.hotAccounts + random.nextInt(COLD_ACCOUNTS);
+			}
+		}
+
+		private Account next(final Accounts accounts) {
+			final Account account = accounts.accounts[sequence[next]];
+			next = (next + 1) & (SEQUENCE_LENGTH - 1);
+			return account;
+		}
+	}
+
+	@Benchmark
+	public long atomicDeposit(final Accounts accounts, final Picker picker) {
+		return picker.next(accounts).deposit(1);
+	}
+
+	@Benchmark
+	public void credit(final Accounts accounts, final Picker picker) {
+		picker.next(accounts).credit(1);
+	}
+}
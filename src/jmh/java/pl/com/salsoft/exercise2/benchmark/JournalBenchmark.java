@@ -0,0 +1,101 @@
+package pl.com.salsoft.exercise2.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pl.com.salsoft.exercise2.dao.AccountDao;
+import pl.com.salsoft.exercise2.dao.FileJournal;
+import pl.com.salsoft.exercise2.dao.JournalReplayer;
+import pl.com.salsoft.exercise2.dao.MapAccountStore;
+import pl.com.salsoft.exercise2.model.PaymentRequest;
+import pl.com.salsoft.exercise2.model.PaymentResult;
+import pl.com.salsoft.exercise2.service.PaymentService;
+
+/**
+ * Benchmark of payments journaled in a temporary directory, for every durability mode. Run with -t higher
+ * than 1 to see group commit of the batched mode - concurrent payments share a single fsync there.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JournalBenchmark {
+	private static final long INITIAL_BALANCE = Long.MAX_VALUE / 4;
+	private static final long SEGMENT_SIZE = 64 << 20;
+	private static final int ACCOUNTS = 1000;
+	private static final long AMOUNT = 1;
+
+	/**
+	 * Journal and accounts shared by all threads.
+	 */
+	@State(Scope.Benchmark)
+	public static class Journaled {
+		@Param({"none", "batched", "per-request"})
+		public String durability;
+
+		private final AtomicLong seeds = new AtomicLong();
+		private Path directory;
+		private FileJournal journal;
+		private PaymentService paymentService;
+
+		@Setup(Level.Trial)
+		public void setUp() throws IOException {
+			directory = Files.createTempDirectory("journal-benchmark");
+			journal = FileJournal.open(directory, FileJournal.Durability.parse(durability), SEGMENT_SIZE, 0,
+					new JournalReplayer(new MapAccountStore(0)));
+			final AccountDao accountDao = new AccountDao(new MapAccountStore(INITIAL_BALANCE), journal);
+			for (int i = 0; i < ACCOUNTS; i++) {
+				accountDao.getOrCreate(AccountPicker.number(i));
+			}
+			paymentService = new PaymentService(accountDao, journal);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+			journal.close();
+			try (Stream<Path> files = Files.walk(directory)) {
+				files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+			}
+		}
+	}
+
+	/**
+	 * Accounts picked by a single thread.
+	 */
+	@State(Scope.Thread)
+	public static class Picker {
+		private AccountPicker picker;
+
+		@Setup(Level.Trial)
+		public void setUp(final Journaled journaled) {
+			picker = new AccountPicker(ACCOUNTS, AccountPicker.UNIFORM, journaled.seeds.incrementAndGet());
+		}
+	}
+
+	@Benchmark
+	public PaymentResult newPayment(final Journaled journaled, final Picker picker) {
+		final PaymentRequest payment = new PaymentRequest(picker.picker.next(), picker.picker.next(), AMOUNT);
+		return journaled.paymentService.newPayment(payment);
+	}
+}
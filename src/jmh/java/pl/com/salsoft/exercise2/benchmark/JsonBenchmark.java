@@ -0,0 +1,92 @@
+package pl.com.salsoft.exercise2.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import pl.com.salsoft.exercise2.model.Account;
+import pl.com.salsoft.exercise2.model.PaymentRequest;
+import pl.com.salsoft.exercise2.model.PaymentResult;
+import pl.com.salsoft.exercise2.service.JsonService;
+
+/**
+ * Benchmarks of JSON mapping of the objects sent and received by the REST API, in both directions.
+ * Benchmarks with the Databind suffix use plain ObjectMapper, as a baseline for codecs of JsonService.
+ * Run with -prof gc to see bytes allocated per operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonBenchmark {
+	private final JsonService jsonService = new JsonService();
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final PaymentRequest paymentRequest = new PaymentRequest("1000001", "1000002", 1234);
+	private final PaymentResult paymentResult = PaymentResult.success("1000001", 123456);
+	private final Account account = Account.builder()
+			.number("1000001")
+			.balance(new AtomicLong(123456))
+			.build();
+	private final String paymentRequestJson = jsonService.map(paymentRequest);
+	private final String paymentResultJson = jsonService.map(paymentResult);
+	private final String accountJson = jsonService.map(account);
+
+	@Benchmark
+	public String writePaymentRequest() {
+		return jsonService.map(paymentRequest);
+	}
+
+	@Benchmark
+	public PaymentRequest readPaymentRequest() {
+		return jsonService.map(paymentRequestJson, PaymentRequest.class);
+	}
+
+	@Benchmark
+	public String writePaymentResult() {
+		return jsonService.map(paymentResult);
+	}
+
+	@Benchmark
+	public PaymentResult readPaymentResult() {
+		return jsonService.map(paymentResultJson, PaymentResult.class);
+	}
+
+	@Benchmark
+	public String writeAccount() {
+		return jsonService.map(account);
+	}
+
+	@Benchmark
+	public Account readAccount() {
+		return jsonService.map(accountJson, Account.class);
+	}
+
+	@Benchmark
+	public PaymentRequest readPaymentRequestDatabind() throws IOException {
+		return mapper.readValue(paymentRequestJson, PaymentRequest.class);
+	}
+
+	@Benchmark
+	public String writePaymentResultDatabind() throws IOException {
+		return mapper.writeValueAsString(paymentResult);
+	}
+
+	@Benchmark
+	public String writeAccountDatabind() throws IOException {
+		return mapper.writeValueAsString(account);
+	}
+}
@@ -0,0 +1,67 @@
+package pl.com.salsoft.exercise2.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pl.com.salsoft.exercise2.metrics.LatencyHistogram;
+import pl.com.salsoft.exercise2.metrics.RequestMetrics;
+import pl.com.salsoft.exercise2.model.Account;
+
+/**
+ * Benchmarks of the instrumentation: recording a request time compared to just reading the clock around it,
+ * and withdrawal with counted CAS retries compared to a plain getAndUpdate(). Run with -t to see recording
+ * under contention (all threads share the histograms and the account). Run with -prof gc to confirm
+ * recording doesn't allocate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetricsBenchmark {
+	private static final long INITIAL_BALANCE = Long.MAX_VALUE / 4;
+
+	private final LatencyHistogram histogram = new LatencyHistogram();
+	private final RequestMetrics requestMetrics = new RequestMetrics();
+	private final Account account = new Account("1", new AtomicLong(INITIAL_BALANCE));
+	private final AtomicLong plainBalance = new AtomicLong(INITIAL_BALANCE);
+
+	@Benchmark
+	public long clockOnly() {
+		final long start = System.nanoTime();
+		return System.nanoTime() - start;
+	}
+
+	@Benchmark
+	public void histogramRecord() {
+		final long start = System.nanoTime();
+		histogram.record(System.nanoTime() - start);
+	}
+
+	@Benchmark
+	public void requestMetricsRecord() {
+		final long start = System.nanoTime();
+		requestMetrics.record("POST", "/payment", 200, System.nanoTime() - start);
+	}
+
+	@Benchmark
+	public long plainWithdraw() {
+		return plainBalance.getAndUpdate(balance -> balance >= 1 ? balance - 1 : balance);
+	}
+
+	@Benchmark
+	public long countedWithdraw() {
+		return account.withdraw(1);
+	}
+}
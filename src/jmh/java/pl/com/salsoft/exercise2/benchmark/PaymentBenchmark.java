@@ -0,0 +1,132 @@
+package pl.com.salsoft.exercise2.benchmark;
+
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pl.com.salsoft.exercise2.dao.AccountDao;
+import pl.com.salsoft.exercise2.dao.ChangeFeed;
+import pl.com.salsoft.exercise2.dao.Journal;
+import pl.com.salsoft.exercise2.dao.MapAccountStore;
+import pl.com.salsoft.exercise2.dao.TransactionHistory;
+import pl.com.salsoft.exercise2.model.Account;
+import pl.com.salsoft.exercise2.model.PaymentRequest;
+import pl.com.salsoft.exercise2.model.PaymentResult;
+import pl.com.salsoft.exercise2.service.PaymentService;
+
+/**
+ * Benchmarks of payments and account lookups. Accounts are created up front with a balance high enough
+ * for the payments never to fail. Number of threads is set with the -t option of JMH. The history parameter
+ * shows the cost of recording transfers in the transaction history, and the changes parameter the cost of feeding
+ * the change feed. The cuts group runs payments on three threads while the fourth one keeps taking consistent cuts,
+ * to compare with payments alone.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PaymentBenchmark {
+	private static final long INITIAL_BALANCE = Long.MAX_VALUE / 4;
+	private static final long AMOUNT = 1;
+
+	/**
+	 * Accounts shared by all threads.
+	 */
+	@State(Scope.Benchmark)
+	public static class Accounts {
+		@Param({"1000", "100000"})
+		public int accounts;
+
+		@Param({AccountPicker.UNIFORM, AccountPicker.ZIPF})
+		public String skew;
+
+		// Transfers kept per account in the transaction history, 0 disables it.
+		@Param({"0", "16"})
+		public int history;
+
+		// Changes kept in the change feed, 0 disables it.
+		@Param({"0", "65536"})
+		public int changes;
+
+		private final AtomicLong seeds = new AtomicLong();
+		private AccountDao accountDao;
+		private PaymentService paymentService;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			accountDao = new AccountDao(new MapAccountStore(INITIAL_BALANCE), Journal.NONE,
+					history == 0 ? TransactionHistory.NONE : new TransactionHistory(history),
+					changes == 0 ? ChangeFeed.NONE : new ChangeFeed(changes));
+			for (int i = 0; i < accounts; i++) {
+				accountDao.getOrCreate(AccountPicker.number(i));
+			}
+			paymentService = new PaymentService(accountDao);
+		}
+	}
+
+	/**
+	 * Accounts picked by a single thread.
+	 */
+	@State(Scope.Thread)
+	public static class Picker {
+		private AccountPicker picker;
+
+		@Setup(Level.Trial)
+		public void setUp(final Accounts accounts) {
+			picker = new AccountPicker(accounts.accounts, accounts.skew, accounts.seeds.incrementAndGet());
+		}
+	}
+
+	@Benchmark
+	public PaymentResult newPayment(final Accounts accounts, final Picker picker) {
+		final PaymentRequest payment = new PaymentRequest(picker.picker.next(), picker.picker.next(), AMOUNT);
+		return accounts.paymentService.newPayment(payment);
+	}
+
+	@Benchmark
+	public Account getOrCreate(final Accounts accounts, final Picker picker) {
+		return accounts.accountDao.getOrCreate(picker.picker.next());
+	}
+
+	@Benchmark
+	public Optional<Account> get(final Accounts accounts, final Picker picker) {
+		return accounts.accountDao.get(picker.picker.next());
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public Set<Account> getAll(final Accounts accounts) {
+		return accounts.accountDao.getAll();
+	}
+
+	@Benchmark
+	@Group("cuts")
+	@GroupThreads(3)
+	public PaymentResult newPaymentDuringCuts(final Accounts accounts, final Picker picker) {
+		return newPayment(accounts, picker);
+	}
+
+	@Benchmark
+	@Group("cuts")
+	@GroupThreads(1)
+	public Set<Account> continuousGetAll(final Accounts accounts) {
+		return accounts.accountDao.getAll();
+	}
+}
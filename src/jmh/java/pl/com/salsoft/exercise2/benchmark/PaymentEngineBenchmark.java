@@ -0,0 +1,141 @@
+package pl.com.salsoft.exercise2.benchmark;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pl.com.salsoft.exercise2.dao.AccountDao;
+import pl.com.salsoft.exercise2.dao.Journal;
+import pl.com.salsoft.exercise2.dao.MapAccountStore;
+import pl.com.salsoft.exercise2.model.PaymentRequest;
+import pl.com.salsoft.exercise2.model.PaymentResult;
+import pl.com.salsoft.exercise2.service.CasPaymentEngine;
+import pl.com.salsoft.exercise2.service.OptimisticPaymentEngine;
+import pl.com.salsoft.exercise2.service.PartitionedPaymentEngine;
+import pl.com.salsoft.exercise2.service.PaymentEngine;
+import pl.com.salsoft.exercise2.service.PaymentService;
+import pl.com.salsoft.exercise2.service.RingBufferPaymentEngine;
+import pl.com.salsoft.exercise2.service.StripedLockPaymentEngine;
+
+/**
+ * Benchmark of payments made by the payment engines (see payment.engine configuration entry).
+ * Run with -t equal to the number of cores - engines differ mostly in how they handle contended accounts,
+ * and on a single thread a hand-off to the engine's own thread only adds to the cost.
+ * The shards parameter is used only by the partitioned engine, e.g. -p engine=partitioned -p shards=1,2,4,8
+ * shows how it scales. The deletes group runs payments on three threads while the fourth one keeps deleting
+ * accounts, which the locks and optimistic engines make atomic with transfers (unlike cas).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PaymentEngineBenchmark {
+	private static final long INITIAL_BALANCE = Long.MAX_VALUE / 4;
+	private static final int ACCOUNTS = 1000;
+	private static final int RING_SIZE = 1024;
+	private static final long AMOUNT = 1;
+
+	/**
+	 * Engine and accounts shared by all threads.
+	 */
+	@State(Scope.Benchmark)
+	public static class Engine {
+		@Param({"cas", "ring", "partitioned", "locks", "optimistic"})
+		public String engine;
+
+		@Param({"4"})
+		public int shards;
+
+		@Param({AccountPicker.UNIFORM, AccountPicker.ZIPF})
+		public String skew;
+
+		private final AtomicLong seeds = new AtomicLong();
+		private PaymentEngine paymentEngine;
+		private PaymentService paymentService;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			final AccountDao accountDao = new AccountDao(new MapAccountStore(INITIAL_BALANCE));
+			for (int i = 0; i < ACCOUNTS; i++) {
+				accountDao.getOrCreate(AccountPicker.number(i));
+			}
+			paymentEngine = createEngine(accountDao);
+			paymentService = new PaymentService(paymentEngine, Journal.NONE);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+			if (paymentEngine instanceof Closeable) {
+				((Closeable) paymentEngine).close();
+			}
+		}
+
+		private PaymentEngine createEngine(final AccountDao accountDao) {
+			switch (engine) {
+				case "cas":
+					return new CasPaymentEngine(accountDao, Journal.NONE);
+				case "ring":
+					return new RingBufferPaymentEngine(accountDao, Journal.NONE, RING_SIZE);
+				case "partitioned":
+					return new PartitionedPaymentEngine(accountDao, Journal.NONE, shards);
+				case "locks":
+					return new StripedLockPaymentEngine(accountDao, Journal.NONE);
+				case "optimistic":
+					return new OptimisticPaymentEngine(accountDao, Journal.NONE);
+				default:
+					throw new IllegalArgumentException("Unknown engine: " + engine);
+			}
+		}
+	}
+
+	/**
+	 * Accounts picked by a single thread.
+	 */
+	@State(Scope.Thread)
+	public static class Picker {
+		private AccountPicker picker;
+
+		@Setup(Level.Trial)
+		public void setUp(final Engine engine) {
+			picker = new AccountPicker(ACCOUNTS, engine.skew, engine.seeds.incrementAndGet());
+		}
+	}
+
+	@Benchmark
+	public PaymentResult newPayment(final Engine engine, final Picker picker) {
+		final PaymentRequest payment = new PaymentRequest(picker.picker.next(), picker.picker.next(), AMOUNT);
+		return engine.paymentService.newPayment(payment);
+	}
+
+	@Benchmark
+	@Group("deletes")
+	@GroupThreads(3)
+	public PaymentResult newPaymentDuringDeletes(final Engine engine, final Picker picker) {
+		return newPayment(engine, picker);
+	}
+
+	@Benchmark
+	@Group("deletes")
+	@GroupThreads(1)
+	public boolean delete(final Engine engine, final Picker picker) {
+		return engine.paymentEngine.delete(picker.picker.next());
+	}
+}
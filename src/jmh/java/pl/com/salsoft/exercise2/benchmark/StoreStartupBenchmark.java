@@ -0,0 +1,121 @@
+package pl.com.salsoft.exercise2.benchmark;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pl.com.salsoft.exercise2.dao.AccountStore;
+import pl.com.salsoft.exercise2.dao.CompactAccountStore;
+import pl.com.salsoft.exercise2.dao.JournalReplayer;
+import pl.com.salsoft.exercise2.dao.MapAccountStore;
+import pl.com.salsoft.exercise2.dao.MappedAccountStore;
+import pl.com.salsoft.exercise2.dao.Snapshots;
+
+/**
+ * Benchmark of starting up with existing accounts: opening a mapped store (closed properly, or left open like
+ * after a crash, so its index is rebuilt) against loading a snapshot of the same accounts into the in-memory stores.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StoreStartupBenchmark {
+	private static final long DEFAULT_BALANCE = 10000;
+	private static final long FIRST_NUMBER = 1_000_000_000L;
+	private static final int ACCOUNTS = 2_000_000;
+
+	@Param({"mapped", "mapped-after-crash", "map", "compact"})
+	public String store;
+
+	private Path directory;
+	private Path file;
+	private Path crashed;
+	private Path dirty;
+	private Path snapshots;
+	private AccountStore accountStore;
+
+	@Setup(Level.Trial)
+	public void setUpFiles() throws IOException {
+		directory = Files.createTempDirectory("startup-benchmark");
+		file = directory.resolve("accounts.bin");
+		crashed = directory.resolve("crashed.bin");
+		dirty = directory.resolve("dirty.bin");
+		snapshots = Files.createDirectory(directory.resolve("snapshots"));
+		try (MappedAccountStore mapped = MappedAccountStore.open(file, DEFAULT_BALANCE)) {
+			for (int i = 0; i < ACCOUNTS; i++) {
+				mapped.getOrCreate(Long.toString(FIRST_NUMBER + i)).deposit(i);
+			}
+			// Copy of a store which wasn't closed, like after a crash.
+			Files.copy(file, crashed);
+			Snapshots.write(snapshots, 1, mapped.getAll());
+		}
+	}
+
+	/**
+	 * Opening a store left open repairs it, so every iteration gets a fresh copy.
+	 */
+	@Setup(Level.Iteration)
+	public void setUpCopy() throws IOException {
+		Files.copy(crashed, dirty, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDownStore() throws IOException {
+		if (accountStore instanceof Closeable) {
+			((Closeable) accountStore).close();
+		}
+		accountStore = null;
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDownFiles() throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+		}
+	}
+
+	@Benchmark
+	public AccountStore open() throws IOException {
+		switch (store) {
+			case "mapped":
+				accountStore = MappedAccountStore.open(file, DEFAULT_BALANCE);
+				break;
+			case "mapped-after-crash":
+				accountStore = MappedAccountStore.open(dirty, DEFAULT_BALANCE);
+				break;
+			case "map":
+				accountStore = new MapAccountStore(DEFAULT_BALANCE);
+				Snapshots.loadNewest(snapshots, new JournalReplayer(accountStore));
+				break;
+			case "compact":
+				accountStore = new CompactAccountStore(DEFAULT_BALANCE);
+				Snapshots.loadNewest(snapshots, new JournalReplayer(accountStore));
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown store: " + store);
+		}
+		return accountStore;
+	}
+}
@@ -2,18 +2,63 @@ package pl.com.salsoft.exercise2;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
 import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import pl.com.salsoft.exercise2.binary.BinaryServer;
 import pl.com.salsoft.exercise2.dao.AccountDao;
+import pl.com.salsoft.exercise2.dao.AccountStore;
+import pl.com.salsoft.exercise2.dao.ChangeFeed;
+import pl.com.salsoft.exercise2.dao.CompactAccountStore;
+import pl.com.salsoft.exercise2.dao.FileJournal;
+import pl.com.salsoft.exercise2.dao.FileJournal.Durability;
+import pl.com.salsoft.exercise2.dao.Journal;
+import pl.com.salsoft.exercise2.dao.JournalReplayer;
+import pl.com.salsoft.exercise2.dao.MapAccountStore;
+import pl.com.salsoft.exercise2.dao.MappedAccountStore;
+import pl.com.salsoft.exercise2.dao.Snapshots;
+import pl.com.salsoft.exercise2.dao.Snapshotter;
+import pl.com.salsoft.exercise2.dao.TransactionHistory;
+import pl.com.salsoft.exercise2.metrics.MetricsRegistry;
+import pl.com.salsoft.exercise2.metrics.RequestMetrics;
+import pl.com.salsoft.exercise2.model.Account;
+import pl.com.salsoft.exercise2.model.AccountImportStats;
+import pl.com.salsoft.exercise2.rest.AbstractController;
 import pl.com.salsoft.exercise2.rest.AccountController;
+import pl.com.salsoft.exercise2.rest.AdminController;
+import pl.com.salsoft.exercise2.rest.AsyncPaymentController;
+import pl.com.salsoft.exercise2.rest.HttpTransport;
+import pl.com.salsoft.exercise2.rest.JdkTransport;
+import pl.com.salsoft.exercise2.rest.JettyTransport;
+import pl.com.salsoft.exercise2.rest.MetricsController;
 import pl.com.salsoft.exercise2.rest.PaymentController;
+import pl.com.salsoft.exercise2.rest.SparkTransport;
+import pl.com.salsoft.exercise2.rest.ThreadPerTaskPool;
+import pl.com.salsoft.exercise2.service.AccountBulkService;
 import pl.com.salsoft.exercise2.service.AccountService;
+import pl.com.salsoft.exercise2.service.AsyncPaymentService;
+import pl.com.salsoft.exercise2.service.CasPaymentEngine;
+import pl.com.salsoft.exercise2.service.IdempotencyCache;
 import pl.com.salsoft.exercise2.service.JsonService;
+import pl.com.salsoft.exercise2.service.OptimisticPaymentEngine;
+import pl.com.salsoft.exercise2.service.PartitionedPaymentEngine;
+import pl.com.salsoft.exercise2.service.PaymentEngine;
+import pl.com.salsoft.exercise2.service.PaymentResultStore;
 import pl.com.salsoft.exercise2.service.PaymentService;
+import pl.com.salsoft.exercise2.service.RingBufferPaymentEngine;
+import pl.com.salsoft.exercise2.service.StripedLockPaymentEngine;
 import pl.com.salsoft.exercise2.utils.BigDecimalUtils;
-import spark.Spark;
 
 /**
  * Exercise2 application entry point.
@@ -23,6 +68,64 @@ public class App {
 	private static final String CONFIG_FILE_NAME = "config.properties";
 	private static final String CONFIG_PORT = "port";
 	private static final String CONFIG_DEFAULT_BALANCE = "default.balance";
+	private static final String CONFIG_HTTP_TRANSPORT = "http.transport";
+	private static final String HTTP_TRANSPORT_SPARK = "spark";
+	private static final String HTTP_TRANSPORT_JETTY = "jetty";
+	private static final String HTTP_TRANSPORT_JDK = "jdk";
+	private static final String CONFIG_SERVER_THREADS = "server.threads";
+	private static final String SERVER_THREADS_PLATFORM = "platform";
+	private static final String SERVER_THREADS_VIRTUAL = "virtual";
+	private static final String CONFIG_SERVER_THREADS_MAX = "server.threads.max";
+	private static final String CONFIG_SERVER_THREADS_MIN = "server.threads.min";
+	private static final String CONFIG_SERVER_THREADS_IDLE_TIMEOUT = "server.threads.idle.timeout.ms";
+	private static final long DEFAULT_SERVER_THREADS_MAX = 200;
+	private static final long DEFAULT_SERVER_THREADS_MIN = 8;
+	private static final long DEFAULT_SERVER_THREADS_IDLE_TIMEOUT = 60000;
+	private static final String CONFIG_ACCOUNT_STORE = "account.store";
+	private static final String ACCOUNT_STORE_MAP = "map";
+	private static final String ACCOUNT_STORE_COMPACT = "compact";
+	private static final String ACCOUNT_STORE_MAPPED = "mapped";
+	private static final String CONFIG_ACCOUNT_STORE_FILE = "account.store.file";
+	private static final String CONFIG_ACCOUNT_HISTORY_SIZE = "account.history.size";
+	private static final long DEFAULT_ACCOUNT_HISTORY_SIZE = 16;
+	private static final String CONFIG_ACCOUNT_CHANGES_SIZE = "account.changes.size";
+	private static final long DEFAULT_ACCOUNT_CHANGES_SIZE = 1 << 16;
+	private static final String CONFIG_ACCOUNT_CHANGES_SUBSCRIBERS = "account.changes.subscribers.max";
+	private static final long DEFAULT_ACCOUNT_CHANGES_SUBSCRIBERS = 32;
+	private static final String CONFIG_ACCOUNT_IMPORT_FILE = "account.import.file";
+	private static final String CONFIG_ACCOUNT_IMPORT_DIRECTORY = "account.import.directory";
+	private static final String CONFIG_PAYMENT_ENGINE = "payment.engine";
+	private static final String PAYMENT_ENGINE_CAS = "cas";
+	private static final String PAYMENT_ENGINE_RING = "ring";
+	private static final String PAYMENT_ENGINE_PARTITIONED = "partitioned";
+	private static final String PAYMENT_ENGINE_LOCKS = "locks";
+	private static final String PAYMENT_ENGINE_OPTIMISTIC = "optimistic";
+	private static final String CONFIG_PAYMENT_SHARDS = "payment.shards";
+	private static final String CONFIG_PAYMENT_RING_SIZE = "payment.ring.size";
+	private static final long DEFAULT_PAYMENT_RING_SIZE = 1 << 16;
+	private static final String CONFIG_ASYNC_QUEUE_SIZE = "payment.async.queue.size";
+	private static final String CONFIG_ASYNC_WORKERS = "payment.async.workers";
+	private static final String CONFIG_ASYNC_RESULTS_MAX = "payment.async.results.max";
+	private static final String CONFIG_ASYNC_RESULTS_TTL = "payment.async.results.ttl.seconds";
+	private static final long DEFAULT_ASYNC_QUEUE_SIZE = 10000;
+	private static final long DEFAULT_ASYNC_WORKERS = 2;
+	private static final long DEFAULT_ASYNC_RESULTS_MAX = 100000;
+	private static final long DEFAULT_ASYNC_RESULTS_TTL = 300;
+	private static final String CONFIG_PAYMENT_BATCH_MAX = "payment.batch.max";
+	private static final long DEFAULT_PAYMENT_BATCH_MAX = 1000;
+	private static final String CONFIG_IDEMPOTENCY_KEYS = "payment.idempotency.keys.max";
+	private static final String CONFIG_IDEMPOTENCY_TTL = "payment.idempotency.ttl.seconds";
+	private static final long DEFAULT_IDEMPOTENCY_KEYS = 100000;
+	private static final long DEFAULT_IDEMPOTENCY_TTL = 86400;
+	private static final String CONFIG_BINARY_PORT = "binary.port";
+	private static final String CONFIG_BINARY_WORKERS = "binary.workers";
+	private static final String CONFIG_JOURNAL_DIRECTORY = "journal.directory";
+	private static final String CONFIG_JOURNAL_DURABILITY = "journal.durability";
+	private static final String CONFIG_JOURNAL_SEGMENT_SIZE = "journal.segment.size.mb";
+	private static final String CONFIG_SNAPSHOT_INTERVAL = "snapshot.interval.seconds";
+	private static final long DEFAULT_JOURNAL_SEGMENT_SIZE = 64;
+	private static final long DEFAULT_SNAPSHOT_INTERVAL = 60;
+	private static final Logger log = LoggerFactory.getLogger(App.class);
 	private static final Properties CONFIG = new Properties();
 
 	/**
@@ -32,20 +135,321 @@ public class App {
 	 */
 	public static void main(final String[] args) throws IOException {
 		loadProperties();
-		Spark.port(getServerPort());
+		start(getServerPort());
+	}
 
-		createBeans().forEach(Initializable::init);
+	/**
+	 * Starts the application on given port, with the rest of configuration read from the configuration file.
+	 * Returns once the server accepts requests. Used by the load generator to run the application in-process.
+	 * @param port Port of the REST server.
+	 * @return Transport serving the REST API, to stop the server with.
+	 * @throws IOException If configuration file could not be read or the server could not be started.
+	 */
+	public static HttpTransport start(final int port) throws IOException {
+		final long start = System.nanoTime();
+		if (CONFIG.isEmpty()) {
+			loadProperties();
+		}
+		final HttpTransport transport = createTransport(port);
+		createBeans(transport).forEach(Initializable::init);
+		transport.start();
+		log.info("Application ready in {} ms ({} ms since JVM start).", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+				ManagementFactory.getRuntimeMXBean().getUptime());
+		return transport;
 	}
 
-	private static Set<Initializable> createBeans() {
+	private static Set<Initializable> createBeans(final HttpTransport transport) throws IOException {
 		// This is a small application. Let's do whole IoC here in pure Java.
-		final AccountDao accountDao = new AccountDao(getDefaultBalance());
+		final AccountStore accountStore = createAccountStore();
+		final Journal journal = openJournal(accountStore);
+		final AccountDao accountDao = new AccountDao(accountStore, journal, createTransactionHistory(),
+				createChangeFeed());
+		final AccountBulkService accountBulkService = new AccountBulkService(accountDao);
+		importAccounts(accountBulkService);
 		final JsonService jsonService = new JsonService();
-		final PaymentService paymentService = new PaymentService(accountDao);
-		final AccountService accountService = new AccountService(accountDao);
-		final PaymentController paymentController = new PaymentController(jsonService, paymentService);
-		final AccountController accountController = new AccountController(jsonService, accountService);
-		return Set.of(paymentController, accountController);
+		final PaymentEngine paymentEngine = createPaymentEngine(accountDao, journal);
+		final PaymentService paymentService = new PaymentService(paymentEngine, journal);
+		final AccountService accountService = new AccountService(accountDao, paymentEngine);
+		final IdempotencyCache idempotencyCache = createIdempotencyCache();
+		final AsyncPaymentService asyncPaymentService = createAsyncPaymentService(paymentService);
+		final MetricsRegistry metricsRegistry = new MetricsRegistry();
+		registerMetrics(metricsRegistry, accountDao, paymentService, idempotencyCache, asyncPaymentService);
+		final RequestMetrics requestMetrics = metricsRegistry.getRequestMetrics();
+		final PaymentController paymentController = new PaymentController(jsonService, paymentService,
+				idempotencyCache, getMaxBatchSize(), requestMetrics);
+		final AsyncPaymentController asyncPaymentController = new AsyncPaymentController(jsonService,
+				asyncPaymentService, requestMetrics);
+		final AccountController accountController = new AccountController(jsonService, accountService,
+				getChangesSubscribers(), requestMetrics);
+		final MetricsController metricsController = new MetricsController(jsonService, metricsRegistry);
+		final AdminController adminController = createAdminController(jsonService, accountBulkService, requestMetrics);
+		for (final AbstractController controller : List.of(paymentController, asyncPaymentController, accountController,
+				metricsController, adminController)) {
+			controller.routes(transport);
+		}
+		final String binaryPort = CONFIG.getProperty(CONFIG_BINARY_PORT, "").trim();
+		if (binaryPort.isEmpty()) {
+			return Set.of();
+		}
+		return Set.of(createBinaryServer(paymentService, accountService));
+	}
+
+	/**
+	 * Imports accounts from the file given in the configuration, if any. Accounts which already exist
+	 * (restored from the journal, or imported on a previous start) are left unchanged.
+	 */
+	private static void importAccounts(final AccountBulkService accountBulkService) {
+		final String file = CONFIG.getProperty(CONFIG_ACCOUNT_IMPORT_FILE, "").trim();
+		if (file.isEmpty()) {
+			return;
+		}
+		final Path path = Path.of(file);
+		final AccountImportStats stats = accountBulkService.importFile(path, AccountBulkService.Format.of(path));
+		log.info("Imported {} rows from {} in {} ms ({} rows/s): {} accounts created, {} already existed.", stats.getRows(),
+				path, stats.getMillis(), stats.getRowsPerSecond(), stats.getCreated(), stats.getExisting());
+	}
+
+	/**
+	 * Creates the admin controller, importing files only from the directory given in the configuration, if any.
+	 */
+	private static AdminController createAdminController(final JsonService jsonService,
+			final AccountBulkService accountBulkService, final RequestMetrics requestMetrics) throws IOException {
+		final String directory = CONFIG.getProperty(CONFIG_ACCOUNT_IMPORT_DIRECTORY, "").trim();
+		if (directory.isEmpty()) {
+			return new AdminController(jsonService, accountBulkService, requestMetrics);
+		}
+		return new AdminController(jsonService, accountBulkService, Path.of(directory), requestMetrics);
+	}
+
+	private static void registerMetrics(final MetricsRegistry registry, final AccountDao accountDao,
+			final PaymentService paymentService, final IdempotencyCache idempotencyCache,
+			final AsyncPaymentService asyncPaymentService) {
+		final String payments = "payments_total";
+		final String paymentsHelp = "Payments processed by outcome.";
+		registry.counter(payments, paymentsHelp, paymentService::getSucceededCount, "outcome", "success");
+		registry.counter(payments, paymentsHelp, paymentService::getInsufficientFundsCount, "outcome", "insufficient_funds");
+		registry.counter(payments, paymentsHelp, paymentService::getInvalidAmountCount, "outcome", "invalid_amount");
+		registry.counter("account_cas_retries_total", "Compare-and-set retries of balance withdrawals.",
+				Account::getCasRetries);
+		final String hotAccounts = "account_hot_transitions_total";
+		final String hotAccountsHelp = "Switches of contended accounts to and from striped balance cells.";
+		registry.counter(hotAccounts, hotAccountsHelp, Account::getHotPromotions, "direction", "promoted");
+		registry.counter(hotAccounts, hotAccountsHelp, Account::getHotDemotions, "direction", "demoted");
+		registry.counter("accounts_created_total", "Accounts created by payments.", accountDao::getCreatedCount);
+		registry.gauge("accounts", "Number of accounts.", accountDao::size);
+
+		final String asyncPayments = "async_payments_total";
+		final String asyncPaymentsHelp = "Asynchronous payments by state.";
+		registry.counter(asyncPayments, asyncPaymentsHelp, () -> asyncPaymentService.getStats().getAccepted(),
+				"state", "accepted");
+		registry.counter(asyncPayments, asyncPaymentsHelp, () -> asyncPaymentService.getStats().getRejected(),
+				"state", "rejected");
+		registry.counter(asyncPayments, asyncPaymentsHelp, () -> asyncPaymentService.getStats().getCompleted(),
+				"state", "completed");
+		registry.gauge("async_payment_queue_depth", "Asynchronous payments waiting for processing.",
+				() -> asyncPaymentService.getStats().getQueueDepth());
+		registry.gauge("async_payment_oldest_queued_milliseconds", "Age of the oldest waiting asynchronous payment.",
+				() -> asyncPaymentService.getStats().getOldestQueuedMillis());
+		registry.gauge("async_payment_lag_milliseconds", "Lag of the last processed batch of asynchronous payments.",
+				() -> asyncPaymentService.getStats().getLastLagMillis());
+
+		final String idempotency = "idempotency_cache_requests_total";
+		final String idempotencyHelp = "Payments with idempotency key by cache result.";
+		registry.counter(idempotency, idempotencyHelp, () -> idempotencyCache.getStats().getHits(), "result", "hit");
+		registry.counter(idempotency, idempotencyHelp, () -> idempotencyCache.getStats().getMisses(), "result", "miss");
+		registry.gauge("idempotency_cache_entries", "Remembered idempotency keys.",
+				() -> idempotencyCache.getStats().getEntries());
+		registry.gauge("idempotency_cache_estimated_bytes", "Estimated memory held by remembered idempotency keys.",
+				() -> idempotencyCache.getStats().getEstimatedBytes());
+	}
+
+	private static IdempotencyCache createIdempotencyCache() {
+		final long keys = getLongConfigEntry(CONFIG_IDEMPOTENCY_KEYS, DEFAULT_IDEMPOTENCY_KEYS);
+		final long ttl = getLongConfigEntry(CONFIG_IDEMPOTENCY_TTL, DEFAULT_IDEMPOTENCY_TTL);
+		if (keys <= 0 || keys > 1 << 24) {
+			throw invalidConfigEntry(CONFIG_IDEMPOTENCY_KEYS);
+		}
+		if (ttl <= 0) {
+			throw invalidConfigEntry(CONFIG_IDEMPOTENCY_TTL);
+		}
+		return new IdempotencyCache((int) keys, ttl, TimeUnit.SECONDS);
+	}
+
+	private static AsyncPaymentService createAsyncPaymentService(final PaymentService paymentService) {
+		final long queueSize = getLongConfigEntry(CONFIG_ASYNC_QUEUE_SIZE, DEFAULT_ASYNC_QUEUE_SIZE);
+		final long workers = getLongConfigEntry(CONFIG_ASYNC_WORKERS, DEFAULT_ASYNC_WORKERS);
+		final long maxResults = getLongConfigEntry(CONFIG_ASYNC_RESULTS_MAX, DEFAULT_ASYNC_RESULTS_MAX);
+		final long ttl = getLongConfigEntry(CONFIG_ASYNC_RESULTS_TTL, DEFAULT_ASYNC_RESULTS_TTL);
+		if (queueSize <= 0 || queueSize > 1 << 24) {
+			throw invalidConfigEntry(CONFIG_ASYNC_QUEUE_SIZE);
+		}
+		if (workers <= 0 || workers > 1024) {
+			throw invalidConfigEntry(CONFIG_ASYNC_WORKERS);
+		}
+		if (maxResults <= 0 || maxResults > 1 << 24) {
+			throw invalidConfigEntry(CONFIG_ASYNC_RESULTS_MAX);
+		}
+		if (ttl <= 0) {
+			throw invalidConfigEntry(CONFIG_ASYNC_RESULTS_TTL);
+		}
+		return new AsyncPaymentService(paymentService, new PaymentResultStore((int) maxResults, ttl, TimeUnit.SECONDS),
+				(int) queueSize, (int) workers);
+	}
+
+	private static BinaryServer createBinaryServer(final PaymentService paymentService, final AccountService accountService) {
+		final long port = getLongConfigEntry(CONFIG_BINARY_PORT, 0);
+		final long workers = getLongConfigEntry(CONFIG_BINARY_WORKERS, 0);
+		if (port <= 0 || port > 65535) {
+			throw invalidConfigEntry(CONFIG_BINARY_PORT);
+		}
+		if (workers < 0 || workers > 1024) {
+			throw invalidConfigEntry(CONFIG_BINARY_WORKERS);
+		}
+		// Workers block while payments are made durable, so there are more of them than processors.
+		return new BinaryServer(paymentService, accountService, (int) port,
+				workers == 0 ? 4 * Runtime.getRuntime().availableProcessors() : (int) workers);
+	}
+
+	/**
+	 * Creates the server of the REST API, chosen in the configuration.
+	 */
+	private static HttpTransport createTransport(final int port) throws IOException {
+		final ThreadPool threadPool = createServerThreadPool();
+		switch (CONFIG.getProperty(CONFIG_HTTP_TRANSPORT, HTTP_TRANSPORT_SPARK)) {
+			case HTTP_TRANSPORT_SPARK:
+				return new SparkTransport(port, threadPool);
+			case HTTP_TRANSPORT_JETTY:
+				return new JettyTransport(port, threadPool);
+			case HTTP_TRANSPORT_JDK:
+				return new JdkTransport(port, threadPool);
+			default:
+				throw invalidConfigEntry(CONFIG_HTTP_TRANSPORT);
+		}
+	}
+
+	/**
+	 * Creates pool of threads handling HTTP requests.
+	 */
+	private static ThreadPool createServerThreadPool() {
+		switch (CONFIG.getProperty(CONFIG_SERVER_THREADS, SERVER_THREADS_PLATFORM)) {
+			case SERVER_THREADS_PLATFORM:
+				final long max = getLongConfigEntry(CONFIG_SERVER_THREADS_MAX, DEFAULT_SERVER_THREADS_MAX);
+				final long min = getLongConfigEntry(CONFIG_SERVER_THREADS_MIN, DEFAULT_SERVER_THREADS_MIN);
+				final long idleTimeout = getLongConfigEntry(CONFIG_SERVER_THREADS_IDLE_TIMEOUT, DEFAULT_SERVER_THREADS_IDLE_TIMEOUT);
+				// Jetty needs a few threads for acceptors and selectors on top of the request handling threads.
+				if (max < 4 || max > 10000) {
+					throw invalidConfigEntry(CONFIG_SERVER_THREADS_MAX);
+				}
+				if (min < 1 || min > max) {
+					throw invalidConfigEntry(CONFIG_SERVER_THREADS_MIN);
+				}
+				if (idleTimeout < 1 || idleTimeout > Integer.MAX_VALUE) {
+					throw invalidConfigEntry(CONFIG_SERVER_THREADS_IDLE_TIMEOUT);
+				}
+				return new QueuedThreadPool((int) max, (int) min, (int) idleTimeout);
+			case SERVER_THREADS_VIRTUAL:
+				if (!ThreadPerTaskPool.isVirtualSupported()) {
+					throw new RuntimeException(String.format("Virtual threads (%s=%s) require JDK 21 or newer, running on %s.",
+							CONFIG_SERVER_THREADS, SERVER_THREADS_VIRTUAL, Runtime.version()));
+				}
+				return ThreadPerTaskPool.virtual();
+			default:
+				throw invalidConfigEntry(CONFIG_SERVER_THREADS);
+		}
+	}
+
+	private static AccountStore createAccountStore() throws IOException {
+		final long defaultBalance = getDefaultBalance();
+		switch (CONFIG.getProperty(CONFIG_ACCOUNT_STORE, ACCOUNT_STORE_MAP)) {
+			case ACCOUNT_STORE_MAP:
+				return new MapAccountStore(defaultBalance);
+			case ACCOUNT_STORE_COMPACT:
+				return new CompactAccountStore(defaultBalance);
+			case ACCOUNT_STORE_MAPPED:
+				return openMappedAccountStore(defaultBalance);
+			default:
+				throw invalidConfigEntry(CONFIG_ACCOUNT_STORE);
+		}
+	}
+
+	/**
+	 * Opens the mapped account store in the configured file. Balances in the file are already up to date,
+	 * so replaying the journal on top of them would apply everything twice - the journal has to be disabled.
+	 */
+	private static AccountStore openMappedAccountStore(final long defaultBalance) throws IOException {
+		final String file = CONFIG.getProperty(CONFIG_ACCOUNT_STORE_FILE, "").trim();
+		if (file.isEmpty()) {
+			throw missingConfigEntry(CONFIG_ACCOUNT_STORE_FILE);
+		}
+		if (!CONFIG.getProperty(CONFIG_JOURNAL_DIRECTORY, "").trim().isEmpty()) {
+			throw new RuntimeException(String.format("%s=%s can't be used with %s.", CONFIG_ACCOUNT_STORE,
+					ACCOUNT_STORE_MAPPED, CONFIG_JOURNAL_DIRECTORY));
+		}
+		final long start = System.nanoTime();
+		final MappedAccountStore store = MappedAccountStore.open(Path.of(file), defaultBalance);
+		log.info("Opened {} accounts from {} in {} ms.", store.size(), file,
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> closeAccountStore(store)));
+		return store;
+	}
+
+	private static void closeAccountStore(final MappedAccountStore store) {
+		try {
+			store.close();
+		} catch (final IOException e) {
+			log.error("Could not close account store: {}", e.getMessage());
+		}
+	}
+
+	private static TransactionHistory createTransactionHistory() {
+		final long size = getLongConfigEntry(CONFIG_ACCOUNT_HISTORY_SIZE, DEFAULT_ACCOUNT_HISTORY_SIZE);
+		if (size < 0 || size > 1024) {
+			throw invalidConfigEntry(CONFIG_ACCOUNT_HISTORY_SIZE);
+		}
+		return size == 0 ? TransactionHistory.NONE : new TransactionHistory((int) size);
+	}
+
+	private static ChangeFeed createChangeFeed() {
+		final long size = getLongConfigEntry(CONFIG_ACCOUNT_CHANGES_SIZE, DEFAULT_ACCOUNT_CHANGES_SIZE);
+		if (size < 0 || size > 1 << 24) {
+			throw invalidConfigEntry(CONFIG_ACCOUNT_CHANGES_SIZE);
+		}
+		return size == 0 ? ChangeFeed.NONE : new ChangeFeed((int) size);
+	}
+
+	private static PaymentEngine createPaymentEngine(final AccountDao accountDao, final Journal journal) {
+		switch (CONFIG.getProperty(CONFIG_PAYMENT_ENGINE, PAYMENT_ENGINE_CAS)) {
+			case PAYMENT_ENGINE_CAS:
+				return new CasPaymentEngine(accountDao, journal);
+			case PAYMENT_ENGINE_RING:
+				final long size = getLongConfigEntry(CONFIG_PAYMENT_RING_SIZE, DEFAULT_PAYMENT_RING_SIZE);
+				if (size < 4 || size > 1 << 30 || Long.bitCount(size) != 1) {
+					throw invalidConfigEntry(CONFIG_PAYMENT_RING_SIZE);
+				}
+				return new RingBufferPaymentEngine(accountDao, journal, (int) size);
+			case PAYMENT_ENGINE_PARTITIONED:
+				final long shards = getLongConfigEntry(CONFIG_PAYMENT_SHARDS, 0);
+				if (shards < 0 || shards > 1024) {
+					throw invalidConfigEntry(CONFIG_PAYMENT_SHARDS);
+				}
+				return new PartitionedPaymentEngine(accountDao, journal,
+						shards == 0 ? Runtime.getRuntime().availableProcessors() : (int) shards);
+			case PAYMENT_ENGINE_LOCKS:
+				return new StripedLockPaymentEngine(accountDao, journal);
+			case PAYMENT_ENGINE_OPTIMISTIC:
+				return new OptimisticPaymentEngine(accountDao, journal);
+			default:
+				throw invalidConfigEntry(CONFIG_PAYMENT_ENGINE);
+		}
+	}
+
+	private static void closeJournal(final Snapshotter snapshotter, final FileJournal journal) {
+		try {
+			snapshotter.close();
+			journal.close();
+		} catch (final IOException e) {
+			log.error("Could not close journal: {}", e.getMessage());
+		}
 	}
 
 	private static long getDefaultBalance() {
@@ -56,6 +460,22 @@ public class App {
 		}
 	}
 
+	private static Durability getJournalDurability() {
+		try {
+			return Durability.parse(CONFIG.getProperty(CONFIG_JOURNAL_DURABILITY, Durability.BATCHED.name()));
+		} catch (final IllegalArgumentException e) {
+			throw invalidConfigEntry(CONFIG_JOURNAL_DURABILITY);
+		}
+	}
+
+	private static long getLongConfigEntry(final String entry, final long defaultValue) {
+		try {
+			return Long.parseLong(CONFIG.getProperty(entry, Long.toString(defaultValue)).trim());
+		} catch (final NumberFormatException e) {
+			throw invalidConfigEntry(entry);
+		}
+	}
+
 	private static int getServerPort() {
 		try {
 			return Integer.parseInt(CONFIG.get(CONFIG_PORT).toString());
@@ -64,6 +484,22 @@ public class App {
 		}
 	}
 
+	private static int getMaxBatchSize() {
+		final long size = getLongConfigEntry(CONFIG_PAYMENT_BATCH_MAX, DEFAULT_PAYMENT_BATCH_MAX);
+		if (size <= 0 || size > Integer.MAX_VALUE) {
+			throw invalidConfigEntry(CONFIG_PAYMENT_BATCH_MAX);
+		}
+		return (int) size;
+	}
+
+	private static int getChangesSubscribers() {
+		final long subscribers = getLongConfigEntry(CONFIG_ACCOUNT_CHANGES_SUBSCRIBERS, DEFAULT_ACCOUNT_CHANGES_SUBSCRIBERS);
+		if (subscribers <= 0 || subscribers > Integer.MAX_VALUE) {
+			throw invalidConfigEntry(CONFIG_ACCOUNT_CHANGES_SUBSCRIBERS);
+		}
+		return (int) subscribers;
+	}
+
 	private static RuntimeException invalidConfigEntry(final String entry) {
 		return new RuntimeException(String.format("Invalid format of %s configuration entry.", entry));
 	}
@@ -80,6 +516,36 @@ public class App {
 		}
 	}
 
+	/**
+	 * Opens the journal in the configured directory, restoring accounts from the newest snapshot
+	 * and journal entries written after it. Also starts taking snapshots in the background.
+	 * Returns no-op journal if journal directory is not configured.
+	 */
+	private static Journal openJournal(final AccountStore accountStore) throws IOException {
+		final String directory = CONFIG.getProperty(CONFIG_JOURNAL_DIRECTORY, "").trim();
+		if (directory.isEmpty()) {
+			return Journal.NONE;
+		}
+		final long start = System.nanoTime();
+		final Path path = Path.of(directory);
+		Files.createDirectories(path);
+		final JournalReplayer replayer = new JournalReplayer(accountStore);
+		final long snapshotPosition = Snapshots.loadNewest(path, replayer);
+		final long snapshotAccounts = replayer.getEntries();
+		final long segmentSize = getLongConfigEntry(CONFIG_JOURNAL_SEGMENT_SIZE, DEFAULT_JOURNAL_SEGMENT_SIZE) << 20;
+		final FileJournal journal = FileJournal.open(path, getJournalDurability(), segmentSize, snapshotPosition, replayer);
+		log.info("Recovered {} accounts from snapshot at position {} and {} journal entries in {} ms.", snapshotAccounts,
+				snapshotPosition, replayer.getEntries() - snapshotAccounts, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+		final Snapshotter snapshotter = new Snapshotter(path, journal);
+		final long snapshotInterval = getLongConfigEntry(CONFIG_SNAPSHOT_INTERVAL, DEFAULT_SNAPSHOT_INTERVAL);
+		if (snapshotInterval > 0) {
+			snapshotter.start(snapshotInterval, TimeUnit.SECONDS);
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> closeJournal(snapshotter, journal)));
+		return journal;
+	}
+
 	private static RuntimeException missingConfigEntry(final String entry) {
 		return new RuntimeException(String.format(MISSING_CONFIGURATION_ENTRY, entry));
 	}
@@ -0,0 +1,176 @@
+package pl.com.salsoft.exercise2.binary;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.NonNull;
+import pl.com.salsoft.exercise2.model.Account;
+import pl.com.salsoft.exercise2.model.PaymentRequest;
+import pl.com.salsoft.exercise2.model.PaymentResult;
+
+/**
+ * Blocking client of the binary payment protocol (see BinaryProtocol). Not thread-safe - every thread
+ * should use its own client. Account numbers have to be numeric.
+ */
+public class BinaryClient implements Closeable {
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int REQUEST_LENGTH = BinaryProtocol.HEADER_LENGTH + BinaryProtocol.PAYMENT_LENGTH;
+
+	private final SocketChannel channel;
+	private final ByteBuffer output = ByteBuffer.allocate(BUFFER_SIZE);
+	private final ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE);
+	private int nextId;
+
+	/**
+	 * Connects to the server.
+	 * @param host Host of the server. Cannot be null.
+	 * @param port Port of the binary protocol listener.
+	 * @throws UncheckedIOException if the connection could not be established.
+	 */
+	public BinaryClient(@NonNull final String host, final int port) {
+		try {
+			channel = SocketChannel.open(new InetSocketAddress(host, port));
+			channel.socket().setTcpNoDelay(true);
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		input.flip();
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Makes a payment. See PaymentService.newPayment().
+	 * @param source Source account number.
+	 * @param target Target account number.
+	 * @param amount Amount in the long representation (cents).
+	 * @return Result of the payment. Never null.
+	 * @throws IllegalStateException if the server could not process the request.
+	 * @throws UncheckedIOException if the connection failed.
+	 */
+	public PaymentResult newPayment(final long source, final long target, final long amount) {
+		final int id = sendPayment(source, target, amount);
+		flush();
+		return readPaymentResult(id, source);
+	}
+
+	/**
+	 * Makes payments with pipelining - all requests are sent before the first response is read.
+	 * @param payments Payment requests. Account numbers have to be numeric.
+	 * @return Results of the requests, in the same order as the requests. Never null.
+	 * @throws IllegalStateException if the server could not process any of the requests.
+	 * @throws UncheckedIOException if the connection failed.
+	 */
+	public List<PaymentResult> newPayments(@NonNull final List<PaymentRequest> payments) {
+		final int firstId = nextId;
+		for (final PaymentRequest payment : payments) {
+			if (output.remaining() < REQUEST_LENGTH) {
+				flush();
+			}
+			sendPayment(Long.parseLong(payment.getSourceAccount()), Long.parseLong(payment.getTargetAccount()),
+					payment.getAmount());
+		}
+		flush();
+		final List<PaymentResult> results = new ArrayList<>(payments.size());
+		for (int i = 0; i < payments.size(); i++) {
+			results.add(readPaymentResult(firstId + i, Long.parseLong(payments.get(i).getSourceAccount())));
+		}
+		return results;
+	}
+
+	/**
+	 * Looks an account up. See AccountService.getAccount().
+	 * @param number Account number.
+	 * @return Account, or empty if there is no such account.
+	 * @throws IllegalStateException if the server could not process the request.
+	 * @throws UncheckedIOException if the connection failed.
+	 */
+	public Optional<Account> getAccount(final long number) {
+		final int id = nextId++;
+		BinaryProtocol.writeHeader(output, BinaryProtocol.GET_ACCOUNT_LENGTH, BinaryProtocol.GET_ACCOUNT, id);
+		output.putLong(number);
+		flush();
+		final byte status = readResponse(id);
+		if (status == BinaryProtocol.NOT_FOUND) {
+			return Optional.empty();
+		}
+		return Optional.of(Account.builder()
+				.number(Long.toString(input.getLong()))
+				.balance(new AtomicLong(input.getLong()))
+				.build());
+	}
+
+	private int sendPayment(final long source, final long target, final long amount) {
+		final int id = nextId++;
+		BinaryProtocol.writeHeader(output, BinaryProtocol.PAYMENT_LENGTH, BinaryProtocol.PAYMENT, id);
+		output.putLong(source);
+		output.putLong(target);
+		output.putLong(amount);
+		return id;
+	}
+
+	private PaymentResult readPaymentResult(final int id, final long source) {
+		readResponse(id);
+		return BinaryProtocol.readPaymentResult(input, source);
+	}
+
+	/**
+	 * Reads the next response into the input buffer and checks its header. Payload is left in the buffer.
+	 * @return Status of the response, OK or NOT_FOUND.
+	 */
+	private byte readResponse(final int id) {
+		fill(4);
+		final int length = input.getInt();
+		fill(length);
+		final byte status = input.get();
+		final int responseId = input.getInt();
+		if (responseId != id) {
+			throw new IllegalStateException("Unexpected response id " + responseId + ", expected " + id + ".");
+		}
+		if (status == BinaryProtocol.ERROR) {
+			throw new IllegalStateException("Server could not process request " + id + ".");
+		}
+		return status;
+	}
+
+	private void fill(final int length) {
+		try {
+			if (input.remaining() >= length) {
+				return;
+			}
+			input.compact();
+			while (input.position() < length) {
+				if (channel.read(input) < 0) {
+					throw new EOFException("Connection closed by the server.");
+				}
+			}
+			input.flip();
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void flush() {
+		try {
+			output.flip();
+			while (output.hasRemaining()) {
+				channel.write(output);
+			}
+			output.clear();
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
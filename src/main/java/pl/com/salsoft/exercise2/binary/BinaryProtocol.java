@@ -0,0 +1,141 @@
+package pl.com.salsoft.exercise2.binary;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+
+import pl.com.salsoft.exercise2.model.Account;
+import pl.com.salsoft.exercise2.model.PaymentResult;
+import pl.com.salsoft.exercise2.rest.ErrorMessages;
+import pl.com.salsoft.exercise2.utils.BigDecimalUtils;
+
+/**
+ * Constants and encoding of the binary payment protocol, shared by BinaryServer and BinaryClient.
+ *
+ * Every frame (in both directions) starts with its length (int, not counting the length itself), followed by
+ * a one-byte code and a request id (int) chosen by the client and echoed in the response. All numbers are
+ * big-endian. Account numbers are longs (their decimal text is the account number used by the REST API)
+ * and amounts are longs in cents.
+ *
+ * Requests (code is the operation):
+ * - PAYMENT: source account (long), target account (long), amount (long).
+ *   Maps to PaymentService.newPayment().
+ * - GET_ACCOUNT: account (long). Maps to AccountService.getAccount().
+ *
+ * Responses (code is the status):
+ * - OK to PAYMENT: success (byte 0/1), source account balance (long), reason (byte, one of REASON_*).
+ * - OK to GET_ACCOUNT: account (long), balance (long).
+ * - NOT_FOUND to GET_ACCOUNT: no payload.
+ * - ERROR to anything: no payload. Request could not be processed (unknown operation, malformed payload,
+ *   or internal error).
+ *
+ * Clients may send many requests without waiting for responses (pipelining). Responses of a single connection
+ * are sent in the order of the requests.
+ */
+public final class BinaryProtocol {
+	public static final byte PAYMENT = 1;
+	public static final byte GET_ACCOUNT = 2;
+
+	public static final byte OK = 0;
+	public static final byte NOT_FOUND = 1;
+	public static final byte ERROR = 2;
+
+	public static final byte REASON_NONE = 0;
+	public static final byte REASON_INSUFFICIENT_FUNDS = 1;
+	public static final byte REASON_INVALID_AMOUNT = 2;
+	public static final byte REASON_OTHER = 3;
+
+	/**
+	 * Length of the frame header: length, code and request id.
+	 */
+	public static final int HEADER_LENGTH = 4 + 1 + 4;
+	public static final int PAYMENT_LENGTH = 3 * 8;
+	public static final int GET_ACCOUNT_LENGTH = 8;
+	public static final int PAYMENT_RESULT_LENGTH = 1 + 8 + 1;
+	public static final int ACCOUNT_LENGTH = 2 * 8;
+
+	/**
+	 * Frames longer than that (frame length field) are rejected and the connection is closed.
+	 */
+	public static final int MAX_FRAME_LENGTH = 1024;
+
+	private BinaryProtocol() {
+	}
+
+	/**
+	 * Writes frame header.
+	 * @param buffer Buffer to write to.
+	 * @param payloadLength Length of the payload following the header.
+	 * @param code Operation or status.
+	 * @param id Request id.
+	 */
+	public static void writeHeader(final ByteBuffer buffer, final int payloadLength, final byte code, final int id) {
+		buffer.putInt(HEADER_LENGTH - 4 + payloadLength);
+		buffer.put(code);
+		buffer.putInt(id);
+	}
+
+	/**
+	 * Writes payment result as payload.
+	 * @param buffer Buffer to write to.
+	 * @param result Result to write.
+	 */
+	public static void writePaymentResult(final ByteBuffer buffer, final PaymentResult result) {
+		buffer.put((byte) (Boolean.TRUE.equals(result.getSuccess()) ? 1 : 0));
+		buffer.putLong(result.getBalance() == null ? 0 : BigDecimalUtils.fromPrice(result.getBalance()));
+		buffer.put(reason(result.getMessage()));
+	}
+
+	/**
+	 * Reads payment result payload.
+	 * @param buffer Buffer to read from.
+	 * @param accountNumber Source account number of the payment.
+	 * @return Payment result. Never null.
+	 */
+	public static PaymentResult readPaymentResult(final ByteBuffer buffer, final long accountNumber) {
+		final boolean success = buffer.get() != 0;
+		final BigDecimal balance = BigDecimalUtils.toPrice(buffer.getLong());
+		return PaymentResult.builder()
+				.accountNumber(Long.toString(accountNumber))
+				.balance(balance)
+				.success(success)
+				.message(message(buffer.get()))
+				.build();
+	}
+
+	/**
+	 * Writes account as payload.
+	 * @param buffer Buffer to write to.
+	 * @param account Account to write. Its number has to be numeric.
+	 */
+	public static void writeAccount(final ByteBuffer buffer, final Account account) {
+		buffer.putLong(Long.parseLong(account.getNumber()));
+		buffer.putLong(account.readBalance());
+	}
+
+	private static byte reason(final String message) {
+		if (message == null) {
+			return REASON_NONE;
+		}
+		switch (message) {
+			case ErrorMessages.INSUFFICIENT_FUNDS_MESSAGE:
+				return REASON_INSUFFICIENT_FUNDS;
+			case ErrorMessages.INVALID_AMOUNT_MESSAGE:
+				return REASON_INVALID_AMOUNT;
+			default:
+				return REASON_OTHER;
+		}
+	}
+
+	private static String message(final byte reason) {
+		switch (reason) {
+			case REASON_NONE:
+				return null;
+			case REASON_INSUFFICIENT_FUNDS:
+				return ErrorMessages.INSUFFICIENT_FUNDS_MESSAGE;
+			case REASON_INVALID_AMOUNT:
+				return ErrorMessages.INVALID_AMOUNT_MESSAGE;
+			default:
+				return "Payment failed.";
+		}
+	}
+}
@@ -0,0 +1,398 @@
+package pl.com.salsoft.exercise2.binary;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lombok.NonNull;
+import pl.com.salsoft.exercise2.Initializable;
+import pl.com.salsoft.exercise2.model.Account;
+import pl.com.salsoft.exercise2.model.PaymentRequest;
+import pl.com.salsoft.exercise2.model.PaymentResult;
+import pl.com.salsoft.exercise2.service.AccountService;
+import pl.com.salsoft.exercise2.service.PaymentService;
+
+/**
+ * Listener of the binary payment protocol (see BinaryProtocol), running alongside the REST API.
+ *
+ * A single selector thread accepts connections, reads frames and writes responses with non-blocking NIO.
+ * Decoded requests are handed to a pool of worker threads, since payments block until they are durable.
+ * Requests of one connection are processed one after another by at most one worker at a time, so responses
+ * keep the order of requests and a client can pipeline as many requests as it wants. If too many requests
+ * of a connection are waiting, the selector stops reading from it until the worker catches up. It also stops
+ * reading while too many response bytes are waiting to be sent (a client pipelining requests but not reading
+ * responses), until the socket takes them, so memory held by a connection stays bounded.
+ */
+public class BinaryServer implements Initializable, Closeable {
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+	private static final int MAX_PENDING_REQUESTS = 4096;
+	private static final int MAX_OUTPUT_BYTES = 1024 * 1024;
+
+	private final Logger log = LoggerFactory.getLogger(BinaryServer.class);
+	private final PaymentService paymentService;
+	private final AccountService accountService;
+	private final int port;
+	private final ExecutorService workers;
+	private final Queue<Connection> changed = new ConcurrentLinkedQueue<>();
+	private Selector selector;
+	private ServerSocketChannel serverChannel;
+	private Thread selectorThread;
+	private volatile boolean running = true;
+
+	/**
+	 * Creates the server. It starts listening once initialized.
+	 * @param paymentService Payment service to handle payments. Cannot be null.
+	 * @param accountService Account service to look accounts up. Cannot be null.
+	 * @param port Port to listen on. 0 picks any free port (see getPort()).
+	 * @param workers Number of worker threads. Has to be greater than 0.
+	 */
+	public BinaryServer(@NonNull final PaymentService paymentService, @NonNull final AccountService accountService,
+			final int port, final int workers) {
+		if (workers <= 0) {
+			throw new IllegalArgumentException("Number of workers has to be greater than 0.");
+		}
+		this.paymentService = paymentService;
+		this.accountService = accountService;
+		this.port = port;
+		final AtomicInteger threads = new AtomicInteger();
+		this.workers = Executors.newFixedThreadPool(workers, runnable -> {
+			final Thread thread = new Thread(runnable, "binary-worker-" + threads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Opens the listening socket and starts the selector thread.
+	 */
+	@Override
+	public void init() {
+		try {
+			selector = Selector.open();
+			serverChannel = ServerSocketChannel.open();
+			serverChannel.bind(new InetSocketAddress(port));
+			serverChannel.configureBlocking(false);
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (final IOException e) {
+			throw new UncheckedIOException("Could not open binary protocol listener.", e);
+		}
+		selectorThread = new Thread(this::run, "binary-selector");
+		selectorThread.setDaemon(true);
+		selectorThread.start();
+		log.info("Binary protocol listening on port {}.", getPort());
+	}
+
+	/**
+	 * @return Port the server listens on.
+	 */
+	public int getPort() {
+		return serverChannel.socket().getLocalPort();
+	}
+
+	/**
+	 * Stops the selector thread and closes all connections. Requests being processed are finished,
+	 * but their responses are not sent.
+	 */
+	@Override
+	public void close() throws IOException {
+		running = false;
+		selector.wakeup();
+		try {
+			selectorThread.join();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		workers.shutdown();
+	}
+
+	private void run() {
+		try {
+			while (running) {
+				selector.select();
+				applyChanges();
+				final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					final SelectionKey key = keys.next();
+					keys.remove();
+					handle(key);
+				}
+			}
+		} catch (final IOException | ClosedSelectorException e) {
+			log.error("Binary protocol listener failed: {}", e.getMessage());
+		} finally {
+			closeAll();
+		}
+	}
+
+	private void handle(final SelectionKey key) {
+		if (!key.isValid()) {
+			return;
+		}
+		if (key.isAcceptable()) {
+			accept();
+			return;
+		}
+		final Connection connection = (Connection) key.attachment();
+		try {
+			if (key.isReadable()) {
+				connection.read();
+			}
+			if (key.isValid() && key.isWritable()) {
+				connection.write();
+			}
+		} catch (final IOException | RuntimeException e) {
+			log.debug("Closing binary protocol connection: {}", e.getMessage());
+			connection.close();
+		}
+	}
+
+	private void accept() {
+		try {
+			final SocketChannel channel = serverChannel.accept();
+			if (channel == null) {
+				return;
+			}
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			final Connection connection = new Connection(channel);
+			connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+		} catch (final IOException e) {
+			log.error("Could not accept binary protocol connection: {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * Applies changes requested by workers: new responses to write and reading resumed (see Connection.write()).
+	 */
+	private void applyChanges() {
+		Connection connection;
+		while ((connection = changed.poll()) != null) {
+			if (!connection.key.isValid()) {
+				continue;
+			}
+			try {
+				connection.write();
+			} catch (final IOException e) {
+				connection.close();
+			}
+		}
+	}
+
+	private void closeAll() {
+		for (final SelectionKey key : selector.keys()) {
+			try {
+				key.channel().close();
+			} catch (final IOException e) {
+				log.debug("Could not close channel: {}", e.getMessage());
+			}
+		}
+		try {
+			selector.close();
+		} catch (final IOException e) {
+			log.debug("Could not close selector: {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * Single client connection. Input is accessed only by the selector thread, requests are queued
+	 * for the worker, and output is shared under its own lock.
+	 */
+	private final class Connection {
+		private final SocketChannel channel;
+		private final ByteBuffer input = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		private final Queue<Request> requests = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger pending = new AtomicInteger();
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+		private ByteBuffer output = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		private SelectionKey key;
+
+		private Connection(final SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		private void read() throws IOException {
+			if (channel.read(input) < 0) {
+				close();
+				return;
+			}
+			input.flip();
+			while (input.remaining() >= 4) {
+				final int length = input.getInt(input.position());
+				if (length < BinaryProtocol.HEADER_LENGTH - 4 || length > BinaryProtocol.MAX_FRAME_LENGTH) {
+					throw new IOException("Invalid frame length: " + length);
+				}
+				if (input.remaining() < 4 + length) {
+					break;
+				}
+				final int end = input.position() + 4 + length;
+				input.getInt();
+				requests.add(Request.decode(input, length - (BinaryProtocol.HEADER_LENGTH - 4)));
+				input.position(end);
+				pending.incrementAndGet();
+			}
+			input.compact();
+			if (!canRead()) {
+				key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+			}
+			schedule();
+		}
+
+		private void schedule() {
+			if (!requests.isEmpty() && scheduled.compareAndSet(false, true)) {
+				workers.execute(this::process);
+			}
+		}
+
+		/**
+		 * Runs in a worker thread. Processes all waiting requests, then hands the responses to the selector.
+		 */
+		private void process() {
+			Request request;
+			while ((request = requests.poll()) != null) {
+				respond(request);
+				pending.decrementAndGet();
+			}
+			scheduled.set(false);
+			changed.add(this);
+			selector.wakeup();
+			// Requests added after the queue was found empty, but before the flag was cleared.
+			schedule();
+		}
+
+		private void respond(final Request request) {
+			try {
+				switch (request.operation) {
+					case BinaryProtocol.PAYMENT:
+						final PaymentResult result = paymentService.newPayment(PaymentRequest.builder()
+								.sourceAccount(Long.toString(request.source))
+								.targetAccount(Long.toString(request.target))
+								.amount(request.amount)
+								.build());
+						synchronized (this) {
+							final ByteBuffer buffer = reserve(BinaryProtocol.HEADER_LENGTH + BinaryProtocol.PAYMENT_RESULT_LENGTH);
+							BinaryProtocol.writeHeader(buffer, BinaryProtocol.PAYMENT_RESULT_LENGTH, BinaryProtocol.OK, request.id);
+							BinaryProtocol.writePaymentResult(buffer, result);
+						}
+						return;
+					case BinaryProtocol.GET_ACCOUNT:
+						final Optional<Account> account = accountService.getAccount(Long.toString(request.source));
+						synchronized (this) {
+							if (account.isEmpty()) {
+								writeStatus(BinaryProtocol.NOT_FOUND, request.id);
+								return;
+							}
+							final ByteBuffer buffer = reserve(BinaryProtocol.HEADER_LENGTH + BinaryProtocol.ACCOUNT_LENGTH);
+							BinaryProtocol.writeHeader(buffer, BinaryProtocol.ACCOUNT_LENGTH, BinaryProtocol.OK, request.id);
+							BinaryProtocol.writeAccount(buffer, account.get());
+						}
+						return;
+					default:
+						synchronized (this) {
+							writeStatus(BinaryProtocol.ERROR, request.id);
+						}
+				}
+			} catch (final RuntimeException e) {
+				log.error("Error while handling binary request {}: {}", request.operation, e.getMessage());
+				synchronized (this) {
+					writeStatus(BinaryProtocol.ERROR, request.id);
+				}
+			}
+		}
+
+		private void writeStatus(final byte status, final int id) {
+			BinaryProtocol.writeHeader(reserve(BinaryProtocol.HEADER_LENGTH), 0, status, id);
+		}
+
+		/**
+		 * Makes room in the output buffer. Has to be called under the connection lock.
+		 */
+		private ByteBuffer reserve(final int length) {
+			if (output.remaining() < length) {
+				final ByteBuffer grown = ByteBuffer.allocate(Math.max(output.capacity() * 2, output.position() + length));
+				output.flip();
+				grown.put(output);
+				output = grown;
+			}
+			return output;
+		}
+
+		/**
+		 * Checks if the connection is below limits of waiting requests and responses, so more requests can be read.
+		 * Responses added later by the worker are bounded by the waiting requests.
+		 */
+		private synchronized boolean canRead() {
+			return pending.get() < MAX_PENDING_REQUESTS && output.position() < MAX_OUTPUT_BYTES;
+		}
+
+		/**
+		 * Runs in the selector thread. Writes as much of the output as the socket takes, and waits for the socket
+		 * to be writable if something is left. Reading is resumed once the connection is below its limits again.
+		 */
+		private synchronized void write() throws IOException {
+			output.flip();
+			channel.write(output);
+			final boolean remaining = output.hasRemaining();
+			output.compact();
+			int ops = key.interestOps();
+			ops = remaining ? ops | SelectionKey.OP_WRITE : ops & ~SelectionKey.OP_WRITE;
+			ops = canRead() ? ops | SelectionKey.OP_READ : ops & ~SelectionKey.OP_READ;
+			key.interestOps(ops);
+		}
+
+		private void close() {
+			key.cancel();
+			requests.clear();
+			try {
+				channel.close();
+			} catch (final IOException e) {
+				log.debug("Could not close channel: {}", e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Decoded request. Fields not used by the operation are 0.
+	 */
+	private static final class Request {
+		private byte operation;
+		private int id;
+		private long source;
+		private long target;
+		private long amount;
+
+		private static Request decode(final ByteBuffer buffer, final int payloadLength) {
+			final Request request = new Request();
+			request.operation = buffer.get();
+			request.id = buffer.getInt();
+			if (request.operation == BinaryProtocol.PAYMENT && payloadLength == BinaryProtocol.PAYMENT_LENGTH) {
+				request.source = buffer.getLong();
+				request.target = buffer.getLong();
+				request.amount = buffer.getLong();
+			} else if (request.operation == BinaryProtocol.GET_ACCOUNT && payloadLength == BinaryProtocol.GET_ACCOUNT_LENGTH) {
+				request.source = buffer.getLong();
+			} else {
+				// Unknown operation or malformed payload - answered with ERROR.
+				request.operation = 0;
+			}
+			return request;
+		}
+	}
+}
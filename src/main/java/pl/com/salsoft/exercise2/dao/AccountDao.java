@@ -1,41 +1,193 @@
 package pl.com.salsoft.exercise2.dao;
 
-import java.util.Collection;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 import lombok.NonNull;
 import pl.com.salsoft.exercise2.model.Account;
 
 /**
  * Registry of active accounts with their number and balance.
- * There is no dedicated method just to create/insert account.
- * Accounts are created with getOrCreate() method.
- * Newly created accounts have default balance of 100.
+ * Accounts are created with getOrCreate() method, with default balance of 100.
+ * Only bulk import creates accounts with a balance of its own, with create() method.
+ * Accounts are physically kept by the AccountStore passed to the constructor.
+ * Account creations and deletions are recorded in the journal (if one is provided).
+ * All balance changes have to be done in a scope of getEpochs(), so getAll() can return a consistent cut.
+ * Payment engines record applied transfers in getHistory(). History of an account is forgotten when it's deleted.
+ * Versions of accounts (getVersions()) are changed and the change feed (getChanges()) is fed here when accounts
+ * are created or deleted, and by PaymentService when balances are changed.
+ * Storage of deleted accounts is released to the store (AccountStore.reclaim()) by completeDeletions(),
+ * once no operation which could have found them is running.
  */
 public class AccountDao {
-	private final long defaultBalance;
-	private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+	private final AccountStore store;
+	private final Journal journal;
+	private final TransactionHistory history;
+	private final ChangeFeed changes;
+	private final Epochs epochs = new Epochs();
+	private final AccountVersions versions = new AccountVersions();
+	private final LongAdder created = new LongAdder();
+	private final Queue<Account> retired = new ConcurrentLinkedQueue<>();
 
 	/**
 	 * Creates account DAO with predefined default value of initial account balance
-	 * for bewly created accounts.
+	 * for bewly created accounts. Accounts are kept in the default MapAccountStore.
 	 * @param defaultBalance Default balance for new accounts.
 	 */
 	public AccountDao(final long defaultBalance) {
-		this.defaultBalance = defaultBalance;
+		this(new MapAccountStore(defaultBalance));
+	}
+
+	/**
+	 * Creates account DAO on top of given storage engine.
+	 * @param store Account store to keep accounts in. Cannot be null.
+	 */
+	public AccountDao(@NonNull final AccountStore store) {
+		this(store, Journal.NONE);
+	}
+
+	/**
+	 * Creates account DAO on top of given storage engine, recording changes in given journal.
+	 * @param store Account store to keep accounts in. Cannot be null.
+	 * @param journal Journal to record account creations and deletions in. Cannot be null.
+	 */
+	public AccountDao(@NonNull final AccountStore store, @NonNull final Journal journal) {
+		this(store, journal, TransactionHistory.NONE);
+	}
+
+	/**
+	 * Creates account DAO on top of given storage engine, recording changes in given journal
+	 * and keeping history of transfers.
+	 * @param store Account store to keep accounts in. Cannot be null.
+	 * @param journal Journal to record account creations and deletions in. Cannot be null.
+	 * @param history History of transfers of accounts. Cannot be null.
+	 */
+	public AccountDao(@NonNull final AccountStore store, @NonNull final Journal journal,
+			@NonNull final TransactionHistory history) {
+		this(store, journal, history, ChangeFeed.NONE);
+	}
+
+	/**
+	 * Creates account DAO on top of given storage engine, recording changes in given journal,
+	 * keeping history of transfers and feeding changes of accounts to given feed.
+	 * @param store Account store to keep accounts in. Cannot be null.
+	 * @param journal Journal to record account creations and deletions in. Cannot be null.
+	 * @param history History of transfers of accounts. Cannot be null.
+	 * @param changes Feed of changes of accounts. Cannot be null.
+	 */
+	public AccountDao(@NonNull final AccountStore store, @NonNull final Journal journal,
+			@NonNull final TransactionHistory history, @NonNull final ChangeFeed changes) {
+		this.store = store;
+		this.journal = journal;
+		this.history = history;
+		this.changes = changes;
+	}
+
+	/**
+	 * Creates an account with given balance, unless account with such number already exists (its balance is
+	 * left unchanged then). This operation is thread-safe. Used by bulk import, so it's not counted
+	 * in getCreatedCount(). Creation is appended to the journal, but this method doesn't wait for it to be durable.
+	 * @param number Number of account to create.
+	 * @param balance Balance of the new account.
+	 * @return true if account was created, or false if it already existed.
+	 */
+	public boolean create(@NonNull final String number, final long balance) {
+		final boolean[] creating = new boolean[1];
+		try (Epochs.Scope scope = epochs.enter()) {
+			store.getOrCreate(number, newAccount -> {
+				// Not visible yet, so nothing else can change the balance in between.
+				newAccount.writeBalance(balance);
+				scope.created(newAccount);
+				journal.created(number, balance);
+				creating[0] = true;
+			});
+		}
+		if (creating[0]) {
+			versions.changed(number);
+			changes.created(number);
+		}
+		return creating[0];
 	}
 
 	/**
 	 * Deletes an account from registry. This operation is thread-safe.
+	 * The method returns only once the deletion is durable in the journal. See completeDeletions().
 	 * @param number Number of account to delete.
 	 * @return true if account was deleted, or false if no such account was in the registry.
 	 */
 	public boolean delete(@NonNull final String number) {
-		return accounts.remove(number) != null;
+		if (!deleteNoWait(number)) {
+			return false;
+		}
+		completeDeletions();
+		return true;
+	}
+
+	/**
+	 * Completes deletions made by deleteNoWait() so far: waits until they are durable in the journal, then until
+	 * all operations running at the moment are finished, and releases storage of the deleted accounts to the store.
+	 * Must not be called in a scope of getEpochs() or while holding a lock which a running operation may wait for.
+	 * @throws java.io.UncheckedIOException if the journal could not be written. Deleted accounts are released
+	 *         by the next successful call then.
+	 */
+	public void completeDeletions() {
+		awaitDurable();
+		final List<Account> deleted = new ArrayList<>();
+		for (Account account = retired.poll(); account != null; account = retired.poll()) {
+			deleted.add(account);
+		}
+		if (!deleted.isEmpty()) {
+			epochs.synchronize();
+			deleted.forEach(store::reclaim);
+		}
+	}
+
+	/**
+	 * Blocks until all account creations and deletions made so far are durable in the journal,
+	 * for callers of the methods which don't wait themselves.
+	 * @throws java.io.UncheckedIOException if the journal could not be written.
+	 */
+	public void awaitDurable() {
+		journal.awaitDurable(journal.position());
+	}
+
+	/**
+	 * Deletes an account from registry. This operation is thread-safe.
+	 * Deletion is appended to the journal, but this method doesn't wait for it to be durable.
+	 * Storage of the account is not reused until completeDeletions() is called.
+	 * @param number Number of account to delete.
+	 * @return true if account was deleted, or false if no such account was in the registry.
+	 */
+	public boolean deleteNoWait(@NonNull final String number) {
+		final boolean deleted;
+		try (Epochs.Scope scope = epochs.enter()) {
+			deleted = store.delete(number, account -> {
+				scope.deleted(account);
+				journal.deleted(number);
+				history.deleted(number);
+				retired.add(account);
+			});
+		}
+		if (deleted) {
+			versions.changed(number);
+			changes.deleted(number);
+		}
+		return deleted;
+	}
+
+	/**
+	 * Passes every active account to given action, without collecting them all first. This operation is thread-safe.
+	 * Unlike getAll(), this is not a consistent cut - balances are read while payments are running.
+	 * @param action Action to call for every account. Cannot be null.
+	 */
+	public void forEach(@NonNull final Consumer<Account> action) {
+		store.forEach(action);
 	}
 
 	/**
@@ -44,34 +196,113 @@ public class AccountDao {
 	 * @return Optional of account found, or empty optional if no such account was found.
 	 */
 	public Optional<Account> get(final String number) {
-		return Optional.ofNullable(accounts.get(number));
+		return store.get(number);
 	}
 
 	/**
 	 * Finds all accounts currently active in the application. This operation is thread-safe.
+	 * Accounts are a consistent cut - balances are read as of a single moment, so no transfer is seen half-done
+	 * and the total of all balances is exact. Payments are not blocked while the cut is taken.
+	 * Returned accounts are detached copies, not updated by later payments.
 	 * @return Set of accounts. Could be empty set, but never null.
 	 */
 	public Set<Account> getAll() {
-		final Collection<Account> values = accounts.values();
-		// While it's safe to call values() out of synchronized block,
-		// iterating over the result collection should already be done inside of such block.
-		// That's what Java documentation states.
-		synchronized (accounts) {
-			return Set.copyOf(values);
-		}
+		return epochs.cut(store);
+	}
+
+	/**
+	 * Finds a page of accounts, in the order of account numbers. This operation is thread-safe.
+	 * Unlike getAll(), this is not a consistent cut - balances are read while payments are running.
+	 * @param after Number of the last account of the previous page, or null for the first page.
+	 * @param limit Maximum number of accounts to return. Has to be greater than 0.
+	 * @return Accounts sorted by number. Empty list if there are no more accounts, never null.
+	 */
+	public List<Account> page(final String after, final int limit) {
+		return store.page(after, limit);
+	}
+
+	/**
+	 * Checks if an account with given number can be created. See AccountStore.isSupported().
+	 * @param number Account number to check.
+	 * @return true if the account store supports such number.
+	 */
+	public boolean isSupported(@NonNull final String number) {
+		return store.isSupported(number);
+	}
+
+	/**
+	 * Counts accounts created by getOrCreate() since this DAO was created (not the ones restored from the journal).
+	 * @return Number of created accounts.
+	 */
+	public long getCreatedCount() {
+		return created.sum();
+	}
+
+	/**
+	 * Counts accounts in the registry. See AccountStore.size().
+	 * @return Number of accounts.
+	 */
+	public long size() {
+		return store.size();
+	}
+
+	/**
+	 * Provides epochs in which balance changes have to be done. See Epochs for details.
+	 * @return Epochs of this DAO. Never null.
+	 */
+	public Epochs getEpochs() {
+		return epochs;
+	}
+
+	/**
+	 * Provides history of transfers, recorded by payment engines.
+	 * @return History of this DAO. Never null.
+	 */
+	public TransactionHistory getHistory() {
+		return history;
+	}
+
+	/**
+	 * Provides feed of changes of accounts, fed by this DAO and PaymentService.
+	 * @return Change feed of this DAO. Never null.
+	 */
+	public ChangeFeed getChanges() {
+		return changes;
+	}
+
+	/**
+	 * Provides versions of accounts, for clients checking whether accounts changed.
+	 * @return Versions of this DAO. Never null.
+	 */
+	public AccountVersions getVersions() {
+		return versions;
 	}
 
 	/**
 	 * Finds account with given number in the registry, or creates one if it didn't exist
 	 * and persists it in the registry. Balance of the newly created account is set to the default
 	 * value of 100. This operation is thread-safe.
+	 * Creation is appended to the journal, but this method doesn't wait for it to be durable.
 	 * @param number Account number to find/create.
 	 * @return Found or created account. Never null.
+	 * @throws UnsupportedAccountNumberException if the account store doesn't support such number.
 	 */
 	public Account getOrCreate(final String number) {
-		return accounts.computeIfAbsent(number, key -> Account.builder()
-				.number(number)
-				.balance(new AtomicLong(defaultBalance))
-				.build());
+		final boolean[] creating = new boolean[1];
+		final Account account;
+		try (Epochs.Scope scope = epochs.enter()) {
+			account = store.getOrCreate(number, newAccount -> {
+				created.increment();
+				scope.created(newAccount);
+				journal.created(number, newAccount.readBalance());
+				creating[0] = true;
+			});
+		}
+		// The store calls back before the account is visible.
+		if (creating[0]) {
+			versions.changed(number);
+			changes.created(number);
+		}
+		return account;
 	}
 }
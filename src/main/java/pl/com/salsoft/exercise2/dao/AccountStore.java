@@ -0,0 +1,128 @@
+package pl.com.salsoft.exercise2.dao;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import pl.com.salsoft.exercise2.model.Account;
+
+/**
+ * Storage engine used by AccountDao to keep accounts and their balances.
+ * All implementations have to be thread-safe and follow the contract described in AccountDao.
+ * The engine is selected with the account.store configuration entry.
+ * A store may support only some account numbers (see isSupported()). Numbers it doesn't support are never found
+ * by get() or delete(), and getOrCreate() rejects them.
+ */
+public interface AccountStore {
+	/**
+	 * Removes an account from the store.
+	 * @param number Number of account to delete. Cannot be null.
+	 * @return true if account was deleted, or false if no such account was in the store.
+	 */
+	default boolean delete(final String number) {
+		return delete(number, account -> { });
+	}
+
+	/**
+	 * Removes an account from the store and notifies given callback about it. The callback is called atomically
+	 * with the removal, so no other operation on the same account number can happen in between.
+	 * @param number Number of account to delete. Cannot be null.
+	 * @param onDelete Callback receiving deleted account. Must not access the store.
+	 * @return true if account was deleted, or false if no such account was in the store.
+	 */
+	boolean delete(String number, Consumer<Account> onDelete);
+
+	/**
+	 * Passes every account kept in the store to given action, without copying them all first.
+	 * Iteration is weakly consistent - accounts created or deleted during the iteration may or may not be visited.
+	 * @param action Action to call for every account. Cannot be null.
+	 */
+	default void forEach(final Consumer<Account> action) {
+		getAll().forEach(action);
+	}
+
+	/**
+	 * Finds given number of accounts with numbers following the cursor, in the order of account numbers.
+	 * This default implementation visits all accounts, but keeps only the requested page in memory.
+	 * @param after Number of the last account of the previous page, or null for the first page.
+	 * @param limit Maximum number of accounts to return. Has to be greater than 0.
+	 * @return Accounts sorted by number. Empty list if there are no more accounts, never null.
+	 */
+	default List<Account> page(final String after, final int limit) {
+		final Comparator<Account> byNumber = Comparator.comparing(Account::getNumber);
+		final PriorityQueue<Account> page = new PriorityQueue<>(limit + 1, byNumber.reversed());
+		forEach(account -> {
+			if (after == null || account.getNumber().compareTo(after) > 0) {
+				page.add(account);
+				if (page.size() > limit) {
+					page.poll();
+				}
+			}
+		});
+		final List<Account> result = new ArrayList<>(page);
+		result.sort(byNumber);
+		return result;
+	}
+
+	/**
+	 * Finds account with given number.
+	 * @param number Account number to find. Cannot be null.
+	 * @return Optional of account found, or empty optional if no such account was found.
+	 */
+	Optional<Account> get(String number);
+
+	/**
+	 * Finds all accounts currently kept in the store. Balances are read one by one,
+	 * so they are not a consistent cut if payments are running (see AccountDao.getAll() for that).
+	 * @return Set of accounts. Could be empty set, but never null.
+	 */
+	Set<Account> getAll();
+
+	/**
+	 * Counts accounts kept in the store. While accounts are created or deleted, the count may be slightly off.
+	 * @return Number of accounts.
+	 */
+	long size();
+
+	/**
+	 * Finds account with given number, or creates one with the default balance if it didn't exist.
+	 * @param number Account number to find/create. Cannot be null.
+	 * @return Found or created account. Never null.
+	 * @throws UnsupportedAccountNumberException if the store doesn't support such account number.
+	 */
+	default Account getOrCreate(final String number) {
+		return getOrCreate(number, account -> { });
+	}
+
+	/**
+	 * Finds account with given number, or creates one with the default balance if it didn't exist.
+	 * Creation is notified to given callback before the account is visible to any other caller.
+	 * @param number Account number to find/create. Cannot be null.
+	 * @param onCreate Callback receiving created account. Must not access the store.
+	 * @return Found or created account. Never null.
+	 * @throws UnsupportedAccountNumberException if the store doesn't support such account number.
+	 */
+	Account getOrCreate(String number, Consumer<Account> onCreate);
+
+	/**
+	 * Releases storage of a deleted account, so it can be reused by accounts created later.
+	 * Called only once no operation which could have found the account before its deletion is running,
+	 * and at most once per deletion. This default implementation does nothing.
+	 * @param deleted Account passed to the delete() callback. Cannot be null.
+	 */
+	default void reclaim(final Account deleted) {
+	}
+
+	/**
+	 * Checks if the store can keep an account with given number. This default implementation supports any number.
+	 * @param number Account number to check. Cannot be null.
+	 * @return true if an account with such number can be created.
+	 */
+	default boolean isSupported(final String number) {
+		return true;
+	}
+}
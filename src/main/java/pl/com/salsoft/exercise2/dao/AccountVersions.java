@@ -0,0 +1,60 @@
+package pl.com.salsoft.exercise2.dao;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import lombok.NonNull;
+
+/**
+ * Versions of accounts, letting clients which poll accounts check whether anything changed (ETag).
+ * Version of an account changes whenever its balance changes, and when it's created or deleted.
+ * The global version changes with version of any account.
+ *
+ * A version is changed after the change it stands for is visible. So a version read before reading accounts
+ * never stands for a state newer than the one read - at worst, a change is reported twice.
+ *
+ * Versions of accounts are kept in striped counters (by hash of the number), padded to separate cache lines,
+ * so changes of different accounts don't compete for the same line. Accounts sharing a stripe change each other's
+ * versions, which only makes clients read an unchanged account again. Versions start at the current time
+ * shifted 20 bits left, so versions after a restart are higher than any version given out before
+ * (as long as there were less than a million changes per millisecond).
+ */
+public class AccountVersions {
+	private static final int STRIPES = 1024;
+	private static final int PADDING = 8;
+
+	private final long start = System.currentTimeMillis() << 20;
+	private final AtomicLongArray accounts = new AtomicLongArray(STRIPES * PADDING);
+	private final LongAdder changes = new LongAdder();
+
+	/**
+	 * Changes version of an account and the global version. Has to be called after the change is visible.
+	 * @param number Number of the changed account. Cannot be null.
+	 */
+	public void changed(@NonNull final String number) {
+		accounts.getAndIncrement(stripe(number));
+		changes.increment();
+	}
+
+	/**
+	 * Reads version of an account. Has to be read before the account.
+	 * @param number Number of the account. Cannot be null.
+	 * @return Version of the account.
+	 */
+	public long of(@NonNull final String number) {
+		return start + accounts.get(stripe(number));
+	}
+
+	/**
+	 * Reads version of all accounts. Has to be read before the accounts.
+	 * @return Global version.
+	 */
+	public long global() {
+		return start + changes.sum();
+	}
+
+	private static int stripe(final String number) {
+		final int hash = number.hashCode();
+		return ((hash ^ (hash >>> 16)) & (STRIPES - 1)) * PADDING;
+	}
+}
@@ -0,0 +1,192 @@
+package pl.com.salsoft.exercise2.dao;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+import lombok.NonNull;
+import pl.com.salsoft.exercise2.model.AccountChange;
+
+/**
+ * Global log of account changes (creations, balance changes, deletions), numbered by a single increasing sequence.
+ * Only the most recent changes are kept, in a fixed-size ring of primitive arrays (sequence stamp and type
+ * in a long[], account number in a String[] pointing to the number already held by the request). Recording
+ * a change doesn't allocate and doesn't wake up readers - readers poll the ring. A change is recorded after
+ * it's visible, and it carries no balance: readers read the balance when they pass the change on, so the last
+ * change of an account always leads to its current balance.
+ *
+ * Entries are written the same way as in TransactionHistory: every entry is a seqlock stamped with its sequence
+ * number once it's complete. Unlike the history, readers don't skip entries - they stop at the first entry which
+ * isn't complete yet, and a reader whose next entry was already overwritten has to resync.
+ * Sequence numbers start at the current time shifted 20 bits left, so a reader of a previous run
+ * (or a reader asking for changes older than kept) is told to resync.
+ */
+public class ChangeFeed {
+	/**
+	 * Feed which doesn't record anything. Used when the feed is disabled.
+	 */
+	public static final ChangeFeed NONE = new ChangeFeed(0);
+
+	/**
+	 * Returned by read() if the changes after given sequence number are not kept anymore.
+	 */
+	public static final long BEHIND = -1;
+
+	private static final VarHandle ENTRY = MethodHandles.arrayElementVarHandle(long[].class);
+	private static final VarHandle SEQUENCE;
+	private static final AccountChange.Type[] TYPES = AccountChange.Type.values();
+	private static final int STAMP = 0;
+	private static final int TYPE = 1;
+	private static final int FIELDS = 2;
+
+	static {
+		try {
+			SEQUENCE = MethodHandles.lookup().findVarHandle(ChangeFeed.class, "sequence", long.class);
+		} catch (final ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private final int size;
+	private final int mask;
+	private final long start;
+	private final long[] entries;
+	private final String[] accounts;
+	// Sequence number of the last claimed entry.
+	private volatile long sequence;
+
+	/**
+	 * Passed every change read from the feed.
+	 */
+	@FunctionalInterface
+	public interface Reader {
+		/**
+		 * Receives a change.
+		 * @param sequence Sequence number of the change.
+		 * @param type Kind of change.
+		 * @param number Number of the changed account.
+		 */
+		void change(long sequence, AccountChange.Type type, String number);
+	}
+
+	/**
+	 * Creates feed.
+	 * @param size Number of changes kept. Rounded up to a power of 2. 0 disables the feed.
+	 */
+	public ChangeFeed(final int size) {
+		if (size < 0 || size > 1 << 24) {
+			throw new IllegalArgumentException("Invalid change feed size: " + size);
+		}
+		this.size = size <= 1 ? size : Integer.highestOneBit(size - 1) << 1;
+		this.mask = this.size - 1;
+		this.start = System.currentTimeMillis() << 20;
+		this.entries = new long[this.size * FIELDS];
+		this.accounts = new String[this.size];
+		this.sequence = start;
+	}
+
+	/**
+	 * @return Number of changes kept. 0 if the feed is disabled.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return Sequence number of the last recorded change. Reading from it returns only later changes.
+	 */
+	public long head() {
+		return sequence;
+	}
+
+	/**
+	 * Records creation of an account. Has to be called after the account is visible.
+	 * @param number Number of the account.
+	 */
+	public void created(final String number) {
+		if (size != 0) {
+			record((long) SEQUENCE.getAndAdd(this, 1L) + 1, AccountChange.Type.CREATED, number);
+		}
+	}
+
+	/**
+	 * Records deletion of an account. Has to be called after the account is deleted.
+	 * @param number Number of the account.
+	 */
+	public void deleted(final String number) {
+		if (size != 0) {
+			record((long) SEQUENCE.getAndAdd(this, 1L) + 1, AccountChange.Type.DELETED, number);
+		}
+	}
+
+	/**
+	 * Records balance changes of both accounts of a transfer, with a single claim of two sequence numbers.
+	 * Has to be called after the transfer is applied.
+	 * @param sourceNumber Number of the source account.
+	 * @param targetNumber Number of the target account.
+	 */
+	public void transferred(final String sourceNumber, final String targetNumber) {
+		if (size != 0) {
+			final long number = (long) SEQUENCE.getAndAdd(this, 2L) + 1;
+			record(number, AccountChange.Type.UPDATED, sourceNumber);
+			record(number + 1, AccountChange.Type.UPDATED, targetNumber);
+		}
+	}
+
+	/**
+	 * Reads changes after given sequence number, in order, up to the first change which is still being recorded.
+	 * @param since Sequence number of the last change the reader has seen.
+	 * @param limit Maximum number of changes to read.
+	 * @param reader Reader to pass changes to. Cannot be null.
+	 * @return Sequence number of the last change read (since, if there were none), or BEHIND if the changes
+	 * after since are not kept anymore (or since is not a sequence number of this feed).
+	 */
+	public long read(final long since, final int limit, @NonNull final Reader reader) {
+		final long newest = sequence;
+		if (size == 0 || since < start || since > newest || newest - since > size) {
+			return BEHIND;
+		}
+		long last = since;
+		for (long number = since + 1; number <= newest && number - since <= limit; number++) {
+			final int index = (int) (number & mask);
+			final int entry = index * FIELDS;
+			final long stamp = (long) ENTRY.getAcquire(entries, entry + STAMP);
+			if (Math.abs(stamp) > number) {
+				return BEHIND;
+			}
+			if (stamp != number) {
+				// Still being recorded.
+				break;
+			}
+			final int type = (int) (long) ENTRY.getOpaque(entries, entry + TYPE);
+			final String account = accounts[index];
+			VarHandle.acquireFence();
+			if ((long) ENTRY.getAcquire(entries, entry + STAMP) != number) {
+				return BEHIND;
+			}
+			reader.change(number, TYPES[type], account);
+			last = number;
+		}
+		return last;
+	}
+
+	private void record(final long number, final AccountChange.Type type, final String account) {
+		final int index = (int) (number & mask);
+		final int entry = index * FIELDS;
+		while (true) {
+			final long stamp = (long) ENTRY.getAcquire(entries, entry + STAMP);
+			if (Math.abs(stamp) >= number) {
+				// Lapped by a newer entry. Its reader gets BEHIND.
+				return;
+			}
+			if (stamp < 0) {
+				// Older entry is still being written.
+				Thread.onSpinWait();
+			} else if (ENTRY.compareAndSet(entries, entry + STAMP, stamp, -number)) {
+				break;
+			}
+		}
+		ENTRY.setOpaque(entries, entry + TYPE, (long) type.ordinal());
+		accounts[index] = account;
+		ENTRY.setRelease(entries, entry + STAMP, number);
+	}
+}
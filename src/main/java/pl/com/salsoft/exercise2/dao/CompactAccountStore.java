@@ -0,0 +1,489 @@
+package pl.com.salsoft.exercise2.dao;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+import lombok.NonNull;
+import pl.com.salsoft.exercise2.model.Account;
+
+/**
+ * Memory-compact account store for numeric account numbers (up to 17 digits, leading zeros are preserved).
+ * Other numbers are not supported: they are never found and can't be created.
+ * Instead of keeping String, Account and AtomicLong objects per account, numbers are encoded into a single long
+ * and kept in open-addressing tables, while balances live in chunked long arrays updated with VarHandle CAS.
+ * That's roughly 30 bytes per account, no matter how many accounts there are, and almost nothing for GC to trace.
+ *
+ * The store is split into segments, each guarded by its own read/write lock. The lock protects only the index,
+ * balance updates never take it. Accounts returned by this store are lightweight views, created on each lookup,
+ * so the same number doesn't give the same instance twice (but the views are equal).
+ * Balance slots of deleted accounts go to a per-segment free list once they are reclaimed (see reclaim()),
+ * and are reused by accounts created later. So views are returned only where the caller is known to be done
+ * with them before reclaiming: by getOrCreate() (called in a scope of AccountDao epochs) and getAll() (used
+ * by the cut). get() and forEach() are used without a scope, so they return detached copies instead, with
+ * balances read under the segment lock - they never see a slot of another account.
+ */
+public class CompactAccountStore implements AccountStore {
+	static final int MAX_DIGITS = 17;
+	private static final int LENGTH_SHIFT = 57;
+	private static final long VALUE_MASK = (1L << LENGTH_SHIFT) - 1;
+	private static final long EMPTY = 0L;
+	private static final long DELETED = -1L;
+	private static final int SEGMENT_BITS = 6;
+	private static final int SEGMENT_COUNT = 1 << SEGMENT_BITS;
+	private static final int CHUNK_BITS = 14;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+	private static final int INITIAL_CAPACITY = 16;
+	private static final VarHandle BALANCE = MethodHandles.arrayElementVarHandle(long[].class);
+
+	private final long defaultBalance;
+	private final Segment[] segments = new Segment[SEGMENT_COUNT];
+
+	/**
+	 * Creates the store with predefined initial balance for newly created accounts.
+	 * @param defaultBalance Default balance for new accounts.
+	 */
+	public CompactAccountStore(final long defaultBalance) {
+		this.defaultBalance = defaultBalance;
+		for (int i = 0; i < SEGMENT_COUNT; i++) {
+			segments[i] = new Segment();
+		}
+	}
+
+	@Override
+	public boolean delete(@NonNull final String number, @NonNull final Consumer<Account> onDelete) {
+		final long key = tryEncode(number);
+		if (key == EMPTY) {
+			return false;
+		}
+		final Segment segment = segmentFor(key);
+		return segment.delete(key, record -> onDelete.accept(new CompactAccount(number, segment, record)));
+	}
+
+	@Override
+	public void forEach(@NonNull final Consumer<Account> action) {
+		// Segment is copied under its read lock, so the action (possibly slow, like writing to a client)
+		// never runs while holding the lock. The buffers are reused, so memory is bounded by the largest segment.
+		long[] keys = new long[0];
+		long[] balances = new long[0];
+		for (final Segment segment : segments) {
+			final int count;
+			segment.lock.readLock().lock();
+			try {
+				if (keys.length < segment.used) {
+					keys = new long[segment.used];
+					balances = new long[segment.used];
+				}
+				count = segment.copy(keys, balances);
+			} finally {
+				segment.lock.readLock().unlock();
+			}
+			for (int i = 0; i < count; i++) {
+				action.accept(detached(decode(keys[i]), balances[i]));
+			}
+		}
+	}
+
+	@Override
+	public Optional<Account> get(@NonNull final String number) {
+		final long key = tryEncode(number);
+		if (key == EMPTY) {
+			return Optional.empty();
+		}
+		final long[] balance = new long[1];
+		return segmentFor(key).read(key, balance) ? Optional.of(detached(number, balance[0])) : Optional.empty();
+	}
+
+	@Override
+	public Set<Account> getAll() {
+		final List<Account> result = new ArrayList<>();
+		for (final Segment segment : segments) {
+			segment.collect(result);
+		}
+		return Set.copyOf(result);
+	}
+
+	/**
+	 * Pushes balance slot of the deleted account to the free list of its segment.
+	 */
+	@Override
+	public void reclaim(@NonNull final Account deleted) {
+		final CompactAccount account = (CompactAccount) deleted;
+		account.segment.reclaim(account.record);
+	}
+
+	@Override
+	public long size() {
+		long size = 0;
+		for (final Segment segment : segments) {
+			size += segment.live;
+		}
+		return size;
+	}
+
+	@Override
+	public Account getOrCreate(final String number, @NonNull final Consumer<Account> onCreate) {
+		final long key = encode(number);
+		final Segment segment = segmentFor(key);
+		final int record = segment.findOrInsert(key, defaultBalance,
+				created -> onCreate.accept(new CompactAccount(number, segment, created)));
+		return new CompactAccount(number, segment, record);
+	}
+
+	/**
+	 * Only numbers of up to 17 digits, and nothing else than digits, are supported.
+	 */
+	@Override
+	public boolean isSupported(@NonNull final String number) {
+		return tryEncode(number) != EMPTY;
+	}
+
+	/**
+	 * Encodes account number into a long. Number of digits is kept in the highest bits,
+	 * so numbers with leading zeros are distinct from the ones without them.
+	 * @param number Account number to encode. Only digits are allowed.
+	 * @return Encoded number. Always greater than 0.
+	 * @throws UnsupportedAccountNumberException if number is empty, too long or contains anything else than digits.
+	 */
+	static long encode(@NonNull final String number) {
+		final long key = tryEncode(number);
+		if (key == EMPTY) {
+			throw new UnsupportedAccountNumberException(String.format("Account number '%s' is not supported "
+					+ "by this account store. Up to %d digits are allowed.", number, MAX_DIGITS));
+		}
+		return key;
+	}
+
+	/**
+	 * Encodes account number like encode(), but doesn't throw for numbers which can't be encoded.
+	 * @param number Account number to encode.
+	 * @return Encoded number, or 0 if number is empty, too long or contains anything else than digits.
+	 */
+	static long tryEncode(@NonNull final String number) {
+		final int length = number.length();
+		if (length == 0 || length > MAX_DIGITS) {
+			return EMPTY;
+		}
+		long value = 0;
+		for (int i = 0; i < length; i++) {
+			final char digit = number.charAt(i);
+			if (digit < '0' || digit > '9') {
+				return EMPTY;
+			}
+			value = value * 10 + (digit - '0');
+		}
+		return ((long) length << LENGTH_SHIFT) | value;
+	}
+
+	/**
+	 * Decodes account number encoded with encode() method.
+	 * @param key Encoded number.
+	 * @return Account number, with leading zeros restored.
+	 */
+	static String decode(final long key) {
+		final char[] digits = new char[(int) (key >>> LENGTH_SHIFT)];
+		long value = key & VALUE_MASK;
+		for (int i = digits.length - 1; i >= 0; i--) {
+			digits[i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+		return new String(digits);
+	}
+
+	static int hash(final long key) {
+		long h = key;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return (int) h;
+	}
+
+	private static Account detached(final String number, final long balance) {
+		return Account.builder()
+				.number(number)
+				.balance(new AtomicLong(balance))
+				.build();
+	}
+
+	private Segment segmentFor(final long key) {
+		return segments[hash(key) >>> (Integer.SIZE - SEGMENT_BITS)];
+	}
+
+	/**
+	 * Single segment of the store: open-addressing (linear probing) index of encoded numbers
+	 * pointing to record numbers in the balance chunks. Reclaimed records are kept in a stack of free records.
+	 */
+	private static final class Segment {
+		private final ReadWriteLock lock = new ReentrantReadWriteLock();
+		private long[] keys = new long[INITIAL_CAPACITY];
+		private int[] records = new int[INITIAL_CAPACITY];
+		private int used;
+		// Written under the write lock, read without any lock by size().
+		private volatile int live;
+		private volatile long[][] chunks = new long[1][];
+		private int nextRecord;
+		private int[] free = new int[0];
+		private int freeCount;
+
+		long[] chunk(final int record) {
+			return chunks[record >>> CHUNK_BITS];
+		}
+
+		void collect(final List<Account> result) {
+			lock.readLock().lock();
+			try {
+				for (int slot = 0; slot < keys.length; slot++) {
+					if (keys[slot] != EMPTY && keys[slot] != DELETED) {
+						result.add(new CompactAccount(decode(keys[slot]), this, records[slot]));
+					}
+				}
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+
+		/**
+		 * Copies keys and balances of live accounts. Has to be called under the read lock.
+		 */
+		int copy(final long[] keysCopy, final long[] balancesCopy) {
+			int count = 0;
+			for (int slot = 0; slot < keys.length; slot++) {
+				if (keys[slot] != EMPTY && keys[slot] != DELETED) {
+					keysCopy[count] = keys[slot];
+					balancesCopy[count++] = balance(records[slot]);
+				}
+			}
+			return count;
+		}
+
+		long balance(final int record) {
+			return (long) BALANCE.getVolatile(chunk(record), record & CHUNK_MASK);
+		}
+
+		boolean delete(final long key, final IntConsumer onDelete) {
+			lock.writeLock().lock();
+			try {
+				final int slot = slotOf(key);
+				if (slot < 0) {
+					return false;
+				}
+				onDelete.accept(records[slot]);
+				keys[slot] = DELETED;
+				live--;
+				return true;
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+
+		int find(final long key) {
+			lock.readLock().lock();
+			try {
+				final int slot = slotOf(key);
+				return slot < 0 ? -1 : records[slot];
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+
+		/**
+		 * Reads balance of the account under the read lock, so its record can't be reclaimed in the meantime.
+		 */
+		boolean read(final long key, final long[] balance) {
+			lock.readLock().lock();
+			try {
+				final int slot = slotOf(key);
+				if (slot < 0) {
+					return false;
+				}
+				balance[0] = balance(records[slot]);
+				return true;
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+
+		void reclaim(final int record) {
+			lock.writeLock().lock();
+			try {
+				if (freeCount == free.length) {
+					free = Arrays.copyOf(free, Math.max(INITIAL_CAPACITY, free.length * 2));
+				}
+				free[freeCount++] = record;
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+
+		int findOrInsert(final long key, final long initialBalance, final IntConsumer onInsert) {
+			final int existing = find(key);
+			if (existing >= 0) {
+				return existing;
+			}
+			lock.writeLock().lock();
+			try {
+				final int slot = slotOf(key);
+				if (slot >= 0) {
+					return records[slot];
+				}
+				if ((used + 1) * 3 > keys.length * 2) {
+					rehash();
+				}
+				final int record = allocate(initialBalance);
+				onInsert.accept(record);
+				insert(key, record);
+				live++;
+				return record;
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+
+		private int allocate(final long initialBalance) {
+			if (freeCount > 0) {
+				final int record = free[--freeCount];
+				BALANCE.setVolatile(chunk(record), record & CHUNK_MASK, initialBalance);
+				return record;
+			}
+			final int record = nextRecord++;
+			final int chunkIndex = record >>> CHUNK_BITS;
+			long[][] current = chunks;
+			if (chunkIndex == current.length) {
+				current = Arrays.copyOf(current, current.length * 2);
+			}
+			if (current[chunkIndex] == null) {
+				current[chunkIndex] = new long[CHUNK_SIZE];
+			}
+			BALANCE.setVolatile(current[chunkIndex], record & CHUNK_MASK, initialBalance);
+			// Volatile write publishes the new chunk to lock-free readers of balances.
+			chunks = current;
+			return record;
+		}
+
+		private void insert(final long key, final int record) {
+			final int mask = keys.length - 1;
+			int slot = hash(key) & mask;
+			while (keys[slot] != EMPTY && keys[slot] != DELETED) {
+				slot = (slot + 1) & mask;
+			}
+			if (keys[slot] == EMPTY) {
+				used++;
+			}
+			keys[slot] = key;
+			records[slot] = record;
+		}
+
+		private void rehash() {
+			final long[] oldKeys = keys;
+			final int[] oldRecords = records;
+			int live = 0;
+			for (final long key : oldKeys) {
+				if (key != EMPTY && key != DELETED) {
+					live++;
+				}
+			}
+			int capacity = INITIAL_CAPACITY;
+			while ((live + 1) * 3 > capacity) {
+				capacity <<= 1;
+			}
+			keys = new long[capacity];
+			records = new int[capacity];
+			used = 0;
+			for (int slot = 0; slot < oldKeys.length; slot++) {
+				if (oldKeys[slot] != EMPTY && oldKeys[slot] != DELETED) {
+					insert(oldKeys[slot], oldRecords[slot]);
+				}
+			}
+		}
+
+		private int slotOf(final long key) {
+			final int mask = keys.length - 1;
+			int slot = hash(key) & mask;
+			while (keys[slot] != EMPTY) {
+				if (keys[slot] == key) {
+					return slot;
+				}
+				slot = (slot + 1) & mask;
+			}
+			return -1;
+		}
+	}
+
+	/**
+	 * Account view pointing to a balance slot in the segment's chunk.
+	 * All balance operations are done directly on the slot with VarHandle atomics.
+	 */
+	private static final class CompactAccount extends Account {
+		private final Segment segment;
+		private final int record;
+		private final long[] chunk;
+		private final int index;
+
+		CompactAccount(final String number, final Segment segment, final int record) {
+			super(number, null);
+			this.segment = segment;
+			this.record = record;
+			this.chunk = segment.chunk(record);
+			this.index = record & CHUNK_MASK;
+		}
+
+		/**
+		 * Balance of compact account is not backed by AtomicLong, so a detached copy is returned.
+		 * Modifying it has no effect on the account. Use withdraw() and deposit() instead.
+		 */
+		@Override
+		public AtomicLong getBalance() {
+			return new AtomicLong(readBalance());
+		}
+
+		@Override
+		public long readBalance() {
+			return (long) BALANCE.getVolatile(chunk, index);
+		}
+
+		@Override
+		public long withdraw(final long amount) {
+			long current = readBalance();
+			while (current >= amount) {
+				final long witness = (long) BALANCE.compareAndExchange(chunk, index, current, current - amount);
+				if (witness == current) {
+					break;
+				}
+				countCasRetry();
+				current = witness;
+			}
+			return current;
+		}
+
+		@Override
+		public long deposit(final long amount) {
+			return (long) BALANCE.getAndAdd(chunk, index, amount) + amount;
+		}
+
+		/**
+		 * Compact accounts are views created on every lookup, so they can't keep hot cells between credits.
+		 * Credit is a plain atomic add.
+		 */
+		@Override
+		public long credit(final long amount) {
+			return deposit(amount);
+		}
+
+		@Override
+		public void writeBalance(final long newBalance) {
+			BALANCE.setRelease(chunk, index, newBalance);
+		}
+	}
+}
@@ -0,0 +1,381 @@
+package pl.com.salsoft.exercise2.dao;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import lombok.NonNull;
+import pl.com.salsoft.exercise2.model.Account;
+
+/**
+ * Epoch-based consistent cuts of all accounts, used by AccountDao.getAll() to read balances
+ * as of a single moment while payments keep running.
+ *
+ * Every operation changing balances (a whole transfer, account creation or deletion) runs in a scope
+ * entered with enter(). The scope joins the current epoch and leaves it when closed. To take a cut,
+ * the reader starts a new epoch and waits until operations of the previous epoch are finished.
+ * From that moment, the previous epoch is the cut: operations of the new epoch record their changes
+ * (under a per-account lock of the cut's change map) and the reader subtracts them from balances it reads.
+ * Writers never wait for the reader. The reader waits only for operations which were already running
+ * when the cut started.
+ *
+ * Until they are finished, operations of the cut see accounts created or deleted by operations of the new epoch.
+ * Their changes of such accounts are not recorded, so the reader takes them from balances of the accounts
+ * themselves: an account deleted after the cut is read as it is, minus the recorded changes, and an account
+ * created after the cut is part of it if operations of the cut changed its balance (its creation is then
+ * ordered before the cut). Accounts created by operations of the cut after the cut started are recorded too,
+ * so the reader knows their initial balances.
+ *
+ * Outside of a cut, a scope costs a thread-local lookup and two uncontended LongAdder increments.
+ * While a cut is taken, every balance change also goes through ConcurrentHashMap.compute() on the change map.
+ */
+public class Epochs {
+	private final ThreadLocal<Scope> scopes = ThreadLocal.withInitial(Scope::new);
+	private volatile Epoch current = new Epoch(null);
+
+	/**
+	 * Enters the current epoch. Scopes are reentrant - nested calls in the same thread share the epoch
+	 * of the outermost scope, so for example accounts created during a transfer belong to the transfer's epoch.
+	 * Returned scope has to be closed in the same thread (best with try-with-resources).
+	 * @return Scope of the calling thread. Never null.
+	 */
+	public Scope enter() {
+		final Scope scope = scopes.get();
+		if (scope.depth++ == 0) {
+			scope.epoch = join();
+		}
+		return scope;
+	}
+
+	/**
+	 * Reads all accounts of the store as of a single moment. Accounts are detached from the store.
+	 * Only one cut is taken at a time.
+	 * @param store Store to read accounts from. Cannot be null.
+	 * @return Set of accounts. Could be empty set, but never null.
+	 */
+	synchronized Set<Account> cut(@NonNull final AccountStore store) {
+		final Cut cut = new Cut();
+		final Epoch previous = current;
+		previous.next = cut;
+		current = new Epoch(cut);
+		previous.awaitFinished();
+
+		final Map<String, Account> accounts = new HashMap<>();
+		for (final Account account : store.getAll()) {
+			cut.read(account.getNumber(), account, accounts);
+		}
+		cut.readRest(store, accounts);
+
+		final Epoch cutEpoch = current;
+		current = new Epoch(null);
+		// Next cut must not start until nobody writes to this one.
+		cutEpoch.awaitFinished();
+		return Set.copyOf(accounts.values());
+	}
+
+	/**
+	 * Waits until all operations running at the moment of the call are finished. Operations entered later
+	 * are not waited for. Used to make sure nobody uses a deleted account anymore before its storage is reused.
+	 * @throws IllegalStateException if called in a scope, which would wait for itself.
+	 */
+	synchronized void synchronize() {
+		if (scopes.get().depth > 0) {
+			throw new IllegalStateException("Cannot wait for running operations in a scope.");
+		}
+		final Epoch previous = current;
+		current = new Epoch(null);
+		previous.awaitFinished();
+	}
+
+	private Epoch join() {
+		while (true) {
+			final Epoch epoch = current;
+			epoch.entered.increment();
+			if (epoch == current) {
+				return epoch;
+			}
+			// A cut started in the meantime. Join the new epoch instead.
+			epoch.finished.increment();
+		}
+	}
+
+	/**
+	 * Operation running in an epoch. Balance changes of the operation have to be done through the scope.
+	 * Other threads may change balances through the scope on behalf of its owner, as long as the owner
+	 * keeps it open until they are done.
+	 */
+	public static class Scope implements AutoCloseable {
+		private Epoch epoch;
+		private int depth;
+
+		/**
+		 * Leaves the epoch, unless this is a nested scope.
+		 */
+		@Override
+		public void close() {
+			if (--depth == 0) {
+				epoch.finished.increment();
+				epoch = null;
+			}
+		}
+
+		/**
+		 * Deposits given amount to the account. See Account.deposit().
+		 * @param account Account to deposit to.
+		 * @param amount Amount to deposit.
+		 * @return Balance right after the operation.
+		 */
+		public long deposit(@NonNull final Account account, final long amount) {
+			final Cut cut = epoch.cut;
+			if (cut == null) {
+				return account.deposit(amount);
+			}
+			final long[] after = new long[1];
+			cut.changes.compute(account.getNumber(), (number, change) -> {
+				after[0] = account.deposit(amount);
+				return Change.add(change, amount);
+			});
+			return after[0];
+		}
+
+		/**
+		 * Deposits given amount to the account without reading the resulting balance. See Account.credit().
+		 * @param account Account to deposit to.
+		 * @param amount Amount to deposit.
+		 * @return Balance right after the operation, or Account.UNKNOWN_BALANCE if the account is hot.
+		 */
+		public long credit(@NonNull final Account account, final long amount) {
+			final Cut cut = epoch.cut;
+			if (cut == null) {
+				return account.credit(amount);
+			}
+			final long[] after = new long[1];
+			cut.changes.compute(account.getNumber(), (number, change) -> {
+				after[0] = account.credit(amount);
+				return Change.add(change, amount);
+			});
+			return after[0];
+		}
+
+		/**
+		 * Deposits given amount to the account, when the calling thread is the only one changing balances.
+		 * Outside of a cut, no atomic read-modify-write is done.
+		 * @param account Account to deposit to.
+		 * @param amount Amount to deposit.
+		 * @return Balance right after the operation.
+		 */
+		public long depositExclusive(@NonNull final Account account, final long amount) {
+			if (epoch.cut != null) {
+				return deposit(account, amount);
+			}
+			final long after = account.readBalance() + amount;
+			account.writeBalance(after);
+			return after;
+		}
+
+		/**
+		 * Withdraws given amount from the account, when the calling thread is the only one changing balances.
+		 * Outside of a cut, no atomic read-modify-write is done.
+		 * @param account Account to withdraw from.
+		 * @param amount Amount to withdraw.
+		 * @return Balance right before the operation. If it's lower than the amount, nothing was withdrawn.
+		 */
+		public long withdrawExclusive(@NonNull final Account account, final long amount) {
+			if (epoch.cut != null) {
+				return withdraw(account, amount);
+			}
+			final long before = account.readBalance();
+			if (before >= amount) {
+				account.writeBalance(before - amount);
+			}
+			return before;
+		}
+
+		/**
+		 * Withdraws given amount from the account. See Account.withdraw().
+		 * @param account Account to withdraw from.
+		 * @param amount Amount to withdraw.
+		 * @return Balance right before the operation. If it's lower than the amount, nothing was withdrawn.
+		 */
+		public long withdraw(@NonNull final Account account, final long amount) {
+			final Cut cut = epoch.cut;
+			if (cut == null) {
+				return account.withdraw(amount);
+			}
+			final long[] before = new long[1];
+			cut.changes.compute(account.getNumber(), (number, change) -> {
+				before[0] = account.withdraw(amount);
+				return before[0] >= amount ? Change.add(change, -amount) : change;
+			});
+			return before[0];
+		}
+
+		/**
+		 * Records creation of an account. Has to be called atomically with the creation,
+		 * with the initial balance already set.
+		 * @param account Created account.
+		 */
+		void created(final Account account) {
+			final Cut cut = epoch.cut;
+			final Cut next = cut == null ? epoch.next : null;
+			if (cut != null || next != null) {
+				(cut != null ? cut : next).changes.compute(account.getNumber(),
+						(number, change) -> Change.created(change, account, next != null));
+			}
+		}
+
+		/**
+		 * Records deletion of an account. Has to be called atomically with the deletion.
+		 * @param account Deleted account.
+		 */
+		void deleted(final Account account) {
+			final Cut cut = epoch.cut;
+			if (cut != null) {
+				cut.changes.compute(account.getNumber(), (number, change) -> Change.deleted(change, account));
+			}
+		}
+	}
+
+	private static class Epoch {
+		private final Cut cut;
+		// Cut started after this epoch, which this epoch is part of.
+		private volatile Cut next;
+		private final LongAdder entered = new LongAdder();
+		private final LongAdder finished = new LongAdder();
+
+		private Epoch(final Cut cut) {
+			this.cut = cut;
+		}
+
+		private void awaitFinished() {
+			// Finished has to be summed first. Every operation counted there is already counted in entered,
+			// so both sums are equal only if nothing was running.
+			while (finished.sum() != entered.sum()) {
+				Thread.yield();
+			}
+		}
+	}
+
+	/**
+	 * Changes of accounts done since the cut started.
+	 */
+	private static class Cut {
+		private final Map<String, Change> changes = new ConcurrentHashMap<>();
+
+		/**
+		 * Reads the account as of the cut.
+		 * @param number Number of the account.
+		 * @param account Account of the store, or null if the store doesn't have it.
+		 * @param accounts Accounts of the cut, to put the account to.
+		 */
+		private void read(final String number, final Account account, final Map<String, Account> accounts) {
+			changes.compute(number, (key, change) -> {
+				if (change == null) {
+					if (account != null) {
+						accounts.put(number, detached(number, account.readBalance()));
+					}
+				} else {
+					final long balance = change.balance(account, true);
+					if (balance != Change.ABSENT) {
+						accounts.put(number, detached(number, balance));
+					}
+				}
+				return change;
+			});
+		}
+
+		/**
+		 * Reads changed accounts which were not read from the store, because they were deleted
+		 * or created in the meantime.
+		 */
+		private void readRest(final AccountStore store, final Map<String, Account> accounts) {
+			for (final String number : changes.keySet()) {
+				if (!accounts.containsKey(number)) {
+					read(number, store.get(number).orElse(null), accounts);
+				}
+			}
+		}
+
+		private static Account detached(final String number, final long balance) {
+			return Account.builder()
+					.number(number)
+					.balance(new AtomicLong(balance))
+					.build();
+		}
+	}
+
+	/**
+	 * Changes of a single account since the cut started, with the account which was deleted or created
+	 * since then, if any. Accessed only under the change map lock. An account deleted and created again
+	 * has a new change linked to the previous one.
+	 * Account deleted by an operation of the cut has no change marking it, and a change which is followed
+	 * by another one without being deleted belongs to such account. Neither is part of the cut.
+	 */
+	private static class Change {
+		private static final long ABSENT = Long.MIN_VALUE;
+
+		private Change previous;
+		// Created or deleted account, otherwise null.
+		private Account account;
+		// Changes recorded by operations after the cut.
+		private long delta;
+		private long initial;
+		private boolean created;
+		// Created by an operation of the cut.
+		private boolean createdInCut;
+		// Deleted by an operation after the cut.
+		private boolean deleted;
+
+		private static Change add(final Change change, final long amount) {
+			final Change result = change == null ? new Change() : change;
+			result.delta += amount;
+			return result;
+		}
+
+		private static Change created(final Change change, final Account account, final boolean inCut) {
+			final Change result = new Change();
+			result.previous = change;
+			result.account = account;
+			result.initial = account.readBalance();
+			result.created = true;
+			result.createdInCut = inCut;
+			return result;
+		}
+
+		private static Change deleted(final Change change, final Account account) {
+			final Change result = change == null ? new Change() : change;
+			result.deleted = true;
+			result.account = account;
+			return result;
+		}
+
+		/**
+		 * Computes balance of the account as of the cut. Whatever changed balances of the account and previous
+		 * ones of the same number without being recorded was done by operations of the cut. If several of them
+		 * are part of the cut
+		 * (for example an account deleted after the cut and created again by an operation of the cut),
+		 * the first one brings its initial balance.
+		 * @param current Account of the store, or null if the store doesn't have it.
+		 * @param last Whether it's the latest change of the account.
+		 * @return Balance as of the cut, or ABSENT if the account is not part of the cut.
+		 */
+		private long balance(final Account current, final boolean last) {
+			final long before = previous == null ? ABSENT : previous.balance(null, false);
+			final Account changed = account != null ? account : current;
+			if (!deleted && !(last && current != null) || changed == null) {
+				return before;
+			}
+			final long unrecorded = changed.readBalance() - delta - initial;
+			if (!created) {
+				return unrecorded;
+			}
+			if (before != ABSENT) {
+				return before + unrecorded;
+			}
+			return createdInCut || unrecorded != 0 ? initial + unrecorded : ABSENT;
+		}
+	}
+}
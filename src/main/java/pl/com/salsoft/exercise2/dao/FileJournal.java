@@ -0,0 +1,553 @@
+package pl.com.salsoft.exercise2.dao;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lombok.NonNull;
+
+/**
+ * Journal kept in a directory as a sequence of append-only segment files.
+ * Journal position is a byte offset counted from the very first entry ever written. Each segment file is named
+ * after the position of its first entry, so entries can be read starting at any position, and segments fully
+ * covered by a snapshot can be deleted. A new segment is started once the current one reaches the configured size.
+ *
+ * Each entry is written as: int length of payload, int CRC32 of payload, payload (type byte and fields).
+ * Account numbers are written as unsigned short length followed by UTF-8 bytes.
+ * Entries are first encoded into an in-memory buffer and written to the file by the background flusher thread,
+ * which takes everything appended since its previous write at once. That way many concurrent payments
+ * share a single write and a single fsync (group commit).
+ *
+ * Supported durability modes:
+ * - NONE - entries are written to the file, but never forced to the disk. Waiting for durability returns immediately.
+ * - BATCHED - group commit, as described above.
+ * - PER_REQUEST - every entry is written and forced to the disk on its own, while appending it.
+ *
+ * Threads wait for the journal on ReentrantLock conditions rather than object monitors, as a virtual thread blocked
+ * in a monitor (or writing the file while holding one) pins its carrier thread until JDK 24.
+ */
+public class FileJournal implements Journal, Closeable {
+	private static final Logger log = LoggerFactory.getLogger(FileJournal.class);
+	private static final int BUFFER_SIZE = 1 << 20;
+	private static final int HEADER_SIZE = 2 * Integer.BYTES;
+	private static final int MAX_NUMBER_BYTES = 0xFFFF;
+	private static final int MAX_PAYLOAD_SIZE = 1 + 2 * (Short.BYTES + MAX_NUMBER_BYTES) + Long.BYTES;
+	private static final byte CREATED = 1;
+	private static final byte DELETED = 2;
+	private static final byte TRANSFERRED = 3;
+	private static final String SEGMENT_PREFIX = "journal-";
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	/**
+	 * Defines when appended entries are considered durable.
+	 */
+	public enum Durability {
+		NONE, BATCHED, PER_REQUEST;
+
+		/**
+		 * Parses durability mode from its configuration value (none, batched, per-request).
+		 * @param value Configuration value.
+		 * @return Durability mode.
+		 * @throws IllegalArgumentException if the value is not recognized.
+		 */
+		public static Durability parse(@NonNull final String value) {
+			return valueOf(value.trim().replace('-', '_').toUpperCase());
+		}
+	}
+
+	private final Path directory;
+	private final long segmentSize;
+	private final Durability durability;
+	private final ReentrantLock appendLock = new ReentrantLock();
+	private final Condition appendChanged = appendLock.newCondition();
+	private final ReentrantLock durableLock = new ReentrantLock();
+	private final Condition durableChanged = durableLock.newCondition();
+	private final CRC32 crc = new CRC32();
+	private final Thread flusher;
+	private ByteBuffer active = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private ByteBuffer flushing = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private int entryStart;
+	private volatile long appended;
+	private volatile long durable;
+	private volatile IOException failure;
+	private FileChannel channel;
+	private long segmentStart;
+	private boolean closed;
+
+	private FileJournal(final Path directory, final long segmentSize, final FileChannel channel, final long segmentStart,
+			final Durability durability, final long position) {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.channel = channel;
+		this.segmentStart = segmentStart;
+		this.durability = durability;
+		this.appended = position;
+		this.durable = position;
+		if (durability == Durability.PER_REQUEST) {
+			flusher = null;
+		} else {
+			flusher = new Thread(this::flushLoop, "journal-flusher");
+			flusher.setDaemon(true);
+			flusher.start();
+		}
+	}
+
+	/**
+	 * Opens journal in given directory for appending. Entries starting at given position are passed to the visitor first.
+	 * Anything after the last complete and valid entry (e.g. entry torn by a crash) is cut off.
+	 * @param directory Journal directory. Has to exist.
+	 * @param durability Durability mode.
+	 * @param segmentSize Size in bytes after which a new segment file is started.
+	 * @param from Position to start replaying at, usually position of the snapshot loaded before.
+	 * @param visitor Visitor receiving existing entries.
+	 * @return Journal ready for appending.
+	 * @throws IOException if the journal could not be read or opened.
+	 * @throws IllegalStateException if entries are missing or corrupted anywhere before the last segment.
+	 */
+	public static FileJournal open(@NonNull final Path directory, @NonNull final Durability durability, final long segmentSize,
+			final long from, @NonNull final Visitor visitor) throws IOException {
+		final List<Long> segments = listSegments(directory);
+		final long end = replay(directory, segments, from, Long.MAX_VALUE, visitor);
+		if (!segments.isEmpty()) {
+			final long lastStart = segments.get(segments.size() - 1);
+			final Path lastFile = segmentFile(directory, lastStart);
+			final long validSize = end - lastStart;
+			if (validSize < Files.size(lastFile)) {
+				log.warn("Journal {} has {} invalid bytes at the end. They are discarded.", lastFile,
+						Files.size(lastFile) - validSize);
+				try (FileChannel channel = FileChannel.open(lastFile, StandardOpenOption.WRITE)) {
+					channel.truncate(validSize);
+					channel.force(true);
+				}
+			}
+			if (validSize <= Files.size(lastFile)) {
+				final FileChannel channel = openSegment(directory, lastStart);
+				channel.position(validSize);
+				return new FileJournal(directory, segmentSize, channel, lastStart, durability, end);
+			}
+			log.warn("Journal ends at {}, before the snapshot position {}. Continuing in a new segment.",
+					lastStart + Files.size(lastFile), from);
+		}
+		return new FileJournal(directory, segmentSize, openSegment(directory, from), from, durability, from);
+	}
+
+	/**
+	 * Reads entries from the journal directory and passes them to the visitor.
+	 * @param directory Journal directory.
+	 * @param from Position to start reading at. Has to be a position of an entry.
+	 * @param to Position to stop reading at. Has to be a position of an entry (e.g. durable position of the journal).
+	 * @param visitor Visitor receiving the entries.
+	 * @return Position right after the last entry read.
+	 * @throws IOException if the journal could not be read.
+	 * @throws IllegalStateException if entries are missing or corrupted anywhere before the last segment.
+	 */
+	static long replay(final Path directory, final long from, final long to, final Visitor visitor) throws IOException {
+		return replay(directory, listSegments(directory), from, to, visitor);
+	}
+
+	private static long replay(final Path directory, final List<Long> segments, final long from, final long to,
+			final Visitor visitor) throws IOException {
+		long position = from;
+		for (int i = 0; i < segments.size() && position < to; i++) {
+			final long start = segments.get(i);
+			final long next = i + 1 < segments.size() ? segments.get(i + 1) : Long.MAX_VALUE;
+			if (next <= position) {
+				continue;
+			}
+			if (start > position) {
+				throw new IllegalStateException(String.format("Journal entries between %d and %d are missing.", position, start));
+			}
+			try (FileChannel channel = FileChannel.open(segmentFile(directory, start), StandardOpenOption.READ)) {
+				position = start + replay(channel, position - start, to - start, visitor);
+			}
+			if (next != Long.MAX_VALUE && position < next && position < to) {
+				throw new IllegalStateException(String.format("Journal segment %s is corrupted at position %d.",
+						segmentFile(directory, start), position));
+			}
+		}
+		return position;
+	}
+
+	/**
+	 * Reads entries from the journal channel and passes them to the visitor.
+	 * Reading stops at the limit, end of the channel or at the first incomplete or corrupted entry.
+	 */
+	private static long replay(final FileChannel channel, final long from, final long to, final Visitor visitor)
+			throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		final CRC32 checksum = new CRC32();
+		long position = from;
+		long readPosition = from;
+		buffer.flip();
+		while (position < to) {
+			if (buffer.remaining() < HEADER_SIZE) {
+				readPosition += refill(channel, buffer, readPosition);
+				if (buffer.remaining() < HEADER_SIZE) {
+					return position;
+				}
+			}
+			final int length = buffer.getInt(buffer.position());
+			if (length <= 0 || length > MAX_PAYLOAD_SIZE) {
+				return position;
+			}
+			if (buffer.remaining() < HEADER_SIZE + length) {
+				readPosition += refill(channel, buffer, readPosition);
+				if (buffer.remaining() < HEADER_SIZE + length) {
+					return position;
+				}
+			}
+			final int expectedChecksum = buffer.getInt(buffer.position() + Integer.BYTES);
+			final ByteBuffer payload = buffer.duplicate();
+			payload.position(buffer.position() + HEADER_SIZE).limit(buffer.position() + HEADER_SIZE + length);
+			checksum.reset();
+			checksum.update(payload.duplicate());
+			if ((int) checksum.getValue() != expectedChecksum || !decode(payload, visitor)) {
+				return position;
+			}
+			buffer.position(buffer.position() + HEADER_SIZE + length);
+			position += HEADER_SIZE + length;
+		}
+		return position;
+	}
+
+	private static List<Long> listSegments(final Path directory) throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.map(file -> file.getFileName().toString())
+					.filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+					.map(name -> Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())))
+					.sorted()
+					.collect(Collectors.toList());
+		}
+	}
+
+	private static FileChannel openSegment(final Path directory, final long start) throws IOException {
+		return FileChannel.open(segmentFile(directory, start), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+	}
+
+	private static Path segmentFile(final Path directory, final long start) {
+		return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, start, SEGMENT_SUFFIX));
+	}
+
+	private static int refill(final FileChannel channel, final ByteBuffer buffer, final long readPosition) throws IOException {
+		buffer.compact();
+		int total = 0;
+		int read;
+		while (buffer.hasRemaining() && (read = channel.read(buffer, readPosition + total)) > 0) {
+			total += read;
+		}
+		buffer.flip();
+		return total;
+	}
+
+	private static boolean decode(final ByteBuffer payload, final Visitor visitor) {
+		switch (payload.get()) {
+			case CREATED:
+				visitor.created(readNumber(payload), payload.getLong());
+				return true;
+			case DELETED:
+				visitor.deleted(readNumber(payload));
+				return true;
+			case TRANSFERRED:
+				visitor.transferred(readNumber(payload), readNumber(payload), payload.getLong());
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	private static String readNumber(final ByteBuffer payload) {
+		final byte[] bytes = new byte[Short.toUnsignedInt(payload.getShort())];
+		payload.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static byte[] numberBytes(final String number) {
+		final byte[] bytes = number.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > MAX_NUMBER_BYTES) {
+			throw new IllegalArgumentException("Account number is too long to be journaled.");
+		}
+		return bytes;
+	}
+
+	@Override
+	public void awaitDurable(final long position) {
+		if (durability == Durability.NONE) {
+			checkFailure();
+			return;
+		}
+		if (durable >= position) {
+			return;
+		}
+		durableLock.lock();
+		try {
+			while (durable < position) {
+				checkFailure();
+				try {
+					durableChanged.await();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("Interrupted while waiting for the journal.", e);
+				}
+			}
+		} finally {
+			durableLock.unlock();
+		}
+	}
+
+	/**
+	 * Writes all pending entries, stops the flusher thread and closes the file.
+	 * @throws IOException if pending entries could not be written.
+	 */
+	@Override
+	public void close() throws IOException {
+		appendLock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			appendChanged.signalAll();
+		} finally {
+			appendLock.unlock();
+		}
+		if (flusher != null) {
+			try {
+				flusher.join();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		channel.force(true);
+		channel.close();
+	}
+
+	/**
+	 * Deletes segment files containing only entries before given position.
+	 * The segment currently written to is never deleted.
+	 * @param position Position before which entries are no longer needed (e.g. position of the oldest kept snapshot).
+	 * @throws IOException if a segment could not be deleted.
+	 */
+	public void deleteSegmentsBefore(final long position) throws IOException {
+		final List<Long> segments = listSegments(directory);
+		for (int i = 0; i + 1 < segments.size() && segments.get(i + 1) <= position; i++) {
+			Files.deleteIfExists(segmentFile(directory, segments.get(i)));
+		}
+	}
+
+	/**
+	 * Returns position up to which all entries are durable, according to the durability mode.
+	 * In NONE mode it's the position up to which entries were written to the file.
+	 * @return Durable position.
+	 */
+	public long durablePosition() {
+		return durable;
+	}
+
+	@Override
+	public long created(@NonNull final String number, final long balance) {
+		final byte[] bytes = numberBytes(number);
+		appendLock.lock();
+		try {
+			final ByteBuffer buffer = reserve(1 + Short.BYTES + bytes.length + Long.BYTES);
+			buffer.put(CREATED).putShort((short) bytes.length).put(bytes).putLong(balance);
+			return commit(buffer);
+		} finally {
+			appendLock.unlock();
+		}
+	}
+
+	@Override
+	public long deleted(@NonNull final String number) {
+		final byte[] bytes = numberBytes(number);
+		appendLock.lock();
+		try {
+			final ByteBuffer buffer = reserve(1 + Short.BYTES + bytes.length);
+			buffer.put(DELETED).putShort((short) bytes.length).put(bytes);
+			return commit(buffer);
+		} finally {
+			appendLock.unlock();
+		}
+	}
+
+	@Override
+	public long position() {
+		return appended;
+	}
+
+	@Override
+	public long transferred(@NonNull final String sourceNumber, @NonNull final String targetNumber, final long amount) {
+		final byte[] source = numberBytes(sourceNumber);
+		final byte[] target = numberBytes(targetNumber);
+		appendLock.lock();
+		try {
+			final ByteBuffer buffer = reserve(1 + 2 * Short.BYTES + source.length + target.length + Long.BYTES);
+			buffer.put(TRANSFERRED)
+					.putShort((short) source.length).put(source)
+					.putShort((short) target.length).put(target)
+					.putLong(amount);
+			return commit(buffer);
+		} finally {
+			appendLock.unlock();
+		}
+	}
+
+	private void checkFailure() {
+		if (failure != null) {
+			throw new UncheckedIOException("Journal could not be written.", failure);
+		}
+	}
+
+	/**
+	 * Makes sure there is room for the entry in the active buffer and writes the entry header placeholder.
+	 * Has to be called while holding the append lock.
+	 */
+	private ByteBuffer reserve(final int payloadSize) {
+		if (closed) {
+			throw new IllegalStateException("Journal is closed.");
+		}
+		checkFailure();
+		while (active.remaining() < HEADER_SIZE + payloadSize) {
+			try {
+				appendChanged.await();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for the journal.", e);
+			}
+			checkFailure();
+		}
+		if (active.position() == 0) {
+			// Flusher may be waiting for new entries. Checked after waiting for free space, as the flusher could
+			// have swapped the buffers and found the new one empty in the meantime.
+			appendChanged.signalAll();
+		}
+		entryStart = active.position();
+		active.putInt(payloadSize).putInt(0);
+		return active;
+	}
+
+	/**
+	 * Fills in the checksum of the entry just encoded in the active buffer and updates journal position.
+	 * Has to be called while holding the append lock.
+	 */
+	private long commit(final ByteBuffer buffer) {
+		final ByteBuffer payload = buffer.duplicate();
+		payload.position(entryStart + HEADER_SIZE).limit(buffer.position());
+		crc.reset();
+		crc.update(payload);
+		buffer.putInt(entryStart + Integer.BYTES, (int) crc.getValue());
+		appended += buffer.position() - entryStart;
+		if (durability == Durability.PER_REQUEST) {
+			writeActive();
+		}
+		return appended;
+	}
+
+	private void flushLoop() {
+		while (true) {
+			final ByteBuffer batch;
+			final long end;
+			appendLock.lock();
+			try {
+				while (active.position() == 0 && !closed) {
+					try {
+						appendChanged.await();
+					} catch (final InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
+				if (active.position() == 0) {
+					return;
+				}
+				batch = active;
+				active = flushing;
+				flushing = batch;
+				end = appended;
+				// Appenders may be waiting for free space.
+				appendChanged.signalAll();
+			} finally {
+				appendLock.unlock();
+			}
+			try {
+				write(batch, end);
+			} catch (final IOException e) {
+				fail(e);
+				return;
+			}
+			markDurable(end);
+		}
+	}
+
+	private void fail(final IOException e) {
+		log.error("Could not write journal: {}", e.getMessage());
+		failure = e;
+		appendLock.lock();
+		try {
+			appendChanged.signalAll();
+		} finally {
+			appendLock.unlock();
+		}
+		durableLock.lock();
+		try {
+			durableChanged.signalAll();
+		} finally {
+			durableLock.unlock();
+		}
+	}
+
+	private void markDurable(final long position) {
+		durableLock.lock();
+		try {
+			durable = position;
+			durableChanged.signalAll();
+		} finally {
+			durableLock.unlock();
+		}
+	}
+
+	/**
+	 * Writes batch of entries ending at given position and starts a new segment if the current one is full.
+	 * Called only by the thread writing to the file (flusher, or appender holding the lock in PER_REQUEST mode).
+	 */
+	private void write(final ByteBuffer batch, final long end) throws IOException {
+		batch.flip();
+		while (batch.hasRemaining()) {
+			channel.write(batch);
+		}
+		batch.clear();
+		if (durability != Durability.NONE) {
+			channel.force(false);
+		}
+		if (end - segmentStart >= segmentSize) {
+			channel.force(true);
+			channel.close();
+			channel = openSegment(directory, end);
+			segmentStart = end;
+		}
+	}
+
+	private void writeActive() {
+		try {
+			write(active, appended);
+			markDurable(appended);
+		} catch (final IOException e) {
+			fail(e);
+			throw new UncheckedIOException("Journal could not be written.", e);
+		}
+	}
+}
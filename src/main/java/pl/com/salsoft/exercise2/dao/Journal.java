@@ -0,0 +1,87 @@
+package pl.com.salsoft.exercise2.dao;
+
+/**
+ * Append-only journal of balance mutations. Every entry gets a position in the journal
+ * and the caller can wait until everything up to that position is durable.
+ * Only effects are journaled (accounts created, deleted and money transferred), so replaying
+ * the journal doesn't need to validate anything, it just applies entries in order.
+ */
+public interface Journal {
+	/**
+	 * Journal that doesn't record anything. Used when journaling is disabled.
+	 */
+	Journal NONE = new Journal() {
+		@Override
+		public void awaitDurable(final long position) {
+			// Nothing is ever written, so nothing to wait for.
+		}
+
+		@Override
+		public long created(final String number, final long balance) {
+			return 0;
+		}
+
+		@Override
+		public long deleted(final String number) {
+			return 0;
+		}
+
+		@Override
+		public long position() {
+			return 0;
+		}
+
+		@Override
+		public long transferred(final String sourceNumber, final String targetNumber, final long amount) {
+			return 0;
+		}
+	};
+
+	/**
+	 * Blocks until all entries up to given position are durable, according to the durability mode of the journal.
+	 * @param position Position returned by one of append methods, or by position() method.
+	 * @throws java.io.UncheckedIOException if the journal could not be written.
+	 */
+	void awaitDurable(long position);
+
+	/**
+	 * Appends account creation entry.
+	 * @param number Number of created account.
+	 * @param balance Initial balance of the account.
+	 * @return Position of the journal right after the entry.
+	 */
+	long created(String number, long balance);
+
+	/**
+	 * Appends account deletion entry.
+	 * @param number Number of deleted account.
+	 * @return Position of the journal right after the entry.
+	 */
+	long deleted(String number);
+
+	/**
+	 * Returns current end position of the journal, including entries not durable yet.
+	 * @return Journal position.
+	 */
+	long position();
+
+	/**
+	 * Appends money transfer entry.
+	 * @param sourceNumber Number of account the money was taken from.
+	 * @param targetNumber Number of account the money was given to.
+	 * @param amount Transferred amount.
+	 * @return Position of the journal right after the entry.
+	 */
+	long transferred(String sourceNumber, String targetNumber, long amount);
+
+	/**
+	 * Receives entries read back from the journal.
+	 */
+	interface Visitor {
+		void created(String number, long balance);
+
+		void deleted(String number);
+
+		void transferred(String sourceNumber, String targetNumber, long amount);
+	}
+}
@@ -0,0 +1,58 @@
+package pl.com.salsoft.exercise2.dao;
+
+import lombok.NonNull;
+import pl.com.salsoft.exercise2.model.Account;
+
+/**
+ * Restores accounts in the store from journal entries read at startup.
+ * Entries are applied as they are, without any validation, since the journal contains only
+ * effects of operations which already succeeded. Transfers touching accounts which don't exist
+ * (deleted in the meantime) are applied only to the existing side, exactly as it happened originally.
+ */
+public class JournalReplayer implements Journal.Visitor {
+	private final AccountStore store;
+	private long entries;
+
+	/**
+	 * Creates replayer restoring accounts in given store.
+	 * @param store Store to restore accounts in. Cannot be null.
+	 */
+	public JournalReplayer(@NonNull final AccountStore store) {
+		this.store = store;
+	}
+
+	@Override
+	public void created(final String number, final long balance) {
+		entries++;
+		final Account account = store.getOrCreate(number);
+		account.deposit(balance - account.readBalance());
+	}
+
+	@Override
+	public void deleted(final String number) {
+		entries++;
+		store.delete(number);
+	}
+
+	/**
+	 * Returns number of entries replayed so far.
+	 * @return Number of entries.
+	 */
+	public long getEntries() {
+		return entries;
+	}
+
+	@Override
+	public void transferred(final String sourceNumber, final String targetNumber, final long amount) {
+		entries++;
+		deposit(sourceNumber, -amount);
+		deposit(targetNumber, amount);
+	}
+
+	private void deposit(final String number, final long amount) {
+		// Some stores return detached copies from get(), so the balance is changed through getOrCreate().
+		if (store.get(number).isPresent()) {
+			store.getOrCreate(number).deposit(amount);
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package pl.com.salsoft.exercise2.dao;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import lombok.NonNull;
+import pl.com.salsoft.exercise2.model.Account;
+
+/**
+ * Default account store, keeping every account as a separate object in a ConcurrentHashMap.
+ * Each account has its own AtomicLong balance, so the same Account instance is returned
+ * for the same number as long as the account exists.
+ */
+public class MapAccountStore implements AccountStore {
+	private final long defaultBalance;
+	private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates the store with predefined initial balance for newly created accounts.
+	 * @param defaultBalance Default balance for new accounts.
+	 */
+	public MapAccountStore(final long defaultBalance) {
+		this.defaultBalance = defaultBalance;
+	}
+
+	@Override
+	public boolean delete(@NonNull final String number, @NonNull final Consumer<Account> onDelete) {
+		final boolean[] deleted = new boolean[1];
+		accounts.computeIfPresent(number, (key, account) -> {
+			onDelete.accept(account);
+			deleted[0] = true;
+			return null;
+		});
+		return deleted[0];
+	}
+
+	@Override
+	public void forEach(@NonNull final Consumer<Account> action) {
+		accounts.values().forEach(action);
+	}
+
+	@Override
+	public Optional<Account> get(final String number) {
+		return Optional.ofNullable(accounts.get(number));
+	}
+
+	@Override
+	public Set<Account> getAll() {
+		// ConcurrentHashMap iterators are weakly consistent and never throw ConcurrentModificationException,
+		// so no locking is needed. Consistent cut of balances is provided by AccountDao.
+		return Set.copyOf(accounts.values());
+	}
+
+	@Override
+	public long size() {
+		return accounts.size();
+	}
+
+	@Override
+	public Account getOrCreate(final String number, @NonNull final Consumer<Account> onCreate) {
+		final Account existing = accounts.get(number);
+		if (existing != null) {
+			return existing;
+		}
+		return accounts.computeIfAbsent(number, key -> {
+			final Account account = Account.builder()
+					.number(number)
+					.balance(new AtomicLong(defaultBalance))
+					.build();
+			onCreate.accept(account);
+			return account;
+		});
+	}
+}
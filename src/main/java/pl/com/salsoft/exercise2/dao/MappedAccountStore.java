@@ -0,0 +1,487 @@
+package pl.com.salsoft.exercise2.dao;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lombok.NonNull;
+import pl.com.salsoft.exercise2.model.Account;
+
+/**
+ * Account store keeping accounts in a memory-mapped file, so they survive restarts without replaying anything.
+ * Account numbers have to be numeric, like in CompactAccountStore (they are encoded into a long the same way).
+ * Other numbers are not supported: they are never found and can't be created.
+ *
+ * File layout (native byte order): 64-byte header (magic, format version, capacity, allocated records,
+ * live accounts, clean flag), then capacity records of 32 bytes (encoded number, balance, version, unused),
+ * then open-addressing index (linear probing) of 2 * capacity int slots, each holding record number + 1
+ * (0 is an empty slot, -1 a deleted one). Records never move and are never reused, so balances are updated
+ * lock-free with VarHandle CAS directly on the mapped memory, and an account view never touches balance
+ * of another account. The index is guarded by a read/write lock, like segments of CompactAccountStore.
+ *
+ * Version of a record is 0 until the record is complete, 1 once the account is created, incremented after every
+ * withdrawal and deposit, and negative once the account is deleted. When records run out, the file grows twice:
+ * the new index is built past the end of the old file, then capacity in the header is switched and the file
+ * is mapped again. Records keep their offsets, and views created before share the same pages through the old
+ * mapping. The file can't be larger than a single mapping (up to MAX_CAPACITY accounts).
+ *
+ * The clean flag is cleared when the store is opened and set by close(). Writes to mapped memory survive
+ * a crash of the process (but not of the operating system, the file is forced only on close), and a store
+ * which wasn't closed has its index rebuilt from committed records on open. A crash can leave a transfer
+ * half-applied (withdrawn but not deposited), or a balance change without its version increment.
+ */
+public class MappedAccountStore implements AccountStore, Closeable {
+	/**
+	 * Maximum number of records (created accounts, including deleted ones) in a single file.
+	 */
+	public static final int MAX_CAPACITY = 1 << 25;
+
+	private static final Logger log = LoggerFactory.getLogger(MappedAccountStore.class);
+	private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+	private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+	private static final int MAGIC = 0x45583241;
+	private static final int FORMAT_VERSION = 1;
+	private static final int HEADER_SIZE = 64;
+	private static final int FORMAT_OFFSET = 4;
+	private static final int CAPACITY_OFFSET = 8;
+	private static final int ALLOCATED_OFFSET = 16;
+	private static final int LIVE_OFFSET = 24;
+	private static final int CLEAN_OFFSET = 32;
+	private static final int RECORD_SIZE = 32;
+	private static final int KEY = 0;
+	private static final int BALANCE = 8;
+	private static final int VERSION = 16;
+	private static final int INDEX_SLOTS_PER_RECORD = 2;
+	private static final int EMPTY_SLOT = 0;
+	private static final int DELETED_SLOT = -1;
+	private static final long DELETED_VERSION = Long.MIN_VALUE;
+	private static final int INITIAL_CAPACITY = 1024;
+	// Returned by CompactAccountStore.tryEncode() for numbers which can't be encoded.
+	private static final long UNSUPPORTED_KEY = 0L;
+
+	private final long defaultBalance;
+	private final FileChannel channel;
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	// Replaced under the write lock when the file grows. Always covers all allocated records.
+	private volatile MappedByteBuffer mapping;
+	private int capacity;
+	// Written under the write lock, read without any lock by size() and forEach().
+	private volatile int allocated;
+	private volatile int live;
+
+	private MappedAccountStore(final long defaultBalance, final FileChannel channel) {
+		this.defaultBalance = defaultBalance;
+		this.channel = channel;
+	}
+
+	/**
+	 * Opens the store in given file, creating the file if it doesn't exist. If the store wasn't closed
+	 * (the process crashed), its index is rebuilt.
+	 * @param file File of the store.
+	 * @param defaultBalance Default balance for new accounts.
+	 * @return Opened store. Has to be closed.
+	 * @throws IOException if the file could not be opened, it's used by another process or it's not a file of this store.
+	 */
+	public static MappedAccountStore open(@NonNull final Path file, final long defaultBalance) throws IOException {
+		final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			if (channel.tryLock() == null) {
+				throw new IOException(String.format("%s is used by another process.", file));
+			}
+			final MappedAccountStore store = new MappedAccountStore(defaultBalance, channel);
+			if (channel.size() == 0) {
+				store.create();
+			} else {
+				store.load(file);
+			}
+			return store;
+		} catch (final IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Forces all changes to the disk, marks the store as closed cleanly and closes the file.
+	 * The store can't be used afterwards.
+	 * @throws IOException if the file could not be forced or closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		lock.writeLock().lock();
+		try {
+			mapping.force();
+			LONG.setVolatile(mapping, CLEAN_OFFSET, 1L);
+			mapping.force();
+			channel.close();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public boolean delete(@NonNull final String number, @NonNull final Consumer<Account> onDelete) {
+		final long key = CompactAccountStore.tryEncode(number);
+		if (key == UNSUPPORTED_KEY) {
+			return false;
+		}
+		lock.writeLock().lock();
+		try {
+			final int slot = slotOf(mapping, key);
+			if (slot < 0) {
+				return false;
+			}
+			final int record = (int) INT.get(mapping, indexOffset(slot)) - 1;
+			onDelete.accept(new MappedAccount(number, mapping, recordOffset(record)));
+			// Record first, so a crash in between doesn't bring the account back when the index is rebuilt.
+			LONG.setRelease(mapping, recordOffset(record) + VERSION, DELETED_VERSION);
+			INT.set(mapping, indexOffset(slot), DELETED_SLOT);
+			live--;
+			LONG.set(mapping, LIVE_OFFSET, (long) live);
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void forEach(@NonNull final Consumer<Account> action) {
+		// Records never move, so they are visited without the lock. Mapping read after the number
+		// of allocated records covers all of them.
+		final int count = allocated;
+		final ByteBuffer records = mapping;
+		for (int record = 0; record < count; record++) {
+			final int offset = recordOffset(record);
+			if ((long) LONG.getAcquire(records, offset + VERSION) > 0) {
+				action.accept(new MappedAccount(CompactAccountStore.decode((long) LONG.get(records, offset + KEY)), records,
+						offset));
+			}
+		}
+	}
+
+	@Override
+	public Optional<Account> get(@NonNull final String number) {
+		final long key = CompactAccountStore.tryEncode(number);
+		if (key == UNSUPPORTED_KEY) {
+			return Optional.empty();
+		}
+		lock.readLock().lock();
+		try {
+			final int slot = slotOf(mapping, key);
+			return slot < 0 ? Optional.empty() : Optional.of(view(number, slot));
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public Set<Account> getAll() {
+		final List<Account> result = new ArrayList<>();
+		forEach(result::add);
+		return Set.copyOf(result);
+	}
+
+	@Override
+	public Account getOrCreate(final String number, @NonNull final Consumer<Account> onCreate) {
+		final long key = CompactAccountStore.encode(number);
+		final Optional<Account> existing = get(number);
+		if (existing.isPresent()) {
+			return existing.get();
+		}
+		lock.writeLock().lock();
+		try {
+			final int slot = slotOf(mapping, key);
+			if (slot >= 0) {
+				return view(number, slot);
+			}
+			if (allocated == capacity) {
+				grow();
+			}
+			final int record = allocated;
+			final int offset = recordOffset(record);
+			// Unallocated records may hold leftovers of an old index, so the record is written before it's
+			// published. Otherwise a crash in between would let a rebuilt index pick up a garbage record.
+			LONG.set(mapping, offset + KEY, key);
+			LONG.set(mapping, offset + BALANCE, defaultBalance);
+			LONG.set(mapping, offset + VERSION, 0L);
+			LONG.setRelease(mapping, ALLOCATED_OFFSET, (long) record + 1);
+			allocated = record + 1;
+			final Account account = new MappedAccount(number, mapping, offset);
+			onCreate.accept(account);
+			// Committed before it's indexed, so a rebuilt index never points to an incomplete record.
+			LONG.setRelease(mapping, offset + VERSION, 1L);
+			insert(mapping, capacity, key, record);
+			live++;
+			LONG.set(mapping, LIVE_OFFSET, (long) live);
+			return account;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Only numbers supported by CompactAccountStore are supported.
+	 */
+	@Override
+	public boolean isSupported(@NonNull final String number) {
+		return CompactAccountStore.tryEncode(number) != UNSUPPORTED_KEY;
+	}
+
+	@Override
+	public long size() {
+		return live;
+	}
+
+	/**
+	 * Reads version of an account - number of its balance changes since it was created, plus 1.
+	 * @param number Number of the account.
+	 * @return Version of the account, or 0 if there is no such account.
+	 */
+	public long version(@NonNull final String number) {
+		final long key = CompactAccountStore.tryEncode(number);
+		if (key == UNSUPPORTED_KEY) {
+			return 0;
+		}
+		lock.readLock().lock();
+		try {
+			final int slot = slotOf(mapping, key);
+			if (slot < 0) {
+				return 0;
+			}
+			final int record = (int) INT.get(mapping, indexOffset(slot)) - 1;
+			return (long) LONG.getVolatile(mapping, recordOffset(record) + VERSION);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private void create() throws IOException {
+		capacity = INITIAL_CAPACITY;
+		mapping = map(capacity);
+		INT.set(mapping, 0, MAGIC);
+		INT.set(mapping, FORMAT_OFFSET, FORMAT_VERSION);
+		LONG.set(mapping, CAPACITY_OFFSET, (long) capacity);
+		mapping.force();
+	}
+
+	private void load(final Path file) throws IOException {
+		if (channel.size() < HEADER_SIZE) {
+			throw invalidFile(file);
+		}
+		final MappedByteBuffer header = channel.map(MapMode.READ_WRITE, 0, HEADER_SIZE);
+		final long fileCapacity = (long) LONG.get(header, CAPACITY_OFFSET);
+		final long fileAllocated = (long) LONG.get(header, ALLOCATED_OFFSET);
+		if ((int) INT.get(header, 0) != MAGIC || (int) INT.get(header, FORMAT_OFFSET) != FORMAT_VERSION
+				|| fileCapacity < INITIAL_CAPACITY || fileCapacity > MAX_CAPACITY || Long.bitCount(fileCapacity) != 1
+				|| fileAllocated < 0 || fileAllocated > fileCapacity || channel.size() < fileSize((int) fileCapacity)) {
+			throw invalidFile(file);
+		}
+		capacity = (int) fileCapacity;
+		allocated = (int) fileAllocated;
+		mapping = map(capacity);
+		if ((long) LONG.get(mapping, CLEAN_OFFSET) == 0) {
+			final long start = System.nanoTime();
+			rebuildIndex();
+			log.warn("Account store {} was not closed. Index of {} accounts rebuilt in {} ms.", file, live,
+					(System.nanoTime() - start) / 1_000_000);
+		} else {
+			live = (int) (long) LONG.get(mapping, LIVE_OFFSET);
+		}
+		// Until close(), a crash leaves the store dirty.
+		LONG.set(mapping, CLEAN_OFFSET, 0L);
+		mapping.force();
+	}
+
+	/**
+	 * Builds the index from scratch out of committed records.
+	 */
+	private void rebuildIndex() {
+		final int indexStart = indexOffset(0);
+		for (int slot = 0; slot < capacity * INDEX_SLOTS_PER_RECORD; slot++) {
+			INT.set(mapping, indexStart + slot * Integer.BYTES, EMPTY_SLOT);
+		}
+		int count = 0;
+		for (int record = 0; record < allocated; record++) {
+			final int offset = recordOffset(record);
+			if ((long) LONG.get(mapping, offset + VERSION) > 0) {
+				insert(mapping, capacity, (long) LONG.get(mapping, offset + KEY), record);
+				count++;
+			}
+		}
+		live = count;
+		LONG.set(mapping, LIVE_OFFSET, (long) live);
+	}
+
+	/**
+	 * Doubles the capacity. Has to be called under the write lock.
+	 */
+	private void grow() {
+		if (capacity == MAX_CAPACITY) {
+			throw new IllegalStateException(String.format("Mapped account store is full (%d accounts).", MAX_CAPACITY));
+		}
+		try {
+			final int newCapacity = capacity * 2;
+			// The new index starts past the end of the old file, so it's all empty slots.
+			final MappedByteBuffer newMapping = map(newCapacity);
+			for (int slot = 0; slot < capacity * INDEX_SLOTS_PER_RECORD; slot++) {
+				final int record = (int) INT.get(mapping, indexOffset(slot)) - 1;
+				if (record >= 0) {
+					insert(newMapping, newCapacity, (long) LONG.get(mapping, recordOffset(record) + KEY), record);
+				}
+			}
+			// Old index becomes a part of unallocated records, which are fully written when allocated.
+			LONG.setVolatile(newMapping, CAPACITY_OFFSET, (long) newCapacity);
+			capacity = newCapacity;
+			mapping = newMapping;
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private MappedByteBuffer map(final int recordCapacity) throws IOException {
+		return channel.map(MapMode.READ_WRITE, 0, fileSize(recordCapacity));
+	}
+
+	private Account view(final String number, final int slot) {
+		final int record = (int) INT.get(mapping, indexOffset(slot)) - 1;
+		return new MappedAccount(number, mapping, recordOffset(record));
+	}
+
+	/**
+	 * Finds index slot of given key. Has to be called under the lock.
+	 * @return Slot of the key, or -1 if it's not in the index.
+	 */
+	private int slotOf(final ByteBuffer buffer, final long key) {
+		final int mask = capacity * INDEX_SLOTS_PER_RECORD - 1;
+		int slot = CompactAccountStore.hash(key) & mask;
+		for (int value = (int) INT.get(buffer, indexOffset(slot)); value != EMPTY_SLOT;
+				value = (int) INT.get(buffer, indexOffset(slot))) {
+			if (value != DELETED_SLOT && (long) LONG.get(buffer, recordOffset(value - 1) + KEY) == key) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	private int indexOffset(final int slot) {
+		return indexOffset(capacity, slot);
+	}
+
+	private static void insert(final ByteBuffer buffer, final int recordCapacity, final long key, final int record) {
+		final int mask = recordCapacity * INDEX_SLOTS_PER_RECORD - 1;
+		int slot = CompactAccountStore.hash(key) & mask;
+		// Deleted slots are not reused, so there are never more used slots than records.
+		while ((int) INT.get(buffer, indexOffset(recordCapacity, slot)) != EMPTY_SLOT) {
+			slot = (slot + 1) & mask;
+		}
+		INT.set(buffer, indexOffset(recordCapacity, slot), record + 1);
+	}
+
+	private static int indexOffset(final int recordCapacity, final int slot) {
+		return HEADER_SIZE + recordCapacity * RECORD_SIZE + slot * Integer.BYTES;
+	}
+
+	private static int recordOffset(final int record) {
+		return HEADER_SIZE + record * RECORD_SIZE;
+	}
+
+	private static int fileSize(final int recordCapacity) {
+		return indexOffset(recordCapacity, recordCapacity * INDEX_SLOTS_PER_RECORD);
+	}
+
+	private static IOException invalidFile(final Path file) {
+		return new IOException(String.format("%s is not a file of a mapped account store.", file));
+	}
+
+	/**
+	 * Account view pointing to a record in the mapped file.
+	 * All balance operations are done directly on the mapped memory with VarHandle atomics.
+	 */
+	private static final class MappedAccount extends Account {
+		private final ByteBuffer buffer;
+		private final int offset;
+
+		MappedAccount(final String number, final ByteBuffer buffer, final int offset) {
+			super(number, null);
+			this.buffer = buffer;
+			this.offset = offset;
+		}
+
+		/**
+		 * Balance of mapped account is not backed by AtomicLong, so a detached copy is returned.
+		 * Modifying it has no effect on the account. Use withdraw() and deposit() instead.
+		 */
+		@Override
+		public AtomicLong getBalance() {
+			return new AtomicLong(readBalance());
+		}
+
+		@Override
+		public long readBalance() {
+			return (long) LONG.getVolatile(buffer, offset + BALANCE);
+		}
+
+		@Override
+		public long withdraw(final long amount) {
+			long current = readBalance();
+			while (current >= amount) {
+				final long witness = (long) LONG.compareAndExchange(buffer, offset + BALANCE, current, current - amount);
+				if (witness == current) {
+					changed();
+					break;
+				}
+				countCasRetry();
+				current = witness;
+			}
+			return current;
+		}
+
+		@Override
+		public long deposit(final long amount) {
+			final long balance = (long) LONG.getAndAdd(buffer, offset + BALANCE, amount) + amount;
+			changed();
+			return balance;
+		}
+
+		/**
+		 * Mapped accounts are views created on every lookup, so they can't keep hot cells between credits.
+		 * Credit is a plain atomic add.
+		 */
+		@Override
+		public long credit(final long amount) {
+			return deposit(amount);
+		}
+
+		@Override
+		public void writeBalance(final long newBalance) {
+			LONG.setRelease(buffer, offset + BALANCE, newBalance);
+			changed();
+		}
+
+		private void changed() {
+			LONG.getAndAdd(buffer, offset + VERSION, 1L);
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package pl.com.salsoft.exercise2.dao;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lombok.NonNull;
+import pl.com.salsoft.exercise2.model.Account;
+
+/**
+ * Reads and writes snapshot files - all accounts with their balances as of given journal position.
+ *
+ * File layout: int magic, int format version, long journal position, long number of accounts,
+ * then for each account: unsigned short length and UTF-8 bytes of account number, long balance.
+ * The file ends with CRC32 of everything before it. Snapshot is written to a temporary file first
+ * and atomically renamed when complete, so a crash never leaves a half-written snapshot under the final name.
+ * Snapshots are read through memory mapping.
+ */
+public class Snapshots {
+	private static final Logger log = LoggerFactory.getLogger(Snapshots.class);
+	private static final int MAGIC = 0x45583253;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 2 * Integer.BYTES + 2 * Long.BYTES;
+	private static final int MAX_RECORD_SIZE = Short.BYTES + 0xFFFF + Long.BYTES;
+	private static final long MAP_WINDOW = 1L << 30;
+	private static final String PREFIX = "snapshot-";
+	private static final String SUFFIX = ".bin";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	/**
+	 * Deletes all but given number of newest snapshots.
+	 * @param directory Snapshot directory.
+	 * @param keep Number of newest snapshots to keep.
+	 * @return Position of the oldest snapshot kept, or 0 if there are no snapshots.
+	 * @throws IOException if a snapshot could not be deleted.
+	 */
+	public static long deleteOlder(@NonNull final Path directory, final int keep) throws IOException {
+		final List<Path> snapshots = list(directory);
+		for (final Path snapshot : snapshots.subList(Math.min(keep, snapshots.size()), snapshots.size())) {
+			Files.deleteIfExists(snapshot);
+		}
+		return snapshots.isEmpty() ? 0 : position(snapshots.get(Math.min(keep, snapshots.size()) - 1));
+	}
+
+	/**
+	 * Lists snapshot files in given directory, newest first.
+	 * @param directory Snapshot directory.
+	 * @return List of snapshot files. Possibly empty, never null.
+	 * @throws IOException if the directory could not be listed.
+	 */
+	public static List<Path> list(@NonNull final Path directory) throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(file -> file.getFileName().toString().startsWith(PREFIX))
+					.filter(file -> file.getFileName().toString().endsWith(SUFFIX))
+					.sorted(Comparator.comparingLong(Snapshots::position).reversed())
+					.collect(Collectors.toList());
+		}
+	}
+
+	/**
+	 * Loads the newest valid snapshot, passing all its accounts to the visitor as created accounts.
+	 * Snapshots which fail checksum verification are skipped (with a warning) in favour of older ones.
+	 * @param directory Snapshot directory.
+	 * @param visitor Visitor receiving accounts.
+	 * @return Journal position of the loaded snapshot, or 0 if there was no valid snapshot.
+	 * @throws IOException if a snapshot could not be read.
+	 */
+	public static long loadNewest(@NonNull final Path directory, @NonNull final Journal.Visitor visitor) throws IOException {
+		for (final Path snapshot : list(directory)) {
+			try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+				if (isValid(channel)) {
+					return load(channel, visitor);
+				}
+			}
+			log.warn("Snapshot {} is corrupted. Trying an older one.", snapshot);
+		}
+		return 0;
+	}
+
+	/**
+	 * Writes snapshot of given accounts.
+	 * @param directory Snapshot directory.
+	 * @param position Journal position the accounts reflect.
+	 * @param accounts Accounts to write.
+	 * @return Written snapshot file.
+	 * @throws IOException if the snapshot could not be written.
+	 */
+	public static Path write(@NonNull final Path directory, final long position, @NonNull final Collection<Account> accounts)
+			throws IOException {
+		final Path file = directory.resolve(String.format("%s%020d%s", PREFIX, position, SUFFIX));
+		final Path temp = directory.resolve(file.getFileName() + TEMP_SUFFIX);
+		try (FileOutputStream fileOutput = new FileOutputStream(temp.toFile())) {
+			final CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(fileOutput, 1 << 16), new CRC32());
+			final DataOutputStream output = new DataOutputStream(checked);
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeLong(position);
+			output.writeLong(accounts.size());
+			for (final Account account : accounts) {
+				final byte[] number = account.getNumber().getBytes(StandardCharsets.UTF_8);
+				output.writeShort(number.length);
+				output.write(number);
+				output.writeLong(account.readBalance());
+			}
+			output.writeInt((int) checked.getChecksum().getValue());
+			output.flush();
+			fileOutput.getChannel().force(true);
+		}
+		Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+		return file;
+	}
+
+	/**
+	 * Reads journal position of the snapshot from its file name.
+	 * @param snapshot Snapshot file.
+	 * @return Journal position.
+	 */
+	static long position(final Path snapshot) {
+		final String name = snapshot.getFileName().toString();
+		return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+	}
+
+	private static boolean isValid(final FileChannel channel) throws IOException {
+		final long size = channel.size();
+		if (size < HEADER_SIZE + Integer.BYTES) {
+			return false;
+		}
+		final long dataSize = size - Integer.BYTES;
+		final CRC32 checksum = new CRC32();
+		for (long offset = 0; offset < dataSize; offset += MAP_WINDOW) {
+			checksum.update(channel.map(MapMode.READ_ONLY, offset, Math.min(MAP_WINDOW, dataSize - offset)));
+		}
+		final ByteBuffer trailer = ByteBuffer.allocate(Integer.BYTES);
+		channel.read(trailer, dataSize);
+		final MappedByteBuffer header = channel.map(MapMode.READ_ONLY, 0, HEADER_SIZE);
+		return trailer.getInt(0) == (int) checksum.getValue() && header.getInt(0) == MAGIC && header.getInt(Integer.BYTES) == VERSION;
+	}
+
+	private static long load(final FileChannel channel, final Journal.Visitor visitor) throws IOException {
+		final long dataSize = channel.size() - Integer.BYTES;
+		final MappedByteBuffer header = channel.map(MapMode.READ_ONLY, 0, HEADER_SIZE);
+		final long position = header.getLong(2 * Integer.BYTES);
+		final long count = header.getLong(2 * Integer.BYTES + Long.BYTES);
+		long windowStart = HEADER_SIZE;
+		MappedByteBuffer window = channel.map(MapMode.READ_ONLY, windowStart, Math.min(MAP_WINDOW, dataSize - windowStart));
+		final byte[] number = new byte[0xFFFF];
+		for (long i = 0; i < count; i++) {
+			if (window.remaining() < MAX_RECORD_SIZE && windowStart + window.limit() < dataSize) {
+				windowStart += window.position();
+				window = channel.map(MapMode.READ_ONLY, windowStart, Math.min(MAP_WINDOW, dataSize - windowStart));
+			}
+			final int length = Short.toUnsignedInt(window.getShort());
+			window.get(number, 0, length);
+			visitor.created(new String(number, 0, length, StandardCharsets.UTF_8), window.getLong());
+		}
+		return position;
+	}
+}
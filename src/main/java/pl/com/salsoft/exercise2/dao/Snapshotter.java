@@ -0,0 +1,102 @@
+package pl.com.salsoft.exercise2.dao;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lombok.NonNull;
+
+/**
+ * Takes snapshots of all accounts in the background, so startup only needs to load the newest snapshot
+ * and replay the journal written after it.
+ *
+ * Snapshots are not taken from live accounts. Instead, the previous snapshot is loaded into a temporary store
+ * and journal entries written since then (up to the current durable position) are applied on top of it.
+ * This gives exact state as of that journal position, without stopping or even slowing down payments,
+ * at the cost of reading the journal once more and memory for the temporary store while the snapshot is taken.
+ * Once a new snapshot is written, older snapshots (but one) and journal segments not needed by them are deleted.
+ */
+public class Snapshotter implements Closeable {
+	private static final Logger log = LoggerFactory.getLogger(Snapshotter.class);
+	private static final int SNAPSHOTS_TO_KEEP = 2;
+
+	private final Path directory;
+	private final FileJournal journal;
+	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		final Thread thread = new Thread(runnable, "snapshotter");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Creates snapshotter working in the journal directory.
+	 * @param directory Journal directory. Snapshots are kept in the same directory.
+	 * @param journal Journal of the application.
+	 */
+	public Snapshotter(@NonNull final Path directory, @NonNull final FileJournal journal) {
+		this.directory = directory;
+		this.journal = journal;
+	}
+
+	/**
+	 * Stops taking snapshots. Snapshot in progress is finished first.
+	 */
+	@Override
+	public void close() {
+		executor.shutdown();
+		try {
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Takes a snapshot of all accounts as of current durable position of the journal.
+	 * @return Written snapshot file, or empty optional if nothing was journaled since the previous snapshot.
+	 * @throws IOException if the journal could not be read or the snapshot could not be written.
+	 */
+	public synchronized Optional<Path> snapshot() throws IOException {
+		final long start = System.nanoTime();
+		final long target = journal.durablePosition();
+		final List<Path> existing = Snapshots.list(directory);
+		if (!existing.isEmpty() && Snapshots.position(existing.get(0)) >= target) {
+			return Optional.empty();
+		}
+		final MapAccountStore state = new MapAccountStore(0);
+		final JournalReplayer replayer = new JournalReplayer(state);
+		final long from = Snapshots.loadNewest(directory, replayer);
+		FileJournal.replay(directory, from, target, replayer);
+		final var accounts = state.getAll();
+		final Path snapshot = Snapshots.write(directory, target, accounts);
+		journal.deleteSegmentsBefore(Snapshots.deleteOlder(directory, SNAPSHOTS_TO_KEEP));
+		log.info("Snapshot of {} accounts at journal position {} taken in {} ms.", accounts.size(), target,
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		return Optional.of(snapshot);
+	}
+
+	/**
+	 * Starts taking snapshots periodically in the background.
+	 * @param interval Interval between snapshots.
+	 * @param unit Unit of the interval.
+	 */
+	public void start(final long interval, @NonNull final TimeUnit unit) {
+		executor.scheduleWithFixedDelay(this::snapshotInBackground, interval, interval, unit);
+	}
+
+	private void snapshotInBackground() {
+		try {
+			snapshot();
+		} catch (final IOException | RuntimeException e) {
+			log.error("Could not take snapshot: {}", e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package pl.com.salsoft.exercise2.dao;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lombok.NonNull;
+import pl.com.salsoft.exercise2.model.Account;
+import pl.com.salsoft.exercise2.model.Transaction;
+import pl.com.salsoft.exercise2.utils.BigDecimalUtils;
+
+/**
+ * Recent transfers of every account, kept in a fixed-size ring per account. Ring is made of primitive arrays
+ * (sequence stamp, amount, resulting balance and timestamp in a long[], counterparty in a String[] pointing
+ * to the number already held by the request), created on the first transfer of the account. Recording a transfer
+ * doesn't allocate, so memory is bounded by number of accounts times ring size, no matter the traffic.
+ *
+ * Concurrent transfers of the same account claim consecutive sequence numbers and write their own entries.
+ * An entry is a seqlock: its stamp is negative while it's written and set to the sequence number once it's
+ * complete, and readers skip entries whose stamp changed while they were read. A writer lapped by a writer
+ * of the same entry one ring later drops its entry.
+ */
+public class TransactionHistory {
+	/**
+	 * History which doesn't record anything. Used when the history is disabled.
+	 */
+	public static final TransactionHistory NONE = new TransactionHistory(0);
+
+	private final int size;
+	private final Map<String, Ring> rings = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates history.
+	 * @param size Number of transfers kept per account. Rounded up to a power of 2. 0 disables the history.
+	 */
+	public TransactionHistory(final int size) {
+		if (size < 0 || size > 1 << 20) {
+			throw new IllegalArgumentException("Invalid history size: " + size);
+		}
+		this.size = size <= 1 ? size : Integer.highestOneBit(size - 1) << 1;
+	}
+
+	/**
+	 * @return Number of transfers kept per account. 0 if the history is disabled.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Records a transfer in the history of both accounts.
+	 * @param sourceNumber Number of the source account.
+	 * @param targetNumber Number of the target account.
+	 * @param amount Transferred amount.
+	 * @param sourceBalance Balance of the source account right after the transfer.
+	 * @param targetBalance Balance of the target account right after the transfer, or Account.UNKNOWN_BALANCE.
+	 */
+	public void transferred(final String sourceNumber, final String targetNumber, final long amount,
+			final long sourceBalance, final long targetBalance) {
+		if (size == 0) {
+			return;
+		}
+		final long timestamp = System.currentTimeMillis();
+		ring(sourceNumber).record(targetNumber, -amount, sourceBalance, timestamp);
+		ring(targetNumber).record(sourceNumber, amount, targetBalance, timestamp);
+	}
+
+	/**
+	 * Finds recent transfers of an account.
+	 * @param number Number of the account.
+	 * @param limit Maximum number of transfers to return.
+	 * @return Transfers, newest first. Empty list if the account has no history, never null.
+	 */
+	public List<Transaction> recent(@NonNull final String number, final int limit) {
+		final Ring ring = rings.get(number);
+		return ring == null ? Collections.emptyList() : ring.read(limit);
+	}
+
+	/**
+	 * Forgets the history of a deleted account.
+	 * @param number Number of the account.
+	 */
+	void deleted(final String number) {
+		rings.remove(number);
+	}
+
+	private Ring ring(final String number) {
+		final Ring ring = rings.get(number);
+		return ring != null ? ring : rings.computeIfAbsent(number, key -> new Ring(size));
+	}
+
+	private static final class Ring {
+		private static final VarHandle ENTRY = MethodHandles.arrayElementVarHandle(long[].class);
+		private static final VarHandle SEQUENCE;
+		private static final int STAMP = 0;
+		private static final int AMOUNT = 1;
+		private static final int BALANCE = 2;
+		private static final int TIMESTAMP = 3;
+		private static final int FIELDS = 4;
+
+		static {
+			try {
+				SEQUENCE = MethodHandles.lookup().findVarHandle(Ring.class, "sequence", long.class);
+			} catch (final ReflectiveOperationException e) {
+				throw new ExceptionInInitializerError(e);
+			}
+		}
+
+		private final int mask;
+		private final long[] entries;
+		private final String[] counterparties;
+		// Sequence number of the last claimed entry. Entries are numbered from 1, so stamp 0 means empty.
+		private volatile long sequence;
+
+		private Ring(final int size) {
+			this.mask = size - 1;
+			this.entries = new long[size * FIELDS];
+			this.counterparties = new String[size];
+		}
+
+		private void record(final String counterparty, final long amount, final long balance, final long timestamp) {
+			final long number = (long) SEQUENCE.getAndAdd(this, 1L) + 1;
+			final int index = (int) (number & mask);
+			final int entry = index * FIELDS;
+			while (true) {
+				final long stamp = (long) ENTRY.getAcquire(entries, entry + STAMP);
+				if (Math.abs(stamp) >= number) {
+					// Lapped by a newer entry.
+					return;
+				}
+				if (stamp < 0) {
+					// Older entry is still being written.
+					Thread.onSpinWait();
+				} else if (ENTRY.compareAndSet(entries, entry + STAMP, stamp, -number)) {
+					break;
+				}
+			}
+			ENTRY.setOpaque(entries, entry + AMOUNT, amount);
+			ENTRY.setOpaque(entries, entry + BALANCE, balance);
+			ENTRY.setOpaque(entries, entry + TIMESTAMP, timestamp);
+			counterparties[index] = counterparty;
+			ENTRY.setRelease(entries, entry + STAMP, number);
+		}
+
+		private List<Transaction> read(final int limit) {
+			final long newest = sequence;
+			final long oldest = Math.max(1, newest - mask);
+			final List<Transaction> result = new ArrayList<>(Math.min(limit, mask + 1));
+			for (long number = newest; number >= oldest && result.size() < limit; number--) {
+				final int index = (int) (number & mask);
+				final int entry = index * FIELDS;
+				if ((long) ENTRY.getAcquire(entries, entry + STAMP) != number) {
+					continue;
+				}
+				final long amount = (long) ENTRY.getOpaque(entries, entry + AMOUNT);
+				final long balance = (long) ENTRY.getOpaque(entries, entry + BALANCE);
+				final long timestamp = (long) ENTRY.getOpaque(entries, entry + TIMESTAMP);
+				final String counterparty = counterparties[index];
+				VarHandle.acquireFence();
+				if ((long) ENTRY.getAcquire(entries, entry + STAMP) != number) {
+					continue;
+				}
+				result.add(Transaction.builder()
+						.sequence(number)
+						.counterparty(counterparty)
+						.amount(BigDecimalUtils.toPrice(amount))
+						.balance(balance == Account.UNKNOWN_BALANCE ? null : BigDecimalUtils.toPrice(balance))
+						.timestamp(timestamp)
+						.build());
+			}
+			return result;
+		}
+	}
+}
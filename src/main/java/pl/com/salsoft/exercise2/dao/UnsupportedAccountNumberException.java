@@ -0,0 +1,17 @@
+package pl.com.salsoft.exercise2.dao;
+
+/**
+ * Thrown when an account is to be created with a number the account store can't keep
+ * (see AccountStore.isSupported()). REST endpoints answer it with 400.
+ */
+public class UnsupportedAccountNumberException extends IllegalArgumentException {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Creates exception with given message.
+	 * @param message Description of the problem, with the number.
+	 */
+	public UnsupportedAccountNumberException(final String message) {
+		super(message);
+	}
+}
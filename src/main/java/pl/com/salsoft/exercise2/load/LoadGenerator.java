@@ -0,0 +1,361 @@
+package pl.com.salsoft.exercise2.load;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpClient.Version;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.eclipse.jetty.http.HttpStatus;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.NonNull;
+import pl.com.salsoft.exercise2.App;
+import pl.com.salsoft.exercise2.rest.HttpTransport;
+import pl.com.salsoft.exercise2.utils.BigDecimalUtils;
+
+/**
+ * Load generator of the REST API. Drives POST /payment and GET /account/{number} from a number of threads,
+ * either as fast as possible or at a target rate, over a set of accounts picked with Zipf distribution,
+ * and reports throughput, latency percentiles and errors of both operations. Payments can be sent in batches
+ * to POST /payment/batch instead, to see how much a client gains by batching.
+ *
+ * Before the load, every account is created with a cycle of 0.01 transfers (account i pays account i + 1),
+ * which doesn't change the balance of any existing account. Total balance of the accounts is read with
+ * GET /account right before and right after the load - payments only move money between the accounts,
+ * so any difference means money was lost or created.
+ *
+ * With a target rate every thread sends its requests on a fixed schedule, and latency is measured from
+ * the scheduled time of the request, so requests delayed by a slow server count with the delay
+ * (see LoadReport.Operation).
+ */
+public class LoadGenerator {
+	static final String USAGE = String.join(System.lineSeparator(),
+			"Usage: java -cp exercise2-1.0.0-jar-with-dependencies.jar pl.com.salsoft.exercise2.load.LoadGenerator [options]",
+			"  --port=N       port of a running application, 0 starts the application in-process (default 0)",
+			"  --host=HOST    host of a running application (default localhost)",
+			"  --threads=N    number of client threads (default 16)",
+			"  --rate=N       target requests per second of all threads together, 0 is unlimited (default 0)",
+			"  --accounts=N   number of accounts, at least 2 (default 1000)",
+			"  --skew=S       Zipf skew of account popularity, 0 is uniform (default 1.0)",
+			"  --reads=F      fraction of requests reading an account, the rest are payments (default 0.2)",
+			"  --batch=N      payments per request, more than 1 posts them to /payment/batch (default 1)",
+			"  --warmup=N     seconds of load before the measurement (default 5)",
+			"  --duration=N   seconds of measured load (default 30)");
+	private static final long FIRST_ACCOUNT = 1_000_000;
+	private static final int SETUP_BATCH = 1000;
+	private static final int MAX_AMOUNT = 100;
+	private static final Duration TIMEOUT = Duration.ofSeconds(30);
+	private static final String PAYMENT = "{\"sourceAccount\":\"%s\",\"targetAccount\":\"%s\",\"amount\":%s}";
+
+	private final LoadSettings settings;
+	private final String[] numbers;
+	private final ZipfPicker picker;
+	private final ObjectMapper mapper = new ObjectMapper().enable(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS);
+	private final HttpClient client = HttpClient.newBuilder()
+			.version(Version.HTTP_1_1)
+			.connectTimeout(TIMEOUT)
+			.build();
+	private String baseUrl;
+
+	/**
+	 * Runs the load generator with the command line options (see USAGE) and prints the report.
+	 * Exits with status 0 if there were no errors and money was conserved, 1 otherwise and 2 for invalid options.
+	 * @param args Command line options.
+	 * @throws Exception If the load could not be run.
+	 */
+	public static void main(final String[] args) throws Exception {
+		final LoadGenerator generator;
+		try {
+			generator = new LoadGenerator(parse(args));
+		} catch (final IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+			return;
+		}
+		final LoadReport report = generator.run();
+		report.print(System.out);
+		System.exit(report.getErrors() == 0 && report.isConserved() ? 0 : 1);
+	}
+
+	/**
+	 * Creates load generator.
+	 * @param settings Parameters of the run. Cannot be null.
+	 * @throws IllegalArgumentException if any parameter is out of its range.
+	 */
+	public LoadGenerator(@NonNull final LoadSettings settings) {
+		if (settings.getThreads() <= 0 || settings.getRate() < 0 || settings.getAccounts() < 2
+				|| settings.getPort() < 0 || settings.getWarmupSeconds() < 0 || settings.getDurationSeconds() <= 0
+				|| settings.getBatch() <= 0 || !(settings.getReads() >= 0 && settings.getReads() <= 1)) {
+			throw new IllegalArgumentException("Invalid load settings.");
+		}
+		this.settings = settings;
+		this.picker = new ZipfPicker(settings.getAccounts(), settings.getSkew());
+		this.numbers = new String[settings.getAccounts()];
+		for (int i = 0; i < numbers.length; i++) {
+			numbers[i] = Long.toString(FIRST_ACCOUNT + i);
+		}
+	}
+
+	/**
+	 * Creates the accounts, runs the warm-up and the measured load. An application started in-process
+	 * is stopped at the end.
+	 * @return Results of the measured load. Never null.
+	 * @throws IOException If the application could not be started or the accounts could not be created or read.
+	 * @throws InterruptedException If interrupted while waiting for the load.
+	 */
+	public LoadReport run() throws IOException, InterruptedException {
+		if (settings.getPort() != 0) {
+			return run(settings.getPort());
+		}
+		final int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		final HttpTransport transport = App.start(port);
+		try {
+			return run(port);
+		} finally {
+			transport.stop();
+		}
+	}
+
+	/**
+	 * Parses command line options. See USAGE.
+	 * @param args Options in the --name=value form.
+	 * @return Settings. Options which are not given have their default values.
+	 * @throws IllegalArgumentException if an option is unknown or its value is not a number.
+	 */
+	static LoadSettings parse(final String... args) {
+		final LoadSettings.LoadSettingsBuilder builder = LoadSettings.builder();
+		for (final String arg : args) {
+			final int separator = arg.indexOf('=');
+			if (!arg.startsWith("--") || separator < 0) {
+				throw new IllegalArgumentException("Invalid option: " + arg);
+			}
+			final String value = arg.substring(separator + 1);
+			try {
+				switch (arg.substring(2, separator)) {
+					case "port":
+						builder.port(Integer.parseInt(value));
+						break;
+					case "host":
+						builder.host(value);
+						break;
+					case "threads":
+						builder.threads(Integer.parseInt(value));
+						break;
+					case "rate":
+						builder.rate(Integer.parseInt(value));
+						break;
+					case "accounts":
+						builder.accounts(Integer.parseInt(value));
+						break;
+					case "skew":
+						builder.skew(Double.parseDouble(value));
+						break;
+					case "reads":
+						builder.reads(Double.parseDouble(value));
+						break;
+					case "batch":
+						builder.batch(Integer.parseInt(value));
+						break;
+					case "warmup":
+						builder.warmupSeconds(Integer.parseInt(value));
+						break;
+					case "duration":
+						builder.durationSeconds(Integer.parseInt(value));
+						break;
+					default:
+						throw new IllegalArgumentException("Unknown option: " + arg);
+				}
+			} catch (final NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid value of option: " + arg, e);
+			}
+		}
+		return builder.build();
+	}
+
+	private LoadReport run(final int port) throws IOException, InterruptedException {
+		baseUrl = "http://" + settings.getHost() + ":" + port;
+		createAccounts();
+
+		final LoadReport report = new LoadReport(settings);
+		report.setBalanceBefore(totalBalance());
+		drive(settings.getWarmupSeconds(), new LoadReport(settings));
+		report.setElapsedNanos(drive(settings.getDurationSeconds(), report));
+		report.setBalanceAfter(totalBalance());
+		return report;
+	}
+
+	private void createAccounts() throws IOException, InterruptedException {
+		for (int first = 0; first < numbers.length; first += SETUP_BATCH) {
+			final List<String> payments = new ArrayList<>();
+			for (int i = first; i < Math.min(first + SETUP_BATCH, numbers.length); i++) {
+				payments.add(String.format(PAYMENT, numbers[i], numbers[(i + 1) % numbers.length], "0.01"));
+			}
+			final HttpResponse<String> response = send(post("/payment/batch", "[" + String.join(",", payments) + "]"));
+			if (response.statusCode() != HttpStatus.OK_200) {
+				throw new IOException("Could not create accounts, status " + response.statusCode());
+			}
+		}
+	}
+
+	private long totalBalance() throws IOException, InterruptedException {
+		final HttpResponse<String> response = send(HttpRequest.newBuilder(uri("/account")).timeout(TIMEOUT).GET().build());
+		if (response.statusCode() != HttpStatus.OK_200) {
+			throw new IOException("Could not read accounts, status " + response.statusCode());
+		}
+		final Set<String> used = new HashSet<>(List.of(numbers));
+		long total = 0;
+		for (final JsonNode account : mapper.readTree(response.body())) {
+			if (used.contains(account.path("number").asText())) {
+				total += BigDecimalUtils.fromPrice(account.path("balance").decimalValue());
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Runs the load for given time.
+	 * @return Time it took in nanoseconds, including waiting for requests in progress at the end.
+	 */
+	private long drive(final int seconds, final LoadReport report) throws InterruptedException {
+		final int threads = settings.getThreads();
+		final long interval = settings.getRate() == 0 ? 0 : TimeUnit.SECONDS.toNanos(threads) / settings.getRate();
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		final long start = System.nanoTime();
+		final long end = start + TimeUnit.SECONDS.toNanos(seconds);
+		try {
+			final List<Future<?>> futures = new ArrayList<>();
+			for (int thread = 0; thread < threads; thread++) {
+				// Schedules of the threads are shifted, so they don't send their requests at the same moments.
+				final long first = start + interval * thread / threads;
+				futures.add(executor.submit((Callable<Void>) () -> {
+					for (long scheduled = first; scheduled - end < 0; scheduled += interval) {
+						if (interval == 0) {
+							scheduled = System.nanoTime();
+						} else {
+							waitUntil(scheduled);
+						}
+						request(report, scheduled);
+					}
+					return null;
+				}));
+			}
+			for (final Future<?> future : futures) {
+				future.get();
+			}
+		} catch (final ExecutionException e) {
+			throw new IllegalStateException("Load thread failed.", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static void waitUntil(final long time) {
+		for (long remaining = time - System.nanoTime(); remaining > 0; remaining = time - System.nanoTime()) {
+			LockSupport.parkNanos(remaining);
+		}
+	}
+
+	private void request(final LoadReport report, final long scheduled) throws InterruptedException {
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		if (random.nextDouble() < settings.getReads()) {
+			final LoadReport.Operation operation = report.getReads();
+			try {
+				final HttpResponse<String> response = send(HttpRequest.newBuilder(uri("/account/" + numbers[picker.next()]))
+						.timeout(TIMEOUT)
+						.GET()
+						.build());
+				if (response.statusCode() == HttpStatus.OK_200) {
+					operation.succeeded(System.nanoTime() - scheduled);
+				} else {
+					operation.failed(System.nanoTime() - scheduled);
+				}
+			} catch (final IOException e) {
+				operation.failed(System.nanoTime() - scheduled);
+			}
+			return;
+		}
+		final List<String> payments = new ArrayList<>(settings.getBatch());
+		for (int i = 0; i < settings.getBatch(); i++) {
+			final int source = picker.next();
+			int target = picker.next();
+			while (target == source) {
+				target = picker.next();
+			}
+			final BigDecimal amount = BigDecimalUtils.toPrice(1 + random.nextInt(MAX_AMOUNT));
+			payments.add(String.format(PAYMENT, numbers[source], numbers[target], amount.toPlainString()));
+		}
+		final LoadReport.Operation operation = report.getPayments();
+		try {
+			final HttpResponse<String> response = send(payments.size() == 1 ? post("/payment", payments.get(0))
+					: post("/payment/batch", "[" + String.join(",", payments) + "]"));
+			final long latency = System.nanoTime() - scheduled;
+			if (response.statusCode() != HttpStatus.OK_200) {
+				operation.failed(latency);
+			} else if (succeeded(mapper.readTree(response.body()))) {
+				operation.succeeded(latency);
+			} else {
+				operation.rejected(latency);
+			}
+		} catch (final IOException e) {
+			operation.failed(System.nanoTime() - scheduled);
+		}
+	}
+
+	/**
+	 * Checks result of a payment, or results of a batch - the batch is rejected if any of its payments is.
+	 */
+	private static boolean succeeded(final JsonNode results) {
+		if (!results.isArray()) {
+			return results.path("success").asBoolean();
+		}
+		for (final JsonNode result : results) {
+			if (!result.path("success").asBoolean()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private HttpRequest post(final String resource, final String body) {
+		return HttpRequest.newBuilder(uri(resource))
+				.timeout(TIMEOUT)
+				.header("Content-Type", "application/json")
+				.POST(BodyPublishers.ofString(body))
+				.build();
+	}
+
+	private HttpResponse<String> send(final HttpRequest request) throws IOException, InterruptedException {
+		return client.send(request, BodyHandlers.ofString());
+	}
+
+	private URI uri(final String resource) {
+		return URI.create(baseUrl + resource);
+	}
+}
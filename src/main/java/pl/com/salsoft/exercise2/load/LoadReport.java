@@ -0,0 +1,137 @@
+package pl.com.salsoft.exercise2.load;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import lombok.Getter;
+import pl.com.salsoft.exercise2.metrics.LatencyHistogram;
+import pl.com.salsoft.exercise2.utils.BigDecimalUtils;
+
+/**
+ * Results of a LoadGenerator run - throughput, latencies and errors of every operation, and total balance
+ * of the accounts used by the run before and after the load.
+ */
+@Getter
+public class LoadReport {
+	private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999, 1.0};
+	private static final String[] QUANTILE_NAMES = {"p50", "p90", "p99", "p99.9", "max"};
+
+	private final LoadSettings settings;
+	private final Operation payments;
+	private final Operation reads = new Operation("GET /account/{number}");
+	private long elapsedNanos;
+	private long balanceBefore;
+	private long balanceAfter;
+
+	LoadReport(final LoadSettings settings) {
+		this.settings = settings;
+		this.payments = new Operation(settings.getBatch() == 1 ? "POST /payment" : "POST /payment/batch");
+	}
+
+	/**
+	 * @return Whether total balance of the accounts used by the run didn't change.
+	 */
+	public boolean isConserved() {
+		return balanceBefore == balanceAfter;
+	}
+
+	/**
+	 * @return Number of requests which failed with unexpected status or without a response.
+	 */
+	public long getErrors() {
+		return payments.getErrors() + reads.getErrors();
+	}
+
+	/**
+	 * Writes the report in human readable form.
+	 * @param output Stream to write to.
+	 */
+	public void print(final PrintStream output) {
+		output.printf("%d threads, target rate %s, %d accounts, skew %.2f, %.0f%% reads, %d s%n",
+				settings.getThreads(), settings.getRate() == 0 ? "unlimited" : settings.getRate() + "/s",
+				settings.getAccounts(), settings.getSkew(), settings.getReads() * 100, settings.getDurationSeconds());
+		if (settings.getBatch() > 1) {
+			output.printf("%d payments per request, %.0f payments per second%n", settings.getBatch(),
+					(double) payments.getLatencies().getCount() * settings.getBatch() * TimeUnit.SECONDS.toNanos(1)
+							/ Math.max(1, elapsedNanos));
+		}
+		output.printf("%-22s %10s %10s %8s %8s", "operation", "requests", "per second", "errors", "rejected");
+		for (final String name : QUANTILE_NAMES) {
+			output.printf(" %9s", name + " ms");
+		}
+		output.println();
+		print(output, payments);
+		print(output, reads);
+		output.printf("Total balance %s before, %s after: %s%n", BigDecimalUtils.toPrice(balanceBefore),
+				BigDecimalUtils.toPrice(balanceAfter), isConserved() ? "money conserved" : "MONEY NOT CONSERVED");
+	}
+
+	void setElapsedNanos(final long elapsedNanos) {
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	void setBalanceBefore(final long balanceBefore) {
+		this.balanceBefore = balanceBefore;
+	}
+
+	void setBalanceAfter(final long balanceAfter) {
+		this.balanceAfter = balanceAfter;
+	}
+
+	private void print(final PrintStream output, final Operation operation) {
+		final LatencyHistogram latencies = operation.getLatencies();
+		output.printf("%-22s %10d %10.0f %8d %8d", operation.getName(), latencies.getCount(),
+				(double) latencies.getCount() * TimeUnit.SECONDS.toNanos(1) / Math.max(1, elapsedNanos),
+				operation.getErrors(), operation.getRejected());
+		for (final double quantile : QUANTILES) {
+			output.printf(" %9.3f", latencies.valueAtQuantile(quantile) / 1e6);
+		}
+		output.println();
+	}
+
+	/**
+	 * Statistics of a single operation. Latency of every request (failed too) is measured from the time
+	 * it was scheduled to be sent, not from the time it was actually sent, so a stalled server doesn't hide
+	 * the delay of requests waiting behind the stall (coordinated omission).
+	 */
+	@Getter
+	public static class Operation {
+		private final String name;
+		private final LatencyHistogram latencies = new LatencyHistogram();
+		private final LongAdder errors = new LongAdder();
+		private final LongAdder rejected = new LongAdder();
+
+		Operation(final String name) {
+			this.name = name;
+		}
+
+		/**
+		 * @return Number of requests which failed with unexpected status or without a response.
+		 */
+		public long getErrors() {
+			return errors.sum();
+		}
+
+		/**
+		 * @return Number of requests answered with failure result, e.g. payments rejected for insufficient funds.
+		 */
+		public long getRejected() {
+			return rejected.sum();
+		}
+
+		void succeeded(final long nanos) {
+			latencies.record(nanos);
+		}
+
+		void rejected(final long nanos) {
+			latencies.record(nanos);
+			rejected.increment();
+		}
+
+		void failed(final long nanos) {
+			latencies.record(nanos);
+			errors.increment();
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package pl.com.salsoft.exercise2.load;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Parameters of a LoadGenerator run. See LoadGenerator.USAGE for their meaning.
+ */
+@Getter
+@Builder
+public class LoadSettings {
+	/**
+	 * Port of the application under load. 0 means the application is started in-process on a free port.
+	 */
+	@Builder.Default
+	private final int port = 0;
+	@Builder.Default
+	private final String host = "localhost";
+	@Builder.Default
+	private final int threads = 16;
+	/**
+	 * Target rate of all threads together in requests per second. 0 means as fast as possible.
+	 */
+	@Builder.Default
+	private final int rate = 0;
+	@Builder.Default
+	private final int accounts = 1000;
+	@Builder.Default
+	private final double skew = 1.0;
+	/**
+	 * Fraction of requests reading an account, the rest are payments.
+	 */
+	@Builder.Default
+	private final double reads = 0.2;
+	/**
+	 * Number of payments sent in a single request. With more than 1, payments go to POST /payment/batch.
+	 */
+	@Builder.Default
+	private final int batch = 1;
+	@Builder.Default
+	private final int warmupSeconds = 5;
+	@Builder.Default
+	private final int durationSeconds = 30;
+}
@@ -0,0 +1,43 @@
+package pl.com.salsoft.exercise2.load;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks indexes of accounts with Zipf distribution - probability of the index is proportional
+ * to 1 / (index + 1)^skew. Skew 0 is the uniform distribution, skew 1 is the classic Zipf, where
+ * the first account takes about 1 / ln(count) of all picks. Thread-safe.
+ */
+final class ZipfPicker {
+	// Cumulative weights of indexes, normalized so the last one is 1.
+	private final double[] cumulative;
+
+	/**
+	 * Creates picker.
+	 * @param count Number of indexes to pick from. Has to be positive.
+	 * @param skew Skew of the distribution. Cannot be negative.
+	 */
+	ZipfPicker(final int count, final double skew) {
+		if (count <= 0 || skew < 0 || Double.isNaN(skew)) {
+			throw new IllegalArgumentException("Invalid Zipf distribution: " + count + " indexes, skew " + skew);
+		}
+		cumulative = new double[count];
+		double total = 0;
+		for (int i = 0; i < count; i++) {
+			total += Math.pow(i + 1, -skew);
+			cumulative[i] = total;
+		}
+		for (int i = 0; i < count; i++) {
+			cumulative[i] /= total;
+		}
+	}
+
+	/**
+	 * @return Random index between 0 (the most frequent) and count - 1.
+	 */
+	int next() {
+		final int index = Arrays.binarySearch(cumulative, ThreadLocalRandom.current().nextDouble());
+		// Not found gives -(insertion point) - 1. Insertion point is the first index with greater cumulative weight.
+		return Math.min(index >= 0 ? index : -index - 1, cumulative.length - 1);
+	}
+}
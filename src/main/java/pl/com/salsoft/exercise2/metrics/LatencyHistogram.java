@@ -0,0 +1,102 @@
+package pl.com.salsoft.exercise2.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent histogram of latencies in nanoseconds with log-linear buckets, in the style of HdrHistogram.
+ * Every power of 2 is split into 32 linear sub-buckets, so any recorded value is known with at most about 3%
+ * relative error, from 1 ns up to about 18 minutes (larger values are counted in the last bucket).
+ *
+ * All memory is allocated up front - recording is a couple of bit operations and atomic increments,
+ * with no allocation and no locks. Reads are not a consistent snapshot while values are being recorded.
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int MAX_EXPONENT = 40;
+	private static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+	private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+
+	/**
+	 * Records a single value.
+	 * @param nanos Value to record. Negative values are recorded as 0.
+	 */
+	public void record(final long nanos) {
+		final long value = Math.max(0, Math.min(nanos, MAX_VALUE));
+		counts.incrementAndGet(indexOf(value));
+		count.increment();
+		sum.add(value);
+	}
+
+	/**
+	 * @return Number of recorded values.
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * @return Sum of recorded values in nanoseconds.
+	 */
+	public long getSum() {
+		return sum.sum();
+	}
+
+	/**
+	 * Counts recorded values not greater than given limit. Values sharing the bucket with the limit are counted
+	 * only if the whole bucket is not greater than the limit.
+	 * @param limit Limit in nanoseconds.
+	 * @return Number of values.
+	 */
+	public long countAtOrBelow(final long limit) {
+		long result = 0;
+		for (int index = 0; index < BUCKETS && highestValueOf(index) <= limit; index++) {
+			result += counts.get(index);
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the value below which given fraction of recorded values is.
+	 * @param quantile Fraction of values, between 0 and 1.
+	 * @return Highest value of the bucket containing the quantile, in nanoseconds. 0 if nothing was recorded.
+	 */
+	public long valueAtQuantile(final double quantile) {
+		final long total = getCount();
+		if (total == 0) {
+			return 0;
+		}
+		final long rank = Math.max(1, (long) Math.ceil(quantile * total));
+		long seen = 0;
+		for (int index = 0; index < BUCKETS; index++) {
+			seen += counts.get(index);
+			if (seen >= rank) {
+				return highestValueOf(index);
+			}
+		}
+		return MAX_VALUE;
+	}
+
+	static int indexOf(final long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+		final int shift = exponent - SUB_BUCKET_BITS;
+		return SUB_BUCKETS + shift * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+	}
+
+	static long highestValueOf(final int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		final int shift = index / SUB_BUCKETS - 1;
+		final long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+}
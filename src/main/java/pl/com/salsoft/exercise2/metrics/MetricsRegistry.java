@@ -0,0 +1,101 @@
+package pl.com.salsoft.exercise2.metrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongSupplier;
+
+import lombok.NonNull;
+
+/**
+ * Registry of all metrics of the application, written in the Prometheus text format by write().
+ * Metrics are pulled only when written - components keep their own counters (usually LongAdder fields)
+ * and register suppliers reading them, so recording doesn't go through the registry at all.
+ * Request latencies are kept in RequestMetrics.
+ */
+public class MetricsRegistry {
+	private final Map<String, Family> families = new LinkedHashMap<>();
+	private final RequestMetrics requestMetrics = new RequestMetrics();
+
+	/**
+	 * @return Latency histograms of HTTP requests. Never null.
+	 */
+	public RequestMetrics getRequestMetrics() {
+		return requestMetrics;
+	}
+
+	/**
+	 * Registers a counter - a value which only grows.
+	 * @param name Name of the metric. Samples with different labels share the name.
+	 * @param help Description of the metric. Taken from the first registration of the name.
+	 * @param value Supplier of the current value. Cannot be null.
+	 * @param labelNamesAndValues Label names and values, alternately.
+	 */
+	public synchronized void counter(@NonNull final String name, @NonNull final String help, @NonNull final LongSupplier value,
+			final String... labelNamesAndValues) {
+		register(name, help, PrometheusFormat.COUNTER, value, labelNamesAndValues);
+	}
+
+	/**
+	 * Registers a gauge - a value which can go up and down. See counter() for parameters.
+	 */
+	public synchronized void gauge(@NonNull final String name, @NonNull final String help, @NonNull final LongSupplier value,
+			final String... labelNamesAndValues) {
+		register(name, help, PrometheusFormat.GAUGE, value, labelNamesAndValues);
+	}
+
+	/**
+	 * Writes all metrics in the Prometheus text format.
+	 * @param output Output to write to. Cannot be null.
+	 * @throws IOException if writing failed.
+	 */
+	public void write(@NonNull final Appendable output) throws IOException {
+		final List<Family> snapshot;
+		synchronized (this) {
+			snapshot = new ArrayList<>(families.values());
+		}
+		for (final Family family : snapshot) {
+			PrometheusFormat.header(output, family.name, family.help, family.type);
+			for (final Sample sample : family.samples) {
+				PrometheusFormat.sample(output, family.name, sample.labels, sample.value.getAsLong());
+			}
+		}
+		requestMetrics.write(output);
+	}
+
+	private void register(final String name, final String help, final String type, final LongSupplier value,
+			final String... labelNamesAndValues) {
+		final Family family = families.computeIfAbsent(name, key -> new Family(name, help, type));
+		if (!family.type.equals(type)) {
+			throw new IllegalArgumentException(String.format("Metric %s is already registered as %s.", name, family.type));
+		}
+		family.samples.add(new Sample(PrometheusFormat.labels(labelNamesAndValues), value));
+	}
+
+	private static class Family {
+		private final String name;
+		private final String help;
+		private final String type;
+		// Samples can be added while write() iterates over them.
+		private final List<Sample> samples = new CopyOnWriteArrayList<>();
+
+		private Family(final String name, final String help, final String type) {
+			this.name = name;
+			this.help = help;
+			this.type = type;
+		}
+	}
+
+	private static class Sample {
+		private final String labels;
+		private final LongSupplier value;
+
+		private Sample(final String labels, final LongSupplier value) {
+			this.labels = labels;
+			this.value = value;
+		}
+	}
+}
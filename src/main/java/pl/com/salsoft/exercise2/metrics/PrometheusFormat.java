@@ -0,0 +1,75 @@
+package pl.com.salsoft.exercise2.metrics;
+
+import java.io.IOException;
+
+/**
+ * Helpers writing metrics in the Prometheus text exposition format (version 0.0.4).
+ */
+public final class PrometheusFormat {
+	/**
+	 * Content type of the format.
+	 */
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+	static final String COUNTER = "counter";
+	static final String GAUGE = "gauge";
+	static final String HISTOGRAM = "histogram";
+
+	private PrometheusFormat() {
+	}
+
+	/**
+	 * Writes HELP and TYPE lines of a metric family.
+	 */
+	static void header(final Appendable output, final String name, final String help, final String type)
+			throws IOException {
+		output.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		output.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	/**
+	 * Writes a single sample line.
+	 * @param labels Labels formatted with labels(), or empty string for none.
+	 */
+	static void sample(final Appendable output, final String name, final String labels, final double value)
+			throws IOException {
+		output.append(name);
+		if (!labels.isEmpty()) {
+			output.append('{').append(labels).append('}');
+		}
+		output.append(' ');
+		if (value == (long) value) {
+			output.append(Long.toString((long) value));
+		} else {
+			output.append(Double.toString(value));
+		}
+		output.append('\n');
+	}
+
+	/**
+	 * Formats labels, escaping their values.
+	 * @param namesAndValues Label names and values, alternately.
+	 * @return Labels to pass to sample(), without braces.
+	 */
+	static String labels(final String... namesAndValues) {
+		final StringBuilder result = new StringBuilder();
+		for (int i = 0; i < namesAndValues.length; i += 2) {
+			if (i > 0) {
+				result.append(',');
+			}
+			result.append(namesAndValues[i]).append("=\"");
+			final String value = namesAndValues[i + 1];
+			for (int c = 0; c < value.length(); c++) {
+				final char character = value.charAt(c);
+				if (character == '\\' || character == '"') {
+					result.append('\\').append(character);
+				} else if (character == '\n') {
+					result.append("\\n");
+				} else {
+					result.append(character);
+				}
+			}
+			result.append('"');
+		}
+		return result.toString();
+	}
+}
@@ -0,0 +1,115 @@
+package pl.com.salsoft.exercise2.metrics;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import lombok.NonNull;
+
+/**
+ * Latency histograms of HTTP requests per route (method and path pattern, not the actual path)
+ * and response status. Histograms are created on the first request of a route and status - from then on
+ * recording is two map lookups by already hashed strings, an array lookup and LatencyHistogram.record(),
+ * without allocation.
+ */
+public class RequestMetrics {
+	private static final String NAME = "http_request_duration_seconds";
+	private static final String HELP = "Time of handling HTTP requests by route and status.";
+	private static final String UNMATCHED = "unmatched";
+	private static final int MAX_STATUS = 600;
+	// Prometheus histogram buckets in seconds.
+	private static final double[] BUCKETS = {0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1,
+			0.25, 0.5, 1, 2.5, 5, 10};
+	private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+	private static final double NANOS_PER_SECOND = 1e9;
+
+	private final Map<String, Map<String, AtomicReferenceArray<LatencyHistogram>>> routes = new ConcurrentHashMap<>();
+
+	/**
+	 * Records time of a single request.
+	 * @param method HTTP method. Cannot be null.
+	 * @param path Path pattern of the matched route. Null if no route matched.
+	 * @param status Status of the response.
+	 * @param nanos Time of handling the request.
+	 */
+	public void record(@NonNull final String method, final String path, final int status, final long nanos) {
+		final String route = path == null ? UNMATCHED : path;
+		Map<String, AtomicReferenceArray<LatencyHistogram>> methods = routes.get(route);
+		if (methods == null) {
+			methods = routes.computeIfAbsent(route, key -> new ConcurrentHashMap<>());
+		}
+		AtomicReferenceArray<LatencyHistogram> statuses = methods.get(method);
+		if (statuses == null) {
+			statuses = methods.computeIfAbsent(method, key -> new AtomicReferenceArray<>(MAX_STATUS));
+		}
+		final int index = status > 0 && status < MAX_STATUS ? status : 0;
+		LatencyHistogram histogram = statuses.get(index);
+		if (histogram == null) {
+			statuses.compareAndSet(index, null, new LatencyHistogram());
+			histogram = statuses.get(index);
+		}
+		histogram.record(nanos);
+	}
+
+	/**
+	 * Finds histogram of a route and status.
+	 * @param method HTTP method.
+	 * @param path Path pattern of the route.
+	 * @param status Status of the response.
+	 * @return Histogram, or null if no such request was recorded.
+	 */
+	public LatencyHistogram get(final String method, final String path, final int status) {
+		final Map<String, AtomicReferenceArray<LatencyHistogram>> methods = routes.get(path);
+		final AtomicReferenceArray<LatencyHistogram> statuses = methods == null ? null : methods.get(method);
+		return statuses == null ? null : statuses.get(status);
+	}
+
+	/**
+	 * Writes all histograms in the Prometheus text format: as a histogram with fixed buckets and as a summary
+	 * with quantiles taken from the fine-grained buckets of LatencyHistogram.
+	 * @param output Output to write to. Cannot be null.
+	 * @throws IOException if writing failed.
+	 */
+	public void write(@NonNull final Appendable output) throws IOException {
+		PrometheusFormat.header(output, NAME, HELP, PrometheusFormat.HISTOGRAM);
+		forEach((labels, histogram) -> {
+			for (final double bucket : BUCKETS) {
+				PrometheusFormat.sample(output, NAME + "_bucket", labels + ",le=\"" + bucket + "\"",
+						histogram.countAtOrBelow((long) (bucket * NANOS_PER_SECOND)));
+			}
+			PrometheusFormat.sample(output, NAME + "_bucket", labels + ",le=\"+Inf\"", histogram.getCount());
+			PrometheusFormat.sample(output, NAME + "_sum", labels, histogram.getSum() / NANOS_PER_SECOND);
+			PrometheusFormat.sample(output, NAME + "_count", labels, histogram.getCount());
+		});
+		final String quantilesName = "http_request_duration_quantile_seconds";
+		PrometheusFormat.header(output, quantilesName, "Quantiles of time of handling HTTP requests by route and status.",
+				PrometheusFormat.GAUGE);
+		forEach((labels, histogram) -> {
+			for (final double quantile : QUANTILES) {
+				PrometheusFormat.sample(output, quantilesName, labels + ",quantile=\"" + quantile + "\"",
+						histogram.valueAtQuantile(quantile) / NANOS_PER_SECOND);
+			}
+		});
+	}
+
+	private void forEach(final HistogramWriter writer) throws IOException {
+		for (final var route : routes.entrySet()) {
+			for (final var method : route.getValue().entrySet()) {
+				final AtomicReferenceArray<LatencyHistogram> statuses = method.getValue();
+				for (int status = 0; status < statuses.length(); status++) {
+					final LatencyHistogram histogram = statuses.get(status);
+					if (histogram != null) {
+						writer.write(PrometheusFormat.labels("method", method.getKey(), "route", route.getKey(),
+								"status", Integer.toString(status)), histogram);
+					}
+				}
+			}
+		}
+	}
+
+	@FunctionalInterface
+	private interface HistogramWriter {
+		void write(String labels, LatencyHistogram histogram) throws IOException;
+	}
+}
@@ -1,13 +1,16 @@
 package pl.com.salsoft.exercise2.model;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.math.BigDecimal;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.fasterxml.jackson.annotation.JsonGetter;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonSetter;
 
-import lombok.AllArgsConstructor;
+import lombok.AccessLevel;
 import lombok.Builder;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
@@ -18,17 +21,68 @@ import pl.com.salsoft.exercise2.utils.BigDecimalUtils;
 /**
  * Domain class representing account with its unique identification number and balance.
  * Balance is stored as long value, so AtomicLong can be used for all concurrent operations.
+ * Balance should be read and modified through readBalance(), withdraw() and deposit() methods,
+ * so account stores keeping balances outside of the AtomicLong can provide their own implementation.
+ * Failed compare-and-set attempts of withdrawals (contention on the balance) are counted in getCasRetries().
+ *
+ * Credits which don't need the resulting balance should go through credit(). Account with at least
+ * PROMOTE_AFTER_CONTENTIONS contended credits within a single contention window (about 17 ms) is promoted
+ * to the hot mode - its credits go to striped BalanceCells instead of the AtomicLong, so they don't compete
+ * for a single cache line. Withdrawals stay exact (cells are folded back when the AtomicLong alone doesn't cover
+ * the amount). Account is demoted once credits stop coming from multiple threads (see BalanceCells).
  */
 @Setter
 @Getter
-@Builder
-@EqualsAndHashCode(exclude = {"balance"})
+@EqualsAndHashCode(exclude = {"balance", "cells", "contention"})
 @NoArgsConstructor
-@AllArgsConstructor
 public class Account {
+	/**
+	 * Returned by credit() of a hot account instead of the balance, which is not read.
+	 */
+	public static final long UNKNOWN_BALANCE = Long.MIN_VALUE;
+	private static final LongAdder CAS_RETRIES = new LongAdder();
+	private static final LongAdder HOT_PROMOTIONS = new LongAdder();
+	private static final LongAdder HOT_DEMOTIONS = new LongAdder();
+	private static final VarHandle CELLS;
+	private static final VarHandle CONTENTION;
+	private static final int CONTENTION_WINDOW_BITS = 24;
+	private static final int CONTENTION_COUNT_BITS = 16;
+	private static final long CONTENTION_COUNT_MASK = (1L << CONTENTION_COUNT_BITS) - 1;
+	private static final long PROMOTE_AFTER_CONTENTIONS = 16;
+
+	static {
+		try {
+			final MethodHandles.Lookup lookup = MethodHandles.lookup();
+			CELLS = lookup.findVarHandle(Account.class, "cells", BalanceCells.class);
+			CONTENTION = lookup.findVarHandle(Account.class, "contention", long.class);
+		} catch (final ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
 	private String number;
+	// Of a hot account, it's only the part of the balance not kept in the cells. Use readBalance() instead.
 	@JsonIgnore
 	private AtomicLong balance;
+	// Null unless the account is hot.
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	private volatile BalanceCells cells;
+	// Contended credits in the current contention window: window number in the upper bits, count in the lower bits.
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	private volatile long contention;
+
+	/**
+	 * Creates account.
+	 * @param number Number of the account.
+	 * @param balance Balance of the account.
+	 */
+	@Builder
+	public Account(final String number, final AtomicLong balance) {
+		this.number = number;
+		this.balance = balance;
+	}
 
 	/**
 	 * Jackson serializer for the balance field.
@@ -36,7 +90,7 @@ public class Account {
 	 */
 	@JsonGetter("balance")
 	public BigDecimal getBalanceForJson() {
-		return BigDecimalUtils.toPrice(balance.get());
+		return BigDecimalUtils.toPrice(readBalance());
 	}
 
 	/**
@@ -47,4 +101,153 @@ public class Account {
 	public void setBalanceFromJson(final BigDecimal balance) {
 		this.balance = new AtomicLong(BigDecimalUtils.fromPrice(balance));
 	}
+
+	/**
+	 * Reads current balance of the account. This operation is thread-safe.
+	 * @return Current balance.
+	 */
+	public long readBalance() {
+		final BalanceCells hot = cells;
+		return hot == null ? balance.get() : hot.read();
+	}
+
+	/**
+	 * Withdraws given amount from the balance, unless the balance is lower than the amount.
+	 * This operation is thread-safe and atomic.
+	 * @param amount Amount to withdraw. Should be greater than 0.
+	 * @return Balance right before the operation. If it's lower than the amount, nothing was withdrawn.
+	 */
+	public long withdraw(final long amount) {
+		boolean folded = false;
+		long current = balance.get();
+		while (true) {
+			if (current >= amount) {
+				if (balance.compareAndSet(current, current - amount)) {
+					return current;
+				}
+				countCasRetry();
+				current = balance.get();
+				continue;
+			}
+			final BalanceCells hot = cells;
+			if (hot == null || folded) {
+				return current;
+			}
+			// Credits in the cells may cover the amount.
+			hot.fold();
+			folded = true;
+			demoteIfCalm(hot);
+			current = balance.get();
+		}
+	}
+
+	/**
+	 * Counts compare-and-set retries of withdrawals of all accounts since the start of the application.
+	 * @return Number of retries.
+	 */
+	public static long getCasRetries() {
+		return CAS_RETRIES.sum();
+	}
+
+	/**
+	 * Counts a single retry of a withdrawal, for subclasses with their own compare-and-set loop.
+	 */
+	protected static void countCasRetry() {
+		CAS_RETRIES.increment();
+	}
+
+	/**
+	 * @return Number of promotions of accounts to the hot mode since the start of the application.
+	 */
+	public static long getHotPromotions() {
+		return HOT_PROMOTIONS.sum();
+	}
+
+	/**
+	 * @return Number of demotions of accounts from the hot mode since the start of the application.
+	 */
+	public static long getHotDemotions() {
+		return HOT_DEMOTIONS.sum();
+	}
+
+	/**
+	 * @return Whether the account is in the hot mode.
+	 */
+	@JsonIgnore
+	public boolean isHot() {
+		return cells != null;
+	}
+
+	/**
+	 * Overwrites the balance with a release store (no atomic read-modify-write).
+	 * Only for engines where a single thread changes balances - concurrent withdraw() or deposit() could be lost.
+	 * @param newBalance New balance.
+	 */
+	public void writeBalance(final long newBalance) {
+		final BalanceCells hot = cells;
+		if (hot == null) {
+			balance.lazySet(newBalance);
+		} else {
+			hot.write(newBalance);
+		}
+	}
+
+	/**
+	 * Deposits given amount to the balance. This operation is thread-safe and atomic.
+	 * @param amount Amount to deposit.
+	 * @return Balance right after the operation.
+	 */
+	public long deposit(final long amount) {
+		final BalanceCells hot = cells;
+		return hot == null ? balance.addAndGet(amount) : hot.deposit(amount);
+	}
+
+	/**
+	 * Deposits given amount to the balance, without reading the resulting balance. This operation is thread-safe
+	 * and atomic. Unlike deposit(), it doesn't need the whole balance of a hot account, so it's the one
+	 * spread over the cells. Contended credits of a cold account are counted and may promote it.
+	 * @param amount Amount to deposit.
+	 * @return Balance right after the operation, or UNKNOWN_BALANCE if the account is hot.
+	 */
+	public long credit(final long amount) {
+		final BalanceCells hot = cells;
+		if (hot != null) {
+			if (hot.credit(amount)) {
+				demoteIfCalm(hot);
+			}
+			return UNKNOWN_BALANCE;
+		}
+		final long current = balance.get();
+		if (balance.compareAndSet(current, current + amount)) {
+			return current + amount;
+		}
+		countContention();
+		return balance.addAndGet(amount);
+	}
+
+	/**
+	 * Switches the account to the hot mode, unless it's already hot.
+	 */
+	void promote() {
+		if (CELLS.compareAndSet(this, null, new BalanceCells(balance))) {
+			HOT_PROMOTIONS.increment();
+		}
+	}
+
+	private void demoteIfCalm(final BalanceCells hot) {
+		// Cells are folded before they're unpublished, so readBalance() never misses a finished credit.
+		if (hot.retireIfCalm() && CELLS.compareAndSet(this, hot, null)) {
+			HOT_DEMOTIONS.increment();
+		}
+	}
+
+	private void countContention() {
+		final long window = (System.nanoTime() >> CONTENTION_WINDOW_BITS) << CONTENTION_COUNT_BITS;
+		final long current = contention;
+		final long next = (current & ~CONTENTION_COUNT_MASK) == window ? current + 1 : window | 1;
+		// A lost update only delays the promotion.
+		if (CONTENTION.compareAndSet(this, current, next) && (next & CONTENTION_COUNT_MASK) == PROMOTE_AFTER_CONTENTIONS) {
+			promote();
+		}
+	}
 }
@@ -0,0 +1,39 @@
+package pl.com.salsoft.exercise2.model;
+
+import java.math.BigDecimal;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Single change of an account from the change feed, sent by GET /account/changes.
+ * Sequence numbers are global (across all accounts) and consecutive.
+ * Balance is the balance of the account when the change is sent, not right after the change - so the balance
+ * in the last change of an account is its current balance. It's null for deleted accounts (including accounts
+ * deleted after the change - their deletion follows in the feed).
+ */
+@Setter
+@Getter
+@EqualsAndHashCode
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class AccountChange {
+	/**
+	 * Kind of change.
+	 */
+	public enum Type {
+		CREATED,
+		UPDATED,
+		DELETED
+	}
+
+	private long sequence;
+	private Type type;
+	private String account;
+	private BigDecimal balance;
+}
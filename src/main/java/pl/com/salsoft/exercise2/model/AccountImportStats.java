@@ -0,0 +1,20 @@
+package pl.com.salsoft.exercise2.model;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Outcome of a bulk import of accounts. Every row either created an account (created) or named an account
+ * which already existed and was left unchanged (existing).
+ */
+@Setter
+@Getter
+@Builder
+public class AccountImportStats {
+	private long rows;
+	private long created;
+	private long existing;
+	private long millis;
+	private long rowsPerSecond;
+}
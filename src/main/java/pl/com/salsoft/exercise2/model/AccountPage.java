@@ -0,0 +1,20 @@
+package pl.com.salsoft.exercise2.model;
+
+import java.util.List;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Single page of accounts returned by paginated GET /account.
+ * Next page is requested with the "next" value passed as the "after" parameter.
+ * The "next" value is null on the last page.
+ */
+@Setter
+@Getter
+@Builder
+public class AccountPage {
+	private List<Account> accounts;
+	private String next;
+}
@@ -0,0 +1,25 @@
+package pl.com.salsoft.exercise2.model;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Current state of the asynchronous payment queue. The queueDepth growing towards queueCapacity,
+ * or the oldestQueuedMillis growing, means payments are submitted faster than they are processed.
+ * The lastLagMillis is time between submission and result of the oldest payment of the most recently
+ * processed batch.
+ */
+@Setter
+@Getter
+@Builder
+public class AsyncPaymentStats {
+	private int queueDepth;
+	private int queueCapacity;
+	private long oldestQueuedMillis;
+	private long lastLagMillis;
+	private long accepted;
+	private long rejected;
+	private long completed;
+	private int storedResults;
+}
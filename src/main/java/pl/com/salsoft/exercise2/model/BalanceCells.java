@@ -0,0 +1,160 @@
+package pl.com.salsoft.exercise2.model;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Striped cells of a hot account. Credits of the account are added to the cell of the calling thread
+ * instead of the account's AtomicLong (the base), so concurrent credits don't all hit the same cache line -
+ * the idea of LongAdder. Balance of the account is the base plus all cells.
+ *
+ * Withdrawals are done on the base only. Only when the base doesn't cover the amount, the cells are folded
+ * into the base and the withdrawal is tried again, so it never fails while the whole balance would cover it.
+ * Folding, reading the whole balance and retiring the cells are done under the lock of this object, so none
+ * of them sees money in the middle of being moved from a cell to the base.
+ *
+ * Every EVALUATE_EVERY credits of a cell and on every fold the account is checked for demotion. If over
+ * DEMOTE_AFTER_NANOS credits came from at most one cell or there were less than DEMOTE_BELOW_CREDITS of them,
+ * the cells are retired and folded. Credits racing with retirement fold their own cell.
+ */
+final class BalanceCells {
+	private static final VarHandle CELL = MethodHandles.arrayElementVarHandle(long[].class);
+	// Cells are 128 bytes apart, so neighbours don't share a cache line even with adjacent line prefetch.
+	private static final int STRIDE = 16;
+	private static final int VALUE = 0;
+	private static final int CREDITS = 1;
+	// Credits of the cell at the last evaluation. Accessed only under the lock.
+	private static final int EVALUATED_CREDITS = 2;
+	private static final int MAX_CELLS = 64;
+	private static final int EVALUATE_EVERY = 1024;
+	private static final long DEMOTE_AFTER_NANOS = TimeUnit.SECONDS.toNanos(1);
+	private static final long DEMOTE_BELOW_CREDITS = 1024;
+
+	private final AtomicLong base;
+	private final int mask;
+	private final long[] cells;
+	private volatile boolean retired;
+	private long evaluatedAt = System.nanoTime();
+
+	/**
+	 * Creates cells for an account. Number of cells is the number of processors rounded up to a power of two
+	 * (at least 2, at most MAX_CELLS).
+	 * @param base Balance of the account.
+	 */
+	BalanceCells(final AtomicLong base) {
+		this.base = base;
+		final int processors = Runtime.getRuntime().availableProcessors();
+		final int count = Math.min(MAX_CELLS, Math.max(2, Integer.highestOneBit(processors - 1) << 1));
+		this.mask = count - 1;
+		// First STRIDE longs are left empty, so the first cell doesn't share a cache line with the array header.
+		this.cells = new long[(count + 1) * STRIDE];
+	}
+
+	/**
+	 * Adds the amount to the cell of the calling thread.
+	 * @param amount Amount to add.
+	 * @return Whether the account should be checked for demotion.
+	 */
+	boolean credit(final long amount) {
+		final int cell = cellOf(Thread.currentThread());
+		CELL.getAndAdd(cells, cell + VALUE, amount);
+		// Cell is almost always updated by a single thread, so a lost increment of this statistic is acceptable.
+		final long credits = (long) CELL.getOpaque(cells, cell + CREDITS) + 1;
+		CELL.setOpaque(cells, cell + CREDITS, credits);
+		if (retired) {
+			// Cells could be already folded for the last time - nobody else would move the amount to the base.
+			synchronized (this) {
+				base.addAndGet((long) CELL.getAndSet(cells, cell + VALUE, 0L));
+			}
+			return false;
+		}
+		return (credits & (EVALUATE_EVERY - 1)) == 0;
+	}
+
+	/**
+	 * Moves all cells to the base.
+	 */
+	synchronized void fold() {
+		for (int cell = STRIDE; cell < cells.length; cell += STRIDE) {
+			final long value = (long) CELL.getAndSet(cells, cell + VALUE, 0L);
+			if (value != 0L) {
+				base.addAndGet(value);
+			}
+		}
+	}
+
+	/**
+	 * @return Whole balance - the base plus all cells.
+	 */
+	synchronized long read() {
+		long balance = base.get();
+		for (int cell = STRIDE; cell < cells.length; cell += STRIDE) {
+			balance += (long) CELL.getVolatile(cells, cell + VALUE);
+		}
+		return balance;
+	}
+
+	/**
+	 * Adds the amount to the base.
+	 * @param amount Amount to add.
+	 * @return Whole balance right after the operation.
+	 */
+	synchronized long deposit(final long amount) {
+		base.addAndGet(amount);
+		return read();
+	}
+
+	/**
+	 * Overwrites the whole balance. See Account.writeBalance().
+	 * @param newBalance New balance.
+	 */
+	synchronized void write(final long newBalance) {
+		for (int cell = STRIDE; cell < cells.length; cell += STRIDE) {
+			CELL.setVolatile(cells, cell + VALUE, 0L);
+		}
+		base.set(newBalance);
+	}
+
+	/**
+	 * Checks whether the account is still contended, unless it was checked less than DEMOTE_AFTER_NANOS ago.
+	 * If it's not, the cells are retired and folded - from then on the account should be updated through the base.
+	 * @return Whether the cells were retired.
+	 */
+	synchronized boolean retireIfCalm() {
+		if (retired) {
+			return false;
+		}
+		final long now = System.nanoTime();
+		if (now - evaluatedAt < DEMOTE_AFTER_NANOS) {
+			return false;
+		}
+		evaluatedAt = now;
+		int activeCells = 0;
+		long credits = 0;
+		for (int cell = STRIDE; cell < cells.length; cell += STRIDE) {
+			final long cellCredits = (long) CELL.getOpaque(cells, cell + CREDITS);
+			final long evaluated = cells[cell + EVALUATED_CREDITS];
+			if (cellCredits != evaluated) {
+				activeCells++;
+				credits += cellCredits - evaluated;
+				cells[cell + EVALUATED_CREDITS] = cellCredits;
+			}
+		}
+		if (activeCells > 1 && credits >= DEMOTE_BELOW_CREDITS) {
+			return false;
+		}
+		// Credits check the flag after adding to their cell. Either they see it and fold their cell themselves,
+		// or their amount is already in the cell when it's folded below.
+		retired = true;
+		fold();
+		return true;
+	}
+
+	private int cellOf(final Thread thread) {
+		final long id = thread.getId();
+		final int hash = (int) ((id * 0x9E3779B97F4A7C15L) >>> 32);
+		return ((hash & mask) + 1) * STRIDE;
+	}
+}
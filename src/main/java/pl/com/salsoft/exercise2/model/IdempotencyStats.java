@@ -0,0 +1,23 @@
+package pl.com.salsoft.exercise2.model;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Current state of the idempotency key cache. The estimatedBytes is an approximation of memory held
+ * by the cached entries (keys, results and the cache's own structures). Hits include duplicates which waited
+ * for the first request still in progress (inFlightWaits).
+ */
+@Setter
+@Getter
+@Builder
+public class IdempotencyStats {
+	private int entries;
+	private int maxEntries;
+	private long estimatedBytes;
+	private long hits;
+	private long misses;
+	private long inFlightWaits;
+	private double hitRate;
+}
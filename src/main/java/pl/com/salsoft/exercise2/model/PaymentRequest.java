@@ -2,24 +2,58 @@ package pl.com.salsoft.exercise2.model;
 
 import java.math.BigDecimal;
 
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
 import lombok.AllArgsConstructor;
 import lombok.Builder;
+import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.NonNull;
 import lombok.Setter;
+import pl.com.salsoft.exercise2.utils.BigDecimalUtils;
 
 /**
  * Request for payment as passed to the API.
- * None of the fields can be null.
+ * None of the fields can be null. Amount is kept in the long representation (value multiplied by 100).
+ * In JSON it's a decimal number, parsed without creating BigDecimal - amounts with more than 2 decimal places
+ * are rejected.
  */
 @Getter
 @Setter
+@EqualsAndHashCode
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
 public final class PaymentRequest {
 	@NonNull private String sourceAccount;
 	@NonNull private String targetAccount;
-	@NonNull private BigDecimal amount;
+	@JsonSerialize(using = PriceSerializer.class)
+	@JsonDeserialize(using = PriceDeserializer.class)
+	private long amount;
+
+	/**
+	 * Builder of payment requests, accepting amount also as BigDecimal.
+	 */
+	public static class PaymentRequestBuilder {
+		/**
+		 * Sets amount given as BigDecimal. It's converted with BigDecimalUtils.fromPrice().
+		 * @param amount Amount to transfer. Cannot be null.
+		 * @return This builder.
+		 */
+		public PaymentRequestBuilder amount(@NonNull final BigDecimal amount) {
+			return amount(BigDecimalUtils.fromPrice(amount));
+		}
+
+		/**
+		 * Sets amount in the long representation.
+		 * @param amount Amount to transfer.
+		 * @return This builder.
+		 */
+		public PaymentRequestBuilder amount(final long amount) {
+			this.amount = amount;
+			return this;
+		}
+	}
 }
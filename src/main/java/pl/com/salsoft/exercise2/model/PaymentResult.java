@@ -2,10 +2,13 @@ package pl.com.salsoft.exercise2.model;
 
 import java.math.BigDecimal;
 
+import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
+import lombok.NoArgsConstructor;
 import lombok.Setter;
+import pl.com.salsoft.exercise2.utils.BigDecimalUtils;
 
 /**
  * Provides details of the payment request processing result.
@@ -18,9 +21,41 @@ import lombok.Setter;
 @Getter
 @EqualsAndHashCode(exclude = {"balance"})
 @Builder
+@NoArgsConstructor
+@AllArgsConstructor
 public class PaymentResult {
 	private String accountNumber;
 	private BigDecimal balance;
 	private Boolean success;
 	private String message;
+
+	/**
+	 * Creates result of a failed payment.
+	 * @param accountNumber Source account number.
+	 * @param balance Balance of the source account (internal representation).
+	 * @param message Reason of the failure.
+	 * @return Payment result. Never null.
+	 */
+	public static PaymentResult failure(final String accountNumber, final long balance, final String message) {
+		return PaymentResult.builder()
+				.accountNumber(accountNumber)
+				.balance(BigDecimalUtils.toPrice(balance))
+				.success(false)
+				.message(message)
+				.build();
+	}
+
+	/**
+	 * Creates result of a successful payment.
+	 * @param accountNumber Source account number.
+	 * @param balance Balance of the source account after the payment (internal representation).
+	 * @return Payment result. Never null.
+	 */
+	public static PaymentResult success(final String accountNumber, final long balance) {
+		return PaymentResult.builder()
+				.accountNumber(accountNumber)
+				.balance(BigDecimalUtils.toPrice(balance))
+				.success(true)
+				.build();
+	}
 }
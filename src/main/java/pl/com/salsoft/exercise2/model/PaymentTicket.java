@@ -0,0 +1,15 @@
+package pl.com.salsoft.exercise2.model;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Response to an asynchronous payment request. The id is used to poll for the result at GET /payment/{id}.
+ */
+@Setter
+@Getter
+@Builder
+public class PaymentTicket {
+	private String id;
+}
@@ -0,0 +1,57 @@
+package pl.com.salsoft.exercise2.model;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+
+import pl.com.salsoft.exercise2.utils.PriceTextUtils;
+
+/**
+ * Jackson deserializer reading a price (JSON number or string) straight to its long representation.
+ * The number is parsed from the parser's own character buffer, so no BigDecimal or String is created.
+ */
+public class PriceDeserializer extends StdDeserializer<Long> {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Creates the deserializer.
+	 */
+	public PriceDeserializer() {
+		super(Long.TYPE);
+	}
+
+	@Override
+	public Long deserialize(final JsonParser parser, final DeserializationContext context) throws IOException {
+		final JsonToken token = parser.getCurrentToken();
+		if (token != JsonToken.VALUE_NUMBER_INT && token != JsonToken.VALUE_NUMBER_FLOAT && token != JsonToken.VALUE_STRING) {
+			return (Long) context.handleUnexpectedToken(Long.TYPE, parser);
+		}
+		try {
+			return PriceTextUtils.fromPrice(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+		} catch (final NumberFormatException e) {
+			return (Long) context.handleWeirdStringValue(Long.TYPE, parser.getText(), e.getMessage());
+		}
+	}
+
+	/**
+	 * Reads price at the current token of the parser, for hand-written codecs.
+	 * @param parser Parser positioned at the price token.
+	 * @return Long representation of the price.
+	 * @throws JsonParseException if the token is not a valid price.
+	 */
+	public static long read(final JsonParser parser) throws IOException {
+		final JsonToken token = parser.getCurrentToken();
+		if (token != JsonToken.VALUE_NUMBER_INT && token != JsonToken.VALUE_NUMBER_FLOAT && token != JsonToken.VALUE_STRING) {
+			throw new JsonParseException(parser, "Price has to be a number.");
+		}
+		try {
+			return PriceTextUtils.fromPrice(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+		} catch (final NumberFormatException e) {
+			throw new JsonParseException(parser, e.getMessage(), e);
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package pl.com.salsoft.exercise2.model;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import pl.com.salsoft.exercise2.utils.PriceTextUtils;
+
+/**
+ * Jackson serializer writing long representation of a price as JSON number with two decimal places.
+ * Characters are formatted into a per-thread buffer, so no BigDecimal or String is created.
+ */
+public class PriceSerializer extends StdSerializer<Long> {
+	private static final long serialVersionUID = 1L;
+	private static final ThreadLocal<char[]> BUFFERS =
+			ThreadLocal.withInitial(() -> new char[PriceTextUtils.MAX_PRICE_LENGTH]);
+
+	/**
+	 * Creates the serializer.
+	 */
+	public PriceSerializer() {
+		super(Long.TYPE, false);
+	}
+
+	@Override
+	public void serialize(final Long value, final JsonGenerator generator, final SerializerProvider provider)
+			throws IOException {
+		write(value, generator);
+	}
+
+	/**
+	 * Writes price as JSON number, for hand-written codecs.
+	 * @param value Long representation of the price.
+	 * @param generator Generator to write to.
+	 */
+	public static void write(final long value, final JsonGenerator generator) throws IOException {
+		final char[] buffer = BUFFERS.get();
+		generator.writeRawValue(buffer, 0, PriceTextUtils.toPrice(value, buffer, 0));
+	}
+}
@@ -0,0 +1,31 @@
+package pl.com.salsoft.exercise2.model;
+
+import java.math.BigDecimal;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Single transfer from the history of an account, returned by GET /account/{number}/transactions.
+ * Amount is negative for money sent to the counterparty and positive for money received from it.
+ * Balance is the balance of the account right after the transfer. It's null for credits of a hot account,
+ * which don't read the whole balance (see Account.credit()). Timestamp is in milliseconds since the epoch.
+ * Sequence numbers are consecutive per account, so a gap means an entry was dropped.
+ */
+@Setter
+@Getter
+@EqualsAndHashCode
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class Transaction {
+	private long sequence;
+	private String counterparty;
+	private BigDecimal amount;
+	private BigDecimal balance;
+	private long timestamp;
+}
@@ -7,50 +7,106 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import lombok.NonNull;
+import pl.com.salsoft.exercise2.dao.UnsupportedAccountNumberException;
+import pl.com.salsoft.exercise2.metrics.RequestMetrics;
 import pl.com.salsoft.exercise2.service.JsonService;
-import spark.Request;
-import spark.Response;
-import spark.Route;
 
 /**
  * Foundation for all REST controllers.
  * It provides common support for error handling and typical execution flow.
+ * Controllers don't depend on the server they are served from - they add their routes to an HttpTransport.
+ * Time of handling every request is recorded in RequestMetrics, by route and response status.
  */
 public abstract class AbstractController {
 	private static final String APPLICATION_JSON = "application/json";
+	private static final String ETAG = "ETag";
+	private static final String IF_NONE_MATCH = "If-None-Match";
+	private static final String WEAK_PREFIX = "W/";
 
 	private final Logger log = LoggerFactory.getLogger(this.getClass());
 
 	protected final JsonService jsonService;
+	private final RequestMetrics requestMetrics;
 
 	/**
-	 * Creates a controller with JSON service injected.
+	 * Creates a controller with JSON service injected. Request times are recorded in its own RequestMetrics.
 	 * @param jsonService JSON service to use by the controller.
 	 */
 	public AbstractController(@NonNull final JsonService jsonService) {
+		this(jsonService, new RequestMetrics());
+	}
+
+	/**
+	 * Creates a controller with JSON service and request metrics injected.
+	 * @param jsonService JSON service to use by the controller.
+	 * @param requestMetrics Metrics to record request times in.
+	 */
+	public AbstractController(@NonNull final JsonService jsonService, @NonNull final RequestMetrics requestMetrics) {
 		this.jsonService = jsonService;
+		this.requestMetrics = requestMetrics;
 	}
 
+	/**
+	 * Adds all routes of the controller to the transport.
+	 * Should be called at the application start, before the transport is started.
+	 * @param transport Transport to serve the routes from.
+	 */
+	public abstract void routes(HttpTransport transport);
+
 	/**
 	 * It's a proxy method for exception handling for all REST calls on this controller.
-	 * In case of exception in the target handler, HTTP status 500 is returned and empty body in response.
+	 * In case of exception in the target handler, HTTP status 500 is returned and empty body in response
+	 * (400 if the account store doesn't support an account number, see UnsupportedAccountNumberException).
 	 * Also an appropriate error is logged with the request and the error message.
 	 * In case of successful processing, a response object (if provided) is serialized to JSON format.
 	 * If response object was not provided, empty body is returned to the caller.
 	 * @param actionHandler Target handler that does actual job.
 	 * @return Result from the target handler, or null if any exception was thrown.
 	 */
-	protected Route handle(final Route actionHandler) {
-		return (final Request request, final Response response) -> {
+	protected RestHandler handle(final RestHandler actionHandler) {
+		return (final RestRequest request, final RestResponse response) -> {
+			final long start = System.nanoTime();
 			try {
 				response.type(APPLICATION_JSON);
 				final var body = Optional.ofNullable(actionHandler.handle(request, response));
 				return body.map(jsonService::map).orElse("");
+			} catch (final UnsupportedAccountNumberException e) {
+				response.status(HttpStatus.BAD_REQUEST_400);
+				return "";
 			} catch (final Exception e) {
-				log.error("Error while handling request {} {}: {}", request.requestMethod(), request.url(), e.getMessage());
+				log.error("Error while handling request {} {}: {}", request.method(), request.url(), e.getMessage());
 				response.status(HttpStatus.INTERNAL_SERVER_ERROR_500);
 				return "";
+			} finally {
+				requestMetrics.record(request.method(), request.route(), response.status(),
+						System.nanoTime() - start);
 			}
 		};
 	}
+
+	/**
+	 * Tags the response with given version (ETag) and checks if the client already has it (If-None-Match).
+	 * If it does, status 304 is set and the handler should return no body.
+	 * @param request Request to check.
+	 * @param response Response to tag.
+	 * @param version Version of the resource, read before the resource itself.
+	 * @return true if the client has the current version and the resource shouldn't be read.
+	 */
+	protected boolean notModified(final RestRequest request, final RestResponse response, final long version) {
+		final String etag = '"' + Long.toString(version) + '"';
+		response.header(ETAG, etag);
+		final String ifNoneMatch = request.header(IF_NONE_MATCH);
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		// Weak comparison - W/ prefixes are ignored.
+		for (final String tag : ifNoneMatch.split(",")) {
+			final String trimmed = tag.trim();
+			if (etag.equals(trimmed.startsWith(WEAK_PREFIX) ? trimmed.substring(WEAK_PREFIX.length()) : trimmed)) {
+				response.status(HttpStatus.NOT_MODIFIED_304);
+				return true;
+			}
+		}
+		return false;
+	}
 }
@@ -1,27 +1,63 @@
 package pl.com.salsoft.exercise2.rest;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 import java.util.stream.Collectors;
 
+import org.eclipse.jetty.http.HttpMethod;
 import org.eclipse.jetty.http.HttpStatus;
 
 import lombok.NonNull;
-import pl.com.salsoft.exercise2.Initializable;
+import pl.com.salsoft.exercise2.metrics.RequestMetrics;
+import pl.com.salsoft.exercise2.model.AccountChange;
 import pl.com.salsoft.exercise2.service.AccountService;
 import pl.com.salsoft.exercise2.service.JsonService;
-import spark.Request;
-import spark.Response;
-import spark.Spark;
 
 /**
  * Controller handling /account endpoint. It provides operations for inspecting and deleting accounts.
+ * GET /account returns all accounts at once by default. With "limit" (and "after") parameters it returns
+ * a page of accounts with cursor of the next page. With "stream=true" parameter accounts are written
+ * to the response one by one, as they are read, so memory use doesn't depend on number of accounts.
+ * GET /account/{number}/transactions returns recent transfers of the account, newest first, up to "limit" of them.
+ * GET /account and GET /account/{number} are tagged with version of accounts (ETag). A request with If-None-Match
+ * of the current version is answered with 304 and no body, without reading or serializing accounts.
+ * GET /account/changes streams changes of accounts after "since" (or Last-Event-ID) as Server-Sent Events,
+ * until the client disconnects. A client which has fallen too far behind gets a "resync" event and the stream
+ * ends - it has to read all accounts again and reconnect with "since" from the id of the resync event.
+ * Every subscriber holds a request thread for as long as it's connected, so the number of subscribers is limited
+ * and those above the limit are answered with 503.
  */
-public class AccountController extends AbstractController implements Initializable {
+public class AccountController extends AbstractController {
 	private static final String SUPPORTED_ACTIONS = "GET,DELETE,OPTIONS,HEAD";
 	private static final String NUMBER = ":number";
 	private static final String RESOURCE_ROOT = "/account";
 	private static final String RESOURCE_BY_ID = String.format("%s/%s", RESOURCE_ROOT, NUMBER);
+	private static final String RESOURCE_TRANSACTIONS = RESOURCE_BY_ID + "/transactions";
+	private static final String RESOURCE_CHANGES = RESOURCE_ROOT + "/changes";
+	private static final String AFTER = "after";
+	private static final String LIMIT = "limit";
+	private static final String STREAM = "stream";
+	private static final String SINCE = "since";
+	private static final String LAST_EVENT_ID = "Last-Event-ID";
+	private static final String EVENT_STREAM = "text/event-stream";
+	private static final int MAX_LIMIT = 10000;
+	private static final int CHANGES_BATCH = 1000;
+	private static final long CHANGES_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+	private static final long CHANGES_KEEP_ALIVE_NANOS = TimeUnit.SECONDS.toNanos(5);
+	private static final int DEFAULT_MAX_SUBSCRIBERS = 32;
 
 	private final AccountService accountService;
+	private final int maxSubscribers;
+	private final AtomicInteger subscribers = new AtomicInteger();
 
 	/**
 	 * Creates controller with account and JSON services injected.
@@ -31,25 +67,57 @@ public class AccountController extends AbstractController implements Initializab
 	public AccountController(@NonNull final JsonService jsonService, @NonNull final AccountService accountService) {
 		super(jsonService);
 		this.accountService = accountService;
+		this.maxSubscribers = DEFAULT_MAX_SUBSCRIBERS;
 	}
 
 	/**
-	 * Sets up all supported REST request mappings.
-	 * Should be called at the application start.
+	 * Creates controller with account and JSON services and request metrics injected.
+	 * @param jsonService JSON service to use. Cannot be null.
+	 * @param accountService Account service to use. Cannot be null.
+	 * @param requestMetrics Metrics to record request times in. Cannot be null.
+	 */
+	public AccountController(@NonNull final JsonService jsonService, @NonNull final AccountService accountService,
+			@NonNull final RequestMetrics requestMetrics) {
+		this(jsonService, accountService, DEFAULT_MAX_SUBSCRIBERS, requestMetrics);
+	}
+
+	/**
+	 * Creates controller with account and JSON services, limit of change feed subscribers and request metrics injected.
+	 * @param jsonService JSON service to use. Cannot be null.
+	 * @param accountService Account service to use. Cannot be null.
+	 * @param maxSubscribers Maximum number of clients reading the change feed at once. Has to be greater than 0.
+	 * @param requestMetrics Metrics to record request times in. Cannot be null.
+	 */
+	public AccountController(@NonNull final JsonService jsonService, @NonNull final AccountService accountService,
+			final int maxSubscribers, @NonNull final RequestMetrics requestMetrics) {
+		super(jsonService, requestMetrics);
+		if (maxSubscribers <= 0) {
+			throw new IllegalArgumentException("Maximum number of change feed subscribers has to be greater than 0.");
+		}
+		this.accountService = accountService;
+		this.maxSubscribers = maxSubscribers;
+	}
+
+	/**
+	 * Adds all supported REST request mappings to the transport.
+	 * Should be called at the application start, before the transport is started.
 	 */
 	@Override
-	public void init() {
-		Spark.get(RESOURCE_ROOT, handle(this::getAll));
-		Spark.get(RESOURCE_BY_ID, handle(this::getSingle));
-		Spark.delete(RESOURCE_BY_ID, handle(this::delete));
-		Spark.options(RESOURCE_ROOT, handle(this::options));
-		Spark.head(RESOURCE_ROOT, handle(this::head));
+	public void routes(@NonNull final HttpTransport transport) {
+		transport.route(HttpMethod.GET, RESOURCE_ROOT, handle(this::getAll));
+		// Before RESOURCE_BY_ID, for transports matching routes in order of registration.
+		transport.route(HttpMethod.GET, RESOURCE_CHANGES, handle(this::getChanges));
+		transport.route(HttpMethod.GET, RESOURCE_BY_ID, handle(this::getSingle));
+		transport.route(HttpMethod.GET, RESOURCE_TRANSACTIONS, handle(this::getTransactions));
+		transport.route(HttpMethod.DELETE, RESOURCE_BY_ID, handle(this::delete));
+		transport.route(HttpMethod.OPTIONS, RESOURCE_ROOT, handle(this::options));
+		transport.route(HttpMethod.HEAD, RESOURCE_ROOT, handle(this::head));
 	}
 
 	/**
 	 * Implements DELETE method from REST.
 	 */
-	private Object delete(final Request request, final Response response) {
+	private Object delete(final RestRequest request, final RestResponse response) {
 		final boolean deleted = accountService.deleteAccount(readNumber(request));
 		response.status(deleted ? HttpStatus.NO_CONTENT_204 : HttpStatus.NOT_FOUND_404);
 		return null;
@@ -58,17 +126,124 @@ public class AccountController extends AbstractController implements Initializab
 	/**
 	 * Implements GET method from REST, variation without account number.
 	 */
-	private Object getAll(final Request request, final Response response) {
+	private Object getAll(final RestRequest request, final RestResponse response) throws IOException {
+		if (notModified(request, response, accountService.getVersion())) {
+			return null;
+		}
+		if (Boolean.parseBoolean(request.queryParam(STREAM))) {
+			response.status(HttpStatus.OK_200);
+			jsonService.writeArray(response.output(), accountService::forEachAccount);
+			return null;
+		}
+		final String limit = request.queryParam(LIMIT);
+		if (limit != null) {
+			return getPage(request, response, limit);
+		}
 		response.status(HttpStatus.OK_200);
 		return accountService.getAccounts().stream()
 				.collect(Collectors.toSet());
 	}
 
+	/**
+	 * Implements GET method for the change feed. Changes are written as Server-Sent Events as soon as they're read.
+	 * The feed is polled every 10 ms when there are no new changes (so payments never wake up readers),
+	 * and a comment is sent every 5 seconds of silence, so a disconnected client is noticed.
+	 * Subscribers above the limit are answered with 503, before anything is streamed.
+	 */
+	private Object getChanges(final RestRequest request, final RestResponse response) throws IOException {
+		if (!accountService.isChangeFeedEnabled()) {
+			response.status(HttpStatus.NOT_FOUND_404);
+			return null;
+		}
+		final String since = request.header(LAST_EVENT_ID) != null ? request.header(LAST_EVENT_ID) : request.queryParam(SINCE);
+		long position;
+		try {
+			position = since == null ? accountService.getChangesHead() : Long.parseLong(since);
+		} catch (final NumberFormatException e) {
+			response.status(HttpStatus.BAD_REQUEST_400);
+			return null;
+		}
+		if (subscribers.incrementAndGet() > maxSubscribers) {
+			subscribers.decrementAndGet();
+			response.status(HttpStatus.SERVICE_UNAVAILABLE_503);
+			return null;
+		}
+		try {
+			streamChanges(response, position);
+		} finally {
+			subscribers.decrementAndGet();
+		}
+		return null;
+	}
+
+	/**
+	 * Writes changes after given position to the response, until the client disconnects or has to resync.
+	 */
+	private void streamChanges(final RestResponse response, final long since) throws IOException {
+		long position = since;
+		response.status(HttpStatus.OK_200);
+		response.type(EVENT_STREAM);
+		response.header("Cache-Control", "no-cache");
+		// The stream is closed by the transport.
+		final Writer writer = new BufferedWriter(new OutputStreamWriter(response.output(), StandardCharsets.UTF_8));
+		writer.write(": since " + position + "\n\n");
+		writer.flush();
+		final List<AccountChange> changes = new ArrayList<>(CHANGES_BATCH);
+		long lastWrite = System.nanoTime();
+		while (!Thread.currentThread().isInterrupted()) {
+			final long last = accountService.getChanges(position, CHANGES_BATCH, changes::add);
+			if (last == AccountService.RESYNC) {
+				final long head = accountService.getChangesHead();
+				writeEvent(writer, head, "resync", jsonService.map(Map.of(SINCE, head)));
+				writer.flush();
+				return;
+			}
+			for (final AccountChange change : changes) {
+				writeEvent(writer, change.getSequence(), null, jsonService.map(change));
+			}
+			changes.clear();
+			if (last != position) {
+				writer.flush();
+				position = last;
+				lastWrite = System.nanoTime();
+			} else if (System.nanoTime() - lastWrite > CHANGES_KEEP_ALIVE_NANOS) {
+				writer.write(":\n\n");
+				writer.flush();
+				lastWrite = System.nanoTime();
+			} else {
+				LockSupport.parkNanos(CHANGES_POLL_NANOS);
+			}
+		}
+	}
+
+	/**
+	 * Implements GET method from REST, variation without account number, with pagination parameters.
+	 */
+	private Object getPage(final RestRequest request, final RestResponse response, final String limit) {
+		final int pageSize;
+		try {
+			pageSize = Integer.parseInt(limit);
+		} catch (final NumberFormatException e) {
+			response.status(HttpStatus.BAD_REQUEST_400);
+			return null;
+		}
+		if (pageSize <= 0 || pageSize > MAX_LIMIT) {
+			response.status(HttpStatus.BAD_REQUEST_400);
+			return null;
+		}
+		response.status(HttpStatus.OK_200);
+		return accountService.getAccounts(request.queryParam(AFTER), pageSize);
+	}
+
 	/**
 	 * Implements GET method from REST, variation with account number provided in the path.
 	 */
-	private Object getSingle(final Request request, final Response response) {
-		final var order = accountService.getAccount(readNumber(request));
+	private Object getSingle(final RestRequest request, final RestResponse response) {
+		final String number = readNumber(request);
+		if (notModified(request, response, accountService.getVersion(number))) {
+			return null;
+		}
+		final var order = accountService.getAccount(number);
 		if (order.isPresent()) {
 			response.status(HttpStatus.OK_200);
 			return order.orElseThrow();
@@ -77,10 +252,37 @@ public class AccountController extends AbstractController implements Initializab
 		return null;
 	}
 
+	/**
+	 * Implements GET method from REST for transfers of a single account.
+	 */
+	private Object getTransactions(final RestRequest request, final RestResponse response) {
+		final String limit = request.queryParam(LIMIT);
+		int maxTransactions = Integer.MAX_VALUE;
+		if (limit != null) {
+			try {
+				maxTransactions = Integer.parseInt(limit);
+			} catch (final NumberFormatException e) {
+				response.status(HttpStatus.BAD_REQUEST_400);
+				return null;
+			}
+			if (maxTransactions <= 0) {
+				response.status(HttpStatus.BAD_REQUEST_400);
+				return null;
+			}
+		}
+		final var transactions = accountService.getTransactions(readNumber(request), maxTransactions);
+		if (transactions.isPresent()) {
+			response.status(HttpStatus.OK_200);
+			return transactions.orElseThrow();
+		}
+		response.status(HttpStatus.NOT_FOUND_404);
+		return null;
+	}
+
 	/**
 	 * Implements HEAD method from REST.
 	 */
-	private Object head(final Request request, final Response response) {
+	private Object head(final RestRequest request, final RestResponse response) {
 		response.status(HttpStatus.OK_200);
 		return null;
 	}
@@ -88,13 +290,28 @@ public class AccountController extends AbstractController implements Initializab
 	/**
 	 * Implements OPTIONS method from REST.
 	 */
-	private Object options(final Request request, final Response response) {
+	private Object options(final RestRequest request, final RestResponse response) {
 		response.header("Allow", SUPPORTED_ACTIONS);
 		response.status(HttpStatus.OK_200);
 		return null;
 	}
 
-	private @NonNull String readNumber(final Request request) {
-		return request.params(NUMBER);
+	private static void writeEvent(final Writer writer, final long id, final String event, final String data)
+			throws IOException {
+		writer.write("id: ");
+		writer.write(Long.toString(id));
+		writer.write('\n');
+		if (event != null) {
+			writer.write("event: ");
+			writer.write(event);
+			writer.write('\n');
+		}
+		writer.write("data: ");
+		writer.write(data);
+		writer.write("\n\n");
+	}
+
+	private @NonNull String readNumber(final RestRequest request) {
+		return request.param(NUMBER);
 	}
 }
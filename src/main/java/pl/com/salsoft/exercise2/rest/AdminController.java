@@ -0,0 +1,150 @@
+package pl.com.salsoft.exercise2.rest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lombok.NonNull;
+import pl.com.salsoft.exercise2.metrics.RequestMetrics;
+import pl.com.salsoft.exercise2.service.AccountBulkService;
+import pl.com.salsoft.exercise2.service.AccountBulkService.Format;
+import pl.com.salsoft.exercise2.service.JsonService;
+
+/**
+ * Controller handling /admin endpoints, meant for operators rather than clients.
+ * POST /admin/accounts/import imports accounts from the request body, or from a file on the server given
+ * by the "file" parameter, and returns numbers of imported rows and created accounts. The format is chosen
+ * by the "format" parameter (ndjson or csv), by default by extension of the file, and NDJSON for the body.
+ * Only files within the import directory can be imported, and not at all if there's none. Invalid rows are
+ * answered with a generic message, so the answer never shows contents of the file - details are only logged.
+ * GET /admin/accounts/export streams all accounts in the format from the "format" parameter (ndjson by default).
+ */
+public class AdminController extends AbstractController {
+	private static final String RESOURCE_ROOT = "/admin/accounts";
+	private static final String RESOURCE_IMPORT = RESOURCE_ROOT + "/import";
+	private static final String RESOURCE_EXPORT = RESOURCE_ROOT + "/export";
+	private static final String FILE = "file";
+	private static final String FORMAT = "format";
+	private static final String ERROR = "error";
+	private static final String NDJSON_TYPE = "application/x-ndjson";
+	private static final String CSV_TYPE = "text/csv";
+	private static final String INVALID_ACCOUNTS_MESSAGE = "Invalid accounts to import.";
+	private static final Logger log = LoggerFactory.getLogger(AdminController.class);
+
+	private final AccountBulkService accountBulkService;
+	private final Path importDirectory;
+
+	/**
+	 * Creates controller with bulk account service and request metrics injected. Accounts can only be imported
+	 * from the request body.
+	 * @param jsonService JSON service to use. Cannot be null.
+	 * @param accountBulkService Bulk account service to use. Cannot be null.
+	 * @param requestMetrics Metrics to record request times in. Cannot be null.
+	 */
+	public AdminController(@NonNull final JsonService jsonService, @NonNull final AccountBulkService accountBulkService,
+			@NonNull final RequestMetrics requestMetrics) {
+		super(jsonService, requestMetrics);
+		this.accountBulkService = accountBulkService;
+		this.importDirectory = null;
+	}
+
+	/**
+	 * Creates controller with bulk account service, import directory and request metrics injected.
+	 * @param jsonService JSON service to use. Cannot be null.
+	 * @param accountBulkService Bulk account service to use. Cannot be null.
+	 * @param importDirectory Directory of files which can be imported. Cannot be null.
+	 * @param requestMetrics Metrics to record request times in. Cannot be null.
+	 * @throws IOException if the import directory doesn't exist.
+	 */
+	public AdminController(@NonNull final JsonService jsonService, @NonNull final AccountBulkService accountBulkService,
+			@NonNull final Path importDirectory, @NonNull final RequestMetrics requestMetrics) throws IOException {
+		super(jsonService, requestMetrics);
+		this.accountBulkService = accountBulkService;
+		this.importDirectory = importDirectory.toRealPath();
+	}
+
+	/**
+	 * Adds all REST request mappings to the transport.
+	 * Should be called at the application start, before the transport is started.
+	 */
+	@Override
+	public void routes(@NonNull final HttpTransport transport) {
+		transport.route(HttpMethod.POST, RESOURCE_IMPORT, handle(this::importAccounts));
+		transport.route(HttpMethod.GET, RESOURCE_EXPORT, handle(this::exportAccounts));
+	}
+
+	/**
+	 * Implements POST method for the import. Invalid formats and files outside of the import directory are
+	 * answered with 400 and the reason, invalid rows with 400 and a generic message.
+	 */
+	private Object importAccounts(final RestRequest request, final RestResponse response) throws IOException {
+		final String file = request.queryParam(FILE);
+		final String format = request.queryParam(FORMAT);
+		final Path path = file == null ? null : findImportFile(file);
+		if (file != null && path == null) {
+			response.status(HttpStatus.BAD_REQUEST_400);
+			return Map.of(ERROR, "Cannot read file " + file);
+		}
+		final Format parsedFormat;
+		try {
+			parsedFormat = format != null ? Format.parse(format) : path == null ? Format.NDJSON : Format.of(path);
+		} catch (final IllegalArgumentException e) {
+			response.status(HttpStatus.BAD_REQUEST_400);
+			return Map.of(ERROR, e.getMessage());
+		}
+		try {
+			final Object stats = path == null ? accountBulkService.importText(request.body(), parsedFormat)
+					: accountBulkService.importFile(path, parsedFormat);
+			response.status(HttpStatus.OK_200);
+			return stats;
+		} catch (final IllegalArgumentException e) {
+			// The message quotes the file, which isn't meant to be read over the API.
+			log.warn("Import of accounts failed: {}", e.getMessage());
+			response.status(HttpStatus.BAD_REQUEST_400);
+			return Map.of(ERROR, INVALID_ACCOUNTS_MESSAGE);
+		}
+	}
+
+	/**
+	 * Finds a file to import within the import directory. Links are followed before checking it's inside,
+	 * so neither ".." nor a link can lead out of the directory.
+	 * @return Real path of the file, or null if there's no import directory, or the file is outside of it
+	 * or can't be read.
+	 */
+	private Path findImportFile(final String file) {
+		if (importDirectory == null) {
+			return null;
+		}
+		try {
+			final Path path = importDirectory.resolve(file).toRealPath();
+			return path.startsWith(importDirectory) && Files.isRegularFile(path) && Files.isReadable(path) ? path : null;
+		} catch (final IOException | InvalidPathException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Implements GET method for the export. Accounts are written straight to the response.
+	 */
+	private Object exportAccounts(final RestRequest request, final RestResponse response) throws IOException {
+		final String parameter = request.queryParam(FORMAT);
+		final Format format;
+		try {
+			format = parameter == null ? Format.NDJSON : Format.parse(parameter);
+		} catch (final IllegalArgumentException e) {
+			response.status(HttpStatus.BAD_REQUEST_400);
+			return Map.of(ERROR, e.getMessage());
+		}
+		response.status(HttpStatus.OK_200);
+		response.type(format == Format.CSV ? CSV_TYPE : NDJSON_TYPE);
+		accountBulkService.export(response.output(), format);
+		return null;
+	}
+}
@@ -0,0 +1,118 @@
+package pl.com.salsoft.exercise2.rest;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpStatus;
+
+import lombok.NonNull;
+import pl.com.salsoft.exercise2.metrics.RequestMetrics;
+import pl.com.salsoft.exercise2.model.PaymentRequest;
+import pl.com.salsoft.exercise2.model.PaymentTicket;
+import pl.com.salsoft.exercise2.service.AsyncPaymentService;
+import pl.com.salsoft.exercise2.service.JsonService;
+
+/**
+ * Controller handling asynchronous payments. POST to /payment/async queues the payment and returns 202
+ * with id of the payment (also in the Location header) without waiting for it to be processed.
+ * GET /payment/{id} returns the result of the payment once it's processed, 202 with empty body while it's still
+ * pending and 404 if there's no such payment or its result was already evicted. POST to /payment/async
+ * returns 503 if the queue is full. GET /payment/async/stats returns depth and lag of the queue.
+ */
+public class AsyncPaymentController extends AbstractController {
+	private static final String ID = ":id";
+	private static final String RESOURCE_ROOT = "/payment";
+	private static final String RESOURCE_ASYNC = RESOURCE_ROOT + "/async";
+	private static final String RESOURCE_STATS = RESOURCE_ASYNC + "/stats";
+	private static final String RESOURCE_BY_ID = String.format("%s/%s", RESOURCE_ROOT, ID);
+	private static final String RETRY_AFTER_SECONDS = "1";
+
+	private final AsyncPaymentService asyncPaymentService;
+
+	/**
+	 * Creates controller with asynchronous payment and JSON services injected.
+	 * @param jsonService JSON service to use. Cannot be null.
+	 * @param asyncPaymentService Asynchronous payment service to use. Cannot be null.
+	 */
+	public AsyncPaymentController(@NonNull final JsonService jsonService,
+			@NonNull final AsyncPaymentService asyncPaymentService) {
+		super(jsonService);
+		this.asyncPaymentService = asyncPaymentService;
+	}
+
+	/**
+	 * Creates controller with asynchronous payment and JSON services and request metrics injected.
+	 * @param jsonService JSON service to use. Cannot be null.
+	 * @param asyncPaymentService Asynchronous payment service to use. Cannot be null.
+	 * @param requestMetrics Metrics to record request times in. Cannot be null.
+	 */
+	public AsyncPaymentController(@NonNull final JsonService jsonService,
+			@NonNull final AsyncPaymentService asyncPaymentService, @NonNull final RequestMetrics requestMetrics) {
+		super(jsonService, requestMetrics);
+		this.asyncPaymentService = asyncPaymentService;
+	}
+
+	/**
+	 * Adds all REST request mappings to the transport.
+	 * Should be called at the application start, before the transport is started.
+	 */
+	@Override
+	public void routes(@NonNull final HttpTransport transport) {
+		transport.route(HttpMethod.POST, RESOURCE_ASYNC, handle(this::post));
+		transport.route(HttpMethod.GET, RESOURCE_STATS, handle(this::getStats));
+		transport.route(HttpMethod.GET, RESOURCE_BY_ID, handle(this::getResult));
+	}
+
+	/**
+	 * Implements POST method from REST. It only queues the payment.
+	 */
+	private Object post(final RestRequest request, final RestResponse response) throws IOException {
+		final PaymentRequest payment = Optional.ofNullable(jsonService.map(request.body(), PaymentRequest.class)).orElseThrow();
+		final OptionalLong id = asyncPaymentService.submit(payment);
+		if (id.isEmpty()) {
+			response.header("Retry-After", RETRY_AFTER_SECONDS);
+			response.status(HttpStatus.SERVICE_UNAVAILABLE_503);
+			return null;
+		}
+		final String paymentId = Long.toString(id.getAsLong());
+		response.header("Location", String.format("%s/%s", RESOURCE_ROOT, paymentId));
+		response.status(HttpStatus.ACCEPTED_202);
+		return PaymentTicket.builder().id(paymentId).build();
+	}
+
+	/**
+	 * Implements GET method from REST for a single payment.
+	 */
+	private Object getResult(final RestRequest request, final RestResponse response) {
+		final long id;
+		try {
+			id = Long.parseLong(request.param(ID));
+		} catch (final NumberFormatException e) {
+			response.status(HttpStatus.NOT_FOUND_404);
+			return null;
+		}
+		// Pending is checked first - a payment leaves pending only once its result is stored.
+		if (asyncPaymentService.isPending(id)) {
+			response.header("Retry-After", RETRY_AFTER_SECONDS);
+			response.status(HttpStatus.ACCEPTED_202);
+			return null;
+		}
+		final var result = asyncPaymentService.getResult(id);
+		if (result.isPresent()) {
+			response.status(HttpStatus.OK_200);
+			return result.orElseThrow();
+		}
+		response.status(HttpStatus.NOT_FOUND_404);
+		return null;
+	}
+
+	/**
+	 * Implements GET method from REST for the queue statistics.
+	 */
+	private Object getStats(final RestRequest request, final RestResponse response) {
+		response.status(HttpStatus.OK_200);
+		return asyncPaymentService.getStats();
+	}
+}
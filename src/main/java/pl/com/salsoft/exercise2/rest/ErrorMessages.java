@@ -3,4 +3,6 @@ package pl.com.salsoft.exercise2.rest;
 public class ErrorMessages {
 	public static final String INSUFFICIENT_FUNDS_MESSAGE = "Insufficient funds to perform the operation.";
 	public static final String INVALID_AMOUNT_MESSAGE = "Invalid amount to transfer. Must be greater than 0.";
+	public static final String PROCESSING_FAILED_MESSAGE = "Payment could not be processed.";
+	public static final String DURABILITY_UNKNOWN_MESSAGE = "Payment was made, but it could not be confirmed durable.";
 }
@@ -0,0 +1,33 @@
+package pl.com.salsoft.exercise2.rest;
+
+import java.io.IOException;
+
+import org.eclipse.jetty.http.HttpMethod;
+
+/**
+ * HTTP server the controllers are served from. Routes are added by controllers (see AbstractController.routes())
+ * before the transport is started, and are not changed afterwards.
+ *
+ * Implementations: SparkTransport (Spark routing on Jetty, the default), JettyTransport (a raw Jetty handler)
+ * and JdkTransport (the JDK built-in HttpServer). The latter two dispatch requests with RouteTable.
+ */
+public interface HttpTransport {
+	/**
+	 * Adds a route.
+	 * @param method HTTP method. Cannot be null.
+	 * @param path Path pattern. Segments starting with a colon are parameters, e.g. /account/:number. Cannot be null.
+	 * @param handler Handler of the requests. Cannot be null.
+	 */
+	void route(HttpMethod method, String path, RestHandler handler);
+
+	/**
+	 * Starts the server. Returns once it accepts requests.
+	 * @throws IOException if the server could not be started.
+	 */
+	void start() throws IOException;
+
+	/**
+	 * Stops the server. Returns once it's stopped.
+	 */
+	void stop();
+}
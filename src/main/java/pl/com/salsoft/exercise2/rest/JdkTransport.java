@@ -0,0 +1,225 @@
+package pl.com.salsoft.exercise2.rest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import lombok.NonNull;
+
+/**
+ * Transport serving routes from the HTTP server built into the JDK (com.sun.net.httpserver), with dispatch
+ * precomputed in RouteTable. The server parses requests on a single dispatcher thread and runs handlers
+ * on the given pool. Bodies returned by handlers are sent with Content-Length, bodies written to
+ * RestResponse.output() are sent chunked.
+ *
+ * The server flushes headers before the body, so without TCP_NODELAY the body waits for the delayed ACK
+ * of the headers (about 40 ms on Linux) - sun.net.httpserver.nodelay is turned on unless it's set explicitly.
+ * It's read once, when the first server in the JVM is created.
+ */
+public class JdkTransport implements HttpTransport {
+	private static final Logger log = LoggerFactory.getLogger(JdkTransport.class);
+	private static final long NO_BODY = -1;
+	private static final long CHUNKED = 0;
+	private static final String NO_DELAY = "sun.net.httpserver.nodelay";
+
+	private final RouteTable routes = new RouteTable();
+	private final int port;
+	private final ThreadPool threadPool;
+	private final HttpServer server;
+
+	/**
+	 * Creates transport. The server is started with start().
+	 * @param port Port to listen on.
+	 * @param threadPool Pool of threads handling requests. It's started and stopped with the transport. Cannot be null.
+	 * @throws IOException if the server could not be created.
+	 */
+	public JdkTransport(final int port, @NonNull final ThreadPool threadPool) throws IOException {
+		this.port = port;
+		this.threadPool = threadPool;
+		if (System.getProperty(NO_DELAY) == null) {
+			System.setProperty(NO_DELAY, Boolean.TRUE.toString());
+		}
+		server = HttpServer.create();
+		server.createContext("/", this::dispatch);
+		server.setExecutor(threadPool);
+	}
+
+	@Override
+	public void route(@NonNull final HttpMethod method, @NonNull final String path, @NonNull final RestHandler handler) {
+		routes.add(method.asString(), path, handler);
+	}
+
+	@Override
+	public void start() throws IOException {
+		if (threadPool instanceof LifeCycle) {
+			try {
+				((LifeCycle) threadPool).start();
+			} catch (final Exception e) {
+				throw new IOException("Could not start thread pool.", e);
+			}
+		}
+		server.bind(new InetSocketAddress(port), 0);
+		server.start();
+	}
+
+	@Override
+	public void stop() {
+		server.stop(0);
+		if (threadPool instanceof LifeCycle) {
+			try {
+				((LifeCycle) threadPool).stop();
+			} catch (final Exception e) {
+				log.error("Could not stop thread pool: {}", e.getMessage());
+			}
+		}
+	}
+
+	private void dispatch(final HttpExchange exchange) throws IOException {
+		try {
+			final String method = exchange.getRequestMethod();
+			final RouteTable.Match match = routes.find(method, exchange.getRequestURI().getPath());
+			if (match == null) {
+				sendWithoutBody(exchange, HttpStatus.NOT_FOUND_404);
+				return;
+			}
+			final JdkResponse response = new JdkResponse(exchange, HttpMethod.HEAD.is(method));
+			final Object body;
+			try {
+				body = match.handler().handle(new JdkRequest(exchange, match), response);
+			} catch (final Exception e) {
+				log.error("Error while handling request {} {}: {}", method, exchange.getRequestURI(), e.getMessage());
+				if (!response.sent) {
+					sendWithoutBody(exchange, HttpStatus.INTERNAL_SERVER_ERROR_500);
+				}
+				return;
+			}
+			if (!response.sent) {
+				response.send(body == null ? "" : body.toString());
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Sends headers of a response without body. The server finishes such exchange right away and keeps
+	 * the connection only if the request body was read to the end, so it's closed (drained) first.
+	 * Otherwise every HEAD, 204 and 304 response would close the connection.
+	 */
+	private static void sendWithoutBody(final HttpExchange exchange, final int status) throws IOException {
+		exchange.getRequestBody().close();
+		exchange.sendResponseHeaders(status, NO_BODY);
+	}
+
+	private static final class JdkRequest implements RestRequest {
+		private final HttpExchange exchange;
+		private final RouteTable.Match match;
+
+		private JdkRequest(final HttpExchange exchange, final RouteTable.Match match) {
+			this.exchange = exchange;
+			this.match = match;
+		}
+
+		@Override
+		public String method() {
+			return exchange.getRequestMethod();
+		}
+
+		@Override
+		public String url() {
+			return exchange.getRequestURI().toString();
+		}
+
+		@Override
+		public String route() {
+			return match.route();
+		}
+
+		@Override
+		public String param(final String name) {
+			return match.param(name);
+		}
+
+		@Override
+		public String queryParam(final String name) {
+			return QueryParams.find(exchange.getRequestURI().getRawQuery(), name);
+		}
+
+		@Override
+		public String header(final String name) {
+			return exchange.getRequestHeaders().getFirst(name);
+		}
+
+		@Override
+		public String body() throws IOException {
+			return new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private static final class JdkResponse implements RestResponse {
+		private final HttpExchange exchange;
+		private final boolean head;
+		private int status = HttpStatus.OK_200;
+		private boolean sent;
+
+		private JdkResponse(final HttpExchange exchange, final boolean head) {
+			this.exchange = exchange;
+			this.head = head;
+		}
+
+		@Override
+		public void status(final int status) {
+			this.status = status;
+		}
+
+		@Override
+		public int status() {
+			return status;
+		}
+
+		@Override
+		public void type(final String contentType) {
+			exchange.getResponseHeaders().set("Content-Type", contentType);
+		}
+
+		@Override
+		public void header(final String name, final String value) {
+			exchange.getResponseHeaders().set(name, value);
+		}
+
+		@Override
+		public OutputStream output() throws IOException {
+			sent = true;
+			if (head) {
+				sendWithoutBody(exchange, status);
+			} else {
+				exchange.sendResponseHeaders(status, CHUNKED);
+			}
+			return exchange.getResponseBody();
+		}
+
+		private void send(final String body) throws IOException {
+			sent = true;
+			final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+			if (head || bytes.length == 0) {
+				sendWithoutBody(exchange, status);
+				return;
+			}
+			exchange.sendResponseHeaders(status, bytes.length);
+			try (OutputStream output = exchange.getResponseBody()) {
+				output.write(bytes);
+			}
+		}
+	}
+}
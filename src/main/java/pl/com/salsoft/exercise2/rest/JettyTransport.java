@@ -0,0 +1,182 @@
+package pl.com.salsoft.exercise2.rest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lombok.NonNull;
+
+/**
+ * Transport serving routes from a single Jetty handler, with dispatch precomputed in RouteTable.
+ * Compared to SparkTransport, there's no route matching with regular expressions, no filters and no Spark
+ * request and response wrappers - the handler goes straight from Jetty's request to the controller.
+ */
+public class JettyTransport implements HttpTransport {
+	private static final Logger log = LoggerFactory.getLogger(JettyTransport.class);
+
+	private final RouteTable routes = new RouteTable();
+	private final Server server;
+
+	/**
+	 * Creates transport. The server is started with start().
+	 * @param port Port to listen on.
+	 * @param threadPool Pool of threads accepting and handling requests. Cannot be null.
+	 */
+	public JettyTransport(final int port, @NonNull final ThreadPool threadPool) {
+		server = new Server(threadPool);
+		final ServerConnector connector = new ServerConnector(server);
+		connector.setPort(port);
+		server.addConnector(connector);
+		server.setHandler(new AbstractHandler() {
+			@Override
+			public void handle(final String target, final Request baseRequest, final HttpServletRequest request,
+					final HttpServletResponse response) throws IOException {
+				baseRequest.setHandled(true);
+				dispatch(target, request, response);
+			}
+		});
+	}
+
+	@Override
+	public void route(@NonNull final HttpMethod method, @NonNull final String path, @NonNull final RestHandler handler) {
+		routes.add(method.asString(), path, handler);
+	}
+
+	@Override
+	public void start() throws IOException {
+		try {
+			server.start();
+		} catch (final IOException e) {
+			throw e;
+		} catch (final Exception e) {
+			throw new IOException("Could not start Jetty.", e);
+		}
+	}
+
+	@Override
+	public void stop() {
+		try {
+			server.stop();
+		} catch (final Exception e) {
+			log.error("Could not stop Jetty: {}", e.getMessage());
+		}
+	}
+
+	private void dispatch(final String path, final HttpServletRequest request, final HttpServletResponse response)
+			throws IOException {
+		final RouteTable.Match match = routes.find(request.getMethod(), path);
+		if (match == null) {
+			response.setStatus(HttpStatus.NOT_FOUND_404);
+			return;
+		}
+		final JettyResponse restResponse = new JettyResponse(response);
+		final Object body;
+		try {
+			body = match.handler().handle(new JettyRequest(request, match), restResponse);
+		} catch (final Exception e) {
+			log.error("Error while handling request {} {}: {}", request.getMethod(), request.getRequestURL(), e.getMessage());
+			if (!response.isCommitted()) {
+				response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR_500);
+			}
+			return;
+		}
+		if (body != null && !restResponse.streamed) {
+			final byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+			response.setContentLength(bytes.length);
+			response.getOutputStream().write(bytes);
+		}
+	}
+
+	private static final class JettyRequest implements RestRequest {
+		private final HttpServletRequest request;
+		private final RouteTable.Match match;
+
+		private JettyRequest(final HttpServletRequest request, final RouteTable.Match match) {
+			this.request = request;
+			this.match = match;
+		}
+
+		@Override
+		public String method() {
+			return request.getMethod();
+		}
+
+		@Override
+		public String url() {
+			return request.getRequestURL().toString();
+		}
+
+		@Override
+		public String route() {
+			return match.route();
+		}
+
+		@Override
+		public String param(final String name) {
+			return match.param(name);
+		}
+
+		@Override
+		public String queryParam(final String name) {
+			return QueryParams.find(request.getQueryString(), name);
+		}
+
+		@Override
+		public String header(final String name) {
+			return request.getHeader(name);
+		}
+
+		@Override
+		public String body() throws IOException {
+			return new String(request.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private static final class JettyResponse implements RestResponse {
+		private final HttpServletResponse response;
+		private boolean streamed;
+
+		private JettyResponse(final HttpServletResponse response) {
+			this.response = response;
+		}
+
+		@Override
+		public void status(final int status) {
+			response.setStatus(status);
+		}
+
+		@Override
+		public int status() {
+			return response.getStatus();
+		}
+
+		@Override
+		public void type(final String contentType) {
+			response.setContentType(contentType);
+		}
+
+		@Override
+		public void header(final String name, final String value) {
+			response.setHeader(name, value);
+		}
+
+		@Override
+		public OutputStream output() throws IOException {
+			streamed = true;
+			return response.getOutputStream();
+		}
+	}
+}
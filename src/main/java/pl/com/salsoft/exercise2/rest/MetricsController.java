@@ -0,0 +1,56 @@
+package pl.com.salsoft.exercise2.rest;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpStatus;
+
+import lombok.NonNull;
+import pl.com.salsoft.exercise2.metrics.MetricsRegistry;
+import pl.com.salsoft.exercise2.metrics.PrometheusFormat;
+import pl.com.salsoft.exercise2.service.JsonService;
+
+/**
+ * Controller handling /metrics endpoint. GET returns all metrics of the application in the Prometheus text format.
+ */
+public class MetricsController extends AbstractController {
+	private static final String RESOURCE_ROOT = "/metrics";
+
+	private final MetricsRegistry metricsRegistry;
+
+	/**
+	 * Creates controller with metrics registry injected. Times of requests to /metrics are recorded
+	 * in the registry too.
+	 * @param jsonService JSON service to use. Cannot be null.
+	 * @param metricsRegistry Registry of metrics to expose. Cannot be null.
+	 */
+	public MetricsController(@NonNull final JsonService jsonService, @NonNull final MetricsRegistry metricsRegistry) {
+		super(jsonService, metricsRegistry.getRequestMetrics());
+		this.metricsRegistry = metricsRegistry;
+	}
+
+	/**
+	 * Adds all REST request mappings to the transport.
+	 * Should be called at the application start, before the transport is started.
+	 */
+	@Override
+	public void routes(@NonNull final HttpTransport transport) {
+		transport.route(HttpMethod.GET, RESOURCE_ROOT, handle(this::get));
+	}
+
+	/**
+	 * Implements GET method from REST. Metrics are written straight to the response.
+	 */
+	private Object get(final RestRequest request, final RestResponse response) throws IOException {
+		response.status(HttpStatus.OK_200);
+		response.type(PrometheusFormat.CONTENT_TYPE);
+		final Writer writer = new OutputStreamWriter(response.output(), StandardCharsets.UTF_8);
+		metricsRegistry.write(writer);
+		// The stream is closed by the transport.
+		writer.flush();
+		return null;
+	}
+}
@@ -1,27 +1,46 @@
 package pl.com.salsoft.exercise2.rest;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
+import org.eclipse.jetty.http.HttpMethod;
 import org.eclipse.jetty.http.HttpStatus;
 
 import lombok.NonNull;
-import pl.com.salsoft.exercise2.Initializable;
+import pl.com.salsoft.exercise2.metrics.RequestMetrics;
 import pl.com.salsoft.exercise2.model.PaymentRequest;
+import pl.com.salsoft.exercise2.model.PaymentResult;
+import pl.com.salsoft.exercise2.service.IdempotencyCache;
+import pl.com.salsoft.exercise2.service.IdempotencyKeyConflictException;
 import pl.com.salsoft.exercise2.service.JsonService;
 import pl.com.salsoft.exercise2.service.PaymentService;
-import spark.Request;
-import spark.Response;
-import spark.Spark;
 
 /**
  * Controller handling /account endpoint. It provides currently just one operation using
- * POST method - to trigger money transfer process.
+ * POST method - to trigger money transfer process. POST to /payment/batch triggers a batch of transfers
+ * at once - it takes an array of payment requests and returns an array of results in the same order.
+ * Batches of more payments than the limit are answered with 413, without making any of them.
+ * POST to /payment with Idempotency-Key header makes the payment only once per key - retries with the same key
+ * (also while the first request is still in progress) get the result of the first request. Reusing a key
+ * for a different payment is answered with 422. GET /payment/idempotency/stats returns state of the key cache.
  */
-public class PaymentController extends AbstractController implements Initializable {
+public class PaymentController extends AbstractController {
 	private static final String SUPPORTED_ACTIONS = "POST,OPTIONS,HEAD";
 	private static final String RESOURCE_ROOT = "/payment";
+	private static final String RESOURCE_BATCH = RESOURCE_ROOT + "/batch";
+	private static final String RESOURCE_IDEMPOTENCY_STATS = RESOURCE_ROOT + "/idempotency/stats";
+	private static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+	private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 255;
+	private static final int DEFAULT_IDEMPOTENCY_KEYS = 10000;
+	private static final long DEFAULT_IDEMPOTENCY_TTL_HOURS = 24;
+	private static final int DEFAULT_MAX_BATCH_SIZE = 1000;
 
 	private final PaymentService paymentService;
+	private final IdempotencyCache idempotencyCache;
+	private final int maxBatchSize;
 
 	/**
 	 * Creates controller with payment and JSON services injected.
@@ -29,25 +48,74 @@ public class PaymentController extends AbstractController implements Initializab
 	 * @param paymentService Payment service to use. Cannot be null.
 	 */
 	public PaymentController(@NonNull final JsonService jsonService, @NonNull final PaymentService paymentService) {
+		this(jsonService, paymentService,
+				new IdempotencyCache(DEFAULT_IDEMPOTENCY_KEYS, DEFAULT_IDEMPOTENCY_TTL_HOURS, TimeUnit.HOURS));
+	}
+
+	/**
+	 * Creates controller with payment and JSON services and idempotency key cache injected.
+	 * @param jsonService JSON service to use. Cannot be null.
+	 * @param paymentService Payment service to use. Cannot be null.
+	 * @param idempotencyCache Cache of results by idempotency key. Cannot be null.
+	 */
+	public PaymentController(@NonNull final JsonService jsonService, @NonNull final PaymentService paymentService,
+			@NonNull final IdempotencyCache idempotencyCache) {
 		super(jsonService);
 		this.paymentService = paymentService;
+		this.idempotencyCache = idempotencyCache;
+		this.maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+	}
+
+	/**
+	 * Creates controller with payment and JSON services, idempotency key cache and request metrics injected.
+	 * @param jsonService JSON service to use. Cannot be null.
+	 * @param paymentService Payment service to use. Cannot be null.
+	 * @param idempotencyCache Cache of results by idempotency key. Cannot be null.
+	 * @param requestMetrics Metrics to record request times in. Cannot be null.
+	 */
+	public PaymentController(@NonNull final JsonService jsonService, @NonNull final PaymentService paymentService,
+			@NonNull final IdempotencyCache idempotencyCache, @NonNull final RequestMetrics requestMetrics) {
+		this(jsonService, paymentService, idempotencyCache, DEFAULT_MAX_BATCH_SIZE, requestMetrics);
+	}
+
+	/**
+	 * Creates controller with payment and JSON services, idempotency key cache, batch size limit and request
+	 * metrics injected.
+	 * @param jsonService JSON service to use. Cannot be null.
+	 * @param paymentService Payment service to use. Cannot be null.
+	 * @param idempotencyCache Cache of results by idempotency key. Cannot be null.
+	 * @param maxBatchSize Maximum number of payments in a batch. Has to be greater than 0.
+	 * @param requestMetrics Metrics to record request times in. Cannot be null.
+	 */
+	public PaymentController(@NonNull final JsonService jsonService, @NonNull final PaymentService paymentService,
+			@NonNull final IdempotencyCache idempotencyCache, final int maxBatchSize,
+			@NonNull final RequestMetrics requestMetrics) {
+		super(jsonService, requestMetrics);
+		if (maxBatchSize <= 0) {
+			throw new IllegalArgumentException("Maximum batch size has to be greater than 0.");
+		}
+		this.paymentService = paymentService;
+		this.idempotencyCache = idempotencyCache;
+		this.maxBatchSize = maxBatchSize;
 	}
 
 	/**
-	 * Sets up all REST request mappings.
-	 * Should be called at the application start.
+	 * Adds all REST request mappings to the transport.
+	 * Should be called at the application start, before the transport is started.
 	 */
 	@Override
-	public void init() {
-		Spark.post(RESOURCE_ROOT, handle(this::post));
-		Spark.options(RESOURCE_ROOT, handle(this::options));
-		Spark.head(RESOURCE_ROOT, handle(this::head));
+	public void routes(@NonNull final HttpTransport transport) {
+		transport.route(HttpMethod.POST, RESOURCE_ROOT, handle(this::post));
+		transport.route(HttpMethod.POST, RESOURCE_BATCH, handle(this::postBatch));
+		transport.route(HttpMethod.GET, RESOURCE_IDEMPOTENCY_STATS, handle(this::getIdempotencyStats));
+		transport.route(HttpMethod.OPTIONS, RESOURCE_ROOT, handle(this::options));
+		transport.route(HttpMethod.HEAD, RESOURCE_ROOT, handle(this::head));
 	}
 
 	/**
 	 * Implements HEAD method from REST.
 	 */
-	private Object head(final Request request, final Response response) {
+	private Object head(final RestRequest request, final RestResponse response) {
 		response.status(HttpStatus.OK_200);
 		return null;
 	}
@@ -55,7 +123,7 @@ public class PaymentController extends AbstractController implements Initializab
 	/**
 	 * Implements OPTIONS method from REST.
 	 */
-	private Object options(final Request request, final Response response) {
+	private Object options(final RestRequest request, final RestResponse response) {
 		response.header("Allow", SUPPORTED_ACTIONS);
 		response.status(HttpStatus.OK_200);
 		return null;
@@ -63,14 +131,57 @@ public class PaymentController extends AbstractController implements Initializab
 
 	/**
 	 * Implements POST method from REST. It performs money transfer operation,
-	 * according to details passed in the body.
+	 * according to details passed in the body. PaymentService returns only once the transfer
+	 * is durable in the journal, so 200 is never sent for a transfer which could be lost.
+	 */
+	private Object post(final RestRequest request, final RestResponse response) throws IOException {
+		final PaymentRequest payment = readPayment(request);
+		final String key = request.header(IDEMPOTENCY_KEY);
+		if (key == null) {
+			response.status(HttpStatus.OK_200);
+			return paymentService.newPayment(payment);
+		}
+		if (key.isEmpty() || key.length() > MAX_IDEMPOTENCY_KEY_LENGTH) {
+			response.status(HttpStatus.BAD_REQUEST_400);
+			return null;
+		}
+		try {
+			final PaymentResult result = paymentService.newPayment(payment, key, idempotencyCache);
+			response.status(HttpStatus.OK_200);
+			return result;
+		} catch (final IdempotencyKeyConflictException e) {
+			response.status(HttpStatus.UNPROCESSABLE_ENTITY_422);
+			return null;
+		}
+	}
+
+	/**
+	 * Implements POST method for batch of payments. Results are returned once all transfers are durable.
+	 * Batches above the limit are answered with 413.
 	 */
-	private Object post(final Request request, final Response response) {
+	private Object postBatch(final RestRequest request, final RestResponse response) throws IOException {
+		final List<PaymentRequest> payments = readPayments(request);
+		if (payments.size() > maxBatchSize) {
+			response.status(HttpStatus.PAYLOAD_TOO_LARGE_413);
+			return null;
+		}
 		response.status(HttpStatus.OK_200);
-		return paymentService.newPayment(readPayment(request));
+		return paymentService.newPayments(payments);
+	}
+
+	/**
+	 * Implements GET method for statistics of the idempotency key cache.
+	 */
+	private Object getIdempotencyStats(final RestRequest request, final RestResponse response) {
+		response.status(HttpStatus.OK_200);
+		return idempotencyCache.getStats();
+	}
+
+	private @NonNull List<PaymentRequest> readPayments(final RestRequest request) throws IOException {
+		return Arrays.asList(Optional.ofNullable(jsonService.map(request.body(), PaymentRequest[].class)).orElseThrow());
 	}
 
-	private @NonNull PaymentRequest readPayment(final Request request) {
+	private @NonNull PaymentRequest readPayment(final RestRequest request) throws IOException {
 		return Optional.ofNullable(jsonService.map(request.body(), PaymentRequest.class)).orElseThrow();
 	}
 }
@@ -0,0 +1,43 @@
+package pl.com.salsoft.exercise2.rest;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Lookup of query parameters in a raw query string, for the raw transports. Parameters are looked up in place,
+ * without building a map of all of them - requests read one or two parameters, most none.
+ */
+final class QueryParams {
+	private QueryParams() {
+	}
+
+	/**
+	 * Finds a parameter.
+	 * @param query Raw (not decoded) query string, without "?". Can be null.
+	 * @param name Name of the parameter.
+	 * @return Decoded value of the first parameter with given name (empty if it has no value), or null if there's none.
+	 */
+	static String find(final String query, final String name) {
+		if (query == null) {
+			return null;
+		}
+		int start = 0;
+		while (start <= query.length()) {
+			int end = query.indexOf('&', start);
+			if (end < 0) {
+				end = query.length();
+			}
+			final int separator = query.indexOf('=', start);
+			final int nameEnd = separator < 0 || separator > end ? end : separator;
+			if (decode(query.substring(start, nameEnd)).equals(name)) {
+				return nameEnd == end ? "" : decode(query.substring(nameEnd + 1, end));
+			}
+			start = end + 1;
+		}
+		return null;
+	}
+
+	private static String decode(final String value) {
+		return value.indexOf('%') < 0 && value.indexOf('+') < 0 ? value : URLDecoder.decode(value, StandardCharsets.UTF_8);
+	}
+}
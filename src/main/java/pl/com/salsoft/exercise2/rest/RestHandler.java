@@ -0,0 +1,17 @@
+package pl.com.salsoft.exercise2.rest;
+
+/**
+ * Handler of requests of a single route.
+ */
+@FunctionalInterface
+public interface RestHandler {
+	/**
+	 * Handles a request.
+	 * @param request Request. Never null.
+	 * @param response Response to set status and headers of. Never null.
+	 * @return Body of the response. Transports send its toString(). Null if there's no body
+	 * or it was written to RestResponse.output().
+	 * @throws Exception if the request could not be handled. Transports respond with 500.
+	 */
+	Object handle(RestRequest request, RestResponse response) throws Exception;
+}
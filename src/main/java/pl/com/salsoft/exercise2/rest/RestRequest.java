@@ -0,0 +1,50 @@
+package pl.com.salsoft.exercise2.rest;
+
+import java.io.IOException;
+
+/**
+ * HTTP request as seen by controllers, independent of the transport (see HttpTransport) serving it.
+ */
+public interface RestRequest {
+	/**
+	 * @return HTTP method, e.g. GET. Never null.
+	 */
+	String method();
+
+	/**
+	 * @return Full URL of the request, for logging. Never null.
+	 */
+	String url();
+
+	/**
+	 * @return Path pattern of the matched route, e.g. /account/:number. Never null.
+	 */
+	String route();
+
+	/**
+	 * Finds a path parameter.
+	 * @param name Name of the parameter, as in the route, e.g. :number.
+	 * @return Decoded value of the parameter, or null if the route has no such parameter.
+	 */
+	String param(String name);
+
+	/**
+	 * Finds a query parameter.
+	 * @param name Name of the parameter.
+	 * @return Decoded value of the first parameter with given name, or null if there's none.
+	 */
+	String queryParam(String name);
+
+	/**
+	 * Finds a header.
+	 * @param name Name of the header, case-insensitive.
+	 * @return Value of the first header with given name, or null if there's none.
+	 */
+	String header(String name);
+
+	/**
+	 * @return Body of the request decoded as UTF-8. Empty if there's no body, never null.
+	 * @throws IOException if the body could not be read.
+	 */
+	String body() throws IOException;
+}
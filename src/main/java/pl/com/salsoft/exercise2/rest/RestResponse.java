@@ -0,0 +1,42 @@
+package pl.com.salsoft.exercise2.rest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * HTTP response as seen by controllers, independent of the transport (see HttpTransport) serving it.
+ * Status and headers can be changed until output() is called.
+ */
+public interface RestResponse {
+	/**
+	 * Sets status of the response.
+	 * @param status HTTP status.
+	 */
+	void status(int status);
+
+	/**
+	 * @return Status of the response. 200 if it was not set.
+	 */
+	int status();
+
+	/**
+	 * Sets Content-Type of the response.
+	 * @param contentType Content type. Cannot be null.
+	 */
+	void type(String contentType);
+
+	/**
+	 * Sets a header of the response, replacing the previous value.
+	 * @param name Name of the header. Cannot be null.
+	 * @param value Value of the header. Cannot be null.
+	 */
+	void header(String name, String value);
+
+	/**
+	 * Sends status and headers, and gives the stream to write the body to, for bodies written while they are
+	 * produced. Once it's called, the body returned by the handler is ignored. The stream is closed by the transport.
+	 * @return Stream of the response body. Never null.
+	 * @throws IOException if the response could not be started.
+	 */
+	OutputStream output() throws IOException;
+}
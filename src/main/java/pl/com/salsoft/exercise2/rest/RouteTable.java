@@ -0,0 +1,155 @@
+package pl.com.salsoft.exercise2.rest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.NonNull;
+
+/**
+ * Precomputed dispatch of the raw transports. Routes without parameters are found with a single hash map lookup
+ * by the path. Routes with parameters are grouped by number of path segments, and only the group of the request
+ * is matched segment by segment - no regular expressions and no walk over all routes, unlike Spark.
+ * Routes without parameters win over routes with them, otherwise routes are matched in the order they were added.
+ *
+ * Routes are added before the server starts and never changed afterwards, so lookups are not synchronized.
+ */
+final class RouteTable {
+	private static final String[] NO_VALUES = new String[0];
+
+	private final Map<String, Map<String, Match>> exact = new HashMap<>();
+	private final List<List<Route>> byLength = new ArrayList<>();
+
+	/**
+	 * Adds a route. See HttpTransport.route().
+	 */
+	void add(@NonNull final String method, @NonNull final String path, @NonNull final RestHandler handler) {
+		final String[] segments = split(path);
+		final Route route = new Route(method, path, segments, handler);
+		if (route.parameters == 0) {
+			exact.computeIfAbsent(path, key -> new HashMap<>()).putIfAbsent(method, new Match(route, NO_VALUES));
+			return;
+		}
+		while (byLength.size() <= segments.length) {
+			byLength.add(new ArrayList<>());
+		}
+		byLength.get(segments.length).add(route);
+	}
+
+	/**
+	 * Finds the route of a request.
+	 * @param method HTTP method of the request.
+	 * @param path Decoded path of the request.
+	 * @return Matched route with values of its parameters, or null if no route matches.
+	 */
+	Match find(final String method, final String path) {
+		final Map<String, Match> methods = exact.get(path);
+		if (methods != null) {
+			final Match match = methods.get(method);
+			if (match != null) {
+				return match;
+			}
+		}
+		final String[] segments = split(path);
+		if (segments.length >= byLength.size()) {
+			return null;
+		}
+		for (final Route route : byLength.get(segments.length)) {
+			if (route.method.equals(method) && route.matches(segments)) {
+				final String[] values = new String[route.parameters];
+				int parameter = 0;
+				for (int i = 0; i < segments.length; i++) {
+					if (route.segments[i].startsWith(":")) {
+						values[parameter++] = segments[i];
+					}
+				}
+				return new Match(route, values);
+			}
+		}
+		return null;
+	}
+
+	private static String[] split(final String path) {
+		final int start = path.startsWith("/") ? 1 : 0;
+		if (start == path.length()) {
+			return NO_VALUES;
+		}
+		return path.substring(start).split("/", -1);
+	}
+
+	private static final class Route {
+		private final String method;
+		private final String path;
+		private final String[] segments;
+		private final int parameters;
+		private final RestHandler handler;
+
+		private Route(final String method, final String path, final String[] segments, final RestHandler handler) {
+			this.method = method;
+			this.path = path;
+			this.segments = segments;
+			this.handler = handler;
+			int parameters = 0;
+			for (final String segment : segments) {
+				if (segment.startsWith(":")) {
+					parameters++;
+				}
+			}
+			this.parameters = parameters;
+		}
+
+		private boolean matches(final String[] pathSegments) {
+			for (int i = 0; i < segments.length; i++) {
+				final boolean parameter = segments[i].startsWith(":");
+				if (parameter ? pathSegments[i].isEmpty() : !segments[i].equals(pathSegments[i])) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Route matched by a request.
+	 */
+	static final class Match {
+		private final Route route;
+		private final String[] values;
+
+		private Match(final Route route, final String[] values) {
+			this.route = route;
+			this.values = values;
+		}
+
+		/**
+		 * @return Handler of the route.
+		 */
+		RestHandler handler() {
+			return route.handler;
+		}
+
+		/**
+		 * @return Path pattern of the route.
+		 */
+		String route() {
+			return route.path;
+		}
+
+		/**
+		 * Finds a parameter. See RestRequest.param().
+		 */
+		String param(final String name) {
+			int parameter = 0;
+			for (final String segment : route.segments) {
+				if (segment.startsWith(":")) {
+					if (segment.equals(name)) {
+						return values[parameter];
+					}
+					parameter++;
+				}
+			}
+			return null;
+		}
+	}
+}
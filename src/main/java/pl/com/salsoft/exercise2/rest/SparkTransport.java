@@ -0,0 +1,157 @@
+package pl.com.salsoft.exercise2.rest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+import lombok.NonNull;
+import spark.Request;
+import spark.Response;
+import spark.Route;
+import spark.Spark;
+import spark.embeddedserver.EmbeddedServers;
+import spark.embeddedserver.jetty.EmbeddedJettyFactory;
+
+/**
+ * Transport serving routes with Spark. Every request goes through Spark's route matching (regular expressions
+ * over all routes of the method) and its Jetty handler and filters. Spark is configured statically,
+ * so there can be only one started SparkTransport at a time.
+ */
+public class SparkTransport implements HttpTransport {
+	private static final String EMPTY_BODY = "";
+
+	/**
+	 * Creates transport. Spark's server is started with the first route.
+	 * @param port Port to listen on.
+	 * @param threadPool Pool of threads accepting and handling requests. Cannot be null.
+	 */
+	public SparkTransport(final int port, @NonNull final ThreadPool threadPool) {
+		EmbeddedServers.add(EmbeddedServers.defaultIdentifier(), new EmbeddedJettyFactory().withThreadPool(threadPool));
+		Spark.port(port);
+	}
+
+	@Override
+	public void route(@NonNull final HttpMethod method, @NonNull final String path, @NonNull final RestHandler handler) {
+		final Route route = (request, response) -> {
+			final Object body = handler.handle(new SparkRequest(request), new SparkResponse(response));
+			// Spark answers 404 if a route returns null.
+			return body == null ? EMPTY_BODY : body;
+		};
+		switch (method) {
+			case GET:
+				Spark.get(path, route);
+				break;
+			case POST:
+				Spark.post(path, route);
+				break;
+			case PUT:
+				Spark.put(path, route);
+				break;
+			case DELETE:
+				Spark.delete(path, route);
+				break;
+			case HEAD:
+				Spark.head(path, route);
+				break;
+			case OPTIONS:
+				Spark.options(path, route);
+				break;
+			default:
+				throw new IllegalArgumentException("Unsupported method: " + method);
+		}
+	}
+
+	@Override
+	public void start() {
+		Spark.awaitInitialization();
+	}
+
+	/**
+	 * Stops Spark and restores its default server, so Spark can be used again without this transport's pool.
+	 */
+	@Override
+	public void stop() {
+		Spark.stop();
+		Spark.awaitStop();
+		EmbeddedServers.add(EmbeddedServers.defaultIdentifier(), new EmbeddedJettyFactory());
+	}
+
+	private static final class SparkRequest implements RestRequest {
+		private final Request request;
+
+		private SparkRequest(final Request request) {
+			this.request = request;
+		}
+
+		@Override
+		public String method() {
+			return request.requestMethod();
+		}
+
+		@Override
+		public String url() {
+			return request.url();
+		}
+
+		@Override
+		public String route() {
+			return request.matchedPath();
+		}
+
+		@Override
+		public String param(final String name) {
+			return request.params(name);
+		}
+
+		@Override
+		public String queryParam(final String name) {
+			return request.queryParams(name);
+		}
+
+		@Override
+		public String header(final String name) {
+			return request.headers(name);
+		}
+
+		@Override
+		public String body() {
+			return request.body();
+		}
+	}
+
+	private static final class SparkResponse implements RestResponse {
+		private final Response response;
+
+		private SparkResponse(final Response response) {
+			this.response = response;
+		}
+
+		@Override
+		public void status(final int status) {
+			response.status(status);
+		}
+
+		@Override
+		public int status() {
+			return response.status();
+		}
+
+		@Override
+		public void type(final String contentType) {
+			response.type(contentType);
+		}
+
+		@Override
+		public void header(final String name, final String value) {
+			response.header(name, value);
+		}
+
+		@Override
+		public OutputStream output() throws IOException {
+			// The stream is closed by Spark.
+			return response.raw().getOutputStream();
+		}
+	}
+}
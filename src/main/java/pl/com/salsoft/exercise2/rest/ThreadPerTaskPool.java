@@ -0,0 +1,135 @@
+package pl.com.salsoft.exercise2.rest;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+import lombok.NonNull;
+
+/**
+ * Jetty thread pool that doesn't pool anything - every task gets a new thread from the factory.
+ * It's meant for virtual threads (see virtual()), which are cheap to create and don't occupy a platform thread
+ * while blocked (e.g. waiting for a payment to be made durable), so request handling is not limited
+ * by the size of a pool. Selector and acceptor tasks of Jetty run on the same kind of threads.
+ *
+ * Threads still running when the pool is stopped are interrupted.
+ */
+public class ThreadPerTaskPool extends AbstractLifeCycle implements ThreadPool {
+	private static final String THREAD_NAME_PREFIX = "http-";
+
+	private final ThreadFactory threadFactory;
+	private final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+	private final Object terminated = new Object();
+
+	/**
+	 * Creates a pool starting tasks on threads from given factory.
+	 * @param threadFactory Factory of threads for the tasks. Cannot be null.
+	 */
+	public ThreadPerTaskPool(@NonNull final ThreadFactory threadFactory) {
+		this.threadFactory = threadFactory;
+	}
+
+	/**
+	 * Creates a pool starting every task on a new virtual thread.
+	 * @return Pool. Never null.
+	 * @throws UnsupportedOperationException if the JVM doesn't support virtual threads (before JDK 21).
+	 */
+	public static ThreadPerTaskPool virtual() {
+		return new ThreadPerTaskPool(virtualThreadFactory());
+	}
+
+	/**
+	 * Checks if the JVM supports virtual threads.
+	 * @return true if virtual() can be used.
+	 */
+	public static boolean isVirtualSupported() {
+		try {
+			Thread.class.getMethod("ofVirtual");
+			return true;
+		} catch (final NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Calls Thread.ofVirtual().name(prefix, 0).factory() through reflection, so the application still builds
+	 * and runs on JDKs without virtual threads.
+	 */
+	private static ThreadFactory virtualThreadFactory() {
+		try {
+			final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			final Object namedBuilder = builderClass.getMethod("name", String.class, long.class)
+					.invoke(builder, THREAD_NAME_PREFIX, 0L);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(namedBuilder);
+		} catch (final NoSuchMethodException | ClassNotFoundException e) {
+			throw new UnsupportedOperationException("Virtual threads require JDK 21 or newer.", e);
+		} catch (final IllegalAccessException | InvocationTargetException e) {
+			throw new IllegalStateException("Could not create virtual thread factory.", e);
+		}
+	}
+
+	@Override
+	public void execute(final Runnable task) {
+		final Thread thread = threadFactory.newThread(() -> run(task));
+		if (thread == null) {
+			throw new RejectedExecutionException("Thread factory refused to create a thread.");
+		}
+		threads.add(thread);
+		thread.start();
+	}
+
+	private void run(final Runnable task) {
+		try {
+			task.run();
+		} finally {
+			threads.remove(Thread.currentThread());
+			if (threads.isEmpty()) {
+				synchronized (terminated) {
+					terminated.notifyAll();
+				}
+			}
+		}
+	}
+
+	@Override
+	protected void doStop() throws Exception {
+		threads.forEach(Thread::interrupt);
+		final long deadline = System.currentTimeMillis() + getStopTimeout();
+		synchronized (terminated) {
+			while (!threads.isEmpty() && System.currentTimeMillis() < deadline) {
+				terminated.wait(Math.max(1, deadline - System.currentTimeMillis()));
+			}
+		}
+	}
+
+	@Override
+	public void join() throws InterruptedException {
+		synchronized (terminated) {
+			while (!isStopped() || !threads.isEmpty()) {
+				terminated.wait(100);
+			}
+		}
+	}
+
+	@Override
+	public int getThreads() {
+		return threads.size();
+	}
+
+	@Override
+	public int getIdleThreads() {
+		// Threads exist only while they run a task.
+		return 0;
+	}
+
+	@Override
+	public boolean isLowOnThreads() {
+		return false;
+	}
+}
@@ -0,0 +1,88 @@
+package pl.com.salsoft.exercise2.service;
+
+import lombok.NonNull;
+import pl.com.salsoft.exercise2.dao.AccountDao;
+import pl.com.salsoft.exercise2.dao.Epochs;
+import pl.com.salsoft.exercise2.dao.Journal;
+import pl.com.salsoft.exercise2.dao.TransactionHistory;
+import pl.com.salsoft.exercise2.model.Account;
+import pl.com.salsoft.exercise2.model.PaymentRequest;
+import pl.com.salsoft.exercise2.model.PaymentResult;
+import pl.com.salsoft.exercise2.rest.ErrorMessages;
+
+/**
+ * Foundation for payment engines which withdraw from the source account and deposit to the target account
+ * as two separate steps. Both steps are done in a single epoch scope, so consistent cuts of accounts
+ * never see a transfer half-done. Subclasses decide how the steps are synchronized.
+ */
+public abstract class AbstractPaymentEngine implements PaymentEngine {
+	protected final AccountDao accountDao;
+	protected final Journal journal;
+	protected final Epochs epochs;
+	protected final TransactionHistory history;
+
+	/**
+	 * Creates engine with account DAO and journal injected.
+	 * @param accountDao Account DAO to use. Cannot be null.
+	 * @param journal Journal to record transfers in. Cannot be null.
+	 */
+	protected AbstractPaymentEngine(@NonNull final AccountDao accountDao, @NonNull final Journal journal) {
+		this.accountDao = accountDao;
+		this.journal = journal;
+		this.epochs = accountDao.getEpochs();
+		this.history = accountDao.getHistory();
+	}
+
+	/**
+	 * Deletes an account, without any coordination with transfers.
+	 */
+	@Override
+	public boolean delete(@NonNull final String number) {
+		return accountDao.delete(number);
+	}
+
+	@Override
+	public AccountDao getAccountDao() {
+		return accountDao;
+	}
+
+	/**
+	 * Transfers money in given scope.
+	 * @param payment Payment request details.
+	 * @param scope Scope the transfer runs in.
+	 * @return Result of the operation. Never null.
+	 */
+	protected PaymentResult transfer(final PaymentRequest payment, final Epochs.Scope scope) {
+		final long amount = payment.getAmount();
+
+		final Account sourceAccount = accountDao.getOrCreate(payment.getSourceAccount());
+		final Account targetAccount = accountDao.getOrCreate(payment.getTargetAccount());
+
+		if (amount <= 0L) {
+			return PaymentResult.failure(payment.getSourceAccount(), sourceAccount.readBalance(),
+					ErrorMessages.INVALID_AMOUNT_MESSAGE);
+		}
+
+		final long currentBalance = withdraw(scope, sourceAccount, amount);
+		if (currentBalance < amount) {
+			return PaymentResult.failure(payment.getSourceAccount(), currentBalance, ErrorMessages.INSUFFICIENT_FUNDS_MESSAGE);
+		}
+
+		final long targetBalance = deposit(scope, targetAccount, amount);
+		journal.transferred(payment.getSourceAccount(), payment.getTargetAccount(), amount);
+		history.transferred(payment.getSourceAccount(), payment.getTargetAccount(), amount, currentBalance - amount,
+				targetBalance);
+		return PaymentResult.success(payment.getSourceAccount(), currentBalance - amount);
+	}
+
+	/**
+	 * Deposits given amount to the account. See Account.deposit().
+	 * @return Balance right after the operation, or Account.UNKNOWN_BALANCE if it's not known.
+	 */
+	protected abstract long deposit(Epochs.Scope scope, Account account, long amount);
+
+	/**
+	 * Withdraws given amount from the account. See Account.withdraw().
+	 */
+	protected abstract long withdraw(Epochs.Scope scope, Account account, long amount);
+}
@@ -0,0 +1,460 @@
+package pl.com.salsoft.exercise2.service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import lombok.NonNull;
+import pl.com.salsoft.exercise2.dao.AccountDao;
+import pl.com.salsoft.exercise2.model.Account;
+import pl.com.salsoft.exercise2.model.AccountImportStats;
+import pl.com.salsoft.exercise2.utils.PriceTextUtils;
+
+/**
+ * Bulk import and export of accounts, for seeding a new instance without a payment per account,
+ * and for dumping all accounts. Two formats are supported: NDJSON (one {"number":"1","balance":12.34} object
+ * per line) and CSV (number,balance rows after a number,balance header line; numbers containing commas or quotes
+ * are quoted, with quotes doubled). Rows of CSV are split on line breaks before quotes are looked at, so numbers
+ * containing line breaks can't be written to CSV - only to NDJSON, where they are escaped.
+ *
+ * Import maps the file into memory and splits it into chunks of 8 MB. Rows starting in a chunk belong to it,
+ * so chunks are parsed in parallel without coordination, and every row goes straight to AccountDao.create().
+ * Accounts which already exist are left unchanged. Rows can't be longer than 64 KB. Import returns once all
+ * created accounts are durable in the journal. Import is not atomic - it stops at the first invalid row,
+ * but accounts created from other rows stay.
+ *
+ * Export writes accounts as they are visited by AccountDao.forEach(), so memory use doesn't depend on number
+ * of accounts. Like forEach(), it's not a consistent cut while payments are running.
+ */
+public class AccountBulkService {
+	private static final int CHUNK_SIZE = 8 << 20;
+	private static final int MAX_ROW_LENGTH = 1 << 16;
+	private static final int MAX_BALANCE_LENGTH = 64;
+	private static final String CSV_HEADER = "number,balance";
+	private static final byte[] CSV_HEADER_BYTES = CSV_HEADER.getBytes(StandardCharsets.US_ASCII);
+
+	private final AccountDao accountDao;
+	private final int threads;
+	private final JsonFactory factory = new JsonFactory();
+	private final AccountCodec codec = new AccountCodec();
+
+	/**
+	 * Format of imported and exported files.
+	 */
+	public enum Format {
+		NDJSON,
+		CSV;
+
+		/**
+		 * Finds format by its name.
+		 * @param name Name of the format, case-insensitive (ndjson or csv).
+		 * @return Format. Never null.
+		 * @throws IllegalArgumentException if there's no such format.
+		 */
+		public static Format parse(@NonNull final String name) {
+			for (final Format format : values()) {
+				if (format.name().equalsIgnoreCase(name.trim())) {
+					return format;
+				}
+			}
+			throw new IllegalArgumentException("Unknown format of accounts: " + name);
+		}
+
+		/**
+		 * Chooses format by extension of a file.
+		 * @param file File to choose format of.
+		 * @return CSV for .csv files, NDJSON for anything else. Never null.
+		 */
+		public static Format of(@NonNull final Path file) {
+			return file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".csv") ? CSV : NDJSON;
+		}
+	}
+
+	/**
+	 * Creates the service importing with as many threads as there are available processors.
+	 * @param accountDao Account DAO to import accounts to and export them from. Cannot be null.
+	 */
+	public AccountBulkService(@NonNull final AccountDao accountDao) {
+		this(accountDao, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates the service.
+	 * @param accountDao Account DAO to import accounts to and export them from. Cannot be null.
+	 * @param threads Number of threads parsing chunks of imported files.
+	 */
+	public AccountBulkService(@NonNull final AccountDao accountDao, final int threads) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("Invalid number of import threads: " + threads);
+		}
+		this.accountDao = accountDao;
+		this.threads = threads;
+	}
+
+	/**
+	 * Imports accounts from given file. Threads are started for the import and stopped when it's done.
+	 * Returns once the created accounts are durable in the journal.
+	 * @param file File to import. Cannot be null.
+	 * @param format Format of the file. Cannot be null.
+	 * @return Numbers of imported rows and created accounts. Never null.
+	 * @throws IllegalArgumentException if the file has an invalid row.
+	 * @throws UncheckedIOException if the file could not be read or the journal could not be written.
+	 */
+	public AccountImportStats importFile(@NonNull final Path file, @NonNull final Format format) {
+		final long start = System.nanoTime();
+		long rows = 0;
+		long created = 0;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			final long size = channel.size();
+			final int chunks = (int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+			final AtomicInteger nextChunk = new AtomicInteger();
+			final AtomicBoolean failed = new AtomicBoolean();
+			final int workers = Math.max(1, Math.min(threads, chunks));
+			final ExecutorService executor = Executors.newFixedThreadPool(workers);
+			try {
+				final List<Future<long[]>> futures = new ArrayList<>();
+				for (int i = 0; i < workers; i++) {
+					futures.add(executor.submit(() -> {
+						try {
+							return importChunks(file, channel, format, chunks, nextChunk, failed);
+						} catch (final RuntimeException | IOException e) {
+							// Other workers stop at their next chunk.
+							failed.set(true);
+							throw e;
+						}
+					}));
+				}
+				for (final Future<long[]> future : futures) {
+					final long[] counts = await(future);
+					rows += counts[0];
+					created += counts[1];
+				}
+			} finally {
+				executor.shutdown();
+			}
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		accountDao.awaitDurable();
+		final long nanos = Math.max(1, System.nanoTime() - start);
+		return AccountImportStats.builder()
+				.rows(rows)
+				.created(created)
+				.existing(rows - created)
+				.millis(nanos / 1_000_000)
+				.rowsPerSecond(rows * 1_000_000_000L / nanos)
+				.build();
+	}
+
+	/**
+	 * Imports accounts from given text, for imports sent over the network. The text is written to a temporary
+	 * file first, so it's imported the same way as files.
+	 * @param text Rows to import. Cannot be null.
+	 * @param format Format of the rows. Cannot be null.
+	 * @return Numbers of imported rows and created accounts. Never null.
+	 * @throws IllegalArgumentException if there is an invalid row.
+	 * @throws UncheckedIOException if the temporary file could not be written.
+	 */
+	public AccountImportStats importText(@NonNull final String text, @NonNull final Format format) {
+		try {
+			final Path file = Files.createTempFile("accounts-", "." + format.name().toLowerCase(Locale.ROOT));
+			try {
+				Files.writeString(file, text, StandardCharsets.UTF_8);
+				return importFile(file, format);
+			} finally {
+				Files.deleteIfExists(file);
+			}
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Writes all accounts to given stream, as they are read. The stream is flushed, but not closed.
+	 * @param output Stream to write to. Cannot be null.
+	 * @param format Format to write. Cannot be null.
+	 * @return Number of written accounts.
+	 * @throws UncheckedIOException if writing to the stream failed.
+	 * @throws IllegalArgumentException if CSV is written and an account number contains a line break.
+	 * Accounts visited before it are already written then.
+	 */
+	public long export(@NonNull final OutputStream output, @NonNull final Format format) {
+		try {
+			return format == Format.CSV ? exportCsv(output) : exportNdjson(output);
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private long exportCsv(final OutputStream output) throws IOException {
+		final Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), 1 << 16);
+		final char[] price = new char[PriceTextUtils.MAX_PRICE_LENGTH];
+		final long[] count = new long[1];
+		writer.write(CSV_HEADER);
+		writer.write('\n');
+		accountDao.forEach(account -> {
+			try {
+				writeCsvNumber(writer, account.getNumber());
+				writer.write(',');
+				writer.write(price, 0, PriceTextUtils.toPrice(account.readBalance(), price, 0));
+				writer.write('\n');
+			} catch (final IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			count[0]++;
+		});
+		writer.flush();
+		return count[0];
+	}
+
+	private long exportNdjson(final OutputStream output) throws IOException {
+		final long[] count = new long[1];
+		try (JsonGenerator generator = factory.createGenerator(output).disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+			// Rows are separated by line breaks only, not by the default space.
+			generator.setRootValueSeparator(null);
+			accountDao.forEach(account -> {
+				try {
+					codec.write(generator, account);
+					generator.writeRaw('\n');
+				} catch (final IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				count[0]++;
+			});
+		}
+		output.flush();
+		return count[0];
+	}
+
+	/**
+	 * Imports chunks claimed one by one, until there are no more of them.
+	 * @return Number of imported rows and number of created accounts.
+	 */
+	private long[] importChunks(final Path file, final FileChannel channel, final Format format, final int chunks,
+			final AtomicInteger nextChunk, final AtomicBoolean failed) throws IOException {
+		final long size = channel.size();
+		// Room for the byte before the chunk and for the rest of its last row.
+		final byte[] buffer = new byte[1 + CHUNK_SIZE + MAX_ROW_LENGTH];
+		final long[] counts = new long[2];
+		for (int chunk = nextChunk.getAndIncrement(); chunk < chunks && !failed.get(); chunk = nextChunk.getAndIncrement()) {
+			final long chunkStart = (long) chunk * CHUNK_SIZE;
+			final long chunkEnd = Math.min(chunkStart + CHUNK_SIZE, size);
+			// The byte before the chunk tells whether a row starts right at the chunk start.
+			final long mapStart = chunk == 0 ? 0 : chunkStart - 1;
+			final long mapEnd = Math.min(chunkEnd + MAX_ROW_LENGTH, size);
+			final int length = (int) (mapEnd - mapStart);
+			channel.map(MapMode.READ_ONLY, mapStart, length).get(buffer, 0, length);
+
+			final int limit = (int) (chunkEnd - mapStart);
+			final int begin = chunk == 0 ? 0 : indexOf(buffer, (byte) '\n', 0, limit) + 1;
+			if ((chunk != 0 && begin == 0) || begin >= limit) {
+				// The chunk is a part of a row started in a previous chunk.
+				continue;
+			}
+			int end = length;
+			if (mapEnd != size || limit != length) {
+				end = indexOf(buffer, (byte) '\n', limit - 1, length) + 1;
+				if (end == 0) {
+					if (mapEnd != size) {
+						throw invalidRow(file, chunkEnd, "Row is longer than " + MAX_ROW_LENGTH + " bytes.");
+					}
+					end = length;
+				}
+			}
+			if (format == Format.CSV) {
+				importCsv(file, buffer, begin, end, mapStart, counts);
+			} else {
+				importNdjson(file, buffer, begin, end, mapStart, counts);
+			}
+		}
+		return counts;
+	}
+
+	private void importCsv(final Path file, final byte[] buffer, final int begin, final int end, final long base,
+			final long[] counts) {
+		final char[] balance = new char[MAX_BALANCE_LENGTH];
+		int row = begin;
+		while (row < end) {
+			int rowEnd = indexOf(buffer, (byte) '\n', row, end);
+			if (rowEnd < 0) {
+				rowEnd = end;
+			}
+			final int next = rowEnd + 1;
+			if (rowEnd > row && buffer[rowEnd - 1] == '\r') {
+				rowEnd--;
+			}
+			if (rowEnd > row && !(base + row == 0 && isCsvHeader(buffer, row, rowEnd))) {
+				importCsvRow(file, buffer, row, rowEnd, base, balance, counts);
+			}
+			row = next;
+		}
+	}
+
+	private void importCsvRow(final Path file, final byte[] buffer, final int row, final int rowEnd, final long base,
+			final char[] balance, final long[] counts) {
+		final String number;
+		final int comma;
+		if (buffer[row] == '"') {
+			boolean doubledQuotes = false;
+			int index = row + 1;
+			while (index < rowEnd && (buffer[index] != '"' || index + 1 < rowEnd && buffer[index + 1] == '"')) {
+				if (buffer[index] == '"') {
+					doubledQuotes = true;
+					index++;
+				}
+				index++;
+			}
+			if (index == rowEnd) {
+				throw invalidRow(file, base + row, "Quoted account number is not closed.");
+			}
+			final String quoted = new String(buffer, row + 1, index - row - 1, StandardCharsets.UTF_8);
+			number = doubledQuotes ? quoted.replace("\"\"", "\"") : quoted;
+			comma = index + 1;
+			if (comma == rowEnd || buffer[comma] != ',') {
+				throw invalidRow(file, base + row, "Expected comma after account number.");
+			}
+		} else {
+			comma = indexOf(buffer, (byte) ',', row, rowEnd);
+			if (comma < 0) {
+				throw invalidRow(file, base + row, "Expected number,balance.");
+			}
+			number = new String(buffer, row, comma - row, StandardCharsets.UTF_8);
+		}
+		final int length = rowEnd - comma - 1;
+		if (number.isEmpty() || length > MAX_BALANCE_LENGTH) {
+			throw invalidRow(file, base + row, "Expected number,balance.");
+		}
+		for (int i = 0; i < length; i++) {
+			balance[i] = (char) (buffer[comma + 1 + i] & 0xFF);
+		}
+		try {
+			create(number, PriceTextUtils.fromPrice(balance, 0, length), counts);
+		} catch (final IllegalArgumentException e) {
+			// Including NumberFormatException of the balance.
+			throw invalidRow(file, base + row, e.getMessage());
+		}
+	}
+
+	private void importNdjson(final Path file, final byte[] buffer, final int begin, final int end, final long base,
+			final long[] counts) throws IOException {
+		try (JsonParser parser = factory.createParser(buffer, begin, end - begin)) {
+			while (parser.nextToken() != null) {
+				final Account account = codec.read(parser);
+				if (account.getNumber() == null || account.getNumber().isEmpty() || account.getBalance() == null) {
+					throw new JsonParseException(parser, "Row has to have number and balance.");
+				}
+				try {
+					create(account.getNumber(), account.getBalance().get(), counts);
+				} catch (final IllegalArgumentException e) {
+					throw new JsonParseException(parser, e.getMessage());
+				}
+			}
+		} catch (final JsonProcessingException e) {
+			// Location of the error is anywhere in the row, which is reported by its start.
+			final long offset = e.getLocation() == null ? 0 : Math.max(0, e.getLocation().getByteOffset());
+			final int row = lastIndexOf(buffer, (byte) '\n', begin, (int) Math.min(begin + offset, end)) + 1;
+			throw invalidRow(file, base + Math.max(row, begin), e.getOriginalMessage());
+		}
+	}
+
+	private void create(final String number, final long balance, final long[] counts) {
+		counts[0]++;
+		if (accountDao.create(number, balance)) {
+			counts[1]++;
+		}
+	}
+
+	private static void writeCsvNumber(final Writer writer, final String number) throws IOException {
+		boolean quoted = false;
+		for (int i = 0; i < number.length(); i++) {
+			final char c = number.charAt(i);
+			if (c == '\n' || c == '\r') {
+				// Import would split the row at it, even if it's quoted.
+				throw new IllegalArgumentException("Account number with a line break can't be written to CSV: " + number);
+			}
+			quoted |= c == ',' || c == '"';
+		}
+		if (quoted) {
+			writer.write('"');
+			writer.write(number.replace("\"", "\"\""));
+			writer.write('"');
+		} else {
+			writer.write(number);
+		}
+	}
+
+	private static boolean isCsvHeader(final byte[] buffer, final int row, final int rowEnd) {
+		if (rowEnd - row != CSV_HEADER_BYTES.length) {
+			return false;
+		}
+		for (int i = 0; i < CSV_HEADER_BYTES.length; i++) {
+			if (buffer[row + i] != CSV_HEADER_BYTES[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int indexOf(final byte[] buffer, final byte value, final int from, final int to) {
+		for (int i = from; i < to; i++) {
+			if (buffer[i] == value) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int lastIndexOf(final byte[] buffer, final byte value, final int from, final int to) {
+		for (int i = to - 1; i >= from; i--) {
+			if (buffer[i] == value) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static long[] await(final Future<long[]> future) {
+		try {
+			return future.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Import interrupted.", e);
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			if (e.getCause() instanceof IOException) {
+				throw new UncheckedIOException((IOException) e.getCause());
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	private static IllegalArgumentException invalidRow(final Path file, final long offset, final String message) {
+		return new IllegalArgumentException(String.format("Invalid row at byte %d of %s: %s", offset, file, message));
+	}
+}
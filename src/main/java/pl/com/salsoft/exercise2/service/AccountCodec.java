@@ -0,0 +1,55 @@
+package pl.com.salsoft.exercise2.service;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+import pl.com.salsoft.exercise2.model.Account;
+import pl.com.salsoft.exercise2.model.PriceDeserializer;
+import pl.com.salsoft.exercise2.model.PriceSerializer;
+
+/**
+ * Codec of accounts. Balance is written from the long representation, without creating BigDecimal.
+ */
+public class AccountCodec implements JsonCodec<Account> {
+	private static final String NUMBER = "number";
+	private static final String BALANCE = "balance";
+	private static final SerializableString NUMBER_NAME = new SerializedString(NUMBER);
+	private static final SerializableString BALANCE_NAME = new SerializedString(BALANCE);
+
+	@Override
+	public void write(final JsonGenerator generator, final Account value) throws IOException {
+		generator.writeStartObject();
+		generator.writeFieldName(NUMBER_NAME);
+		generator.writeString(value.getNumber());
+		generator.writeFieldName(BALANCE_NAME);
+		PriceSerializer.write(value.readBalance(), generator);
+		generator.writeEndObject();
+	}
+
+	@Override
+	public Account read(final JsonParser parser) throws IOException {
+		JsonCodec.expectObject(parser);
+		final Account account = new Account();
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			final String field = parser.getCurrentName();
+			final JsonToken token = parser.nextToken();
+			switch (field) {
+				case NUMBER:
+					account.setNumber(JsonCodec.readText(parser));
+					break;
+				case BALANCE:
+					account.setBalance(token == JsonToken.VALUE_NULL ? null : new AtomicLong(PriceDeserializer.read(parser)));
+					break;
+				default:
+					throw JsonCodec.unknownField(parser, field);
+			}
+		}
+		return account;
+	}
+}
@@ -1,34 +1,57 @@
 package pl.com.salsoft.exercise2.service;
 
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import lombok.NonNull;
 import pl.com.salsoft.exercise2.dao.AccountDao;
+import pl.com.salsoft.exercise2.dao.ChangeFeed;
+import pl.com.salsoft.exercise2.dao.Journal;
 import pl.com.salsoft.exercise2.model.Account;
+import pl.com.salsoft.exercise2.model.AccountChange;
+import pl.com.salsoft.exercise2.model.AccountPage;
+import pl.com.salsoft.exercise2.model.Transaction;
+import pl.com.salsoft.exercise2.utils.BigDecimalUtils;
 
 /**
  * Provides (some of) basic operations on accounts.
  */
 public class AccountService {
+	/**
+	 * Returned by getChanges() if the reader has fallen too far behind and has to read all accounts again.
+	 */
+	public static final long RESYNC = ChangeFeed.BEHIND;
 
 	private final AccountDao accountDao;
+	private final PaymentEngine paymentEngine;
 
 	/**
-	 * Creates service with account DAO injected.
+	 * Creates service with account DAO injected. Accounts are deleted without coordination with transfers.
 	 * @param accountDao Account DAO to use. Cannot be null.
 	 */
 	public AccountService(@NonNull final AccountDao accountDao) {
+		this(accountDao, new CasPaymentEngine(accountDao, Journal.NONE));
+	}
+
+	/**
+	 * Creates service with account DAO and payment engine injected.
+	 * @param accountDao Account DAO to use. Cannot be null.
+	 * @param paymentEngine Payment engine deleting accounts, atomically with its transfers. Cannot be null.
+	 */
+	public AccountService(@NonNull final AccountDao accountDao, @NonNull final PaymentEngine paymentEngine) {
 		this.accountDao = accountDao;
+		this.paymentEngine = paymentEngine;
 	}
 
 	/**
-	 * Deletes account with given number.
+	 * Deletes account with given number. Deletion goes through the payment engine.
 	 * @param number Number identifying an account to delete. Cannot be null.
 	 * @return true if account was deleted, or false if there was no such account.
 	 */
 	public boolean deleteAccount(@NonNull final String number) {
-		return accountDao.delete(number);
+		return paymentEngine.delete(number);
 	}
 
 	/**
@@ -40,6 +63,70 @@ public class AccountService {
 		return accountDao.get(number);
 	}
 
+	/**
+	 * Reads version of an account, which changes whenever the account changes. Has to be read before the account.
+	 * @param number Number identifying an account. Cannot be null.
+	 * @return Version of the account.
+	 */
+	public long getVersion(@NonNull final String number) {
+		return accountDao.getVersions().of(number);
+	}
+
+	/**
+	 * Reads version of all accounts, which changes whenever any account changes. Has to be read before the accounts.
+	 * @return Global version of accounts.
+	 */
+	public long getVersion() {
+		return accountDao.getVersions().global();
+	}
+
+	/**
+	 * Reads changes of accounts after given sequence number, in order. Every change comes with the current
+	 * balance of its account.
+	 * @param since Sequence number of the last change seen, see getChangesHead().
+	 * @param limit Maximum number of changes to read.
+	 * @param action Action to call for every change. Cannot be null.
+	 * @return Sequence number of the last change read, or RESYNC if changes after since are not kept
+	 * anymore - the reader has to read all accounts again and continue from getChangesHead() read before them.
+	 */
+	public long getChanges(final long since, final int limit, @NonNull final Consumer<AccountChange> action) {
+		return accountDao.getChanges().read(since, limit, (sequence, type, number) -> action.accept(AccountChange.builder()
+				.sequence(sequence)
+				.type(type)
+				.account(number)
+				.balance(type == AccountChange.Type.DELETED ? null : accountDao.get(number)
+						.map(account -> BigDecimalUtils.toPrice(account.readBalance()))
+						.orElse(null))
+				.build()));
+	}
+
+	/**
+	 * @return Sequence number of the last change of accounts. Changes after it are all changes made from now on.
+	 */
+	public long getChangesHead() {
+		return accountDao.getChanges().head();
+	}
+
+	/**
+	 * @return Whether changes of accounts are recorded in the change feed.
+	 */
+	public boolean isChangeFeedEnabled() {
+		return accountDao.getChanges().getSize() > 0;
+	}
+
+	/**
+	 * Finds recent transfers of an account, newest first.
+	 * @param number Number identifying an account. Cannot be null.
+	 * @param limit Maximum number of transfers to return. No more than the history keeps per account are returned.
+	 * @return Optional with transfers (possibly empty list), or empty optional if there's no such account.
+	 */
+	public Optional<List<Transaction>> getTransactions(@NonNull final String number, final int limit) {
+		if (accountDao.get(number).isEmpty()) {
+			return Optional.empty();
+		}
+		return Optional.of(accountDao.getHistory().recent(number, limit));
+	}
+
 	/**
 	 * Finds all accounts active in the application.
 	 * @return Set of accounts. Possibly empty set, but never null.
@@ -47,4 +134,27 @@ public class AccountService {
 	public Set<Account> getAccounts() {
 		return accountDao.getAll();
 	}
+
+	/**
+	 * Finds a page of accounts active in the application, in the order of account numbers.
+	 * @param after Cursor - number of the last account of the previous page, or null for the first page.
+	 * @param limit Maximum number of accounts on the page. Has to be greater than 0.
+	 * @return Page of accounts, with cursor of the next page (if there may be one). Never null.
+	 */
+	public AccountPage getAccounts(final String after, final int limit) {
+		final List<Account> accounts = accountDao.page(after, limit);
+		return AccountPage.builder()
+				.accounts(accounts)
+				.next(accounts.size() < limit ? null : accounts.get(accounts.size() - 1).getNumber())
+				.build();
+	}
+
+	/**
+	 * Passes every account active in the application to given action, one by one,
+	 * without collecting them all in memory.
+	 * @param action Action to call for every account. Cannot be null.
+	 */
+	public void forEachAccount(@NonNull final Consumer<Account> action) {
+		accountDao.forEach(action);
+	}
 }
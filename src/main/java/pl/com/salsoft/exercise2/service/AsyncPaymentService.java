@@ -0,0 +1,244 @@
+package pl.com.salsoft.exercise2.service;
+
+import java.io.Closeable;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lombok.NonNull;
+import pl.com.salsoft.exercise2.dao.UnsupportedAccountNumberException;
+import pl.com.salsoft.exercise2.model.AsyncPaymentStats;
+import pl.com.salsoft.exercise2.model.PaymentRequest;
+import pl.com.salsoft.exercise2.model.PaymentResult;
+import pl.com.salsoft.exercise2.rest.ErrorMessages;
+
+/**
+ * Service accepting payments to be processed in the background. Submitted payments wait in a bounded queue,
+ * so callers don't hold a request thread while the payment is made and made durable. Worker threads take
+ * all payments waiting in the queue (up to a limit) and process them as a single batch of PaymentService,
+ * sharing one durability wait. Results are kept in a PaymentResultStore until they are evicted.
+ * If the batch can't be processed at all, none of its payments is made and all of them fail. If the payments
+ * are made, but the wait for durability fails, they keep their results - successful ones with a message that
+ * durability is unknown, as they're lost if the application stops before the journal is written.
+ *
+ * When the queue is full, new payments are rejected instead of blocking the caller.
+ *
+ * Payments get random ids, so ids of other clients' payments can't be guessed from one's own, and ids given out
+ * before a restart don't point at payments submitted after it.
+ */
+public class AsyncPaymentService implements Closeable {
+	private static final int MAX_BATCH = 1024;
+
+	private final Logger log = LoggerFactory.getLogger(AsyncPaymentService.class);
+	private final PaymentService paymentService;
+	private final PaymentResultStore results;
+	private final BlockingQueue<Submission> queue;
+	private final int queueCapacity;
+	private final Set<Long> pending = ConcurrentHashMap.newKeySet();
+	private final SecureRandom random = new SecureRandom();
+	private final AtomicLong accepted = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong completed = new AtomicLong();
+	private final List<Thread> workers = new ArrayList<>();
+	private volatile long lastLagNanos;
+	private volatile boolean running = true;
+
+	/**
+	 * Creates the service and starts its worker threads.
+	 * @param paymentService Service processing the payments. Cannot be null.
+	 * @param results Store for results of processed payments. Cannot be null.
+	 * @param queueCapacity Maximum number of payments waiting for processing. Has to be greater than 0.
+	 * @param workers Number of worker threads. Has to be greater than 0.
+	 */
+	public AsyncPaymentService(@NonNull final PaymentService paymentService, @NonNull final PaymentResultStore results,
+			final int queueCapacity, final int workers) {
+		if (queueCapacity <= 0) {
+			throw new IllegalArgumentException("Queue capacity has to be greater than 0.");
+		}
+		if (workers <= 0) {
+			throw new IllegalArgumentException("Number of workers has to be greater than 0.");
+		}
+		this.paymentService = paymentService;
+		this.results = results;
+		this.queueCapacity = queueCapacity;
+		this.queue = new ArrayBlockingQueue<>(queueCapacity);
+		for (int i = 0; i < workers; i++) {
+			final Thread worker = new Thread(this::run, "payment-async-" + i);
+			worker.setDaemon(true);
+			worker.start();
+			this.workers.add(worker);
+		}
+	}
+
+	/**
+	 * Stops the worker threads. Payments waiting in the queue are not processed.
+	 */
+	@Override
+	public void close() {
+		running = false;
+		workers.forEach(Thread::interrupt);
+		for (final Thread worker : workers) {
+			try {
+				worker.join();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Queues a payment to be processed in the background.
+	 * @param payment Payment request details.
+	 * @return Id of the payment to get its result with, or empty if the queue is full.
+	 * @throws UnsupportedAccountNumberException if the account store doesn't support number of either account.
+	 */
+	public OptionalLong submit(@NonNull final PaymentRequest payment) {
+		// Rejected up front, as it would fail the whole batch it's processed with.
+		paymentService.checkAccounts(payment);
+		final long id = newId();
+		if (!queue.offer(new Submission(id, payment, System.nanoTime()))) {
+			pending.remove(id);
+			rejected.incrementAndGet();
+			return OptionalLong.empty();
+		}
+		accepted.incrementAndGet();
+		return OptionalLong.of(id);
+	}
+
+	/**
+	 * Checks if a payment was submitted and is not processed yet.
+	 * @param id Id of the payment.
+	 * @return true if the payment is still waiting or being processed. If false, the payment either has its result
+	 * already stored (see getResult()), or there's no such payment (never submitted or its result was evicted).
+	 */
+	public boolean isPending(final long id) {
+		return pending.contains(id);
+	}
+
+	/**
+	 * Finds the result of a processed payment.
+	 * @param id Id of the payment.
+	 * @return Result of the payment, or empty if it's still pending, there's no such payment or the result was evicted.
+	 */
+	public Optional<PaymentResult> getResult(final long id) {
+		return results.get(id);
+	}
+
+	/**
+	 * @return Current depth of the queue and processing lag. Never null.
+	 */
+	public AsyncPaymentStats getStats() {
+		final Submission oldest = queue.peek();
+		final long completedCount = completed.get();
+		return AsyncPaymentStats.builder()
+				.queueDepth(queue.size())
+				.queueCapacity(queueCapacity)
+				.oldestQueuedMillis(oldest == null ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest.submittedAt))
+				.lastLagMillis(TimeUnit.NANOSECONDS.toMillis(lastLagNanos))
+				.accepted(accepted.get())
+				.rejected(rejected.get())
+				.completed(completedCount)
+				.storedResults(results.size())
+				.build();
+	}
+
+	/**
+	 * Draws a positive id which is neither pending nor has a stored result, and marks it pending.
+	 */
+	private long newId() {
+		while (true) {
+			final long id = random.nextLong() & Long.MAX_VALUE;
+			if (id != 0 && results.get(id).isEmpty() && pending.add(id)) {
+				return id;
+			}
+		}
+	}
+
+	private void run() {
+		final List<Submission> batch = new ArrayList<>(MAX_BATCH);
+		final List<PaymentRequest> requests = new ArrayList<>(MAX_BATCH);
+		while (running) {
+			try {
+				batch.add(queue.take());
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			queue.drainTo(batch, MAX_BATCH - 1);
+			batch.forEach(submission -> requests.add(submission.payment));
+			complete(batch, process(requests));
+			batch.clear();
+			requests.clear();
+		}
+	}
+
+	private List<PaymentResult> process(final List<PaymentRequest> requests) {
+		final List<PaymentResult> made;
+		try {
+			made = paymentService.newPaymentsNoWait(requests);
+		} catch (final RuntimeException e) {
+			log.error("Could not process {} asynchronous payments: {}", requests.size(), e.getMessage());
+			final List<PaymentResult> failures = new ArrayList<>(requests.size());
+			for (final PaymentRequest request : requests) {
+				failures.add(PaymentResult.builder()
+						.accountNumber(request.getSourceAccount())
+						.success(false)
+						.message(ErrorMessages.PROCESSING_FAILED_MESSAGE)
+						.build());
+			}
+			return failures;
+		}
+		try {
+			paymentService.awaitDurable();
+			return made;
+		} catch (final RuntimeException e) {
+			log.error("Could not make {} asynchronous payments durable: {}", requests.size(), e.getMessage());
+			final List<PaymentResult> unknown = new ArrayList<>(made.size());
+			for (final PaymentResult result : made) {
+				// Failed payments changed nothing, so there's nothing to be durable.
+				unknown.add(Boolean.TRUE.equals(result.getSuccess()) ? PaymentResult.builder()
+						.accountNumber(result.getAccountNumber())
+						.balance(result.getBalance())
+						.success(true)
+						.message(ErrorMessages.DURABILITY_UNKNOWN_MESSAGE)
+						.build() : result);
+			}
+			return unknown;
+		}
+	}
+
+	private void complete(final List<Submission> batch, final List<PaymentResult> batchResults) {
+		final long now = System.nanoTime();
+		for (int i = 0; i < batch.size(); i++) {
+			final Submission submission = batch.get(i);
+			// Stored before leaving pending, so a payment is always either pending or has its result.
+			results.put(submission.id, batchResults.get(i));
+			pending.remove(submission.id);
+		}
+		completed.addAndGet(batch.size());
+		lastLagNanos = now - batch.get(0).submittedAt;
+	}
+
+	private static class Submission {
+		private final long id;
+		private final PaymentRequest payment;
+		private final long submittedAt;
+
+		private Submission(final long id, final PaymentRequest payment, final long submittedAt) {
+			this.id = id;
+			this.payment = payment;
+			this.submittedAt = submittedAt;
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package pl.com.salsoft.exercise2.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.NonNull;
+import pl.com.salsoft.exercise2.dao.AccountDao;
+import pl.com.salsoft.exercise2.dao.Epochs;
+import pl.com.salsoft.exercise2.dao.Journal;
+import pl.com.salsoft.exercise2.model.Account;
+import pl.com.salsoft.exercise2.model.PaymentRequest;
+import pl.com.salsoft.exercise2.model.PaymentResult;
+import pl.com.salsoft.exercise2.rest.ErrorMessages;
+
+/**
+ * Default payment engine. Payments are applied by the request threads themselves,
+ * with each balance updated by an atomic compare-and-set loop. Deposits are credits (see Account.credit()),
+ * so contended target accounts are spread over striped cells.
+ */
+public class CasPaymentEngine extends AbstractPaymentEngine {
+	/**
+	 * Creates engine with account DAO and journal injected.
+	 * @param accountDao Account DAO to use. Cannot be null.
+	 * @param journal Journal to record transfers in. Cannot be null.
+	 */
+	public CasPaymentEngine(@NonNull final AccountDao accountDao, @NonNull final Journal journal) {
+		super(accountDao, journal);
+	}
+
+	@Override
+	public PaymentResult transfer(@NonNull final PaymentRequest payment) {
+		// Whole transfer runs in one epoch, so a consistent cut of accounts never sees it half-done.
+		try (Epochs.Scope scope = epochs.enter()) {
+			return transfer(payment, scope);
+		}
+	}
+
+	/**
+	 * Requests are grouped by source account, and groups are processed in the order of their first request.
+	 * Accounts are looked up once per batch, amounts withdrawn from one source account are withdrawn at once
+	 * (if the balance allows), and deposits to the same target are summed up.
+	 */
+	@Override
+	public List<PaymentResult> transfer(@NonNull final List<PaymentRequest> payments) {
+		final Map<String, List<Integer>> bySource = new LinkedHashMap<>();
+		for (int i = 0; i < payments.size(); i++) {
+			bySource.computeIfAbsent(payments.get(i).getSourceAccount(), number -> new ArrayList<>()).add(i);
+		}
+		final PaymentResult[] results = new PaymentResult[payments.size()];
+		try (Epochs.Scope scope = epochs.enter()) {
+			final Map<String, Account> accounts = new HashMap<>();
+			for (final List<Integer> indexes : bySource.values()) {
+				transferFromSource(payments, indexes, accounts, scope, results);
+			}
+		}
+		return Arrays.asList(results);
+	}
+
+	private void transferFromSource(final List<PaymentRequest> payments, final List<Integer> indexes,
+			final Map<String, Account> accounts, final Epochs.Scope scope, final PaymentResult[] results) {
+		final String sourceNumber = payments.get(indexes.get(0)).getSourceAccount();
+		final Account sourceAccount = accounts.computeIfAbsent(sourceNumber, accountDao::getOrCreate);
+		final long[] amounts = new long[indexes.size()];
+		final Account[] targetAccounts = new Account[indexes.size()];
+		final long[] sourceBalances = new long[indexes.size()];
+		long total = 0;
+		for (int i = 0; i < amounts.length; i++) {
+			final PaymentRequest payment = payments.get(indexes.get(i));
+			amounts[i] = payment.getAmount();
+			targetAccounts[i] = accounts.computeIfAbsent(payment.getTargetAccount(), accountDao::getOrCreate);
+			if (amounts[i] > 0L) {
+				total = Math.addExact(total, amounts[i]);
+			}
+		}
+
+		// Most of the time the balance covers all payments, so a single withdrawal does the job.
+		// Otherwise payments are withdrawn one by one, so the ones fitting into the balance still succeed.
+		final long balanceBefore = total > 0L ? scope.withdraw(sourceAccount, total) : sourceAccount.readBalance();
+		final boolean allWithdrawn = balanceBefore >= total;
+		long balance = balanceBefore;
+		final Map<Account, Long> deposits = new LinkedHashMap<>();
+		for (int i = 0; i < amounts.length; i++) {
+			final int index = indexes.get(i);
+			final long amount = amounts[i];
+			if (amount <= 0L) {
+				results[index] = PaymentResult.failure(sourceNumber, allWithdrawn ? balance : sourceAccount.readBalance(),
+						ErrorMessages.INVALID_AMOUNT_MESSAGE);
+				continue;
+			}
+			if (!allWithdrawn) {
+				balance = scope.withdraw(sourceAccount, amount);
+				if (balance < amount) {
+					results[index] = PaymentResult.failure(sourceNumber, balance, ErrorMessages.INSUFFICIENT_FUNDS_MESSAGE);
+					continue;
+				}
+			}
+			balance -= amount;
+			deposits.merge(targetAccounts[i], amount, Long::sum);
+			journal.transferred(sourceNumber, payments.get(index).getTargetAccount(), amount);
+			results[index] = PaymentResult.success(sourceNumber, balance);
+			sourceBalances[i] = balance;
+		}
+		final Map<Account, Long> targetBalances = new HashMap<>();
+		deposits.forEach((targetAccount, amount) -> targetBalances.put(targetAccount, scope.credit(targetAccount, amount)));
+		if (history.getSize() > 0) {
+			// Deposits to the same target are done at once, so all its payments get the balance after all of them.
+			for (int i = 0; i < amounts.length; i++) {
+				if (results[indexes.get(i)].getSuccess()) {
+					history.transferred(sourceNumber, payments.get(indexes.get(i)).getTargetAccount(), amounts[i],
+							sourceBalances[i], targetBalances.get(targetAccounts[i]));
+				}
+			}
+		}
+	}
+
+	@Override
+	protected long deposit(final Epochs.Scope scope, final Account account, final long amount) {
+		return scope.credit(account, amount);
+	}
+
+	@Override
+	protected long withdraw(final Epochs.Scope scope, final Account account, final long amount) {
+		return scope.withdraw(account, amount);
+	}
+}
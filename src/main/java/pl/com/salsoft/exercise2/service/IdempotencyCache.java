@@ -0,0 +1,195 @@
+package pl.com.salsoft.exercise2.service;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import lombok.NonNull;
+import pl.com.salsoft.exercise2.model.IdempotencyStats;
+import pl.com.salsoft.exercise2.model.PaymentRequest;
+import pl.com.salsoft.exercise2.model.PaymentResult;
+
+/**
+ * Cache of payment results by idempotency key, so a payment retried by the client (e.g. after a timeout)
+ * is made only once. The first request with a key makes the payment, later requests with the same key get
+ * the same result. Duplicates arriving while the first request is still in progress wait for its result instead
+ * of making the payment again. If the first request fails with an exception, the key is released and can be retried,
+ * so the action may only fail before the payment is made. Anything that can fail afterwards (like waiting until
+ * the payment is durable) has to be done outside of the cache - see PaymentService.newPayment() with a key.
+ *
+ * A result is kept for the given time after the payment completes, but never more than the given number
+ * of results - once there are too many, the oldest ones are evicted early. Keys of payments in progress
+ * are never evicted.
+ */
+public class IdempotencyCache {
+	// Rough sizes of objects held per entry on a 64-bit JVM with compressed oops: map node, entry, future,
+	// eviction queue node, payment request and result objects with BigDecimal balance.
+	private static final int ENTRY_OVERHEAD_BYTES = 32 + 32 + 24 + 24 + 32 + 32 + 40;
+	private static final int STRING_OVERHEAD_BYTES = 40;
+
+	private final int maxEntries;
+	private final long ttlNanos;
+	private final LongSupplier clock;
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+	private final Queue<Entry> order = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger cached = new AtomicInteger();
+	private final AtomicLong estimatedBytes = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong inFlightWaits = new AtomicLong();
+
+	/**
+	 * Creates an empty cache.
+	 * @param maxEntries Maximum number of cached results. Has to be greater than 0.
+	 * @param ttl Time for which a result is kept.
+	 * @param unit Unit of the ttl. Cannot be null.
+	 */
+	public IdempotencyCache(final int maxEntries, final long ttl, @NonNull final TimeUnit unit) {
+		this(maxEntries, ttl, unit, System::nanoTime);
+	}
+
+	/**
+	 * Creates an empty cache with given clock.
+	 * @param clock Source of current time in nanoseconds.
+	 */
+	IdempotencyCache(final int maxEntries, final long ttl, @NonNull final TimeUnit unit, @NonNull final LongSupplier clock) {
+		if (maxEntries <= 0) {
+			throw new IllegalArgumentException("Maximum number of entries has to be greater than 0.");
+		}
+		if (ttl <= 0) {
+			throw new IllegalArgumentException("Time to live has to be greater than 0.");
+		}
+		this.maxEntries = maxEntries;
+		this.ttlNanos = unit.toNanos(ttl);
+		this.clock = clock;
+	}
+
+	/**
+	 * Makes the payment, unless a payment with the same key was already made.
+	 * @param key Idempotency key. Cannot be null.
+	 * @param payment Payment request. Cannot be null.
+	 * @param action Makes the payment. Called at most once per key (unless it throws or the result is evicted).
+	 * Should throw only if the payment wasn't made.
+	 * @return Result of the payment - either made now or cached. Never null.
+	 * @throws IdempotencyKeyConflictException if the key was already used for a different payment request.
+	 */
+	public PaymentResult execute(@NonNull final String key, @NonNull final PaymentRequest payment,
+			@NonNull final Supplier<PaymentResult> action) {
+		final Entry entry = new Entry(key, payment);
+		while (true) {
+			final Entry existing = entries.putIfAbsent(key, entry);
+			if (existing == null) {
+				misses.incrementAndGet();
+				return run(entry, action);
+			}
+			if (existing.isExpired(clock.getAsLong())) {
+				if (entries.remove(key, existing)) {
+					release(existing);
+				}
+				continue;
+			}
+			if (!existing.payment.equals(payment)) {
+				throw new IdempotencyKeyConflictException("Idempotency key was already used for a different payment.");
+			}
+			hits.incrementAndGet();
+			if (!existing.result.isDone()) {
+				inFlightWaits.incrementAndGet();
+			}
+			try {
+				return existing.result.join();
+			} catch (final CompletionException e) {
+				// First request failed and released the key, so try again.
+				continue;
+			}
+		}
+	}
+
+	/**
+	 * @return Current size, footprint and hit rate of the cache. Never null.
+	 */
+	public IdempotencyStats getStats() {
+		final long hitCount = hits.get();
+		final long missCount = misses.get();
+		return IdempotencyStats.builder()
+				.entries(entries.size())
+				.maxEntries(maxEntries)
+				.estimatedBytes(estimatedBytes.get())
+				.hits(hitCount)
+				.misses(missCount)
+				.inFlightWaits(inFlightWaits.get())
+				.hitRate(hitCount + missCount == 0 ? 0 : (double) hitCount / (hitCount + missCount))
+				.build();
+	}
+
+	private PaymentResult run(final Entry entry, final Supplier<PaymentResult> action) {
+		final PaymentResult result;
+		try {
+			result = action.get();
+		} catch (final RuntimeException e) {
+			entries.remove(entry.key, entry);
+			entry.result.completeExceptionally(e);
+			throw e;
+		}
+		entry.completedAt = clock.getAsLong();
+		entry.bytes = estimateBytes(entry.key, entry.payment);
+		estimatedBytes.addAndGet(entry.bytes);
+		cached.incrementAndGet();
+		order.add(entry);
+		entry.result.complete(result);
+		evict(entry.completedAt);
+		return result;
+	}
+
+	private void evict(final long now) {
+		Entry oldest;
+		while ((oldest = order.peek()) != null && (cached.get() > maxEntries || oldest.isExpired(now))) {
+			entries.remove(oldest.key, oldest);
+			release(oldest);
+		}
+	}
+
+	/**
+	 * Removes completed entry from the eviction order. Safe to call more than once for the same entry.
+	 */
+	private void release(final Entry entry) {
+		if (order.remove(entry)) {
+			cached.decrementAndGet();
+			estimatedBytes.addAndGet(-entry.bytes);
+		}
+	}
+
+	private static long estimateBytes(final String key, final PaymentRequest payment) {
+		// Strings of ASCII characters take a byte per character. Account number and message of the result
+		// are shared with the request and constants.
+		return ENTRY_OVERHEAD_BYTES + 3 * STRING_OVERHEAD_BYTES + key.length() + payment.getSourceAccount().length()
+				+ payment.getTargetAccount().length();
+	}
+
+	private class Entry {
+		private final String key;
+		private final PaymentRequest payment;
+		private final CompletableFuture<PaymentResult> result = new CompletableFuture<>();
+		private volatile long completedAt;
+		private long bytes;
+
+		private Entry(final String key, final PaymentRequest payment) {
+			this.key = key;
+			this.payment = payment;
+		}
+
+		/**
+		 * @return true if the payment completed more than TTL ago. Payments in progress never expire.
+		 */
+		private boolean isExpired(final long now) {
+			return result.isDone() && now - completedAt >= ttlNanos;
+		}
+	}
+}
@@ -0,0 +1,16 @@
+package pl.com.salsoft.exercise2.service;
+
+/**
+ * Thrown when an idempotency key is reused for a different payment request than the one it was first used for.
+ */
+public class IdempotencyKeyConflictException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Creates exception with given message.
+	 * @param message Description of the conflict.
+	 */
+	public IdempotencyKeyConflictException(final String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,71 @@
+package pl.com.salsoft.exercise2.service;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Hand-written JSON codec of a single type, registered in JsonService. It works directly on Jackson's
+ * streaming JsonParser and JsonGenerator, without reflection and without intermediate objects.
+ * Codecs have to be thread-safe.
+ * @param <T> Type of the encoded objects.
+ */
+public interface JsonCodec<T> {
+	/**
+	 * Writes the object as JSON.
+	 * @param generator Generator to write to.
+	 * @param value Object to write. Never null.
+	 * @throws IOException if writing failed.
+	 */
+	void write(JsonGenerator generator, T value) throws IOException;
+
+	/**
+	 * Reads the object from JSON.
+	 * @param parser Parser positioned at the first token of the object (START_OBJECT). Once done,
+	 * it's positioned at the last token of the object (END_OBJECT).
+	 * @return Read object. Never null.
+	 * @throws IOException if the JSON is not a valid representation of the object.
+	 */
+	T read(JsonParser parser) throws IOException;
+
+	/**
+	 * Checks that the parser is positioned at the start of an object.
+	 * @param parser Parser to check.
+	 * @throws JsonParseException if the current token is not START_OBJECT.
+	 */
+	static void expectObject(final JsonParser parser) throws IOException {
+		if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+			throw new JsonParseException(parser, "Expected JSON object.");
+		}
+	}
+
+	/**
+	 * Reads text of the current scalar token (numbers are accepted too, like databind does).
+	 * @param parser Parser positioned at the value.
+	 * @return Text of the value. Null for JSON null.
+	 * @throws JsonParseException if the current token is not a scalar value.
+	 */
+	static String readText(final JsonParser parser) throws IOException {
+		final JsonToken token = parser.getCurrentToken();
+		if (token == JsonToken.VALUE_NULL) {
+			return null;
+		}
+		if (!token.isScalarValue()) {
+			throw new JsonParseException(parser, "Expected text value.");
+		}
+		return parser.getText();
+	}
+
+	/**
+	 * Exception for a field not known to the codec (databind fails on unknown properties too).
+	 * @param parser Parser positioned at the field value.
+	 * @param field Name of the field.
+	 * @return Exception to throw.
+	 */
+	static JsonParseException unknownField(final JsonParser parser, final String field) {
+		return new JsonParseException(parser, "Unrecognized field \"" + field + "\".");
+	}
+}
@@ -1,11 +1,31 @@
 package pl.com.salsoft.exercise2.service;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.SegmentedStringWriter;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 
 import lombok.NonNull;
+import pl.com.salsoft.exercise2.model.Account;
+import pl.com.salsoft.exercise2.model.PaymentRequest;
+import pl.com.salsoft.exercise2.model.PaymentResult;
 
 /**
  * A wrapper around Jackson's ObjectMapper, so the API is a bit simpler.
@@ -17,9 +37,35 @@ import lombok.NonNull;
  *
  * This is desired behavior for purpose of this application. In other applications having checked exception
  * maybe more useful, as serialization/deserialization problems could be handled early, but not in this case.
+ *
+ * Types sent and received on every request (PaymentRequest, PaymentResult, Account) are mapped by hand-written
+ * streaming codecs from the codec registry, also inside collections and arrays. Anything else goes through
+ * the reflective databind of the ObjectMapper.
  */
 public class JsonService {
 	private final ObjectMapper mapper = new ObjectMapper();
+	private final JsonFactory factory = mapper.getFactory();
+	// Flushing after each element would send every array element in its own chunk.
+	private final ObjectWriter elementWriter = mapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+	private final Map<Class<?>, JsonCodec<?>> codecs = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates the service with codecs of the hot types registered.
+	 */
+	public JsonService() {
+		register(PaymentRequest.class, new PaymentRequestCodec());
+		register(PaymentResult.class, new PaymentResultCodec());
+		register(Account.class, new AccountCodec());
+	}
+
+	/**
+	 * Registers a codec, replacing databind for objects of exactly given class.
+	 * @param cls Class of objects mapped by the codec.
+	 * @param codec Codec to use. Cannot be null.
+	 */
+	public <T> void register(@NonNull final Class<T> cls, @NonNull final JsonCodec<T> codec) {
+		codecs.put(cls, codec);
+	}
 
 	/**
 	 * Serializes given object to JSON representation.
@@ -28,11 +74,43 @@ public class JsonService {
 	 * @throws IllegalArgumentException if given object could not be serialized to String.
 	 */
 	public @NonNull String map(final Object object) {
-		try {
-			return mapper.writeValueAsString(object);
-		} catch (final JsonProcessingException e) {
+		if (object == null || !(object instanceof Collection || codecs.containsKey(object.getClass()))) {
+			try {
+				return mapper.writeValueAsString(object);
+			} catch (final JsonProcessingException e) {
+				throw new IllegalArgumentException("Could not serialize input object to JSON.", e);
+			}
+		}
+		final SegmentedStringWriter writer = new SegmentedStringWriter(factory._getBufferRecycler());
+		try (JsonGenerator generator = factory.createGenerator(writer)) {
+			writeValue(generator, object);
+		} catch (final IOException e) {
 			throw new IllegalArgumentException("Could not serialize input object to JSON.", e);
 		}
+		return writer.getAndClear();
+	}
+
+	/**
+	 * Serializes elements to JSON array written straight to given stream, as they are provided.
+	 * Only the generator's buffer is kept in memory, no matter how many elements there are.
+	 * @param output Stream to write to. It's closed once the array is written.
+	 * @param elements Source of elements, passing each of them to given consumer.
+	 * @throws UncheckedIOException if writing to the stream failed.
+	 */
+	public <T> void writeArray(@NonNull final OutputStream output, @NonNull final Consumer<Consumer<T>> elements) {
+		try (JsonGenerator generator = factory.createGenerator(output)) {
+			generator.writeStartArray();
+			elements.accept(element -> {
+				try {
+					writeValue(generator, element);
+				} catch (final IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+			generator.writeEndArray();
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
 	}
 
 	/**
@@ -44,9 +122,59 @@ public class JsonService {
 	 */
 	public <T> @NonNull T map(@NonNull final String json, final Class<T> cls) {
 		try {
-			return mapper.readValue(json, cls);
+			final JsonCodec<?> codec = codecs.get(cls.isArray() ? cls.getComponentType() : cls);
+			if (codec == null) {
+				return mapper.readValue(json, cls);
+			}
+			try (JsonParser parser = factory.createParser(json)) {
+				final JsonToken token = parser.nextToken();
+				if (token == JsonToken.VALUE_NULL) {
+					return null;
+				}
+				final Object result = cls.isArray() ? readArray(parser, codec, cls.getComponentType()) : codec.read(parser);
+				if (parser.nextToken() != null) {
+					throw new JsonParseException(parser, "Unexpected content after JSON value.");
+				}
+				return cls.cast(result);
+			}
 		} catch (final IOException e) {
 			throw new IllegalArgumentException("Could not deserialize input JSON object.", e);
 		}
 	}
+
+	private Object readArray(final JsonParser parser, final JsonCodec<?> codec, final Class<?> componentType)
+			throws IOException {
+		if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+			throw new JsonParseException(parser, "Expected JSON array.");
+		}
+		final List<Object> elements = new ArrayList<>();
+		while (parser.nextToken() != JsonToken.END_ARRAY) {
+			elements.add(parser.getCurrentToken() == JsonToken.VALUE_NULL ? null : codec.read(parser));
+		}
+		final Object array = Array.newInstance(componentType, elements.size());
+		for (int i = 0; i < elements.size(); i++) {
+			Array.set(array, i, elements.get(i));
+		}
+		return array;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void writeValue(final JsonGenerator generator, final Object value) throws IOException {
+		if (value == null) {
+			generator.writeNull();
+			return;
+		}
+		final JsonCodec<Object> codec = (JsonCodec<Object>) codecs.get(value.getClass());
+		if (codec != null) {
+			codec.write(generator, value);
+		} else if (value instanceof Collection) {
+			generator.writeStartArray();
+			for (final Object element : (Collection<?>) value) {
+				writeValue(generator, element);
+			}
+			generator.writeEndArray();
+		} else {
+			elementWriter.writeValue(generator, value);
+		}
+	}
 }
@@ -0,0 +1,165 @@
+package pl.com.salsoft.exercise2.service;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import lombok.NonNull;
+import pl.com.salsoft.exercise2.dao.AccountDao;
+import pl.com.salsoft.exercise2.dao.Epochs;
+import pl.com.salsoft.exercise2.dao.Journal;
+import pl.com.salsoft.exercise2.dao.TransactionHistory;
+import pl.com.salsoft.exercise2.model.Account;
+import pl.com.salsoft.exercise2.model.PaymentRequest;
+import pl.com.salsoft.exercise2.model.PaymentResult;
+import pl.com.salsoft.exercise2.rest.ErrorMessages;
+
+/**
+ * Payment engine making every transfer atomic with an optimistic two-account commit. Account numbers are hashed
+ * into a fixed number of stripes, each with a version number. Even version means the stripe is free,
+ * odd version means somebody is committing to it.
+ *
+ * A transfer reads versions of both stripes, looks the accounts up and reads the source balance without any locks.
+ * Then it commits: versions of both stripes are switched from the read (even) values to odd ones
+ * with compare-and-set (the lower stripe first), balances are changed with plain stores and both versions
+ * are bumped to the next even value. If any of the versions changed since it was read, some other transfer
+ * or deletion touched the stripe in the meantime, so the transfer starts over. Transfers which fail
+ * (insufficient funds, invalid amount) never commit anything. Deletion commits to the stripe of its account
+ * the same way, so it never happens in the middle of a transfer and a transfer never deposits money
+ * to an account which is already deleted.
+ *
+ * Versions are padded to separate cache lines. All payments and deletions have to go through the same engine instance.
+ */
+public class OptimisticPaymentEngine implements PaymentEngine {
+	private static final int STRIPES = 1024;
+	private static final int PADDING = 8;
+	private static final int SPINS = 100;
+
+	private final AccountDao accountDao;
+	private final Journal journal;
+	private final Epochs epochs;
+	private final TransactionHistory history;
+	private final AtomicLongArray versions = new AtomicLongArray(STRIPES * PADDING);
+
+	/**
+	 * Creates engine with account DAO and journal injected.
+	 * @param accountDao Account DAO to use. Cannot be null.
+	 * @param journal Journal to record transfers in. Cannot be null.
+	 */
+	public OptimisticPaymentEngine(@NonNull final AccountDao accountDao, @NonNull final Journal journal) {
+		this.accountDao = accountDao;
+		this.journal = journal;
+		this.epochs = accountDao.getEpochs();
+		this.history = accountDao.getHistory();
+	}
+
+	@Override
+	public boolean delete(@NonNull final String number) {
+		final int index = versionIndex(number);
+		final boolean deleted;
+		final long version = lock(index);
+		try {
+			deleted = accountDao.deleteNoWait(number);
+		} finally {
+			versions.set(index, version + 2);
+		}
+		if (deleted) {
+			// Not waiting for the disk and running transfers under the lock.
+			accountDao.completeDeletions();
+		}
+		return deleted;
+	}
+
+	@Override
+	public AccountDao getAccountDao() {
+		return accountDao;
+	}
+
+	@Override
+	public PaymentResult transfer(@NonNull final PaymentRequest payment) {
+		final long amount = payment.getAmount();
+		final int sourceIndex = versionIndex(payment.getSourceAccount());
+		final int targetIndex = versionIndex(payment.getTargetAccount());
+		try (Epochs.Scope scope = epochs.enter()) {
+			while (true) {
+				// Versions are read before the accounts, so deletion of any of them makes the commit fail.
+				final long sourceVersion = readVersion(sourceIndex);
+				final long targetVersion = readVersion(targetIndex);
+				final Account sourceAccount = accountDao.getOrCreate(payment.getSourceAccount());
+				final Account targetAccount = accountDao.getOrCreate(payment.getTargetAccount());
+				final long balance = sourceAccount.readBalance();
+
+				if (amount <= 0L) {
+					return PaymentResult.failure(payment.getSourceAccount(), balance, ErrorMessages.INVALID_AMOUNT_MESSAGE);
+				}
+				if (balance < amount) {
+					return PaymentResult.failure(payment.getSourceAccount(), balance, ErrorMessages.INSUFFICIENT_FUNDS_MESSAGE);
+				}
+				if (commit(payment, amount, sourceIndex, sourceVersion, targetIndex, targetVersion,
+						sourceAccount, targetAccount, scope)) {
+					return PaymentResult.success(payment.getSourceAccount(), balance - amount);
+				}
+				Thread.onSpinWait();
+			}
+		}
+	}
+
+	private boolean commit(final PaymentRequest payment, final long amount, final int sourceIndex,
+			final long sourceVersion, final int targetIndex, final long targetVersion, final Account sourceAccount,
+			final Account targetAccount, final Epochs.Scope scope) {
+		final boolean sourceFirst = sourceIndex <= targetIndex;
+		final int firstIndex = sourceFirst ? sourceIndex : targetIndex;
+		final long firstVersion = sourceFirst ? sourceVersion : targetVersion;
+		final int secondIndex = sourceFirst ? targetIndex : sourceIndex;
+		final long secondVersion = sourceFirst ? targetVersion : sourceVersion;
+
+		if (!versions.compareAndSet(firstIndex, firstVersion, firstVersion + 1)) {
+			return false;
+		}
+		if (secondIndex != firstIndex && !versions.compareAndSet(secondIndex, secondVersion, secondVersion + 1)) {
+			// Nothing was changed, so the old version is restored.
+			versions.set(firstIndex, firstVersion);
+			return false;
+		}
+		try {
+			// Versions didn't change since the balance was read, so the withdrawal can't fail.
+			final long sourceBalance = scope.withdrawExclusive(sourceAccount, amount) - amount;
+			final long targetBalance = scope.depositExclusive(targetAccount, amount);
+			journal.transferred(payment.getSourceAccount(), payment.getTargetAccount(), amount);
+			history.transferred(payment.getSourceAccount(), payment.getTargetAccount(), amount, sourceBalance,
+					targetBalance);
+		} finally {
+			if (secondIndex != firstIndex) {
+				versions.set(secondIndex, secondVersion + 2);
+			}
+			versions.set(firstIndex, firstVersion + 2);
+		}
+		return true;
+	}
+
+	private long lock(final int index) {
+		while (true) {
+			final long version = readVersion(index);
+			if (versions.compareAndSet(index, version, version + 1)) {
+				return version;
+			}
+		}
+	}
+
+	private long readVersion(final int index) {
+		int spins = 0;
+		long version;
+		while (((version = versions.get(index)) & 1L) != 0L) {
+			// Somebody is committing to the stripe - it takes only a few stores, unless the thread got descheduled.
+			if (++spins < SPINS) {
+				Thread.onSpinWait();
+			} else {
+				Thread.yield();
+			}
+		}
+		return version;
+	}
+
+	private static int versionIndex(final String number) {
+		final int hash = number.hashCode();
+		return ((hash ^ (hash >>> 16)) & (STRIPES - 1)) * PADDING;
+	}
+}
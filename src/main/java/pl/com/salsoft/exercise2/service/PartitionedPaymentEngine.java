@@ -0,0 +1,265 @@
+package pl.com.salsoft.exercise2.service;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+import lombok.NonNull;
+import pl.com.salsoft.exercise2.dao.AccountDao;
+import pl.com.salsoft.exercise2.dao.Epochs;
+import pl.com.salsoft.exercise2.dao.Journal;
+import pl.com.salsoft.exercise2.dao.TransactionHistory;
+import pl.com.salsoft.exercise2.model.Account;
+import pl.com.salsoft.exercise2.model.PaymentRequest;
+import pl.com.salsoft.exercise2.model.PaymentResult;
+import pl.com.salsoft.exercise2.rest.ErrorMessages;
+
+/**
+ * Payment engine partitioning accounts into shards. Every account belongs to one shard (by hash of its number)
+ * and only the thread of that shard ever changes its balance, so balances are updated with plain stores
+ * and each shard works on its own set of cache lines.
+ *
+ * Request thread looks the accounts up and sends the transfer to the shard of the source account.
+ * That shard debits the source account. If both accounts are in the same shard, the target account is credited
+ * right away. Otherwise the transfer is sent to the shard of the target account, which credits it.
+ * A transfer is debited exactly once and credited exactly once, only after a successful debit,
+ * so money is never lost or duplicated. It's recorded in the journal once credited.
+ * Transfers of the same source account are debited in the order they were sent.
+ *
+ * The request thread keeps its epoch scope open until the transfer is credited, and shard threads change
+ * balances through that scope, so consistent cuts of accounts never see money between the shards.
+ * All payments have to go through the same engine instance.
+ */
+public class PartitionedPaymentEngine implements PaymentEngine, Closeable {
+	private static final int SPINS = 200;
+
+	private final AccountDao accountDao;
+	private final Journal journal;
+	private final Epochs epochs;
+	private final TransactionHistory history;
+	private final Shard[] shards;
+
+	/**
+	 * Creates the engine and starts thread of every shard.
+	 * @param accountDao Account DAO to use. Cannot be null.
+	 * @param journal Journal to record transfers in. Cannot be null.
+	 * @param shardCount Number of shards. Has to be greater than 0.
+	 */
+	public PartitionedPaymentEngine(@NonNull final AccountDao accountDao, @NonNull final Journal journal,
+			final int shardCount) {
+		if (shardCount <= 0) {
+			throw new IllegalArgumentException("Number of shards has to be greater than 0.");
+		}
+		this.accountDao = accountDao;
+		this.journal = journal;
+		this.epochs = accountDao.getEpochs();
+		this.history = accountDao.getHistory();
+		shards = new Shard[shardCount];
+		for (int i = 0; i < shardCount; i++) {
+			shards[i] = new Shard(i);
+		}
+		for (final Shard shard : shards) {
+			shard.thread.start();
+		}
+	}
+
+	/**
+	 * Stops threads of all shards. Transfers waiting in their queues are not processed.
+	 */
+	@Override
+	public void close() {
+		for (final Shard shard : shards) {
+			shard.running = false;
+			LockSupport.unpark(shard.thread);
+		}
+		for (final Shard shard : shards) {
+			try {
+				shard.thread.join();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Deletes an account, without any coordination with transfers.
+	 */
+	@Override
+	public boolean delete(@NonNull final String number) {
+		return accountDao.delete(number);
+	}
+
+	@Override
+	public AccountDao getAccountDao() {
+		return accountDao;
+	}
+
+	@Override
+	public PaymentResult transfer(@NonNull final PaymentRequest payment) {
+		try (Epochs.Scope scope = epochs.enter()) {
+			return submit(payment, scope).await();
+		}
+	}
+
+	/**
+	 * All transfers of the batch are sent to the shards first, so they are processed in parallel.
+	 */
+	@Override
+	public List<PaymentResult> transfer(@NonNull final List<PaymentRequest> payments) {
+		try (Epochs.Scope scope = epochs.enter()) {
+			return payments.stream()
+					.map(payment -> submit(payment, scope))
+					.collect(Collectors.toList())
+					.stream()
+					.map(Transfer::await)
+					.collect(Collectors.toList());
+		}
+	}
+
+	private Transfer submit(final PaymentRequest payment, final Epochs.Scope scope) {
+		final long amount = payment.getAmount();
+		// Accounts are created by the request thread, in its own epoch scope.
+		final Account sourceAccount = accountDao.getOrCreate(payment.getSourceAccount());
+		final Account targetAccount = accountDao.getOrCreate(payment.getTargetAccount());
+		final Transfer transfer = new Transfer(payment, amount, sourceAccount, targetAccount, scope);
+		if (amount <= 0L) {
+			transfer.complete(PaymentResult.failure(payment.getSourceAccount(), sourceAccount.readBalance(),
+					ErrorMessages.INVALID_AMOUNT_MESSAGE), null);
+		} else {
+			shardOf(sourceAccount).send(transfer);
+		}
+		return transfer;
+	}
+
+	private Shard shardOf(final Account account) {
+		return shards[Math.floorMod(account.getNumber().hashCode(), shards.length)];
+	}
+
+	/**
+	 * Single shard - a thread with its queue of transfers to debit or credit.
+	 */
+	private final class Shard {
+		private final Queue<Transfer> queue = new ConcurrentLinkedQueue<>();
+		private final Thread thread;
+		private volatile boolean running = true;
+		private volatile boolean parked;
+
+		private Shard(final int index) {
+			thread = new Thread(this::run, "payment-shard-" + index);
+			thread.setDaemon(true);
+		}
+
+		private void send(final Transfer transfer) {
+			queue.add(transfer);
+			if (parked) {
+				LockSupport.unpark(thread);
+			}
+		}
+
+		private void run() {
+			while (running) {
+				final Transfer transfer = queue.poll();
+				if (transfer == null) {
+					awaitTransfer();
+					continue;
+				}
+				try {
+					process(transfer);
+				} catch (final RuntimeException e) {
+					transfer.complete(null, e);
+				}
+			}
+		}
+
+		private void process(final Transfer transfer) {
+			final PaymentRequest payment = transfer.payment;
+			if (!transfer.debited) {
+				final long balance = transfer.scope.withdrawExclusive(transfer.sourceAccount, transfer.amount);
+				if (balance < transfer.amount) {
+					transfer.complete(PaymentResult.failure(payment.getSourceAccount(), balance,
+							ErrorMessages.INSUFFICIENT_FUNDS_MESSAGE), null);
+					return;
+				}
+				transfer.debited = true;
+				transfer.sourceBalance = balance - transfer.amount;
+				final Shard target = shardOf(transfer.targetAccount);
+				if (target != this) {
+					target.send(transfer);
+					return;
+				}
+			}
+			final long targetBalance = transfer.scope.depositExclusive(transfer.targetAccount, transfer.amount);
+			journal.transferred(payment.getSourceAccount(), payment.getTargetAccount(), transfer.amount);
+			history.transferred(payment.getSourceAccount(), payment.getTargetAccount(), transfer.amount,
+					transfer.sourceBalance, targetBalance);
+			transfer.complete(PaymentResult.success(payment.getSourceAccount(), transfer.sourceBalance), null);
+		}
+
+		private void awaitTransfer() {
+			for (int spins = 0; spins < SPINS; spins++) {
+				if (!queue.isEmpty()) {
+					return;
+				}
+				Thread.onSpinWait();
+			}
+			parked = true;
+			// Checked again after the flag is set, so a transfer sent in the meantime is not missed.
+			if (running && queue.isEmpty()) {
+				LockSupport.park(this);
+			}
+			parked = false;
+		}
+	}
+
+	/**
+	 * Transfer passed between the request thread and shards. Fields other than the result are published
+	 * to the next thread by the queue.
+	 */
+	private static final class Transfer {
+		private final PaymentRequest payment;
+		private final long amount;
+		private final Account sourceAccount;
+		private final Account targetAccount;
+		private final Epochs.Scope scope;
+		private final Thread waiter = Thread.currentThread();
+		private boolean debited;
+		private long sourceBalance;
+		private PaymentResult result;
+		private RuntimeException error;
+		private volatile boolean done;
+
+		private Transfer(final PaymentRequest payment, final long amount, final Account sourceAccount,
+				final Account targetAccount, final Epochs.Scope scope) {
+			this.payment = payment;
+			this.amount = amount;
+			this.sourceAccount = sourceAccount;
+			this.targetAccount = targetAccount;
+			this.scope = scope;
+		}
+
+		private PaymentResult await() {
+			int spins = 0;
+			while (!done) {
+				if (++spins < SPINS) {
+					Thread.onSpinWait();
+				} else {
+					LockSupport.park(this);
+				}
+			}
+			if (error != null) {
+				throw error;
+			}
+			return result;
+		}
+
+		private void complete(final PaymentResult result, final RuntimeException error) {
+			this.result = result;
+			this.error = error;
+			done = true;
+			LockSupport.unpark(waiter);
+		}
+	}
+}
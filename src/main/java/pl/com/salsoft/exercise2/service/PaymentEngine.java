@@ -0,0 +1,52 @@
+package pl.com.salsoft.exercise2.service;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import pl.com.salsoft.exercise2.dao.AccountDao;
+import pl.com.salsoft.exercise2.model.PaymentRequest;
+import pl.com.salsoft.exercise2.model.PaymentResult;
+
+/**
+ * Engine applying payments to account balances, used by PaymentService.
+ * Engines differ in how concurrent payments are synchronized. The engine is selected
+ * with the payment.engine configuration entry.
+ * Engines record transfers in the journal, but don't wait for them to be durable - that's done by PaymentService.
+ */
+public interface PaymentEngine {
+	/**
+	 * Deletes an account. Engines which make transfers atomic also make deletion atomic with respect to them,
+	 * so a transfer never deposits money to an account deleted in the middle of it.
+	 * Deletion is durable in the journal once this method returns.
+	 * @param number Number of account to delete. Cannot be null.
+	 * @return true if account was deleted, or false if there was no such account.
+	 */
+	boolean delete(String number);
+
+	/**
+	 * Provides the account DAO whose balances the engine changes. PaymentService records the changes
+	 * in its versions and change feed.
+	 * @return Account DAO of the engine. Never null.
+	 */
+	AccountDao getAccountDao();
+
+	/**
+	 * Transfers money according to the payment request.
+	 * @param payment Payment request details. Cannot be null.
+	 * @return Result of the operation. Never null.
+	 */
+	PaymentResult transfer(PaymentRequest payment);
+
+	/**
+	 * Transfers money according to a batch of payment requests. Requests of the same source account
+	 * have to be processed in their order in the batch. This default implementation processes
+	 * all requests one by one.
+	 * @param payments Payment requests. None of them can be null.
+	 * @return Results of the requests, in the same order as the requests. Never null.
+	 */
+	default List<PaymentResult> transfer(final List<PaymentRequest> payments) {
+		return payments.stream()
+				.map(this::transfer)
+				.collect(Collectors.toList());
+	}
+}
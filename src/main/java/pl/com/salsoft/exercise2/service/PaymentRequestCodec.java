@@ -0,0 +1,70 @@
+package pl.com.salsoft.exercise2.service;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+import pl.com.salsoft.exercise2.model.PaymentRequest;
+import pl.com.salsoft.exercise2.model.PriceDeserializer;
+import pl.com.salsoft.exercise2.model.PriceSerializer;
+
+/**
+ * Codec of payment requests. Amount is parsed straight into the long representation.
+ */
+public class PaymentRequestCodec implements JsonCodec<PaymentRequest> {
+	private static final String SOURCE_ACCOUNT = "sourceAccount";
+	private static final String TARGET_ACCOUNT = "targetAccount";
+	private static final String AMOUNT = "amount";
+	private static final SerializableString SOURCE_ACCOUNT_NAME = new SerializedString(SOURCE_ACCOUNT);
+	private static final SerializableString TARGET_ACCOUNT_NAME = new SerializedString(TARGET_ACCOUNT);
+	private static final SerializableString AMOUNT_NAME = new SerializedString(AMOUNT);
+
+	@Override
+	public void write(final JsonGenerator generator, final PaymentRequest value) throws IOException {
+		generator.writeStartObject();
+		generator.writeFieldName(SOURCE_ACCOUNT_NAME);
+		generator.writeString(value.getSourceAccount());
+		generator.writeFieldName(TARGET_ACCOUNT_NAME);
+		generator.writeString(value.getTargetAccount());
+		generator.writeFieldName(AMOUNT_NAME);
+		PriceSerializer.write(value.getAmount(), generator);
+		generator.writeEndObject();
+	}
+
+	@Override
+	public PaymentRequest read(final JsonParser parser) throws IOException {
+		JsonCodec.expectObject(parser);
+		final PaymentRequest request = new PaymentRequest();
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			final String field = parser.getCurrentName();
+			parser.nextToken();
+			switch (field) {
+				case SOURCE_ACCOUNT:
+					request.setSourceAccount(requireText(parser, field));
+					break;
+				case TARGET_ACCOUNT:
+					request.setTargetAccount(requireText(parser, field));
+					break;
+				case AMOUNT:
+					request.setAmount(PriceDeserializer.read(parser));
+					break;
+				default:
+					throw JsonCodec.unknownField(parser, field);
+			}
+		}
+		return request;
+	}
+
+	private static String requireText(final JsonParser parser, final String field) throws IOException {
+		final String text = JsonCodec.readText(parser);
+		if (text == null) {
+			throw new JsonParseException(parser, field + " cannot be null.");
+		}
+		return text;
+	}
+}
@@ -0,0 +1,88 @@
+package pl.com.salsoft.exercise2.service;
+
+import java.io.IOException;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+import pl.com.salsoft.exercise2.model.PaymentResult;
+import pl.com.salsoft.exercise2.rest.ErrorMessages;
+
+/**
+ * Codec of payment results. Texts of ErrorMessages are encoded once and written as pre-quoted bytes.
+ */
+public class PaymentResultCodec implements JsonCodec<PaymentResult> {
+	private static final String ACCOUNT_NUMBER = "accountNumber";
+	private static final String BALANCE = "balance";
+	private static final String SUCCESS = "success";
+	private static final String MESSAGE = "message";
+	private static final SerializableString ACCOUNT_NUMBER_NAME = new SerializedString(ACCOUNT_NUMBER);
+	private static final SerializableString BALANCE_NAME = new SerializedString(BALANCE);
+	private static final SerializableString SUCCESS_NAME = new SerializedString(SUCCESS);
+	private static final SerializableString MESSAGE_NAME = new SerializedString(MESSAGE);
+	private static final Map<String, SerializableString> MESSAGES = Map.of(
+			ErrorMessages.INSUFFICIENT_FUNDS_MESSAGE, new SerializedString(ErrorMessages.INSUFFICIENT_FUNDS_MESSAGE),
+			ErrorMessages.INVALID_AMOUNT_MESSAGE, new SerializedString(ErrorMessages.INVALID_AMOUNT_MESSAGE));
+
+	@Override
+	public void write(final JsonGenerator generator, final PaymentResult value) throws IOException {
+		generator.writeStartObject();
+		generator.writeFieldName(ACCOUNT_NUMBER_NAME);
+		generator.writeString(value.getAccountNumber());
+		generator.writeFieldName(BALANCE_NAME);
+		generator.writeNumber(value.getBalance());
+		generator.writeFieldName(SUCCESS_NAME);
+		if (value.getSuccess() == null) {
+			generator.writeNull();
+		} else {
+			generator.writeBoolean(value.getSuccess());
+		}
+		generator.writeFieldName(MESSAGE_NAME);
+		writeMessage(generator, value.getMessage());
+		generator.writeEndObject();
+	}
+
+	@Override
+	public PaymentResult read(final JsonParser parser) throws IOException {
+		JsonCodec.expectObject(parser);
+		final PaymentResult result = new PaymentResult();
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			final String field = parser.getCurrentName();
+			final JsonToken token = parser.nextToken();
+			switch (field) {
+				case ACCOUNT_NUMBER:
+					result.setAccountNumber(JsonCodec.readText(parser));
+					break;
+				case BALANCE:
+					result.setBalance(token == JsonToken.VALUE_NULL ? null : parser.getDecimalValue());
+					break;
+				case SUCCESS:
+					result.setSuccess(token == JsonToken.VALUE_NULL ? null : parser.getBooleanValue());
+					break;
+				case MESSAGE:
+					result.setMessage(JsonCodec.readText(parser));
+					break;
+				default:
+					throw JsonCodec.unknownField(parser, field);
+			}
+		}
+		return result;
+	}
+
+	private static void writeMessage(final JsonGenerator generator, final String message) throws IOException {
+		if (message == null) {
+			generator.writeNull();
+			return;
+		}
+		final SerializableString encoded = MESSAGES.get(message);
+		if (encoded == null) {
+			generator.writeString(message);
+		} else {
+			generator.writeString(encoded);
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package pl.com.salsoft.exercise2.service;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import lombok.NonNull;
+import pl.com.salsoft.exercise2.model.PaymentResult;
+
+/**
+ * Bounded store of results of asynchronous payments. A result is kept for the given time after it's stored,
+ * but never more than the given number of results - once there are too many, the oldest ones are evicted early.
+ * Results are evicted in the order they were stored, so eviction costs nothing more than a queue poll.
+ */
+public class PaymentResultStore {
+	private final int maxResults;
+	private final long ttlNanos;
+	private final LongSupplier clock;
+	private final Map<Long, Entry> results = new ConcurrentHashMap<>();
+	private final Queue<Entry> order = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Creates an empty store.
+	 * @param maxResults Maximum number of results kept. Has to be greater than 0.
+	 * @param ttl Time for which a result is kept.
+	 * @param unit Unit of the ttl. Cannot be null.
+	 */
+	public PaymentResultStore(final int maxResults, final long ttl, @NonNull final TimeUnit unit) {
+		this(maxResults, ttl, unit, System::nanoTime);
+	}
+
+	/**
+	 * Creates an empty store with given clock.
+	 * @param clock Source of current time in nanoseconds.
+	 */
+	PaymentResultStore(final int maxResults, final long ttl, @NonNull final TimeUnit unit, @NonNull final LongSupplier clock) {
+		if (maxResults <= 0) {
+			throw new IllegalArgumentException("Maximum number of results has to be greater than 0.");
+		}
+		if (ttl <= 0) {
+			throw new IllegalArgumentException("Time to live has to be greater than 0.");
+		}
+		this.maxResults = maxResults;
+		this.ttlNanos = unit.toNanos(ttl);
+		this.clock = clock;
+	}
+
+	/**
+	 * Stores the result, evicting expired results and the oldest ones above the limit.
+	 * @param id Id of the payment. Every id can be stored only once.
+	 * @param result Result of the payment. Cannot be null.
+	 */
+	public void put(final long id, @NonNull final PaymentResult result) {
+		final Entry entry = new Entry(id, result, clock.getAsLong());
+		results.put(id, entry);
+		order.add(entry);
+		evict(entry.storedAt);
+	}
+
+	/**
+	 * Finds the result of a payment.
+	 * @param id Id of the payment.
+	 * @return Result, or empty if it was never stored or has already been evicted.
+	 */
+	public Optional<PaymentResult> get(final long id) {
+		final Entry entry = results.get(id);
+		if (entry == null || isExpired(entry, clock.getAsLong())) {
+			return Optional.empty();
+		}
+		return Optional.of(entry.result);
+	}
+
+	/**
+	 * @return Number of results currently kept (expired ones are counted until they're evicted by next put).
+	 */
+	public int size() {
+		return results.size();
+	}
+
+	private void evict(final long now) {
+		Entry oldest;
+		while ((oldest = order.peek()) != null && (results.size() > maxResults || isExpired(oldest, now))) {
+			if (order.remove(oldest)) {
+				results.remove(oldest.id);
+			}
+		}
+	}
+
+	private boolean isExpired(final Entry entry, final long now) {
+		return now - entry.storedAt >= ttlNanos;
+	}
+
+	private static class Entry {
+		private final long id;
+		private final PaymentResult result;
+		private final long storedAt;
+
+		private Entry(final long id, final PaymentResult result, final long storedAt) {
+			this.id = id;
+			this.result = result;
+			this.storedAt = storedAt;
+		}
+	}
+}
@@ -1,28 +1,65 @@
 package pl.com.salsoft.exercise2.service;
 
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
 import lombok.NonNull;
 import pl.com.salsoft.exercise2.dao.AccountDao;
+import pl.com.salsoft.exercise2.dao.AccountVersions;
+import pl.com.salsoft.exercise2.dao.ChangeFeed;
+import pl.com.salsoft.exercise2.dao.Journal;
+import pl.com.salsoft.exercise2.dao.UnsupportedAccountNumberException;
 import pl.com.salsoft.exercise2.model.PaymentRequest;
 import pl.com.salsoft.exercise2.model.PaymentResult;
-import pl.com.salsoft.exercise2.model.PaymentResult.PaymentResultBuilder;
 import pl.com.salsoft.exercise2.rest.ErrorMessages;
-import pl.com.salsoft.exercise2.utils.BigDecimalUtils;
 
 /**
  * Service implementing money transfer logic.
  * It basically has only one public method to achieve its purpose.
+ * Balances are changed by the payment engine. Every successful transfer is recorded in the journal
+ * and the result is returned only once the journal confirms it's durable.
+ * Outcomes of payments (succeeded, insufficient funds, invalid amount) are counted.
+ * Once the engine has applied a successful transfer, versions of both accounts are changed and the transfer
+ * is recorded in the change feed.
  */
 public class PaymentService {
+	private final PaymentEngine engine;
 	private final AccountDao accountDao;
+	private final Journal journal;
+	private final AccountVersions versions;
+	private final ChangeFeed changes;
+	private final LongAdder succeeded = new LongAdder();
+	private final LongAdder insufficientFunds = new LongAdder();
+	private final LongAdder invalidAmount = new LongAdder();
 
 	/**
-	 * Creates service with account DAO injected.
+	 * Creates service with account DAO injected. Transfers are not journaled.
 	 * @param accountDao Account DAO to use.
 	 */
 	public PaymentService(@NonNull final AccountDao accountDao) {
-		this.accountDao = accountDao;
+		this(accountDao, Journal.NONE);
+	}
+
+	/**
+	 * Creates service with account DAO and journal injected, using the default CAS payment engine.
+	 * @param accountDao Account DAO to use.
+	 * @param journal Journal to record transfers in.
+	 */
+	public PaymentService(@NonNull final AccountDao accountDao, @NonNull final Journal journal) {
+		this(new CasPaymentEngine(accountDao, journal), journal);
+	}
+
+	/**
+	 * Creates service with payment engine and journal injected.
+	 * @param engine Payment engine to use.
+	 * @param journal Journal the engine records transfers in.
+	 */
+	public PaymentService(@NonNull final PaymentEngine engine, @NonNull final Journal journal) {
+		this.engine = engine;
+		this.accountDao = engine.getAccountDao();
+		this.journal = journal;
+		this.versions = engine.getAccountDao().getVersions();
+		this.changes = engine.getAccountDao().getChanges();
 	}
 
 	/**
@@ -30,41 +67,134 @@ public class PaymentService {
 	 * All details (source account, target account and amount) are read from the request body.
 	 * @param payment Payment request details.
 	 * @return Result of the operation. See Javadoc for PaymentResult for details. Never null.
+	 * @throws UnsupportedAccountNumberException if the account store doesn't support number of either account.
 	 */
 	public PaymentResult newPayment(@NonNull final PaymentRequest payment) {
-		final long amount = BigDecimalUtils.fromPrice(payment.getAmount());
+		checkAccounts(payment);
+		final PaymentResult result = apply(payment);
+		// Everything this payment appended (including accounts created on the way) is before current position.
+		journal.awaitDurable(journal.position());
+		return result;
+	}
 
-		final AtomicLong sourceBalance = accountDao.getOrCreate(payment.getSourceAccount()).getBalance();
-		final AtomicLong targetBalance = accountDao.getOrCreate(payment.getTargetAccount()).getBalance();
+	/**
+	 * Processes new payment request like newPayment(), but only once per idempotency key. Only the transfer
+	 * is made within the cache, waiting until it's durable is done outside: once the transfer is made, the key
+	 * keeps its result even if the wait fails, so a retry waits for the journal again instead of paying twice.
+	 * @param payment Payment request details.
+	 * @param key Idempotency key of the request.
+	 * @param idempotencyCache Cache of results by idempotency key.
+	 * @return Result of the operation, either made now or by an earlier request with the same key. Never null.
+	 * @throws IdempotencyKeyConflictException if the key was already used for a different payment request.
+	 * @throws UnsupportedAccountNumberException if the account store doesn't support number of either account.
+	 */
+	public PaymentResult newPayment(@NonNull final PaymentRequest payment, @NonNull final String key,
+			@NonNull final IdempotencyCache idempotencyCache) {
+		checkAccounts(payment);
+		final PaymentResult result = idempotencyCache.execute(key, payment, () -> apply(payment));
+		// Duplicates wait as well, so none of them gets the result before the transfer is durable.
+		journal.awaitDurable(journal.position());
+		return result;
+	}
 
-		if (amount <= 0L) {
-			return PaymentResult.builder()
-					.accountNumber(payment.getSourceAccount())
-					.balance(BigDecimalUtils.toPrice(sourceBalance.get()))
-					.success(false)
-					.message(ErrorMessages.INVALID_AMOUNT_MESSAGE)
-					.build();
+	/**
+	 * Processes a batch of payment requests. Requests of the same source account are processed in their order
+	 * in the batch, but there's no ordering guarantee between different source accounts.
+	 * Result is returned once all transfers of the batch are durable in the journal.
+	 * @param payments Payment requests. None of them can be null.
+	 * @return Results of the requests, in the same order as the requests. Never null.
+	 * @throws UnsupportedAccountNumberException if the account store doesn't support number of any account.
+	 * No payment of the batch is made then.
+	 */
+	public List<PaymentResult> newPayments(@NonNull final List<PaymentRequest> payments) {
+		final List<PaymentResult> results = newPaymentsNoWait(payments);
+		awaitDurable();
+		return results;
+	}
 
+	/**
+	 * Processes a batch of payment requests like newPayments(), but doesn't wait until the transfers are durable.
+	 * For callers which need results of the transfers even if the journal fails - see awaitDurable().
+	 * @param payments Payment requests. None of them can be null.
+	 * @return Results of the requests, in the same order as the requests. Never null.
+	 * @throws UnsupportedAccountNumberException if the account store doesn't support number of any account.
+	 * No payment of the batch is made then.
+	 */
+	public List<PaymentResult> newPaymentsNoWait(@NonNull final List<PaymentRequest> payments) {
+		// All checked up front, so the batch is rejected as a whole rather than half-way.
+		payments.forEach(this::checkAccounts);
+		final List<PaymentResult> results = engine.transfer(payments);
+		for (int i = 0; i < results.size(); i++) {
+			changed(payments.get(i), results.get(i));
+			count(results.get(i));
 		}
+		return results;
+	}
 
-		final long currentBalance = sourceBalance.get();
-		final long updatedBalance = sourceBalance.updateAndGet(balance -> balance >= amount ? balance - amount : balance);
-
-		final PaymentResultBuilder resultBuilder = PaymentResult.builder()
-				.accountNumber(payment.getSourceAccount())
-				.balance(BigDecimalUtils.toPrice(updatedBalance));
+	/**
+	 * Blocks until all transfers made so far are durable in the journal.
+	 * @throws java.io.UncheckedIOException if the journal could not be written.
+	 */
+	public void awaitDurable() {
+		journal.awaitDurable(journal.position());
+	}
 
-		if (currentBalance == updatedBalance) {
-			return resultBuilder
-					.success(false)
-					.message(ErrorMessages.INSUFFICIENT_FUNDS_MESSAGE)
-					.build();
+	/**
+	 * Checks that the account store supports numbers of both accounts of the payment, so it can't fail half-way.
+	 * @param payment Payment request details.
+	 * @throws UnsupportedAccountNumberException if the account store doesn't support number of either account.
+	 */
+	public void checkAccounts(@NonNull final PaymentRequest payment) {
+		for (final String number : new String[] {payment.getSourceAccount(), payment.getTargetAccount()}) {
+			if (number != null && !accountDao.isSupported(number)) {
+				throw new UnsupportedAccountNumberException(String.format("Account number '%s' is not supported.", number));
+			}
 		}
+	}
+
+	/**
+	 * @return Number of successful payments.
+	 */
+	public long getSucceededCount() {
+		return succeeded.sum();
+	}
+
+	/**
+	 * @return Number of payments rejected because of insufficient funds.
+	 */
+	public long getInsufficientFundsCount() {
+		return insufficientFunds.sum();
+	}
 
-		targetBalance.addAndGet(amount);
+	/**
+	 * @return Number of payments rejected because of invalid amount.
+	 */
+	public long getInvalidAmountCount() {
+		return invalidAmount.sum();
+	}
 
-		return resultBuilder
-				.success(true)
-				.build();
+	private PaymentResult apply(final PaymentRequest payment) {
+		final PaymentResult result = engine.transfer(payment);
+		changed(payment, result);
+		count(result);
+		return result;
+	}
+
+	private void changed(final PaymentRequest payment, final PaymentResult result) {
+		if (Boolean.TRUE.equals(result.getSuccess())) {
+			versions.changed(payment.getSourceAccount());
+			versions.changed(payment.getTargetAccount());
+			changes.transferred(payment.getSourceAccount(), payment.getTargetAccount());
+		}
+	}
+
+	private void count(final PaymentResult result) {
+		if (Boolean.TRUE.equals(result.getSuccess())) {
+			succeeded.increment();
+		} else if (ErrorMessages.INSUFFICIENT_FUNDS_MESSAGE.equals(result.getMessage())) {
+			insufficientFunds.increment();
+		} else if (ErrorMessages.INVALID_AMOUNT_MESSAGE.equals(result.getMessage())) {
+			invalidAmount.increment();
+		}
 	}
 }
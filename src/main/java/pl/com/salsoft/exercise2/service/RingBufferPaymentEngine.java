@@ -0,0 +1,187 @@
+package pl.com.salsoft.exercise2.service;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import lombok.NonNull;
+import pl.com.salsoft.exercise2.dao.AccountDao;
+import pl.com.salsoft.exercise2.dao.Epochs;
+import pl.com.salsoft.exercise2.dao.Journal;
+import pl.com.salsoft.exercise2.model.Account;
+import pl.com.salsoft.exercise2.model.PaymentRequest;
+import pl.com.salsoft.exercise2.model.PaymentResult;
+
+/**
+ * Single-writer payment engine. Request threads put payments into a pre-allocated ring buffer
+ * and a single dedicated thread applies them to balances, one after another. Since nobody else changes balances,
+ * the writer thread uses plain reads and release stores instead of compare-and-set loops, so hot accounts
+ * don't make threads spin on contended cache lines. Request threads wait for their results (spinning shortly,
+ * then parking), and the writer wakes them up.
+ *
+ * The ring buffer is lock-free. Every slot has a sequence number, telling whether the slot is free
+ * for given position, published by the request thread, or processed by the writer. Positions are claimed
+ * with a single atomic increment. If the ring is full, request threads wait for a free slot.
+ *
+ * All payments have to go through the same engine instance. Mixing it with other engines on the same accounts
+ * would lose updates.
+ */
+public class RingBufferPaymentEngine extends AbstractPaymentEngine implements Closeable {
+	private static final int SPINS = 200;
+	private static final int MAX_PAYMENTS_PER_SCOPE = 1024;
+
+	private final Slot[] slots;
+	private final int mask;
+	private final AtomicLong claimed = new AtomicLong();
+	private final Thread writer;
+	private volatile boolean running = true;
+	private volatile boolean writerParked;
+
+	/**
+	 * Creates the engine and starts its writer thread.
+	 * @param accountDao Account DAO to use. Cannot be null.
+	 * @param journal Journal to record transfers in. Cannot be null.
+	 * @param size Number of slots in the ring buffer. Has to be a power of 2, at least 4.
+	 */
+	public RingBufferPaymentEngine(@NonNull final AccountDao accountDao, @NonNull final Journal journal, final int size) {
+		super(accountDao, journal);
+		if (size < 4 || Integer.bitCount(size) != 1) {
+			throw new IllegalArgumentException("Ring buffer size has to be a power of 2, at least 4.");
+		}
+		slots = new Slot[size];
+		for (int i = 0; i < size; i++) {
+			slots[i] = new Slot(i);
+		}
+		mask = size - 1;
+		writer = new Thread(this::run, "payment-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Stops the writer thread. Payments waiting in the ring buffer are not processed.
+	 */
+	@Override
+	public void close() {
+		running = false;
+		LockSupport.unpark(writer);
+		try {
+			writer.join();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public PaymentResult transfer(@NonNull final PaymentRequest payment) {
+		final long position = claimed.getAndIncrement();
+		final Slot slot = slots[(int) position & mask];
+		while (slot.sequence != position) {
+			// Ring is full - the slot still belongs to a payment from the previous lap.
+			Thread.yield();
+		}
+		slot.request = payment;
+		slot.waiter = Thread.currentThread();
+		slot.sequence = position + 1;
+		if (writerParked) {
+			LockSupport.unpark(writer);
+		}
+
+		int spins = 0;
+		while (slot.sequence != position + 2) {
+			if (++spins < SPINS) {
+				Thread.onSpinWait();
+			} else {
+				LockSupport.park(this);
+			}
+		}
+		final PaymentResult result = slot.result;
+		final RuntimeException error = slot.error;
+		slot.request = null;
+		slot.result = null;
+		slot.error = null;
+		slot.waiter = null;
+		slot.sequence = position + slots.length;
+		if (error != null) {
+			throw error;
+		}
+		return result;
+	}
+
+	@Override
+	protected long deposit(final Epochs.Scope scope, final Account account, final long amount) {
+		return scope.depositExclusive(account, amount);
+	}
+
+	@Override
+	protected long withdraw(final Epochs.Scope scope, final Account account, final long amount) {
+		return scope.withdrawExclusive(account, amount);
+	}
+
+	private void run() {
+		long next = 0;
+		while (running) {
+			if (!isPublished(next)) {
+				awaitPublished(next);
+				continue;
+			}
+			// Payments already waiting are applied in one epoch scope, but not too many,
+			// so a consistent cut doesn't wait long for the scope to close.
+			try (Epochs.Scope scope = epochs.enter()) {
+				int applied = 0;
+				do {
+					apply(slots[(int) next & mask], next, scope);
+					next++;
+				} while (++applied < MAX_PAYMENTS_PER_SCOPE && isPublished(next));
+			}
+		}
+	}
+
+	private void apply(final Slot slot, final long position, final Epochs.Scope scope) {
+		try {
+			slot.result = transfer(slot.request, scope);
+		} catch (final RuntimeException e) {
+			slot.error = e;
+		}
+		// The waiter may reuse the slot as soon as it sees the new sequence, so it's read before.
+		final Thread waiter = slot.waiter;
+		slot.sequence = position + 2;
+		LockSupport.unpark(waiter);
+	}
+
+	private void awaitPublished(final long position) {
+		for (int spins = 0; spins < SPINS; spins++) {
+			if (isPublished(position)) {
+				return;
+			}
+			Thread.onSpinWait();
+		}
+		writerParked = true;
+		// Checked again after the flag is set, so a payment published in the meantime is not missed.
+		if (running && !isPublished(position)) {
+			LockSupport.park(this);
+		}
+		writerParked = false;
+	}
+
+	private boolean isPublished(final long position) {
+		return slots[(int) position & mask].sequence == position + 1;
+	}
+
+	/**
+	 * Single slot of the ring buffer. The sequence is the position the slot is free for, position + 1
+	 * once a payment is published, and position + 2 once it's processed. Other fields are published
+	 * by writes to the volatile sequence.
+	 */
+	private static final class Slot {
+		private volatile long sequence;
+		private PaymentRequest request;
+		private PaymentResult result;
+		private RuntimeException error;
+		private Thread waiter;
+
+		private Slot(final long sequence) {
+			this.sequence = sequence;
+		}
+	}
+}
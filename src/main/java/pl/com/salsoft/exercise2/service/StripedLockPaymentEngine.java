@@ -0,0 +1,87 @@
+package pl.com.salsoft.exercise2.service;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import lombok.NonNull;
+import pl.com.salsoft.exercise2.dao.AccountDao;
+import pl.com.salsoft.exercise2.dao.Epochs;
+import pl.com.salsoft.exercise2.dao.Journal;
+import pl.com.salsoft.exercise2.model.Account;
+import pl.com.salsoft.exercise2.model.PaymentRequest;
+import pl.com.salsoft.exercise2.model.PaymentResult;
+
+/**
+ * Payment engine making every transfer atomic with striped locks. Account numbers are hashed into a fixed number
+ * of stripes, each guarded by its own lock. A transfer takes locks of both accounts (always the lower stripe first,
+ * so transfers in opposite directions can't deadlock), looks the accounts up and changes both balances
+ * with plain stores. Deletion takes the lock of its account, so it never happens in the middle of a transfer
+ * and a transfer never deposits money to an account which is already deleted.
+ *
+ * All payments and deletions have to go through the same engine instance.
+ */
+public class StripedLockPaymentEngine extends AbstractPaymentEngine {
+	private static final int STRIPES = 4096;
+
+	private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+
+	/**
+	 * Creates engine with account DAO and journal injected.
+	 * @param accountDao Account DAO to use. Cannot be null.
+	 * @param journal Journal to record transfers in. Cannot be null.
+	 */
+	public StripedLockPaymentEngine(@NonNull final AccountDao accountDao, @NonNull final Journal journal) {
+		super(accountDao, journal);
+		for (int i = 0; i < STRIPES; i++) {
+			locks[i] = new ReentrantLock();
+		}
+	}
+
+	@Override
+	public boolean delete(@NonNull final String number) {
+		final ReentrantLock lock = locks[stripe(number)];
+		final boolean deleted;
+		lock.lock();
+		try {
+			deleted = accountDao.deleteNoWait(number);
+		} finally {
+			lock.unlock();
+		}
+		if (deleted) {
+			// Not waiting for the disk and running transfers under the lock.
+			accountDao.completeDeletions();
+		}
+		return deleted;
+	}
+
+	@Override
+	public PaymentResult transfer(@NonNull final PaymentRequest payment) {
+		final int sourceStripe = stripe(payment.getSourceAccount());
+		final int targetStripe = stripe(payment.getTargetAccount());
+		final ReentrantLock first = locks[Math.min(sourceStripe, targetStripe)];
+		final ReentrantLock second = locks[Math.max(sourceStripe, targetStripe)];
+		first.lock();
+		second.lock();
+		try (Epochs.Scope scope = epochs.enter()) {
+			// Accounts are looked up under the locks, so none of them can be deleted until the transfer is done.
+			return transfer(payment, scope);
+		} finally {
+			second.unlock();
+			first.unlock();
+		}
+	}
+
+	@Override
+	protected long deposit(final Epochs.Scope scope, final Account account, final long amount) {
+		return scope.depositExclusive(account, amount);
+	}
+
+	@Override
+	protected long withdraw(final Epochs.Scope scope, final Account account, final long amount) {
+		return scope.withdrawExclusive(account, amount);
+	}
+
+	private static int stripe(final String number) {
+		final int hash = number.hashCode();
+		return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+	}
+}
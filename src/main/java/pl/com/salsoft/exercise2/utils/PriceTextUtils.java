@@ -0,0 +1,187 @@
+package pl.com.salsoft.exercise2.utils;
+
+import lombok.NonNull;
+
+/**
+ * Conversions between decimal text of prices and their long representation (value multiplied by 100),
+ * done directly on characters, without creating any BigDecimal or String.
+ * Unlike BigDecimalUtils (which is the reference implementation), values are never rounded - text with more
+ * than two significant decimal places, or out of long range, is rejected.
+ */
+public class PriceTextUtils {
+	/**
+	 * Maximum number of characters written by toPrice().
+	 */
+	public static final int MAX_PRICE_LENGTH = 21;
+
+	private static final long[] POWERS_OF_TEN = {1L, 10L, 100L};
+
+	/**
+	 * Parses JSON number text (optional minus sign, digits, optional fraction and exponent) to long representation.
+	 * @param text Characters to parse.
+	 * @param offset Index of the first character.
+	 * @param length Number of characters.
+	 * @return Long representation of the value.
+	 * @throws NumberFormatException if the text is not a number, has more than two significant decimal places
+	 * or is out of long range.
+	 */
+	public static long fromPrice(@NonNull final char[] text, final int offset, final int length) {
+		final int end = offset + length;
+		int index = offset;
+		final boolean negative = index < end && text[index] == '-';
+		if (negative) {
+			index++;
+		}
+
+		// Digits are accumulated as a negative value, so Long.MIN_VALUE can be represented too.
+		long unscaled = 0;
+		int scale = 0;
+		int digits = 0;
+		boolean fraction = false;
+		for (; index < end; index++) {
+			final char c = text[index];
+			if (c == '.' && !fraction) {
+				fraction = true;
+				continue;
+			}
+			if (c < '0' || c > '9') {
+				break;
+			}
+			if (unscaled < Long.MIN_VALUE / 10 || unscaled * 10 < Long.MIN_VALUE + (c - '0')) {
+				throw outOfRange();
+			}
+			unscaled = unscaled * 10 - (c - '0');
+			digits++;
+			if (fraction) {
+				scale++;
+			}
+		}
+		if (digits == 0) {
+			throw invalid();
+		}
+
+		if (index < end) {
+			if (text[index] != 'e' && text[index] != 'E') {
+				throw invalid();
+			}
+			scale -= parseExponent(text, index + 1, end);
+		}
+
+		// Trailing zeros don't count as decimal places (1.250 is 1.25).
+		while (scale > 2 && unscaled % 10 == 0) {
+			unscaled /= 10;
+			scale--;
+		}
+		if (scale > 2) {
+			throw new NumberFormatException("Price has more than 2 decimal places.");
+		}
+		while (scale < 0 && unscaled != 0) {
+			if (unscaled < Long.MIN_VALUE / 10) {
+				throw outOfRange();
+			}
+			unscaled *= 10;
+			scale++;
+		}
+		final long multiplier = POWERS_OF_TEN[2 - Math.max(scale, 0)];
+		if (unscaled < Long.MIN_VALUE / multiplier) {
+			throw outOfRange();
+		}
+		unscaled *= multiplier;
+		if (!negative) {
+			if (unscaled == Long.MIN_VALUE) {
+				throw outOfRange();
+			}
+			return -unscaled;
+		}
+		return unscaled;
+	}
+
+	/**
+	 * Parses price text to long representation. See fromPrice(char[], int, int).
+	 * @param text Text to parse.
+	 * @return Long representation of the value.
+	 * @throws NumberFormatException if the text is not a valid price.
+	 */
+	public static long fromPrice(@NonNull final CharSequence text) {
+		final char[] chars = new char[text.length()];
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = text.charAt(i);
+		}
+		return fromPrice(chars, 0, chars.length);
+	}
+
+	/**
+	 * Writes long representation as decimal text with exactly two decimal places (like BigDecimalUtils.toPrice()).
+	 * @param value Long value to write.
+	 * @param buffer Buffer to write to. Needs at least MAX_PRICE_LENGTH characters after the offset.
+	 * @param offset Index of the first character to write.
+	 * @return Index right after the last written character.
+	 */
+	public static int toPrice(final long value, @NonNull final char[] buffer, final int offset) {
+		int index = offset;
+		if (value < 0) {
+			buffer[index++] = '-';
+		}
+		// Working on negative values, so Long.MIN_VALUE doesn't overflow.
+		long rest = value < 0 ? value : -value;
+		final int cents = (int) -(rest % 100);
+		rest /= 100;
+
+		int digits = 1;
+		for (long limit = rest / 10; limit != 0; limit /= 10) {
+			digits++;
+		}
+		for (int i = index + digits - 1; i >= index; i--) {
+			buffer[i] = (char) ('0' - rest % 10);
+			rest /= 10;
+		}
+		index += digits;
+		buffer[index++] = '.';
+		buffer[index++] = (char) ('0' + cents / 10);
+		buffer[index++] = (char) ('0' + cents % 10);
+		return index;
+	}
+
+	/**
+	 * Formats long representation as decimal text. See toPrice(long, char[], int).
+	 * @param value Long value to format.
+	 * @return Decimal text with two decimal places. Never null.
+	 */
+	public static String toPrice(final long value) {
+		final char[] buffer = new char[MAX_PRICE_LENGTH];
+		return new String(buffer, 0, toPrice(value, buffer, 0));
+	}
+
+	private static int parseExponent(final char[] text, final int start, final int end) {
+		int index = start;
+		boolean negative = false;
+		if (index < end && (text[index] == '-' || text[index] == '+')) {
+			negative = text[index] == '-';
+			index++;
+		}
+		if (index == end) {
+			throw invalid();
+		}
+		int exponent = 0;
+		for (; index < end; index++) {
+			final char c = text[index];
+			if (c < '0' || c > '9') {
+				throw invalid();
+			}
+			// Any exponent this large makes the value either out of range or too precise.
+			if (exponent > 1000) {
+				throw outOfRange();
+			}
+			exponent = exponent * 10 + (c - '0');
+		}
+		return negative ? -exponent : exponent;
+	}
+
+	private static NumberFormatException invalid() {
+		return new NumberFormatException("Price is not a valid number.");
+	}
+
+	private static NumberFormatException outOfRange() {
+		return new NumberFormatException("Price is out of range.");
+	}
+}
@@ -0,0 +1,219 @@
+package pl.com.salsoft.exercise2.binary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import pl.com.salsoft.exercise2.dao.AccountDao;
+import pl.com.salsoft.exercise2.model.Account;
+import pl.com.salsoft.exercise2.model.PaymentRequest;
+import pl.com.salsoft.exercise2.model.PaymentResult;
+import pl.com.salsoft.exercise2.rest.ErrorMessages;
+import pl.com.salsoft.exercise2.service.AccountService;
+import pl.com.salsoft.exercise2.service.PaymentService;
+
+public class BinaryServerTest {
+	private static final long DEFAULT_BALANCE = 10000;
+
+	private AccountDao accountDao;
+	private BinaryServer server;
+	private BinaryClient client;
+
+	@Before
+	public void setUp() {
+		accountDao = new AccountDao(DEFAULT_BALANCE);
+		server = new BinaryServer(new PaymentService(accountDao), new AccountService(accountDao), 0, 4);
+		server.init();
+		client = new BinaryClient("localhost", server.getPort());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		client.close();
+		server.close();
+	}
+
+	@Test
+	public void testPayment() {
+		// Given
+		// Nothing
+
+		// When
+		final PaymentResult success = client.newPayment(111, 222, 6000);
+		final PaymentResult insufficient = client.newPayment(111, 222, 6000);
+		final PaymentResult invalid = client.newPayment(111, 222, 0);
+
+		// Then
+		assertTrue(success.getSuccess());
+		assertEquals("111", success.getAccountNumber());
+		assertEquals(new BigDecimal("40.00"), success.getBalance());
+		assertFalse(insufficient.getSuccess());
+		assertEquals(ErrorMessages.INSUFFICIENT_FUNDS_MESSAGE, insufficient.getMessage());
+		assertEquals(ErrorMessages.INVALID_AMOUNT_MESSAGE, invalid.getMessage());
+		assertEquals(16000, accountDao.get("222").orElseThrow().readBalance());
+	}
+
+	@Test
+	public void testGetAccount() {
+		// Given
+		client.newPayment(111, 222, 2550);
+
+		// When
+		final Optional<Account> account = client.getAccount(222);
+		final Optional<Account> missing = client.getAccount(333);
+
+		// Then
+		assertEquals("222", account.orElseThrow().getNumber());
+		assertEquals(12550, account.orElseThrow().readBalance());
+		assertTrue(missing.isEmpty());
+	}
+
+	@Test
+	public void testPipelinedPayments() {
+		// Given
+		final int accounts = 100;
+		final int payments = 2000;
+		final List<PaymentRequest> requests = new ArrayList<>();
+		for (int i = 0; i < payments; i++) {
+			requests.add(PaymentRequest.builder()
+					.sourceAccount(Integer.toString(i % accounts))
+					.targetAccount(Integer.toString((i * 7 + 3) % accounts))
+					.amount(i % 500 + 1)
+					.build());
+		}
+
+		// When
+		final List<PaymentResult> results = client.newPayments(requests);
+
+		// Then
+		assertEquals(payments, results.size());
+		for (int i = 0; i < payments; i++) {
+			assertEquals(requests.get(i).getSourceAccount(), results.get(i).getAccountNumber());
+		}
+		final long total = accountDao.getAll().stream().mapToLong(Account::readBalance).sum();
+		assertEquals(accounts * DEFAULT_BALANCE, total);
+	}
+
+	@Test
+	public void testUnknownOperation() throws Exception {
+		// Given
+		try (Socket socket = new Socket("localhost", server.getPort())) {
+			final DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+			final DataInputStream input = new DataInputStream(socket.getInputStream());
+
+			// When
+			output.writeInt(BinaryProtocol.HEADER_LENGTH - 4 + 2);
+			output.writeByte(99);
+			output.writeInt(7);
+			output.writeShort(0);
+			output.writeInt(BinaryProtocol.HEADER_LENGTH - 4 + BinaryProtocol.GET_ACCOUNT_LENGTH);
+			output.writeByte(BinaryProtocol.GET_ACCOUNT);
+			output.writeInt(8);
+			output.writeLong(333);
+			output.flush();
+
+			// Then
+			assertEquals(BinaryProtocol.HEADER_LENGTH - 4, input.readInt());
+			assertEquals(BinaryProtocol.ERROR, input.readByte());
+			assertEquals(7, input.readInt());
+			// Connection still works after the error.
+			assertEquals(BinaryProtocol.HEADER_LENGTH - 4, input.readInt());
+			assertEquals(BinaryProtocol.NOT_FOUND, input.readByte());
+			assertEquals(8, input.readInt());
+		}
+	}
+
+	/**
+	 * A client pipelining requests without reading responses has to be stopped by the server
+	 * rather than buffering all the responses. Once the client reads, all requests are answered.
+	 */
+	@Test
+	public void testClientNotReadingResponsesIsThrottled() throws Exception {
+		// Given
+		client.newPayment(111, 222, 1);
+		final int frameLength = BinaryProtocol.HEADER_LENGTH + BinaryProtocol.GET_ACCOUNT_LENGTH;
+		final int limit = 64 * 1024 * 1024;
+		final ByteBuffer frames = ByteBuffer.allocate(1024 * frameLength);
+		for (int i = 0; i < 1024; i++) {
+			BinaryProtocol.writeHeader(frames, BinaryProtocol.GET_ACCOUNT_LENGTH, BinaryProtocol.GET_ACCOUNT, i);
+			frames.putLong(222);
+		}
+		try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", server.getPort()))) {
+			channel.configureBlocking(false);
+			long sent = 0;
+			long lastProgress = System.nanoTime();
+
+			// When
+			while (sent < limit && System.nanoTime() - lastProgress < TimeUnit.MILLISECONDS.toNanos(500)) {
+				if (!frames.hasRemaining()) {
+					frames.rewind();
+				}
+				final int written = channel.write(frames);
+				if (written > 0) {
+					sent += written;
+					lastProgress = System.nanoTime();
+				} else {
+					Thread.sleep(1);
+				}
+			}
+
+			// Then
+			assertTrue("Server kept reading: " + sent, sent < limit);
+			final long requests = (sent + frames.remaining()) / frameLength;
+			channel.configureBlocking(true);
+			// The last frame can be finished only once the server reads again, i.e. while responses are read.
+			final CompletableFuture<Void> lastFrame = CompletableFuture.runAsync(() -> {
+				try {
+					while (frames.hasRemaining()) {
+						channel.write(frames);
+					}
+				} catch (final IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+			final long expected = requests * (BinaryProtocol.HEADER_LENGTH + BinaryProtocol.ACCOUNT_LENGTH);
+			final ByteBuffer responses = ByteBuffer.allocate(64 * 1024);
+			long received = 0;
+			while (received < expected && channel.read(responses) >= 0) {
+				received += responses.position();
+				responses.clear();
+			}
+			lastFrame.join();
+			assertEquals(expected, received);
+		}
+	}
+
+	@Test
+	public void testInvalidFrameClosesConnection() throws Exception {
+		// Given
+		try (Socket socket = new Socket("localhost", server.getPort())) {
+			final DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+
+			// When
+			output.writeInt(BinaryProtocol.MAX_FRAME_LENGTH + 1);
+			output.flush();
+
+			// Then
+			assertEquals(-1, socket.getInputStream().read());
+		}
+	}
+}
@@ -5,6 +5,16 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -12,9 +22,13 @@ import org.junit.Before;
 import org.junit.Test;
 
 import pl.com.salsoft.exercise2.model.Account;
+import pl.com.salsoft.exercise2.model.PaymentRequest;
+import pl.com.salsoft.exercise2.service.PaymentService;
 
 public class AccountDaoTest {
 	private static final long DEFAULT_BALANCE = 10000;
+	// Enough for accounts to be created all the time payments run.
+	private static final int PAYMENT_ACCOUNTS = 100_000;
 	private AccountDao dao;
 
 	@Before
@@ -91,6 +105,21 @@ public class AccountDaoTest {
 		assertEquals(accounts, allAccounts);
 	}
 
+	@Test
+	public void testGetAllConsistentDuringPayments() throws Exception {
+		// Given
+		final PaymentService paymentService = new PaymentService(dao);
+
+		// When
+		final long cuts = runPaymentsWithCuts(paymentService, 200);
+
+		// Then
+		// Every account was created with the default balance and transfers only move money between accounts.
+		final var allAccounts = dao.getAll();
+		assertEquals(DEFAULT_BALANCE * allAccounts.size(), allAccounts.stream().mapToLong(Account::readBalance).sum());
+		assertTrue(cuts > 0);
+	}
+
 	@Test
 	public void testGetAllEmpty() {
 		// Given
@@ -165,4 +194,70 @@ public class AccountDaoTest {
 		// Then
 		assertTrue(foundAccount.isPresent());
 	}
+
+	@Test
+	public void testVersions() {
+		// Given
+		final AccountVersions versions = dao.getVersions();
+		final PaymentService paymentService = new PaymentService(dao);
+		final long created = versions.global();
+		dao.getOrCreate("111");
+		final long existing = versions.global();
+		dao.getOrCreate("111");
+		final long beforePayment = versions.of("111");
+		paymentService.newPayment(PaymentRequest.builder()
+				.sourceAccount("111")
+				.targetAccount("222")
+				.amount(new BigDecimal("1.00"))
+				.build());
+		final long beforeDelete = versions.of("111");
+
+		// When
+		dao.delete("111");
+
+		// Then
+		assertTrue(existing > created);
+		assertEquals(existing, versions.global() - 4);
+		assertTrue(beforeDelete > beforePayment);
+		assertTrue(versions.of("111") > beforeDelete);
+	}
+
+	/**
+	 * Runs payments on several threads while another one keeps checking consistent cuts.
+	 * @return Number of cuts checked.
+	 */
+	private long runPaymentsWithCuts(final PaymentService paymentService, final long millis) throws Exception {
+		final int threads = 4;
+		final ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final LongAdder cuts = new LongAdder();
+		final List<Future<?>> futures = new ArrayList<>();
+		for (int thread = 0; thread < threads; thread++) {
+			futures.add(executor.submit(() -> {
+				final ThreadLocalRandom random = ThreadLocalRandom.current();
+				while (running.get()) {
+					paymentService.newPayment(PaymentRequest.builder()
+							.sourceAccount("" + random.nextInt(PAYMENT_ACCOUNTS))
+							.targetAccount("" + random.nextInt(PAYMENT_ACCOUNTS))
+							.amount(new BigDecimal(random.nextInt(1, 5000)).movePointLeft(2))
+							.build());
+				}
+			}));
+		}
+		futures.add(executor.submit(() -> {
+			while (running.get()) {
+				final var accounts = dao.getAll();
+				assertEquals(DEFAULT_BALANCE * accounts.size(), accounts.stream().mapToLong(Account::readBalance).sum());
+				cuts.increment();
+			}
+		}));
+		Thread.sleep(millis);
+		running.set(false);
+		for (final Future<?> future : futures) {
+			future.get();
+		}
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.MINUTES);
+		return cuts.sum();
+	}
 }
@@ -0,0 +1,145 @@
+package pl.com.salsoft.exercise2.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import pl.com.salsoft.exercise2.model.PaymentRequest;
+import pl.com.salsoft.exercise2.service.PaymentService;
+
+public class ChangeFeedTest {
+	private static final int THREADS = 8;
+	private static final int TRANSFERS_PER_THREAD = 100_000;
+	private static final int ACCOUNTS = 1000;
+	private static final int PAYMENTS = 10_000;
+
+	@Test
+	public void testChangesInOrder() {
+		// Given
+		final ChangeFeed feed = new ChangeFeed(16);
+		final long head = feed.head();
+		final List<String> changes = new ArrayList<>();
+
+		// When
+		feed.created("111");
+		feed.transferred("111", "222");
+		feed.deleted("222");
+		final long last = feed.read(head, 10,
+				(sequence, type, number) -> changes.add((sequence - head) + " " + type + " " + number));
+
+		// Then
+		assertEquals(head + 4, last);
+		assertEquals(head + 4, feed.head());
+		assertEquals(List.of("1 CREATED 111", "2 UPDATED 111", "3 UPDATED 222", "4 DELETED 222"), changes);
+		assertEquals(head + 2, feed.read(head, 2, (sequence, type, number) -> { }));
+		assertEquals(last, feed.read(last, 10, (sequence, type, number) -> { }));
+	}
+
+	@Test
+	public void testReaderTooFarBehind() {
+		// Given
+		final ChangeFeed feed = new ChangeFeed(4);
+		final long head = feed.head();
+
+		// When
+		for (int i = 0; i < 10; i++) {
+			feed.created(Integer.toString(i));
+		}
+
+		// Then
+		assertEquals(ChangeFeed.BEHIND, feed.read(head, 10, (sequence, type, number) -> { }));
+		assertEquals(ChangeFeed.BEHIND, feed.read(head + 5, 10, (sequence, type, number) -> { }));
+		assertEquals(head + 10, feed.read(head + 6, 10, (sequence, type, number) -> { }));
+		// Sequence numbers of another run of the application.
+		assertEquals(ChangeFeed.BEHIND, feed.read(feed.head() + 1, 10, (sequence, type, number) -> { }));
+		assertEquals(ChangeFeed.BEHIND, feed.read(0, 10, (sequence, type, number) -> { }));
+		assertEquals(ChangeFeed.BEHIND, ChangeFeed.NONE.read(ChangeFeed.NONE.head(), 10, (sequence, type, number) -> { }));
+	}
+
+	@Test
+	public void testConcurrentWritersWithReader() throws Exception {
+		// Given
+		final ChangeFeed feed = new ChangeFeed(THREADS * TRANSFERS_PER_THREAD * 2);
+		final long head = feed.head();
+		final AtomicBoolean writing = new AtomicBoolean(true);
+		final long[] read = new long[2];
+		final Thread reader = new Thread(() -> {
+			long position = head;
+			while (writing.get() || position < feed.head()) {
+				position = feed.read(position, 1000, (sequence, type, number) -> {
+					// Every change exactly once, in order.
+					assertEquals(head + read[0] + 1, sequence);
+					read[0]++;
+				});
+				assertTrue(position != ChangeFeed.BEHIND);
+			}
+			read[1] = position;
+		});
+		reader.start();
+
+		// When
+		final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		final List<Future<?>> futures = new ArrayList<>();
+		for (int t = 0; t < THREADS; t++) {
+			final String number = Integer.toString(t);
+			futures.add(executor.submit(() -> {
+				for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+					feed.transferred(number, "x");
+				}
+			}));
+		}
+		for (final Future<?> future : futures) {
+			future.get();
+		}
+		executor.shutdown();
+		writing.set(false);
+		reader.join();
+
+		// Then
+		assertEquals(THREADS * TRANSFERS_PER_THREAD * 2, read[0]);
+		assertEquals(feed.head(), read[1]);
+	}
+
+	@Test
+	public void testPaymentsRecordedInFeed() {
+		// Given
+		final AccountDao accountDao = new AccountDao(new MapAccountStore(Long.MAX_VALUE / 4), Journal.NONE,
+				TransactionHistory.NONE, new ChangeFeed(PAYMENTS * 2));
+		final PaymentService paymentService = new PaymentService(accountDao);
+		for (int i = 0; i < ACCOUNTS; i++) {
+			accountDao.getOrCreate(Integer.toString(i));
+		}
+		final long head = accountDao.getChanges().head();
+		final List<PaymentRequest> payments = new ArrayList<>();
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (int i = 0; i < PAYMENTS; i++) {
+			final int source = random.nextInt(ACCOUNTS);
+			payments.add(new PaymentRequest(Integer.toString(source),
+					Integer.toString((source + 1 + random.nextInt(ACCOUNTS - 1)) % ACCOUNTS), 1 + random.nextInt(100)));
+		}
+
+		// When
+		for (final PaymentRequest payment : payments) {
+			paymentService.newPayment(payment);
+		}
+
+		// Then
+		final List<String> changes = new ArrayList<>();
+		final long last = accountDao.getChanges().read(head, PAYMENTS * 2,
+				(sequence, type, number) -> changes.add(type + " " + number));
+		assertEquals(head + PAYMENTS * 2, last);
+		for (int i = 0; i < PAYMENTS; i++) {
+			assertEquals("UPDATED " + payments.get(i).getSourceAccount(), changes.get(i * 2));
+			assertEquals("UPDATED " + payments.get(i).getTargetAccount(), changes.get(i * 2 + 1));
+		}
+	}
+}
@@ -0,0 +1,252 @@
+package pl.com.salsoft.exercise2.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import pl.com.salsoft.exercise2.model.Account;
+import pl.com.salsoft.exercise2.model.PaymentRequest;
+import pl.com.salsoft.exercise2.model.PaymentResult;
+import pl.com.salsoft.exercise2.service.PaymentService;
+
+public class CompactAccountStoreTest {
+	private static final long DEFAULT_BALANCE = 10000;
+	private CompactAccountStore store;
+
+	@Before
+	public void beforeTest() {
+		store = new CompactAccountStore(DEFAULT_BALANCE);
+	}
+
+	@Test
+	public void testForEachAndPage() {
+		// Given
+		IntStream.range(0, 1000).forEach(number -> store.getOrCreate("" + number));
+		store.delete("500");
+
+		// When
+		final List<String> visited = new ArrayList<>();
+		store.forEach(account -> visited.add(account.getNumber()));
+		final List<String> paged = new ArrayList<>();
+		String after = null;
+		List<Account> page;
+		while (!(page = store.page(after, 100)).isEmpty()) {
+			page.forEach(account -> paged.add(account.getNumber()));
+			after = page.get(page.size() - 1).getNumber();
+		}
+
+		// Then
+		final List<String> expected = IntStream.range(0, 1000)
+				.filter(number -> number != 500)
+				.mapToObj(number -> "" + number)
+				.sorted()
+				.collect(Collectors.toList());
+		assertEquals(expected, visited.stream().sorted().collect(Collectors.toList()));
+		assertEquals(expected, paged);
+	}
+
+	@Test
+	public void testConcurrentTransfersConserveMoney() throws Exception {
+		// Given
+		final int accounts = 100;
+		final int threads = 8;
+		final PaymentService paymentService = new PaymentService(new AccountDao(store));
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		final List<Future<?>> futures = new ArrayList<>();
+
+		// When
+		for (int thread = 0; thread < threads; thread++) {
+			final int seed = thread;
+			futures.add(executor.submit(() -> {
+				for (int i = 0; i < 20_000; i++) {
+					paymentService.newPayment(PaymentRequest.builder()
+							.sourceAccount("" + (i * 7 + seed) % accounts)
+							.targetAccount("" + (i * 13 + seed * 3) % accounts)
+							.amount(new BigDecimal("1.17"))
+							.build());
+				}
+			}));
+		}
+		for (final Future<?> future : futures) {
+			future.get();
+		}
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.MINUTES);
+
+		// Then
+		final long total = store.getAll().stream().mapToLong(Account::readBalance).sum();
+		assertEquals(accounts, store.getAll().size());
+		assertEquals(accounts * DEFAULT_BALANCE, total);
+		assertTrue(store.getAll().stream().allMatch(account -> account.readBalance() >= 0));
+	}
+
+	@Test
+	public void testDefaultBalance() {
+		// Given
+		final String number = "1234567890";
+
+		// When
+		final long balance = store.getOrCreate(number).readBalance();
+
+		// Then
+		assertEquals(DEFAULT_BALANCE, balance);
+	}
+
+	@Test
+	public void testDelete() {
+		// Given
+		final String number = "1234567890";
+		final Account account = store.getOrCreate(number);
+		account.deposit(500);
+
+		// When
+		final boolean result1 = store.delete(number);
+		final boolean result2 = store.delete(number);
+		final Account recreated = store.getOrCreate(number);
+
+		// Then
+		assertTrue(result1);
+		assertFalse(result2);
+		assertEquals(DEFAULT_BALANCE, recreated.readBalance());
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void testGetError() {
+		// Given
+		// Nothing
+
+		// When
+		store.get(null);
+
+		// Then
+		// Exception is thrown
+	}
+
+	@Test
+	public void testEncodeDecodeKeepsLeadingZeros() {
+		// Given
+		final List<String> numbers = List.of("0", "00", "007", "7", "0000000001", "9999999999", "12345678901234567");
+
+		// When
+		final List<String> decoded = numbers.stream()
+				.map(CompactAccountStore::encode)
+				.map(CompactAccountStore::decode)
+				.collect(Collectors.toList());
+
+		// Then
+		assertEquals(numbers, decoded);
+		assertEquals(numbers.size(), numbers.stream().map(CompactAccountStore::encode).distinct().count());
+	}
+
+	@Test(expected = UnsupportedAccountNumberException.class)
+	public void testGetOrCreateNonNumeric() {
+		// Given
+		// Nothing
+
+		// When
+		store.getOrCreate("12a4");
+
+		// Then
+		// Exception is thrown
+	}
+
+	@Test
+	public void testUnsupportedNumbersAreMissing() {
+		for (final String number : List.of("abc", "", "123456789012345678", "-1")) {
+			// Given
+			store.getOrCreate("123");
+
+			// When
+			final boolean supported = store.isSupported(number);
+
+			// Then
+			assertFalse(supported);
+			assertFalse(store.get(number).isPresent());
+			assertFalse(store.delete(number));
+		}
+		assertTrue(store.isSupported("00000000000000001"));
+	}
+
+	@Test
+	public void testGetAll() {
+		// Given
+		final var accounts = IntStream.range(0, 10_000)
+				.boxed()
+				.map(number -> store.getOrCreate(String.format("%010d", number)))
+				.collect(Collectors.toSet());
+		store.delete("0000000042");
+
+		// When
+		final var allAccounts = store.getAll();
+
+		// Then
+		assertEquals(accounts.size() - 1, allAccounts.size());
+		assertTrue(accounts.containsAll(allAccounts));
+	}
+
+	@Test
+	public void testGetReadsCurrentBalance() {
+		// Given
+		final String number = "1234567890";
+		final Account created = store.getOrCreate(number);
+
+		// When
+		created.withdraw(2500);
+		final Account found = store.get(number).orElseThrow();
+
+		// Then
+		assertEquals(created, found);
+		assertEquals(DEFAULT_BALANCE - 2500, found.readBalance());
+		assertEquals(new BigDecimal("75.00"), found.getBalanceForJson());
+	}
+
+	@Test
+	public void testDeletedRecordsReusedOnlyOnceCompleted() {
+		// Given
+		final AccountDao accountDao = new AccountDao(store);
+		final List<Account> deleted = IntStream.range(0, 1000)
+				.mapToObj(number -> accountDao.getOrCreate("" + number))
+				.collect(Collectors.toList());
+		deleted.forEach(account -> accountDao.deleteNoWait(account.getNumber()));
+
+		// When
+		IntStream.range(1000, 1500).forEach(number -> accountDao.create("" + number, 7));
+		final long reusedBeforeCompleted = deleted.stream().filter(account -> account.readBalance() == 7).count();
+		accountDao.completeDeletions();
+		IntStream.range(1500, 2000).forEach(number -> accountDao.create("" + number, 7));
+		final long reusedAfterCompleted = deleted.stream().filter(account -> account.readBalance() == 7).count();
+
+		// Then
+		assertEquals(0, reusedBeforeCompleted);
+		assertTrue(reusedAfterCompleted > 0);
+		assertEquals(1000, store.size());
+		assertFalse(store.get("0").isPresent());
+		IntStream.range(1000, 2000).forEach(number -> assertEquals(7, store.get("" + number).orElseThrow().readBalance()));
+	}
+
+	@Test
+	public void testWithdrawInsufficientFunds() {
+		// Given
+		final Account account = store.getOrCreate("1");
+
+		// When
+		final long before = account.withdraw(DEFAULT_BALANCE + 1);
+
+		// Then
+		assertEquals(DEFAULT_BALANCE, before);
+		assertEquals(DEFAULT_BALANCE, account.readBalance());
+	}
+}
@@ -0,0 +1,225 @@
+package pl.com.salsoft.exercise2.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import pl.com.salsoft.exercise2.dao.FileJournal.Durability;
+import pl.com.salsoft.exercise2.model.PaymentRequest;
+import pl.com.salsoft.exercise2.service.PaymentService;
+
+public class FileJournalTest {
+	private static final long DEFAULT_BALANCE = 10000;
+	private static final long SEGMENT_SIZE = 1 << 20;
+	private static final Journal.Visitor IGNORE = new JournalReplayer(new MapAccountStore(0));
+	private Path directory;
+
+	@After
+	public void afterTest() throws IOException {
+		try (var files = Files.walk(directory)) {
+			for (final Path path : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(path);
+			}
+		}
+	}
+
+	@Before
+	public void beforeTest() throws IOException {
+		directory = Files.createTempDirectory("journal");
+	}
+
+	@Test
+	public void testDurabilityModesRecoverPayments() throws Exception {
+		// Given
+		final int threads = 4;
+		final int paymentsPerThread = 50;
+
+		for (final Durability durability : Durability.values()) {
+			final Path modeDirectory = Files.createDirectory(directory.resolve(durability.name()));
+			final FileJournal journal = FileJournal.open(modeDirectory, durability, SEGMENT_SIZE, 0, IGNORE);
+			final PaymentService paymentService = new PaymentService(
+					new AccountDao(new MapAccountStore(DEFAULT_BALANCE), journal), journal);
+
+			// When
+			runPayments(paymentService, threads, paymentsPerThread);
+			journal.close();
+
+			// Then
+			final MapAccountStore restored = new MapAccountStore(0);
+			FileJournal.open(modeDirectory, durability, SEGMENT_SIZE, 0, new JournalReplayer(restored)).close();
+			assertEquals(10 * DEFAULT_BALANCE, restored.getAll().stream().mapToLong(account -> account.readBalance()).sum());
+		}
+	}
+
+	@Test
+	public void testAwaitDurableBatched() throws Exception {
+		// Given
+		final FileJournal journal = FileJournal.open(directory, Durability.BATCHED, SEGMENT_SIZE, 0, IGNORE);
+
+		// When
+		final long position = journal.transferred("1", "2", 100);
+		journal.awaitDurable(position);
+
+		// Then
+		assertEquals(position, journal.durablePosition());
+		assertEquals(position, Files.size(segmentFile()));
+		journal.close();
+	}
+
+	@Test(timeout = 20_000)
+	public void testAppendsOfManyBuffersNotDurable() throws Exception {
+		// Given
+		// Appended faster than written, so the appender keeps waiting for the buffer to be swapped.
+		final int entries = 1_000_000;
+		final FileJournal journal = FileJournal.open(directory, Durability.NONE, 64 * SEGMENT_SIZE, 0, IGNORE);
+
+		// When
+		long position = 0;
+		for (int i = 0; i < entries; i++) {
+			position = journal.transferred("111", "222", 1);
+		}
+		journal.close();
+
+		// Then
+		final MapAccountStore restored = new MapAccountStore(DEFAULT_BALANCE);
+		final JournalReplayer replayer = new JournalReplayer(restored);
+		FileJournal.open(directory, Durability.NONE, 64 * SEGMENT_SIZE, 0, replayer).close();
+		assertEquals(entries, replayer.getEntries());
+		assertEquals(position, journal.durablePosition());
+	}
+
+	@Test
+	public void testReplayRestoresBalances() throws Exception {
+		// Given
+		final FileJournal journal = FileJournal.open(directory, Durability.BATCHED, SEGMENT_SIZE, 0, IGNORE);
+		final AccountDao accountDao = new AccountDao(new MapAccountStore(DEFAULT_BALANCE), journal);
+		final PaymentService paymentService = new PaymentService(accountDao, journal);
+		paymentService.newPayment(createRequest("111", "222", "12.34"));
+		paymentService.newPayment(createRequest("222", "333", "50.00"));
+		paymentService.newPayment(createRequest("333", "111", "1000.00"));
+		accountDao.delete("333");
+		journal.close();
+
+		// When
+		final MapAccountStore restored = new MapAccountStore(DEFAULT_BALANCE);
+		final JournalReplayer replayer = new JournalReplayer(restored);
+		FileJournal.open(directory, Durability.BATCHED, SEGMENT_SIZE, 0, replayer).close();
+
+		// Then
+		assertEquals(6, replayer.getEntries());
+		assertEquals(2, restored.getAll().size());
+		assertEquals(DEFAULT_BALANCE - 1234, restored.get("111").orElseThrow().readBalance());
+		assertEquals(DEFAULT_BALANCE + 1234 - 5000, restored.get("222").orElseThrow().readBalance());
+		assertFalse(restored.get("333").isPresent());
+	}
+
+	@Test
+	public void testTornEntryIsDiscarded() throws Exception {
+		// Given
+		final FileJournal journal = FileJournal.open(directory, Durability.PER_REQUEST, SEGMENT_SIZE, 0, IGNORE);
+		journal.created("111", DEFAULT_BALANCE);
+		final long validEnd = journal.transferred("111", "222", 100);
+		journal.transferred("111", "222", 200);
+		journal.close();
+		final Path file = segmentFile();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.truncate(Files.size(file) - 3);
+		}
+
+		// When
+		final MapAccountStore restored = new MapAccountStore(DEFAULT_BALANCE);
+		final FileJournal reopened = FileJournal.open(directory, Durability.PER_REQUEST, SEGMENT_SIZE, 0,
+				new JournalReplayer(restored));
+		final long position = reopened.position();
+		reopened.close();
+
+		// Then
+		assertEquals(validEnd, position);
+		assertEquals(validEnd, Files.size(file));
+		assertEquals(DEFAULT_BALANCE - 100, restored.get("111").orElseThrow().readBalance());
+		assertTrue(restored.get("222").isEmpty());
+	}
+
+	@Test
+	public void testSegmentsRollAndReplayFromPosition() throws Exception {
+		// Given
+		final FileJournal journal = FileJournal.open(directory, Durability.BATCHED, 100, 0, IGNORE);
+		journal.created("111", DEFAULT_BALANCE);
+		journal.created("222", DEFAULT_BALANCE);
+		long middle = 0;
+		for (int i = 0; i < 50; i++) {
+			journal.awaitDurable(journal.transferred("111", "222", 1));
+			if (i == 24) {
+				middle = journal.durablePosition();
+			}
+		}
+		journal.close();
+		final MapAccountStore restored = new MapAccountStore(DEFAULT_BALANCE);
+		restored.getOrCreate("111");
+		restored.getOrCreate("222");
+
+		// When
+		final long end = FileJournal.replay(directory, middle, Long.MAX_VALUE, new JournalReplayer(restored));
+
+		// Then
+		try (var files = Files.list(directory)) {
+			assertTrue(files.count() > 10);
+		}
+		final FileJournal reopened = FileJournal.open(directory, Durability.BATCHED, 100, end, IGNORE);
+		assertEquals(end, reopened.position());
+		reopened.close();
+		assertEquals(DEFAULT_BALANCE - 25, restored.get("111").orElseThrow().readBalance());
+		assertEquals(DEFAULT_BALANCE + 25, restored.get("222").orElseThrow().readBalance());
+	}
+
+	private static PaymentRequest createRequest(final String source, final String target, final String amount) {
+		return PaymentRequest.builder()
+				.sourceAccount(source)
+				.targetAccount(target)
+				.amount(new BigDecimal(amount))
+				.build();
+	}
+
+	private Path segmentFile() throws IOException {
+		try (var files = Files.list(directory)) {
+			return files.findFirst().orElseThrow();
+		}
+	}
+
+	private static void runPayments(final PaymentService paymentService, final int threads, final int paymentsPerThread)
+			throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		final List<Future<?>> futures = new ArrayList<>();
+		for (int thread = 0; thread < threads; thread++) {
+			final int seed = thread;
+			futures.add(executor.submit(() -> {
+				for (int i = 0; i < paymentsPerThread; i++) {
+					paymentService.newPayment(createRequest("" + (i + seed) % 10, "" + (i * 3 + seed) % 10, "0.01"));
+				}
+			}));
+		}
+		for (final Future<?> future : futures) {
+			future.get();
+		}
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.MINUTES);
+	}
+}
@@ -0,0 +1,374 @@
+package pl.com.salsoft.exercise2.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import pl.com.salsoft.exercise2.model.Account;
+import pl.com.salsoft.exercise2.model.PaymentRequest;
+import pl.com.salsoft.exercise2.service.PaymentService;
+
+public class MappedAccountStoreTest {
+	private static final long DEFAULT_BALANCE = 10000;
+	private static final long FIRST_NUMBER = 1_000_000_000L;
+	private static final int CRASHES = 5;
+	private static final int CRASH_WRITER_THREADS = 4;
+	private static final int STORE_ACCOUNTS = 10_000;
+	private Path directory;
+	private Path file;
+
+	@After
+	public void afterTest() throws IOException {
+		try (var files = Files.walk(directory)) {
+			for (final Path path : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(path);
+			}
+		}
+	}
+
+	@Before
+	public void beforeTest() throws IOException {
+		directory = Files.createTempDirectory("mapped");
+		file = directory.resolve("accounts.bin");
+	}
+
+	@Test
+	public void testReopen() throws IOException {
+		// Given
+		try (MappedAccountStore store = MappedAccountStore.open(file, DEFAULT_BALANCE)) {
+			final PaymentService paymentService = new PaymentService(new AccountDao(store));
+			paymentService.newPayment(createRequest("111", "222", "10.00"));
+			paymentService.newPayment(createRequest("222", "333", "5.00"));
+			store.delete("333");
+			store.getOrCreate("0444");
+		}
+
+		// When
+		final Map<String, Long> balances;
+		final long version;
+		try (MappedAccountStore store = MappedAccountStore.open(file, DEFAULT_BALANCE)) {
+			balances = store.getAll().stream().collect(Collectors.toMap(Account::getNumber, Account::readBalance));
+			version = store.version("222");
+			store.getOrCreate("333").deposit(1);
+		}
+
+		// Then
+		assertEquals(Map.of("111", 9000L, "222", 10500L, "0444", DEFAULT_BALANCE), balances);
+		assertEquals(3, version);
+		try (MappedAccountStore store = MappedAccountStore.open(file, DEFAULT_BALANCE)) {
+			assertEquals(4, store.size());
+			assertEquals(DEFAULT_BALANCE + 1, store.get("333").orElseThrow().readBalance());
+			assertEquals(2, store.version("333"));
+			assertEquals(0, store.version("555"));
+		}
+	}
+
+	@Test
+	public void testGrowByRemapping() throws IOException {
+		try (MappedAccountStore store = MappedAccountStore.open(file, DEFAULT_BALANCE)) {
+			// Given
+			final Account first = store.getOrCreate("0");
+			final long initialSize = Files.size(file);
+
+			// When
+			for (int i = 1; i < 100_000; i++) {
+				store.getOrCreate(Integer.toString(i));
+			}
+			// View created before the file grew still points to the same record.
+			first.deposit(5);
+			store.delete("7");
+
+			// Then
+			assertTrue(Files.size(file) > 64 * initialSize);
+			assertEquals(100_000 - 1, store.size());
+			assertEquals(DEFAULT_BALANCE + 5, store.get("0").orElseThrow().readBalance());
+			assertFalse(store.get("7").isPresent());
+			final Set<String> numbers = new HashSet<>();
+			store.forEach(account -> assertTrue(numbers.add(account.getNumber())));
+			assertEquals(100_000 - 1, numbers.size());
+		}
+	}
+
+	@Test
+	public void testConcurrentTransfersWhileGrowing() throws Exception {
+		// Given
+		final int accounts = 5000;
+		final int threads = 8;
+		final long total;
+		try (MappedAccountStore store = MappedAccountStore.open(file, DEFAULT_BALANCE)) {
+			final PaymentService paymentService = new PaymentService(new AccountDao(store));
+			final ExecutorService executor = Executors.newFixedThreadPool(threads);
+			final List<Future<?>> futures = new ArrayList<>();
+
+			// When
+			for (int thread = 0; thread < threads; thread++) {
+				final int seed = thread;
+				futures.add(executor.submit(() -> {
+					for (int i = 0; i < 20_000; i++) {
+						// New accounts keep coming, so the file grows while balances are updated.
+						paymentService.newPayment(createRequest("" + (i * 7 + seed) % accounts,
+								"" + (i * 13 + seed * 3) % accounts, "1.17"));
+					}
+					return null;
+				}));
+			}
+			for (final Future<?> future : futures) {
+				future.get();
+			}
+			executor.shutdown();
+			total = store.getAll().stream().mapToLong(Account::readBalance).sum();
+			assertEquals(accounts, store.size());
+		}
+
+		// Then
+		assertEquals(accounts * DEFAULT_BALANCE, total);
+		try (MappedAccountStore store = MappedAccountStore.open(file, DEFAULT_BALANCE)) {
+			assertEquals(total, store.getAll().stream().mapToLong(Account::readBalance).sum());
+		}
+	}
+
+	@Test
+	public void testUnsupportedNumbersAreMissing() throws IOException {
+		try (MappedAccountStore store = MappedAccountStore.open(file, DEFAULT_BALANCE)) {
+			// Given
+			store.getOrCreate("123");
+
+			// When
+			final boolean supported = store.isSupported("abc");
+
+			// Then
+			assertFalse(supported);
+			assertFalse(store.get("abc").isPresent());
+			assertFalse(store.get("123456789012345678").isPresent());
+			assertFalse(store.delete("abc"));
+			assertEquals(0, store.version("abc"));
+			assertEquals(1, store.size());
+			try {
+				store.getOrCreate("abc");
+				assertTrue("Created account with unsupported number.", false);
+			} catch (final UnsupportedAccountNumberException e) {
+				// Expected
+			}
+		}
+	}
+
+	@Test
+	public void testNotAStoreFile() throws IOException {
+		// Given
+		Files.writeString(file, "number,balance\n111,1.00\n");
+
+		// When
+		try {
+			MappedAccountStore.open(file, DEFAULT_BALANCE).close();
+			assertTrue("Opened a file which is not a store.", false);
+		} catch (final IOException e) {
+			// Then
+			assertTrue(e.getMessage().contains("is not a file of a mapped account store"));
+		}
+	}
+
+	/**
+	 * Kills a process creating accounts and depositing to them at random moments, including the moments
+	 * when the file grows. Every account reported as created has to survive, no account may appear twice,
+	 * and balances have to match versions - except for deposits in progress, at most one per writer thread.
+	 */
+	@Test
+	public void testKilledMidWrite() throws Exception {
+		for (int crash = 0; crash < CRASHES; crash++) {
+			// Given
+			Files.deleteIfExists(file);
+			final Process process = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+					"-cp", System.getProperty("java.class.path"), CrashWriter.class.getName(), file.toString(),
+					Integer.toString(CRASH_WRITER_THREADS))
+					.redirectErrorStream(true)
+					.start();
+			long created = 0;
+
+			// When
+			try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(),
+					StandardCharsets.UTF_8))) {
+				final long delay = ThreadLocalRandom.current().nextLong(50, 500) * 1_000_000;
+				long killAt = Long.MAX_VALUE;
+				String line;
+				while ((line = output.readLine()) != null && System.nanoTime() < killAt) {
+					if (line.startsWith("created ")) {
+						created = Long.parseLong(line.substring("created ".length()));
+						// Counted from the first report, so that the JVM startup doesn't eat the delay.
+						killAt = Math.min(killAt, System.nanoTime() + delay);
+					}
+				}
+				process.destroyForcibly();
+				process.waitFor();
+			}
+
+			// Then
+			try (MappedAccountStore store = MappedAccountStore.open(file, DEFAULT_BALANCE)) {
+				final Set<String> numbers = new HashSet<>();
+				final long[] inFlight = new long[1];
+				store.forEach(account -> {
+					assertTrue(numbers.add(account.getNumber()));
+					final long deposits = account.readBalance() - DEFAULT_BALANCE;
+					final long versions = store.version(account.getNumber()) - 1;
+					assertTrue(deposits >= versions && deposits <= versions + 1);
+					inFlight[0] += deposits - versions;
+				});
+				assertTrue(created > 0);
+				assertTrue(store.size() >= created);
+				assertEquals(numbers.size(), store.size());
+				assertTrue(inFlight[0] <= CRASH_WRITER_THREADS);
+				for (long i = 0; i < created; i++) {
+					assertTrue(store.get(Long.toString(FIRST_NUMBER + i)).isPresent());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Kills a process while it creates an account whose record lies in the former index, left behind when
+	 * the file grew. The half-created account must not appear, and no garbage record may be picked up.
+	 */
+	@Test
+	public void testKilledWhileCreating() throws Exception {
+		for (final int accounts : new int[] {1024, 2048 + 100}) {
+			// Given
+			Files.deleteIfExists(file);
+			final Process process = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+					"-cp", System.getProperty("java.class.path"), HaltingCreator.class.getName(), file.toString(),
+					Integer.toString(accounts))
+					.redirectErrorStream(true)
+					.start();
+
+			// When
+			final String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+
+			// Then
+			assertEquals(output, HaltingCreator.HALT_STATUS, process.waitFor());
+			try (MappedAccountStore store = MappedAccountStore.open(file, DEFAULT_BALANCE)) {
+				assertEquals(accounts, store.size());
+				assertFalse(store.get(Long.toString(FIRST_NUMBER + accounts)).isPresent());
+				final Set<String> numbers = new HashSet<>();
+				store.forEach(account -> {
+					assertTrue(numbers.add(account.getNumber()));
+					assertEquals(DEFAULT_BALANCE, account.readBalance());
+				});
+				for (int i = 0; i < accounts; i++) {
+					assertTrue(numbers.contains(Long.toString(FIRST_NUMBER + i)));
+				}
+				// The account can still be created after all.
+				store.getOrCreate(Long.toString(FIRST_NUMBER + accounts));
+				assertEquals(accounts + 1, store.size());
+			}
+		}
+	}
+
+	@Test
+	public void testOpenedLikeSnapshot() throws IOException {
+		// Given
+		final Path snapshots = Files.createDirectory(directory.resolve("snapshots"));
+		final Path dirty = directory.resolve("dirty.bin");
+		try (MappedAccountStore store = MappedAccountStore.open(file, DEFAULT_BALANCE)) {
+			for (int i = 0; i < STORE_ACCOUNTS; i++) {
+				store.getOrCreate(Long.toString(FIRST_NUMBER + i)).deposit(i);
+			}
+			// Copy of a store which wasn't closed, like after a crash.
+			Files.copy(file, dirty);
+			Snapshots.write(snapshots, 1, store.getAll());
+		}
+		final MapAccountStore snapshot = new MapAccountStore(DEFAULT_BALANCE);
+		Snapshots.loadNewest(snapshots, new JournalReplayer(snapshot));
+
+		// When
+		try (MappedAccountStore mapped = MappedAccountStore.open(file, DEFAULT_BALANCE);
+				MappedAccountStore rebuilt = MappedAccountStore.open(dirty, DEFAULT_BALANCE)) {
+			// Then
+			assertEquals(balances(snapshot), balances(mapped));
+			assertEquals(balances(snapshot), balances(rebuilt));
+			assertEquals(STORE_ACCOUNTS, snapshot.size());
+			assertEquals(DEFAULT_BALANCE + 7, rebuilt.get(Long.toString(FIRST_NUMBER + 7)).orElseThrow().readBalance());
+		}
+	}
+
+	private static Map<String, Long> balances(final AccountStore store) {
+		return store.getAll().stream().collect(Collectors.toMap(Account::getNumber, Account::readBalance));
+	}
+
+	private static PaymentRequest createRequest(final String source, final String target, final String amount) {
+		return PaymentRequest.builder()
+				.sourceAccount(source)
+				.targetAccount(target)
+				.amount(new BigDecimal(amount))
+				.build();
+	}
+
+	/**
+	 * Process of testKilledWhileCreating(). Creates given number of accounts, then halts in the middle
+	 * of creating the next one.
+	 */
+	public static class HaltingCreator {
+		static final int HALT_STATUS = 3;
+
+		public static void main(final String[] args) throws Exception {
+			final MappedAccountStore store = MappedAccountStore.open(Path.of(args[0]), DEFAULT_BALANCE);
+			final int accounts = Integer.parseInt(args[1]);
+			for (int i = 0; i < accounts; i++) {
+				store.getOrCreate(Long.toString(FIRST_NUMBER + i));
+			}
+			store.getOrCreate(Long.toString(FIRST_NUMBER + accounts), account -> Runtime.getRuntime().halt(HALT_STATUS));
+		}
+	}
+
+	/**
+	 * Process killed by testKilledMidWrite(). One thread creates accounts (reporting every thousand of them once
+	 * they're created), the others deposit 1 to random accounts already created, until the process is killed.
+	 */
+	public static class CrashWriter {
+		public static void main(final String[] args) throws Exception {
+			final MappedAccountStore store = MappedAccountStore.open(Path.of(args[0]), DEFAULT_BALANCE);
+			final AtomicInteger created = new AtomicInteger();
+			store.getOrCreate(Long.toString(FIRST_NUMBER));
+			created.set(1);
+			for (int thread = 0; thread < Integer.parseInt(args[1]); thread++) {
+				final Thread depositor = new Thread(() -> {
+					final ThreadLocalRandom random = ThreadLocalRandom.current();
+					while (true) {
+						store.get(Long.toString(FIRST_NUMBER + random.nextInt(created.get()))).orElseThrow().deposit(1);
+					}
+				});
+				depositor.setDaemon(true);
+				depositor.start();
+			}
+			for (int i = 1; i < MappedAccountStore.MAX_CAPACITY; i++) {
+				store.getOrCreate(Long.toString(FIRST_NUMBER + i));
+				created.set(i + 1);
+				if (created.get() % 1000 == 0) {
+					System.out.println("created " + created.get());
+					System.out.flush();
+				}
+			}
+		}
+	}
+}
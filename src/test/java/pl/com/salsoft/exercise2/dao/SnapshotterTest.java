@@ -0,0 +1,165 @@
+package pl.com.salsoft.exercise2.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import pl.com.salsoft.exercise2.dao.FileJournal.Durability;
+import pl.com.salsoft.exercise2.model.Account;
+import pl.com.salsoft.exercise2.model.PaymentRequest;
+import pl.com.salsoft.exercise2.service.PaymentService;
+
+public class SnapshotterTest {
+	private static final long DEFAULT_BALANCE = 10000;
+	private static final long SEGMENT_SIZE = 4096;
+	private Path directory;
+
+	@After
+	public void afterTest() throws IOException {
+		try (var files = Files.walk(directory)) {
+			for (final Path path : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(path);
+			}
+		}
+	}
+
+	@Before
+	public void beforeTest() throws IOException {
+		directory = Files.createTempDirectory("snapshot");
+	}
+
+	@Test
+	public void testCorruptedSnapshotIsSkipped() throws Exception {
+		// Given
+		final MapAccountStore store = new MapAccountStore(DEFAULT_BALANCE);
+		store.getOrCreate("111");
+		Snapshots.write(directory, 100, store.getAll());
+		store.getOrCreate("222");
+		final Path newest = Snapshots.write(directory, 200, store.getAll());
+		try (FileChannel channel = FileChannel.open(newest, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.wrap(new byte[] {1, 2, 3}), 30);
+		}
+
+		// When
+		final MapAccountStore restored = new MapAccountStore(0);
+		final long position = Snapshots.loadNewest(directory, new JournalReplayer(restored));
+
+		// Then
+		assertEquals(100, position);
+		assertEquals(1, restored.getAll().size());
+	}
+
+	@Test
+	public void testNoSnapshot() throws Exception {
+		// Given
+		// Nothing
+
+		// When
+		final long position = Snapshots.loadNewest(directory, new JournalReplayer(new MapAccountStore(0)));
+
+		// Then
+		assertEquals(0, position);
+	}
+
+	@Test
+	public void testRecoveryFromSnapshotAndJournalTail() throws Exception {
+		// Given
+		final MapAccountStore liveStore = new MapAccountStore(DEFAULT_BALANCE);
+		final FileJournal journal = FileJournal.open(directory, Durability.BATCHED, SEGMENT_SIZE, 0,
+				new JournalReplayer(liveStore));
+		final PaymentService paymentService = new PaymentService(new AccountDao(liveStore, journal), journal);
+		final Snapshotter snapshotter = new Snapshotter(directory, journal);
+		for (int round = 0; round < 3; round++) {
+			for (int i = 0; i < 300; i++) {
+				paymentService.newPayment(createRequest("" + i % 17, "" + i % 13, "0." + (10 + i % 90)));
+			}
+			snapshotter.snapshot();
+		}
+		for (int i = 0; i < 100; i++) {
+			paymentService.newPayment(createRequest("" + i % 7, "" + i % 19, "1.01"));
+		}
+		snapshotter.close();
+		journal.close();
+
+		// When
+		final MapAccountStore restored = new MapAccountStore(DEFAULT_BALANCE);
+		final JournalReplayer replayer = new JournalReplayer(restored);
+		final long snapshotPosition = Snapshots.loadNewest(directory, replayer);
+		final long snapshotAccounts = replayer.getEntries();
+		FileJournal.open(directory, Durability.BATCHED, SEGMENT_SIZE, snapshotPosition, replayer).close();
+
+		// Then
+		assertEquals(2, Snapshots.list(directory).size());
+		assertEquals(balances(liveStore), balances(restored));
+		assertEquals(17, snapshotAccounts);
+		assertEquals(102, replayer.getEntries() - snapshotAccounts);
+		try (var files = Files.list(directory)) {
+			final List<Path> segments = files.filter(file -> file.getFileName().toString().startsWith("journal-"))
+					.collect(Collectors.toList());
+			assertFalse(segments.stream().anyMatch(file -> file.getFileName().toString().equals("journal-00000000000000000000.log")));
+		}
+	}
+
+	@Test
+	public void testSnapshotWithoutChangesIsSkipped() throws Exception {
+		// Given
+		final FileJournal journal = FileJournal.open(directory, Durability.BATCHED, SEGMENT_SIZE, 0,
+				new JournalReplayer(new MapAccountStore(0)));
+		journal.awaitDurable(journal.created("111", DEFAULT_BALANCE));
+		final Snapshotter snapshotter = new Snapshotter(directory, journal);
+		snapshotter.snapshot();
+
+		// When
+		final var snapshot = snapshotter.snapshot();
+
+		// Then
+		assertTrue(snapshot.isEmpty());
+		snapshotter.close();
+		journal.close();
+	}
+
+	@Test
+	public void testWriteAndLoad() throws Exception {
+		// Given
+		final CompactAccountStore store = new CompactAccountStore(DEFAULT_BALANCE);
+		IntStream.range(0, 50_000).forEach(i -> store.getOrCreate(String.format("%010d", i)).deposit(i));
+
+		// When
+		Snapshots.write(directory, 12345, store.getAll());
+		final CompactAccountStore restored = new CompactAccountStore(0);
+		final long position = Snapshots.loadNewest(directory, new JournalReplayer(restored));
+
+		// Then
+		assertEquals(12345, position);
+		assertEquals(balances(store), balances(restored));
+	}
+
+	private static Map<String, Long> balances(final AccountStore store) {
+		return store.getAll().stream().collect(Collectors.toMap(Account::getNumber, Account::readBalance));
+	}
+
+	private static PaymentRequest createRequest(final String source, final String target, final String amount) {
+		return PaymentRequest.builder()
+				.sourceAccount(source)
+				.targetAccount(target)
+				.amount(new BigDecimal(amount))
+				.build();
+	}
+}
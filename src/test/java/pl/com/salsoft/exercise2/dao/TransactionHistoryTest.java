@@ -0,0 +1,169 @@
+package pl.com.salsoft.exercise2.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.junit.Test;
+
+import pl.com.salsoft.exercise2.model.Account;
+import pl.com.salsoft.exercise2.model.PaymentRequest;
+import pl.com.salsoft.exercise2.model.Transaction;
+import pl.com.salsoft.exercise2.service.PaymentService;
+
+public class TransactionHistoryTest {
+	private static final int THREADS = 8;
+	private static final int TRANSFERS_PER_THREAD = 100_000;
+	private static final int ACCOUNTS = 1000;
+	private static final int PAYMENTS = 1_000_000;
+	private static final int PAYMENT_ACCOUNTS = 10;
+
+	@Test
+	public void testRecentTransfers() {
+		// Given
+		final TransactionHistory history = new TransactionHistory(4);
+
+		// When
+		history.transferred("111", "222", 100, 900, Account.UNKNOWN_BALANCE);
+		history.transferred("333", "111", 50, 0, 950);
+
+		// Then
+		final List<Transaction> transactions = history.recent("111", 10);
+		assertEquals(2, transactions.size());
+		assertEquals(2, transactions.get(0).getSequence());
+		assertEquals("333", transactions.get(0).getCounterparty());
+		assertEquals(new BigDecimal("0.50"), transactions.get(0).getAmount());
+		assertEquals(new BigDecimal("9.50"), transactions.get(0).getBalance());
+		assertEquals(1, transactions.get(1).getSequence());
+		assertEquals("222", transactions.get(1).getCounterparty());
+		assertEquals(new BigDecimal("-1.00"), transactions.get(1).getAmount());
+		assertEquals(new BigDecimal("9.00"), transactions.get(1).getBalance());
+		assertNull(history.recent("222", 10).get(0).getBalance());
+		assertEquals(1, history.recent("111", 1).size());
+		assertTrue(history.recent("444", 10).isEmpty());
+	}
+
+	@Test
+	public void testOnlyNewestTransfersKept() {
+		// Given
+		final TransactionHistory history = new TransactionHistory(5);
+
+		// When
+		for (int i = 1; i <= 100; i++) {
+			history.transferred("111", "222", i, 0, 0);
+		}
+
+		// Then
+		final List<Transaction> transactions = history.recent("111", 100);
+		assertEquals(8, history.getSize());
+		assertEquals(8, transactions.size());
+		for (int i = 0; i < transactions.size(); i++) {
+			assertEquals(100 - i, transactions.get(i).getSequence());
+			assertEquals(BigDecimal.valueOf(-(100 - i), 2), transactions.get(i).getAmount());
+		}
+	}
+
+	@Test
+	public void testConcurrentTransfersOfSameAccount() throws Exception {
+		// Given
+		final TransactionHistory history = new TransactionHistory(16);
+		final ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+
+		// When
+		final List<Future<?>> futures = new ArrayList<>();
+		for (int thread = 0; thread < THREADS; thread++) {
+			final String counterparty = Integer.toString(thread);
+			futures.add(executor.submit(() -> {
+				// Amount and balance are derived from the counterparty, so a torn entry would be noticed.
+				for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+					history.transferred(counterparty, "hot", i, 0, Long.parseLong(counterparty) * 1000 + 7);
+				}
+			}));
+		}
+		final Future<Integer> reader = executor.submit(() -> {
+			int reads = 0;
+			while (!futures.stream().allMatch(Future::isDone)) {
+				for (final Transaction transaction : history.recent("hot", 16)) {
+					assertEquals(new BigDecimal(Long.parseLong(transaction.getCounterparty()) * 1000 + 7).movePointLeft(2),
+							transaction.getBalance());
+				}
+				reads++;
+			}
+			return reads;
+		});
+		for (final Future<?> future : futures) {
+			future.get();
+		}
+		reader.get();
+		executor.shutdown();
+
+		// Then
+		final List<Transaction> transactions = history.recent("hot", 16);
+		assertEquals(16, transactions.size());
+		assertEquals((long) THREADS * TRANSFERS_PER_THREAD, transactions.get(0).getSequence());
+	}
+
+	@Test
+	public void testRecordingAllocatesNothing() {
+		// Given
+		final TransactionHistory history = new TransactionHistory(16);
+		final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		final long thread = Thread.currentThread().getId();
+		final String[] numbers = new String[ACCOUNTS];
+		for (int i = 0; i < ACCOUNTS; i++) {
+			numbers[i] = Integer.toString(i);
+		}
+		record(history, numbers); // Warm-up, creates the rings
+
+		// When
+		final long bytesBefore = threads.getThreadAllocatedBytes(thread);
+		record(history, numbers);
+		final long bytes = threads.getThreadAllocatedBytes(thread) - bytesBefore;
+
+		// Then
+		assertTrue(bytes < 1024);
+	}
+
+	@Test
+	public void testPaymentsRecordedInHistory() {
+		// Given
+		final AccountDao accountDao = new AccountDao(new MapAccountStore(1_000_000), Journal.NONE,
+				new TransactionHistory(16));
+		final PaymentService paymentService = new PaymentService(accountDao);
+		final long[] transfers = new long[PAYMENT_ACCOUNTS];
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+
+		// When
+		for (int i = 0; i < PAYMENTS / 1000; i++) {
+			final int source = random.nextInt(PAYMENT_ACCOUNTS);
+			final int target = (source + 1 + random.nextInt(PAYMENT_ACCOUNTS - 1)) % PAYMENT_ACCOUNTS;
+			paymentService.newPayment(new PaymentRequest(Integer.toString(source), Integer.toString(target),
+					1 + random.nextInt(100)));
+			transfers[source]++;
+			transfers[target]++;
+		}
+
+		// Then
+		for (int i = 0; i < PAYMENT_ACCOUNTS; i++) {
+			final String number = Integer.toString(i);
+			final Transaction newest = accountDao.getHistory().recent(number, 1).get(0);
+			assertEquals(transfers[i], newest.getSequence());
+			assertEquals(BigDecimal.valueOf(accountDao.get(number).get().readBalance(), 2), newest.getBalance());
+		}
+	}
+
+	private static void record(final TransactionHistory history, final String[] numbers) {
+		for (int i = 0; i < PAYMENTS; i++) {
+			history.transferred(numbers[i % ACCOUNTS], numbers[(i * 7 + 1) % ACCOUNTS], i, i, i);
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package pl.com.salsoft.exercise2.load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.Test;
+
+public class LoadGeneratorTest {
+	private static final int PICKS = 1_000_000;
+
+	@Test
+	public void testParse() {
+		// When
+		final LoadSettings settings = LoadGenerator.parse("--threads=4", "--rate=500", "--skew=0.5", "--duration=3",
+				"--batch=10");
+
+		// Then
+		assertEquals(4, settings.getThreads());
+		assertEquals(500, settings.getRate());
+		assertEquals(0.5, settings.getSkew(), 0);
+		assertEquals(3, settings.getDurationSeconds());
+		assertEquals(10, settings.getBatch());
+		assertEquals(1000, settings.getAccounts());
+		assertEquals(0, settings.getPort());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParseUnknownOption() {
+		LoadGenerator.parse("--thread=4");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSingleAccountRejected() {
+		new LoadGenerator(LoadSettings.builder().accounts(1).build());
+	}
+
+	@Test
+	public void testZipfDistribution() {
+		// Given
+		final ZipfPicker uniform = new ZipfPicker(10, 0);
+		final ZipfPicker zipf = new ZipfPicker(10, 1);
+		final int[] uniformCounts = new int[10];
+		final int[] zipfCounts = new int[10];
+
+		// When
+		for (int i = 0; i < PICKS; i++) {
+			uniformCounts[uniform.next()]++;
+			zipfCounts[zipf.next()]++;
+		}
+
+		// Then
+		// Harmonic number H(10) = 2.929, so the first index takes 34% of picks and the second one 17%.
+		for (int i = 0; i < 10; i++) {
+			assertEquals(0.1, (double) uniformCounts[i] / PICKS, 0.005);
+			assertEquals(1 / (2.929 * (i + 1)), (double) zipfCounts[i] / PICKS, 0.005);
+		}
+	}
+
+	@Test
+	public void testInProcessLoadConservesMoney() throws Exception {
+		// Given
+		final LoadGenerator generator = new LoadGenerator(LoadSettings.builder()
+				.threads(4)
+				.accounts(100)
+				.warmupSeconds(1)
+				.durationSeconds(2)
+				.build());
+
+		// When
+		final LoadReport report = generator.run();
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		report.print(new PrintStream(output, true));
+
+		// Then
+		assertTrue(output.toString().contains("money conserved"));
+		assertEquals(0, report.getErrors());
+		assertTrue(report.getPayments().getLatencies().getCount() > 0);
+		assertTrue(report.getReads().getLatencies().getCount() > 0);
+		assertTrue(report.isConserved());
+		assertEquals(100 * 10000, report.getBalanceBefore());
+	}
+}
@@ -0,0 +1,77 @@
+package pl.com.salsoft.exercise2.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+	private static final int ITERATIONS = 2_000_000;
+
+	@Test
+	public void testBucketsCoverValuesWithSmallError() {
+		// Given
+		final Random random = new Random(1);
+
+		for (int i = 0; i < 100_000; i++) {
+			final long value = random.nextLong() >>> (24 + random.nextInt(40));
+
+			// When
+			final int index = LatencyHistogram.indexOf(value);
+			final long highest = LatencyHistogram.highestValueOf(index);
+
+			// Then
+			assertTrue(value <= highest);
+			assertTrue(index == 0 || LatencyHistogram.highestValueOf(index - 1) < value);
+			assertTrue(highest - value <= value / 32);
+		}
+	}
+
+	@Test
+	public void testQuantilesAndCounts() {
+		// Given
+		final LatencyHistogram histogram = new LatencyHistogram();
+
+		// When
+		for (long micros = 1; micros <= 1000; micros++) {
+			histogram.record(micros * 1000);
+		}
+
+		// Then
+		assertEquals(1000, histogram.getCount());
+		assertEquals(500_500_000, histogram.getSum());
+		assertEquals(500_000, histogram.valueAtQuantile(0.5), 500_000 / 32);
+		assertEquals(990_000, histogram.valueAtQuantile(0.99), 990_000 / 32);
+		assertEquals(1_000_000, histogram.valueAtQuantile(1), 1_000_000 / 32);
+		assertEquals(100, histogram.countAtOrBelow(100_000), 4);
+		assertEquals(1000, histogram.countAtOrBelow(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void testRecordingAllocatesNothing() {
+		// Given
+		final RequestMetrics requestMetrics = new RequestMetrics();
+		final LatencyHistogram histogram = new LatencyHistogram();
+		final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		final long thread = Thread.currentThread().getId();
+		for (int i = 0; i < ITERATIONS; i++) {
+			requestMetrics.record("POST", "/payment", 200, i); // Warm-up
+			histogram.record(i);
+		}
+
+		// When
+		final long bytesBefore = threads.getThreadAllocatedBytes(thread);
+		for (int i = 0; i < ITERATIONS; i++) {
+			histogram.record(i);
+			requestMetrics.record("POST", "/payment", 200, i);
+		}
+		final long bytes = threads.getThreadAllocatedBytes(thread) - bytesBefore;
+
+		// Then
+		assertTrue(bytes < 1024);
+		assertEquals(2L * ITERATIONS, requestMetrics.get("POST", "/payment", 200).getCount());
+	}
+}
@@ -0,0 +1,68 @@
+package pl.com.salsoft.exercise2.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class MetricsRegistryTest {
+
+	@Test
+	public void testPrometheusFormat() throws IOException {
+		// Given
+		final MetricsRegistry registry = new MetricsRegistry();
+		final AtomicLong value = new AtomicLong(5);
+		registry.counter("payments_total", "Payments.", value::get, "outcome", "success");
+		registry.counter("payments_total", "Payments.", () -> 2, "outcome", "a \"quoted\" value");
+		registry.gauge("accounts", "Accounts.", () -> 7);
+		registry.getRequestMetrics().record("GET", "/account/:number", 200, 3_000_000);
+		value.set(6);
+
+		// When
+		final StringBuilder output = new StringBuilder();
+		registry.write(output);
+
+		// Then
+		final String text = output.toString();
+		assertTrue(text.startsWith("# HELP payments_total Payments.\n# TYPE payments_total counter\n"
+				+ "payments_total{outcome=\"success\"} 6\n"
+				+ "payments_total{outcome=\"a \\\"quoted\\\" value\"} 2\n"
+				+ "# HELP accounts Accounts.\n# TYPE accounts gauge\naccounts 7\n"));
+		final String labels = "method=\"GET\",route=\"/account/:number\",status=\"200\"";
+		assertTrue(text.contains("# TYPE http_request_duration_seconds histogram\n"));
+		assertTrue(text.contains("http_request_duration_seconds_bucket{" + labels + ",le=\"0.0025\"} 0\n"));
+		assertTrue(text.contains("http_request_duration_seconds_bucket{" + labels + ",le=\"0.005\"} 1\n"));
+		assertTrue(text.contains("http_request_duration_seconds_bucket{" + labels + ",le=\"+Inf\"} 1\n"));
+		assertTrue(text.contains("http_request_duration_seconds_count{" + labels + "} 1\n"));
+		assertTrue(text.contains("http_request_duration_quantile_seconds{" + labels + ",quantile=\"0.99\"} 0.003"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSameNameDifferentType() {
+		// Given
+		final MetricsRegistry registry = new MetricsRegistry();
+		registry.counter("accounts", "Accounts.", () -> 1);
+
+		// When
+		registry.gauge("accounts", "Accounts.", () -> 1);
+
+		// Then
+		// Exception is thrown
+	}
+
+	@Test
+	public void testSampleValues() throws IOException {
+		// Given
+		final StringBuilder output = new StringBuilder();
+
+		// When
+		PrometheusFormat.sample(output, "a", "", 0.25);
+		PrometheusFormat.sample(output, "b", "", 3);
+
+		// Then
+		assertEquals("a 0.25\nb 3\n", output.toString());
+	}
+}
@@ -0,0 +1,159 @@
+package pl.com.salsoft.exercise2.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+
+public class AccountTest {
+	private static final int THREADS = 8;
+	private static final int OPERATIONS_PER_THREAD = 200_000;
+	private static final int HOT_ACCOUNTS = 4;
+	private static final int COLD_ACCOUNTS = 1000;
+
+	@Test
+	public void testHotWithdrawalFoldsCells() throws Exception {
+		// Given
+		final Account account = new Account("111", new AtomicLong(100));
+		account.promote();
+		runInThreads(thread -> account.credit(1000));
+
+		// When
+		final long tooBig = account.withdraw(100 + THREADS * 1000 + 1);
+		final long exact = account.withdraw(100 + THREADS * 1000);
+
+		// Then
+		assertTrue(account.isHot());
+		assertEquals(100 + THREADS * 1000, tooBig);
+		assertEquals(100 + THREADS * 1000, exact);
+		assertEquals(0, account.readBalance());
+	}
+
+	@Test
+	public void testHotAccountNeverOverdrawn() throws Exception {
+		// Given
+		final Account account = new Account("111", new AtomicLong(0));
+		account.promote();
+		final AtomicLong credited = new AtomicLong();
+		final AtomicLong withdrawn = new AtomicLong();
+
+		// When
+		runInThreads(thread -> {
+			final ThreadLocalRandom random = ThreadLocalRandom.current();
+			for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+				final long amount = 1 + random.nextInt(10);
+				if (random.nextBoolean()) {
+					account.credit(amount);
+					credited.addAndGet(amount);
+				} else if (account.withdraw(amount) >= amount) {
+					withdrawn.addAndGet(amount);
+				}
+			}
+		});
+
+		// Then
+		assertTrue(account.getBalance().get() >= 0);
+		assertEquals(credited.get() - withdrawn.get(), account.readBalance());
+	}
+
+	@Test
+	public void testHotAccountDemotedWhenCalm() throws Exception {
+		// Given
+		final Account account = new Account("111", new AtomicLong(0));
+		account.promote();
+		account.credit(1);
+		final long demotions = Account.getHotDemotions();
+		TimeUnit.MILLISECONDS.sleep(1100);
+
+		// When
+		for (int i = 0; i < 1024; i++) {
+			account.credit(1);
+		}
+
+		// Then
+		assertFalse(account.isHot());
+		assertEquals(demotions + 1, Account.getHotDemotions());
+		assertEquals(1025, account.readBalance());
+		assertEquals(1025, account.getBalance().get());
+	}
+
+	@Test
+	public void testSkewedCreditsSameWithHotCells() throws Exception {
+		// Given
+		final List<Account> atomic = createAccounts();
+		final List<Account> hot = createAccounts();
+		hot.subList(0, HOT_ACCOUNTS).forEach(Account::promote);
+
+		// When
+		creditSkewed(atomic, Account::deposit);
+		creditSkewed(hot, Account::credit);
+
+		// Then
+		assertEquals((long) THREADS * OPERATIONS_PER_THREAD, total(atomic));
+		for (int i = 0; i < atomic.size(); i++) {
+			assertEquals(atomic.get(i).readBalance(), hot.get(i).readBalance());
+		}
+	}
+
+	private static List<Account> createAccounts() {
+		final List<Account> accounts = new ArrayList<>();
+		for (int i = 0; i < HOT_ACCOUNTS + COLD_ACCOUNTS; i++) {
+			accounts.add(new Account(Integer.toString(i), new AtomicLong()));
+		}
+		return accounts;
+	}
+
+	/**
+	 * 90% of credits go to the hot accounts, the rest is spread uniformly.
+	 */
+	private static void creditSkewed(final List<Account> accounts, final Credit credit) throws Exception {
+		runInThreads(thread -> {
+			int seed = thread + 1;
+			for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+				seed ^= seed << 13;
+				seed ^= seed >>> 17;
+				seed ^= seed << 5;
+				final int pick = (seed & 0x7FFFFFFF) % 10 == 0
+						? HOT_ACCOUNTS + (seed >>> 8 & 0x7FFFFF) % COLD_ACCOUNTS
+						: (seed >>> 8 & 0x7FFFFF) % HOT_ACCOUNTS;
+				credit.credit(accounts.get(pick), 1);
+			}
+		});
+	}
+
+	private static long total(final List<Account> accounts) {
+		return accounts.stream().mapToLong(Account::readBalance).sum();
+	}
+
+	private static void runInThreads(final Consumer<Integer> task) throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			final List<Future<?>> futures = new ArrayList<>();
+			for (int thread = 0; thread < THREADS; thread++) {
+				final int number = thread;
+				futures.add(executor.submit(() -> task.accept(number)));
+			}
+			for (final Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@FunctionalInterface
+	private interface Credit {
+		void credit(Account account, long amount);
+	}
+}
@@ -0,0 +1,214 @@
+package pl.com.salsoft.exercise2.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.junit.Test;
+
+import pl.com.salsoft.exercise2.dao.AccountDao;
+import pl.com.salsoft.exercise2.dao.MapAccountStore;
+import pl.com.salsoft.exercise2.service.AccountService;
+import pl.com.salsoft.exercise2.service.JsonService;
+import pl.com.salsoft.exercise2.service.PaymentService;
+
+public class HttpTransportTest {
+	private static final long DEFAULT_BALANCE = 1_000_000;
+	private static final int ACCOUNTS = 100;
+	private static final int CLIENTS = 4;
+	private static final int REQUESTS_PER_CLIENT = 500;
+
+	@Test
+	public void testRouteTable() {
+		// Given
+		final RouteTable routes = new RouteTable();
+		final RestHandler all = (request, response) -> "all";
+		final RestHandler single = (request, response) -> "single";
+		final RestHandler stats = (request, response) -> "stats";
+		final RestHandler transactions = (request, response) -> "transactions";
+		routes.add("GET", "/account", all);
+		routes.add("GET", "/account/:number", single);
+		routes.add("GET", "/account/stats", stats);
+		routes.add("GET", "/account/:number/transactions", transactions);
+
+		// When
+		final RouteTable.Match byNumber = routes.find("GET", "/account/111");
+		final RouteTable.Match byTransactions = routes.find("GET", "/account/222/transactions");
+
+		// Then
+		assertEquals(all, routes.find("GET", "/account").handler());
+		assertEquals(stats, routes.find("GET", "/account/stats").handler());
+		assertEquals(single, byNumber.handler());
+		assertEquals("/account/:number", byNumber.route());
+		assertEquals("111", byNumber.param(":number"));
+		assertNull(byNumber.param(":id"));
+		assertEquals(transactions, byTransactions.handler());
+		assertEquals("222", byTransactions.param(":number"));
+		assertNull(routes.find("DELETE", "/account/111"));
+		assertNull(routes.find("GET", "/account/"));
+		assertNull(routes.find("GET", "/account/111/history"));
+		assertNull(routes.find("GET", "/payment"));
+	}
+
+	@Test
+	public void testQueryParams() {
+		assertEquals("10", QueryParams.find("limit=10&after=5", "limit"));
+		assertEquals("5", QueryParams.find("limit=10&after=5", "after"));
+		assertEquals("a b&c", QueryParams.find("x=1&after=a+b%26c", "after"));
+		assertEquals("", QueryParams.find("stream&limit=1", "stream"));
+		assertNull(QueryParams.find("limits=10", "limit"));
+		assertNull(QueryParams.find(null, "limit"));
+	}
+
+	@Test
+	public void testPaymentsServedByAllTransports() throws Exception {
+		for (final String name : List.of("spark", "jetty", "jdk")) {
+			// Given
+			final int port = findFreePort();
+			final HttpTransport transport = createTransport(name, port);
+			final AccountDao accountDao = new AccountDao(new MapAccountStore(DEFAULT_BALANCE));
+			final JsonService jsonService = new JsonService();
+			new PaymentController(jsonService, new PaymentService(accountDao)).routes(transport);
+			new AccountController(jsonService, new AccountService(accountDao)).routes(transport);
+			transport.start();
+
+			// When
+			final int served;
+			try {
+				served = load(port);
+			} finally {
+				transport.stop();
+			}
+
+			// Then
+			assertEquals(CLIENTS * REQUESTS_PER_CLIENT, served);
+			assertEquals(ACCOUNTS * DEFAULT_BALANCE,
+					accountDao.getAll().stream().mapToLong(account -> account.readBalance()).sum());
+		}
+	}
+
+	private static HttpTransport createTransport(final String name, final int port) throws IOException {
+		switch (name) {
+			case "spark":
+				return new SparkTransport(port, new QueuedThreadPool());
+			case "jetty":
+				return new JettyTransport(port, new QueuedThreadPool());
+			default:
+				return new JdkTransport(port, new QueuedThreadPool());
+		}
+	}
+
+	/**
+	 * Every client sends payments over its own keep-alive connection, each waiting for its previous response.
+	 * A raw socket client is used, so responses of every transport are read the same way, whether chunked or not.
+	 * @return Number of successful payments.
+	 */
+	private static int load(final int port) throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(CLIENTS);
+		try {
+			final List<Future<Integer>> futures = new ArrayList<>();
+			for (int client = 0; client < CLIENTS; client++) {
+				futures.add(executor.submit(() -> {
+					try (Socket socket = new Socket("localhost", port)) {
+						socket.setTcpNoDelay(true);
+						final OutputStream output = socket.getOutputStream();
+						final InputStream input = new BufferedInputStream(socket.getInputStream());
+						final ThreadLocalRandom random = ThreadLocalRandom.current();
+						int served = 0;
+						for (int i = 0; i < REQUESTS_PER_CLIENT; i++) {
+							final int source = random.nextInt(ACCOUNTS);
+							final String body = String.format("{\"sourceAccount\":\"%d\",\"targetAccount\":\"%d\",\"amount\":0.01}",
+									source, (source + 1 + random.nextInt(ACCOUNTS - 1)) % ACCOUNTS);
+							final byte[] request = ("POST /payment HTTP/1.1\r\nHost: localhost\r\n"
+									+ "Content-Type: application/json\r\nContent-Length: " + body.length() + "\r\n\r\n" + body)
+									.getBytes(StandardCharsets.US_ASCII);
+							output.write(request);
+							output.flush();
+							if (readResponse(input) == HttpStatus.OK_200) {
+								served++;
+							}
+						}
+						return served;
+					}
+				}));
+			}
+			int served = 0;
+			for (final Future<Integer> future : futures) {
+				served += future.get();
+			}
+			return served;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Reads a response with Content-Length or chunked body.
+	 * @return Status of the response.
+	 */
+	private static int readResponse(final InputStream input) throws IOException {
+		final int status = Integer.parseInt(readLine(input).split(" ")[1]);
+		long length = 0;
+		boolean chunked = false;
+		for (String header = readLine(input); !header.isEmpty(); header = readLine(input)) {
+			final String lower = header.toLowerCase();
+			if (lower.startsWith("content-length:")) {
+				length = Long.parseLong(lower.substring("content-length:".length()).trim());
+			} else if (lower.startsWith("transfer-encoding:") && lower.contains("chunked")) {
+				chunked = true;
+			}
+		}
+		if (!chunked) {
+			skip(input, length);
+			return status;
+		}
+		for (long chunk = Long.parseLong(readLine(input).trim(), 16); chunk > 0; chunk = Long.parseLong(readLine(input).trim(), 16)) {
+			skip(input, chunk);
+			readLine(input);
+		}
+		readLine(input);
+		return status;
+	}
+
+	private static String readLine(final InputStream input) throws IOException {
+		final StringBuilder line = new StringBuilder();
+		for (int c = input.read(); c != '\n'; c = input.read()) {
+			if (c < 0) {
+				throw new IOException("Connection closed.");
+			}
+			if (c != '\r') {
+				line.append((char) c);
+			}
+		}
+		return line.toString();
+	}
+
+	private static void skip(final InputStream input, final long bytes) throws IOException {
+		for (long i = 0; i < bytes; i++) {
+			if (input.read() < 0) {
+				throw new IOException("Connection closed.");
+			}
+		}
+	}
+
+	private static int findFreePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+}
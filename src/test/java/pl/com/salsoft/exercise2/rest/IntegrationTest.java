@@ -1,6 +1,7 @@
 package pl.com.salsoft.exercise2.rest;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -15,32 +16,58 @@ import java.net.http.HttpRequest.BodyPublishers;
 import java.net.http.HttpRequest.Builder;
 import java.net.http.HttpResponse;
 import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TestName;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import pl.com.salsoft.exercise2.dao.AccountDao;
+import pl.com.salsoft.exercise2.dao.ChangeFeed;
+import pl.com.salsoft.exercise2.dao.CompactAccountStore;
+import pl.com.salsoft.exercise2.dao.Journal;
+import pl.com.salsoft.exercise2.dao.MapAccountStore;
+import pl.com.salsoft.exercise2.dao.TransactionHistory;
+import pl.com.salsoft.exercise2.metrics.MetricsRegistry;
+import pl.com.salsoft.exercise2.metrics.RequestMetrics;
 import pl.com.salsoft.exercise2.model.Account;
 import pl.com.salsoft.exercise2.model.PaymentRequest;
 import pl.com.salsoft.exercise2.model.PaymentResult;
+import pl.com.salsoft.exercise2.service.AccountBulkService;
 import pl.com.salsoft.exercise2.service.AccountService;
+import pl.com.salsoft.exercise2.service.AsyncPaymentService;
+import pl.com.salsoft.exercise2.service.IdempotencyCache;
 import pl.com.salsoft.exercise2.service.JsonService;
+import pl.com.salsoft.exercise2.service.PaymentResultStore;
 import pl.com.salsoft.exercise2.service.PaymentService;
-import spark.Spark;
 
+@RunWith(Parameterized.class)
 public class IntegrationTest {
 
 	private static final String URL_PATTERN = "http://localhost:%d/%s";
@@ -57,24 +84,54 @@ public class IntegrationTest {
 		}
 	}
 
+	@Parameter
+	public String transportName;
+
+	@Rule
+	public TestName testName = new TestName();
+
 	private HttpClient client;
+	private AsyncPaymentService asyncPaymentService;
+	private HttpTransport transport;
+	private Path importDirectory;
+
+	@Parameters(name = "{0}")
+	public static List<String> transports() {
+		return List.of("spark", "jetty", "jdk");
+	}
 
 	@After
-	public void afterTest() {
-		Spark.stop();
-		Spark.awaitStop();
+	public void afterTest() throws IOException {
+		transport.stop();
+		asyncPaymentService.close();
+		Files.delete(importDirectory);
 	}
 
 	@Before
-	public void beforeTest() {
-		Spark.port(FREE_PORT);
+	public void beforeTest() throws IOException {
+		transport = createTransport();
 
-		final AccountDao accountDao = new AccountDao(DEFAULT_BALANCE);
+		// Tests named testCompactStore... run against the compact store, the rest against the default one.
+		final AccountDao accountDao = new AccountDao(testName.getMethodName().startsWith("testCompactStore")
+				? new CompactAccountStore(DEFAULT_BALANCE) : new MapAccountStore(DEFAULT_BALANCE), Journal.NONE,
+				new TransactionHistory(16), new ChangeFeed(16));
 		final JsonService jsonService = new JsonService();
 		final PaymentService paymentService = new PaymentService(accountDao);
 		final AccountService accountService = new AccountService(accountDao);
-		new PaymentController(jsonService, paymentService).init();
-		new AccountController(jsonService, accountService).init();
+		asyncPaymentService = new AsyncPaymentService(paymentService, new PaymentResultStore(100, 1, TimeUnit.MINUTES), 100, 1);
+		final MetricsRegistry metricsRegistry = new MetricsRegistry();
+		final RequestMetrics requestMetrics = metricsRegistry.getRequestMetrics();
+		metricsRegistry.counter("payments_total", "Payments by outcome.", paymentService::getSucceededCount,
+				"outcome", "success");
+		new PaymentController(jsonService, paymentService, new IdempotencyCache(100, 1, TimeUnit.MINUTES), requestMetrics)
+				.routes(transport);
+		new AsyncPaymentController(jsonService, asyncPaymentService, requestMetrics).routes(transport);
+		new AccountController(jsonService, accountService, 2, requestMetrics).routes(transport);
+		new MetricsController(jsonService, metricsRegistry).routes(transport);
+		importDirectory = Files.createTempDirectory("imports");
+		new AdminController(jsonService, new AccountBulkService(accountDao), importDirectory, requestMetrics)
+				.routes(transport);
+		transport.start();
 
 		client = HttpClient.newHttpClient();
 	}
@@ -91,6 +148,98 @@ public class IntegrationTest {
 		assertEquals("", response.body());
 	}
 
+	@Test
+	public void testAccountTransactions() throws IOException, InterruptedException {
+		// Given
+		post("payment", toJson(createRequest("111", "222", "10.00")));
+		post("payment", toJson(createRequest("222", "111", "2.50")));
+		post("payment", toJson(createRequest("111", "333", "1.00")));
+
+		// When
+		final var response = get("account/111/transactions?limit=2");
+		final var invalidLimit = get("account/111/transactions?limit=0");
+		final var unknownAccount = get("account/999/transactions");
+
+		// Then
+		assertEquals(HttpStatus.OK_200, response.statusCode());
+		final JsonNode transactions = mapper.readTree(response.body());
+		assertEquals(2, transactions.size());
+		assertEquals(3, transactions.get(0).get("sequence").asLong());
+		assertEquals("333", transactions.get(0).get("counterparty").asText());
+		assertEquals(-1.00, transactions.get(0).get("amount").asDouble(), 0);
+		assertEquals(91.50, transactions.get(0).get("balance").asDouble(), 0);
+		assertEquals("222", transactions.get(1).get("counterparty").asText());
+		assertEquals(2.50, transactions.get(1).get("amount").asDouble(), 0);
+		assertEquals(92.50, transactions.get(1).get("balance").asDouble(), 0);
+		assertEquals(HttpStatus.BAD_REQUEST_400, invalidLimit.statusCode());
+		assertEquals(HttpStatus.NOT_FOUND_404, unknownAccount.statusCode());
+	}
+
+	@Test
+	public void testAccountChanges() throws IOException, InterruptedException {
+		// Given
+		final HttpResponse<Stream<String>> stream = client.send(HttpRequest.newBuilder()
+				.uri(URI.create(String.format(URL_PATTERN, FREE_PORT, "account/changes")))
+				.header("Accept", "text/event-stream")
+				.build(), BodyHandlers.ofLines());
+		final Iterator<String> lines = stream.body().iterator();
+		assertTrue(lines.next().startsWith(": since "));
+
+		// When
+		post("payment", toJson(createRequest("111", "222", "10.00")));
+		final List<JsonNode> changes = new ArrayList<>();
+		String firstId = null;
+		while (changes.size() < 4) {
+			final String line = lines.next();
+			if (line.startsWith("id: ") && firstId == null) {
+				firstId = line.substring("id: ".length());
+			} else if (line.startsWith("data: ")) {
+				changes.add(mapper.readTree(line.substring("data: ".length())));
+			}
+		}
+		stream.body().close();
+		for (int i = 0; i < 10; i++) {
+			post("payment", toJson(createRequest("111", "333", "1.00")));
+		}
+		final String since = Long.toString(Long.parseLong(firstId) - 1);
+		final var behind = get("account/changes?since=" + since);
+		final var invalid = get("account/changes?since=abc");
+
+		// Then
+		assertEquals(Set.of("CREATED 111", "CREATED 222"), Set.of(changes.get(0).get("type").asText() + " "
+				+ changes.get(0).get("account").asText(), changes.get(1).get("type").asText() + " "
+				+ changes.get(1).get("account").asText()));
+		assertEquals("UPDATED", changes.get(2).get("type").asText());
+		assertEquals("111", changes.get(2).get("account").asText());
+		assertEquals("UPDATED", changes.get(3).get("type").asText());
+		assertEquals("222", changes.get(3).get("account").asText());
+		assertEquals(0, new BigDecimal("110.00").compareTo(changes.get(3).get("balance").decimalValue()));
+		assertEquals(Long.parseLong(firstId) + 3, changes.get(3).get("sequence").asLong());
+		assertEquals(HttpStatus.OK_200, behind.statusCode());
+		assertTrue(behind.body(), behind.body().contains("event: resync\n"));
+		assertEquals(HttpStatus.BAD_REQUEST_400, invalid.statusCode());
+	}
+
+	@Test
+	public void testAccountChangesSubscribersLimited() throws IOException, InterruptedException {
+		// Given
+		final HttpRequest request = HttpRequest.newBuilder()
+				.uri(URI.create(String.format(URL_PATTERN, FREE_PORT, "account/changes")))
+				.build();
+		final HttpResponse<Stream<String>> first = client.send(request, BodyHandlers.ofLines());
+		final HttpResponse<Stream<String>> second = client.send(request, BodyHandlers.ofLines());
+
+		// When
+		final var rejected = get("account/changes");
+
+		// Then
+		assertEquals(HttpStatus.OK_200, first.statusCode());
+		assertEquals(HttpStatus.OK_200, second.statusCode());
+		assertEquals(HttpStatus.SERVICE_UNAVAILABLE_503, rejected.statusCode());
+		first.body().close();
+		second.body().close();
+	}
+
 	@Test
 	public void testAccountOptions() throws IOException, InterruptedException {
 		// Given
@@ -175,6 +324,319 @@ public class IntegrationTest {
 		assertEquals(16000L, accounts.get(1).getBalance().get());
 	}
 
+	@Test
+	public void testGetAccountsConditional() throws IOException, InterruptedException {
+		// Given
+		post("payment", toJson(createRequest("111", "222", "10.00")));
+		final var account = get("account/111");
+		final var accounts = get("account");
+		final String accountTag = account.headers().firstValue("ETag").orElseThrow();
+		final String accountsTag = accounts.headers().firstValue("ETag").orElseThrow();
+		final String otherTag = get("account/222").headers().firstValue("ETag").orElseThrow();
+
+		// When
+		final var unchanged = get("account/111", accountTag);
+		final var unchangedAll = get("account", "W/" + accountsTag);
+		post("payment", toJson(createRequest("111", "333", "1.00")));
+		final var changed = get("account/111", accountTag);
+		final var changedAll = get("account", accountsTag);
+		final var otherUnchanged = get("account/222", otherTag);
+
+		// Then
+		assertEquals(HttpStatus.NOT_MODIFIED_304, unchanged.statusCode());
+		assertEquals("", unchanged.body());
+		assertEquals(accountTag, unchanged.headers().firstValue("ETag").orElseThrow());
+		assertEquals(HttpStatus.NOT_MODIFIED_304, unchangedAll.statusCode());
+		assertEquals(HttpStatus.OK_200, changed.statusCode());
+		assertEquals(0, new BigDecimal("89.00").compareTo(mapper.readTree(changed.body()).get("balance").decimalValue()));
+		assertNotEquals(accountTag, changed.headers().firstValue("ETag").orElseThrow());
+		assertEquals(HttpStatus.OK_200, changedAll.statusCode());
+		assertEquals(HttpStatus.NOT_MODIFIED_304, otherUnchanged.statusCode());
+	}
+
+	@Test
+	public void testGetAccountsPollingBandwidth() throws IOException, InterruptedException {
+		// Given
+		final int polls = 50;
+		post("payment/batch", toJson(IntStream.range(0, 1000)
+				.mapToObj(i -> createRequest("" + i, "" + (i + 1) % 1000, "0.01"))
+				.collect(Collectors.toList())));
+
+		// When
+		// Dashboards poll all accounts, and one in ten polls sees a change.
+		final long[] bytes = new long[2];
+		final int[] notModified = new int[2];
+		for (int conditional = 0; conditional < 2; conditional++) {
+			String tag = null;
+			for (int i = 0; i < polls; i++) {
+				if (i % 10 == 0) {
+					post("payment", toJson(createRequest("" + i, "" + (i + 1), "0.01")));
+				}
+				final var response = conditional == 1 && tag != null ? get("account", tag) : get("account");
+				bytes[conditional] += response.body().length();
+				tag = response.headers().firstValue("ETag").orElseThrow();
+				if (response.statusCode() == HttpStatus.NOT_MODIFIED_304) {
+					notModified[conditional]++;
+				}
+			}
+		}
+
+		// Then
+		assertEquals(0, notModified[0]);
+		assertEquals(polls - polls / 10, notModified[1]);
+		assertTrue(bytes[1] * 5 < bytes[0]);
+	}
+
+	@Test
+	public void testGetAccountsInvalidLimit() throws IOException, InterruptedException {
+		// Given
+		// Nothing
+
+		// When
+		final var response1 = get("account?limit=0");
+		final var response2 = get("account?limit=abc");
+
+		// Then
+		assertEquals(HttpStatus.BAD_REQUEST_400, response1.statusCode());
+		assertEquals(HttpStatus.BAD_REQUEST_400, response2.statusCode());
+	}
+
+	@Test
+	public void testGetAccountsPaginated() throws IOException, InterruptedException {
+		// Given
+		post("payment", toJson(createRequest("111", "222", "10.00")));
+		post("payment", toJson(createRequest("333", "444", "20.00")));
+
+		// When
+		final var response1 = get("account?limit=3");
+		final var response2 = get("account?limit=3&after=333");
+
+		// Then
+		assertEquals(HttpStatus.OK_200, response1.statusCode());
+		final JsonNode page1 = mapper.readTree(response1.body());
+		assertEquals(3, page1.get("accounts").size());
+		assertEquals("111", page1.get("accounts").get(0).get("number").asText());
+		assertEquals("222", page1.get("accounts").get(1).get("number").asText());
+		assertEquals("333", page1.get("accounts").get(2).get("number").asText());
+		assertEquals("333", page1.get("next").asText());
+
+		assertEquals(HttpStatus.OK_200, response2.statusCode());
+		final JsonNode page2 = mapper.readTree(response2.body());
+		assertEquals(1, page2.get("accounts").size());
+		assertEquals("444", page2.get("accounts").get(0).get("number").asText());
+		assertEquals(0, new BigDecimal("120.00").compareTo(page2.get("accounts").get(0).get("balance").decimalValue()));
+		assertTrue(page2.get("next").isNull());
+	}
+
+	@Test
+	public void testGetAccountsStreamed() throws IOException, InterruptedException {
+		// Given
+		post("payment", toJson(createRequest("111", "222", "10.00")));
+		post("payment", toJson(createRequest("333", "444", "20.00")));
+
+		// When
+		final var response = get("account?stream=true");
+
+		// Then
+		assertEquals(HttpStatus.OK_200, response.statusCode());
+		final Map<String, Long> balances = fromJson(response.body(), new TypeReference<List<Account>>() {})
+				.stream()
+				.collect(Collectors.toMap(Account::getNumber, account -> account.getBalance().get()));
+		assertEquals(Map.of("111", 9000L, "222", 11000L, "333", 8000L, "444", 12000L), balances);
+	}
+
+	@Test
+	public void testBatchPayment() throws IOException, InterruptedException {
+		// Given
+		final List<PaymentRequest> requests = List.of(
+				createRequest("111", "222", "60.00"),
+				createRequest("333", "222", "10.00"),
+				createRequest("111", "222", "60.00"));
+
+		final List<PaymentRequest> tooMany = IntStream.range(0, 1001)
+				.mapToObj(i -> createRequest("111", "222", "0.01"))
+				.collect(Collectors.toList());
+
+		// When
+		final var response = post("payment/batch", toJson(requests));
+		final var rejected = post("payment/batch", toJson(tooMany));
+
+		// Then
+		assertEquals(HttpStatus.PAYLOAD_TOO_LARGE_413, rejected.statusCode());
+		assertEquals(HttpStatus.OK_200, response.statusCode());
+		final List<PaymentResult> expectedResults = List.of(
+				PaymentResult.builder().accountNumber("111").balance(new BigDecimal("40.00")).success(true).build(),
+				PaymentResult.builder().accountNumber("333").balance(new BigDecimal("90.00")).success(true).build(),
+				PaymentResult.builder().accountNumber("111").balance(new BigDecimal("40.00")).success(false)
+						.message(ErrorMessages.INSUFFICIENT_FUNDS_MESSAGE).build());
+		assertEquals(toJson(expectedResults), response.body());
+	}
+
+	@Test
+	public void testAdminImportAndExport() throws IOException, InterruptedException {
+		// Given
+		post("payment", toJson(createRequest("111", "222", "10.00")));
+		final Path file = importDirectory.resolve("accounts.csv");
+		Files.writeString(file, "number,balance\n333,5.00\n");
+		final Path outside = Files.createTempFile("accounts", ".csv");
+		Files.writeString(outside, "number,balance\n666,5.00\n");
+
+		// When
+		final var fromBody = post("admin/accounts/import", "{\"number\":\"111\",\"balance\":1}\n{\"number\":\"444\",\"balance\":2}");
+		final var fromFile = post("admin/accounts/import?file=accounts.csv", "");
+		final var absolute = post("admin/accounts/import?file=" + outside.toUri().getPath(), "");
+		final var relative = post("admin/accounts/import?file=../" + outside.getFileName(), "");
+		Files.delete(file);
+		Files.delete(outside);
+		final var invalid = post("admin/accounts/import?format=csv", "555");
+		final var missing = post("admin/accounts/import?file=accounts.csv", "");
+		final var ndjson = get("admin/accounts/export");
+		final var csv = get("admin/accounts/export?format=csv");
+
+		// Then
+		assertEquals(HttpStatus.OK_200, fromBody.statusCode());
+		assertEquals(2, mapper.readTree(fromBody.body()).get("rows").asLong());
+		assertEquals(1, mapper.readTree(fromBody.body()).get("created").asLong());
+		assertEquals(HttpStatus.OK_200, fromFile.statusCode());
+		assertEquals(1, mapper.readTree(fromFile.body()).get("created").asLong());
+		assertEquals(HttpStatus.BAD_REQUEST_400, absolute.statusCode());
+		assertEquals(HttpStatus.BAD_REQUEST_400, relative.statusCode());
+		assertEquals(HttpStatus.BAD_REQUEST_400, invalid.statusCode());
+		assertEquals("Invalid accounts to import.", mapper.readTree(invalid.body()).get("error").asText());
+		assertEquals(HttpStatus.BAD_REQUEST_400, missing.statusCode());
+		assertEquals(HttpStatus.OK_200, ndjson.statusCode());
+		assertEquals(4, ndjson.body().lines().count());
+		assertTrue(ndjson.body().contains("{\"number\":\"111\",\"balance\":90.00}\n"));
+		assertEquals(HttpStatus.OK_200, csv.statusCode());
+		assertEquals(List.of("111,90.00", "222,110.00", "333,5.00", "444,2.00", "number,balance"),
+				csv.body().lines().sorted().collect(Collectors.toList()));
+	}
+
+	@Test
+	public void testAsyncPayment() throws IOException, InterruptedException {
+		// Given
+		final PaymentRequest request = createRequest("111", "222", "40.35");
+
+		// When
+		final var response = post("payment/async", toJson(request));
+		final String id = fromJson(response.body(), new TypeReference<Map<String, String>>() {}).get("id");
+		var result = get("payment/" + id);
+		while (result.statusCode() == HttpStatus.ACCEPTED_202) {
+			Thread.sleep(10);
+			result = get("payment/" + id);
+		}
+
+		// Then
+		assertEquals(HttpStatus.ACCEPTED_202, response.statusCode());
+		assertEquals("/payment/" + id, response.headers().firstValue("Location").orElseThrow());
+		assertEquals(HttpStatus.OK_200, result.statusCode());
+		assertEquals(toJson(PaymentResult.builder().accountNumber("111").balance(new BigDecimal("59.65")).success(true).build()),
+				result.body());
+		final Map<String, Object> stats = fromJson(get("payment/async/stats").body(), new TypeReference<Map<String, Object>>() {});
+		assertEquals(1, stats.get("completed"));
+		assertEquals(0, stats.get("queueDepth"));
+	}
+
+	@Test
+	public void testAsyncPaymentUnknown() throws IOException, InterruptedException {
+		// Given
+		// Nothing
+
+		// When
+		final var response = get("payment/12345");
+		final var invalidResponse = get("payment/abc");
+
+		// Then
+		assertEquals(HttpStatus.NOT_FOUND_404, response.statusCode());
+		assertEquals(HttpStatus.NOT_FOUND_404, invalidResponse.statusCode());
+	}
+
+	@Test
+	public void testBatchPaymentsOfAnySizeConserveMoney() throws IOException, InterruptedException {
+		// Given
+		final int payments = 200;
+		final List<PaymentRequest> requests = IntStream.range(0, payments)
+				.mapToObj(i -> createRequest("" + i % 100, "" + (i * 7 + 1) % 100, "0.01"))
+				.collect(Collectors.toList());
+
+		// When
+		final List<Integer> statuses = new ArrayList<>();
+		for (final int batchSize : new int[] {1, 10, 100}) {
+			for (int i = 0; i < payments; i += batchSize) {
+				statuses.add(post("payment/batch", toJson(requests.subList(i, i + batchSize))).statusCode());
+			}
+		}
+
+		// Then
+		assertTrue(statuses.stream().allMatch(status -> status == HttpStatus.OK_200));
+		final List<Account> accounts = fromJson(get("account").body(), new TypeReference<List<Account>>() {});
+		assertEquals(100 * DEFAULT_BALANCE, accounts.stream().mapToLong(account -> account.getBalance().get()).sum());
+	}
+
+	@Test
+	public void testCompactStoreUnsupportedNumbers() throws IOException, InterruptedException {
+		// Given
+		final String batch = toJson(List.of(createRequest("111", "222", "1.00"), createRequest("111", "abc", "1.00")));
+
+		// When
+		final var getUnsupported = get("account/abc");
+		final var deleteUnsupported = delete("account/123456789012345678");
+		final var payment = post("payment", toJson(createRequest("abc", "111", "1.00")));
+		final var batchPayment = post("payment/batch", batch);
+		final var asyncPayment = post("payment/async", toJson(createRequest("111", "x", "1.00")));
+		final var validPayment = post("payment", toJson(createRequest("333", "444", "1.00")));
+
+		// Then
+		assertEquals(HttpStatus.NOT_FOUND_404, getUnsupported.statusCode());
+		assertEquals(HttpStatus.NOT_FOUND_404, deleteUnsupported.statusCode());
+		assertEquals(HttpStatus.BAD_REQUEST_400, payment.statusCode());
+		assertEquals(HttpStatus.BAD_REQUEST_400, batchPayment.statusCode());
+		assertEquals(HttpStatus.BAD_REQUEST_400, asyncPayment.statusCode());
+		assertEquals(HttpStatus.OK_200, validPayment.statusCode());
+		// Nothing of the rejected batch was made.
+		assertEquals(HttpStatus.NOT_FOUND_404, get("account/111").statusCode());
+		assertEquals(HttpStatus.OK_200, get("account/444").statusCode());
+	}
+
+	@Test
+	public void testIdempotentPaymentRetry() throws IOException, InterruptedException {
+		// Given
+		final String body = toJson(createRequest("111", "222", "40.00"));
+		final String otherBody = toJson(createRequest("111", "333", "1.00"));
+
+		// When
+		final var first = send(builder -> builder.POST(BodyPublishers.ofString(body)).header("Idempotency-Key", "retry-1"), "payment");
+		final var retry = send(builder -> builder.POST(BodyPublishers.ofString(body)).header("Idempotency-Key", "retry-1"), "payment");
+		final var reused = send(builder -> builder.POST(BodyPublishers.ofString(otherBody)).header("Idempotency-Key", "retry-1"), "payment");
+
+		// Then
+		assertEquals(HttpStatus.OK_200, first.statusCode());
+		assertEquals(first.body(), retry.body());
+		assertEquals(HttpStatus.UNPROCESSABLE_ENTITY_422, reused.statusCode());
+		assertTrue(get("account/111").body().contains("\"balance\":60.00"));
+		final Map<String, Object> stats = fromJson(get("payment/idempotency/stats").body(), new TypeReference<Map<String, Object>>() {});
+		assertEquals(1, stats.get("hits"));
+	}
+
+	@Test
+	public void testMetrics() throws IOException, InterruptedException {
+		// Given
+		post("payment", toJson(createRequest("111", "222", "10.00")));
+		get("account/111");
+		get("account/111");
+
+		// When
+		final var response = get("metrics");
+
+		// Then
+		assertEquals(HttpStatus.OK_200, response.statusCode());
+		assertTrue(response.headers().firstValue("Content-Type").orElseThrow().startsWith("text/plain; version=0.0.4"));
+		final String body = response.body();
+		assertTrue(body.contains("payments_total{outcome=\"success\"} 1\n"));
+		assertTrue(body.contains("http_request_duration_seconds_count{method=\"POST\",route=\"/payment\",status=\"200\"} 1\n"));
+		assertTrue(body.contains("http_request_duration_seconds_count{method=\"GET\",route=\"/account/:number\",status=\"200\"} 2\n"));
+	}
+
 	@Test
 	public void testPaymentHead() throws IOException, InterruptedException {
 		// Given
@@ -266,6 +728,25 @@ public class IntegrationTest {
 		assertEquals(toJson(expectedResult), response.body());
 	}
 
+	private HttpTransport createTransport() throws IOException {
+		switch (transportName) {
+			case "spark":
+				return new SparkTransport(FREE_PORT, new QueuedThreadPool());
+			case "jetty":
+				return new JettyTransport(FREE_PORT, new QueuedThreadPool());
+			default:
+				return new JdkTransport(FREE_PORT, new QueuedThreadPool());
+		}
+	}
+
+	private static PaymentRequest createRequest(final String source, final String target, final String amount) {
+		return PaymentRequest.builder()
+				.sourceAccount(source)
+				.targetAccount(target)
+				.amount(new BigDecimal(amount))
+				.build();
+	}
+
 	private HttpResponse<String> delete(final String resource) throws IOException, InterruptedException {
 		return send(builder -> builder.DELETE(), resource);
 	}
@@ -278,6 +759,10 @@ public class IntegrationTest {
 		return send(builder -> builder.GET(), resource);
 	}
 
+	private HttpResponse<String> get(final String resource, final String ifNoneMatch) throws IOException, InterruptedException {
+		return send(builder -> builder.GET().header("If-None-Match", ifNoneMatch), resource);
+	}
+
 	private HttpResponse<String> head(final String resource) throws IOException, InterruptedException {
 		return send(builder -> builder.method("HEAD", BodyPublishers.noBody()), resource);
 	}
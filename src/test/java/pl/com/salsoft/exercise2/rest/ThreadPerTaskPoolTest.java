@@ -0,0 +1,228 @@
+package pl.com.salsoft.exercise2.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import pl.com.salsoft.exercise2.dao.AccountDao;
+import pl.com.salsoft.exercise2.dao.FileJournal;
+import pl.com.salsoft.exercise2.dao.FileJournal.Durability;
+import pl.com.salsoft.exercise2.dao.JournalReplayer;
+import pl.com.salsoft.exercise2.dao.MapAccountStore;
+import pl.com.salsoft.exercise2.service.AccountService;
+import pl.com.salsoft.exercise2.service.CasPaymentEngine;
+import pl.com.salsoft.exercise2.service.JsonService;
+import pl.com.salsoft.exercise2.service.PaymentService;
+import spark.Spark;
+import spark.embeddedserver.EmbeddedServers;
+import spark.embeddedserver.jetty.EmbeddedJettyFactory;
+
+public class ThreadPerTaskPoolTest {
+	private static final long DEFAULT_BALANCE = 10000;
+	private static final long SEGMENT_SIZE = 1 << 20;
+	private static final int ACCOUNTS = 100;
+	private static final int CLIENTS = 16;
+	private static final int REQUESTS_PER_CLIENT = 5;
+
+	private Path directory;
+
+	@After
+	public void afterTest() throws IOException {
+		Spark.stop();
+		Spark.awaitStop();
+		// Other tests expect Spark's default server and pool.
+		EmbeddedServers.add(EmbeddedServers.defaultIdentifier(), new EmbeddedJettyFactory());
+		Spark.threadPool(-1, -1, -1);
+		try (var files = Files.walk(directory)) {
+			for (final Path path : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(path);
+			}
+		}
+	}
+
+	@Before
+	public void beforeTest() throws IOException {
+		directory = Files.createTempDirectory("journal");
+	}
+
+	@Test
+	public void testEveryTaskGetsNewThread() throws Exception {
+		// Given
+		final ThreadPerTaskPool pool = new ThreadPerTaskPool(Thread::new);
+		final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(3);
+		pool.start();
+
+		// When
+		for (int i = 0; i < 3; i++) {
+			pool.execute(() -> {
+				threads.add(Thread.currentThread());
+				await(release);
+				done.countDown();
+			});
+		}
+		final int running = pool.getThreads();
+		release.countDown();
+		done.await();
+
+		// Then
+		assertEquals(3, running);
+		assertEquals(3, threads.size());
+		assertEquals(0, pool.getIdleThreads());
+		pool.stop();
+	}
+
+	@Test
+	public void testStopInterruptsRunningTasks() throws Exception {
+		// Given
+		final ThreadPerTaskPool pool = new ThreadPerTaskPool(Thread::new);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch interrupted = new CountDownLatch(1);
+		pool.start();
+		pool.execute(() -> {
+			try {
+				started.countDown();
+				new CountDownLatch(1).await();
+			} catch (final InterruptedException e) {
+				interrupted.countDown();
+			}
+		});
+		started.await();
+
+		// When
+		pool.stop();
+
+		// Then
+		assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+		assertEquals(0, pool.getThreads());
+		pool.join();
+	}
+
+	@Test
+	public void testRequestsServedInAllThreadModes() throws Exception {
+		// Given
+		final List<ThreadPool> modes = new ArrayList<>();
+		modes.add(new QueuedThreadPool(16, 8));
+		modes.add(new ThreadPerTaskPool(Thread::new));
+		if (ThreadPerTaskPool.isVirtualSupported()) {
+			modes.add(ThreadPerTaskPool.virtual());
+		}
+
+		for (final ThreadPool mode : modes) {
+			// When
+			final FileJournal journal = FileJournal.open(Files.createDirectory(directory.resolve("" + mode.hashCode())),
+					Durability.BATCHED, SEGMENT_SIZE, 0, new JournalReplayer(new MapAccountStore(0)));
+			final AccountDao accountDao = new AccountDao(new MapAccountStore(DEFAULT_BALANCE), journal);
+			final int port = start(mode, accountDao, journal);
+			load(port);
+			Spark.stop();
+			Spark.awaitStop();
+			journal.close();
+
+			// Then
+			assertEquals(ACCOUNTS * DEFAULT_BALANCE, accountDao.getAll().stream().mapToLong(account -> account.readBalance()).sum());
+		}
+	}
+
+	private static int start(final ThreadPool pool, final AccountDao accountDao, final FileJournal journal) {
+		final int port = findFreePort();
+		final SparkTransport transport = new SparkTransport(port, pool);
+		final JsonService jsonService = new JsonService();
+		final CasPaymentEngine paymentEngine = new CasPaymentEngine(accountDao, journal);
+		new PaymentController(jsonService, new PaymentService(paymentEngine, journal)).routes(transport);
+		new AccountController(jsonService, new AccountService(accountDao, paymentEngine)).routes(transport);
+		transport.start();
+		return port;
+	}
+
+	/**
+	 * Every client alternates POST /payment and GET /account/{number}, each waiting for its previous response.
+	 */
+	private static void load(final int port) throws Exception {
+		final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+		final ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+		try {
+			for (int i = 0; i < ACCOUNTS; i++) {
+				send(client, post(port, i, (i + 1) % ACCOUNTS)); // Creates all accounts
+			}
+			final List<Future<?>> futures = new ArrayList<>();
+			for (int c = 0; c < CLIENTS; c++) {
+				final int clientId = c;
+				futures.add(clients.submit(() -> {
+					for (int i = 0; i < REQUESTS_PER_CLIENT; i++) {
+						final int account = (clientId * REQUESTS_PER_CLIENT + i) % ACCOUNTS;
+						send(client, post(port, account, (account * 7 + 1) % ACCOUNTS));
+						send(client, get(port, account));
+					}
+					return null;
+				}));
+			}
+			for (final Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			clients.shutdownNow();
+		}
+	}
+
+	private static HttpRequest post(final int port, final int source, final int target) {
+		final String body = String.format("{\"sourceAccount\":\"%d\",\"targetAccount\":\"%d\",\"amount\":0.01}",
+				source, target);
+		return HttpRequest.newBuilder(URI.create(url(port, "payment"))).POST(HttpRequest.BodyPublishers.ofString(body)).build();
+	}
+
+	private static HttpRequest get(final int port, final int account) {
+		return HttpRequest.newBuilder(URI.create(url(port, "account/" + account))).GET().build();
+	}
+
+	private static void send(final HttpClient client, final HttpRequest request) throws IOException, InterruptedException {
+		final HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+		assertEquals(HttpStatus.OK_200, response.statusCode());
+	}
+
+	private static String url(final int port, final String path) {
+		return String.format("http://localhost:%d/%s", port, path);
+	}
+
+	private static void await(final CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static int findFreePort() {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		} catch (final IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
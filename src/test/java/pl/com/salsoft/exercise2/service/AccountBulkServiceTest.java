@@ -0,0 +1,239 @@
+package pl.com.salsoft.exercise2.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import pl.com.salsoft.exercise2.dao.AccountDao;
+import pl.com.salsoft.exercise2.dao.ChangeFeed;
+import pl.com.salsoft.exercise2.dao.CompactAccountStore;
+import pl.com.salsoft.exercise2.dao.Journal;
+import pl.com.salsoft.exercise2.dao.MapAccountStore;
+import pl.com.salsoft.exercise2.dao.TransactionHistory;
+import pl.com.salsoft.exercise2.model.Account;
+import pl.com.salsoft.exercise2.model.AccountImportStats;
+import pl.com.salsoft.exercise2.service.AccountBulkService.Format;
+
+public class AccountBulkServiceTest {
+	private static final long DEFAULT_BALANCE = 10000;
+	private static final int CHUNKED_ACCOUNTS = 1_000_000;
+	private Path directory;
+
+	@After
+	public void afterTest() throws IOException {
+		try (var files = Files.walk(directory)) {
+			for (final Path path : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(path);
+			}
+		}
+	}
+
+	@Before
+	public void beforeTest() throws IOException {
+		directory = Files.createTempDirectory("accounts");
+	}
+
+	@Test
+	public void testCsvImportAndExport() throws IOException {
+		// Given
+		final AccountDao accountDao = new AccountDao(new MapAccountStore(DEFAULT_BALANCE), Journal.NONE,
+				TransactionHistory.NONE, new ChangeFeed(16));
+		accountDao.getOrCreate("333");
+		final long head = accountDao.getChanges().head();
+		final Path file = write("accounts.csv", "number,balance\r\n111,12.34\r\n\"2,\"\"2\",0.5\r\n333,1\r\n\r\n444,-7");
+
+		// When
+		final AccountImportStats stats = new AccountBulkService(accountDao).importFile(file, Format.of(file));
+		final String exported = export(accountDao, Format.CSV);
+
+		// Then
+		assertEquals(4, stats.getRows());
+		assertEquals(3, stats.getCreated());
+		assertEquals(1, stats.getExisting());
+		assertEquals(Map.of("111", 1234L, "2,\"2", 50L, "333", DEFAULT_BALANCE, "444", -700L), balances(accountDao));
+		assertEquals(1, accountDao.getCreatedCount());
+		assertEquals(3, accountDao.getChanges().read(head, 10, (sequence, type, number) -> { }) - head);
+		assertEquals(List.of("\"2,\"\"2\",0.50", "111,12.34", "333,100.00", "444,-7.00", "number,balance"),
+				exported.lines().sorted().collect(Collectors.toList()));
+	}
+
+	@Test
+	public void testCsvExportOfNumberWithLineBreak() throws IOException {
+		// Given
+		final AccountDao accountDao = new AccountDao(DEFAULT_BALANCE);
+		accountDao.getOrCreate("1\n2");
+
+		// When
+		try {
+			export(accountDao, Format.CSV);
+			fail("Number with a line break was written to CSV.");
+		} catch (final IllegalArgumentException e) {
+			// Then
+			assertTrue(export(accountDao, Format.NDJSON).startsWith("{\"number\":\"1\\n2\","));
+		}
+	}
+
+	@Test
+	public void testImportWaitsUntilDurable() throws IOException {
+		// Given
+		final long[] positions = new long[2];
+		final Journal journal = new Journal() {
+			@Override
+			public void awaitDurable(final long position) {
+				positions[1] = position;
+			}
+
+			@Override
+			public long created(final String number, final long balance) {
+				return ++positions[0];
+			}
+
+			@Override
+			public long deleted(final String number) {
+				return ++positions[0];
+			}
+
+			@Override
+			public long position() {
+				return positions[0];
+			}
+
+			@Override
+			public long transferred(final String sourceNumber, final String targetNumber, final long amount) {
+				return ++positions[0];
+			}
+		};
+		final AccountDao accountDao = new AccountDao(new MapAccountStore(DEFAULT_BALANCE), journal);
+
+		// When
+		final AccountImportStats stats = new AccountBulkService(accountDao, 1).importText("111,1\n222,2\n", Format.CSV);
+
+		// Then
+		assertEquals(2, stats.getCreated());
+		assertEquals(2, positions[1]);
+	}
+
+	@Test
+	public void testNdjsonImportAndExport() throws IOException {
+		// Given
+		final AccountDao source = new AccountDao(DEFAULT_BALANCE);
+		final AccountBulkService sourceService = new AccountBulkService(source);
+		final AccountDao target = new AccountDao(DEFAULT_BALANCE);
+		final Path file = write("accounts.ndjson",
+				"{\"number\":\"111\",\"balance\":12.34}\n\n{ \"balance\" : 1e2, \"number\" : \"\\\"222\\\"\" }\n");
+
+		// When
+		sourceService.importFile(file, Format.NDJSON);
+		final String exported = export(source, Format.NDJSON);
+		final AccountImportStats stats = new AccountBulkService(target).importText(exported, Format.NDJSON);
+
+		// Then
+		assertEquals(2, stats.getRows());
+		assertEquals(2, stats.getCreated());
+		assertEquals(Map.of("111", 1234L, "\"222\"", 10000L), balances(target));
+		assertEquals(List.of("{\"number\":\"111\",\"balance\":12.34}", "{\"number\":\"\\\"222\\\"\",\"balance\":100.00}"),
+				exported.lines().sorted().collect(Collectors.toList()));
+	}
+
+	@Test
+	public void testInvalidRows() throws IOException {
+		for (final String rows : List.of("111,1\n222\n", "111,1\n222,1.234\n", "111,1\n\"222,1\n", "111,1\n222,abc\n",
+				"{\"number\":\"111\",\"balance\":1}\n{\"number\":\"222\"}\n", "{\"number\":\"111\",\"balance\":1}\n[1]\n",
+				"{\"number\":\"111\",\"balance\":1}\n{\"number\":\"222\",\"balance\":1,\"x\":1}\n")) {
+			// Given
+			final AccountBulkService service = new AccountBulkService(new AccountDao(DEFAULT_BALANCE));
+			final Format format = rows.startsWith("{") ? Format.NDJSON : Format.CSV;
+
+			// When
+			try {
+				service.importText(rows, format);
+				fail("Import of invalid rows succeeded: " + rows);
+			} catch (final IllegalArgumentException e) {
+				// Then
+				assertTrue(e.getMessage(), e.getMessage().startsWith("Invalid row at byte " + (rows.indexOf('\n') + 1)));
+			}
+		}
+	}
+
+	@Test
+	public void testRowsAcrossChunks() throws IOException {
+		// Given
+		final AccountDao accountDao = new AccountDao(new CompactAccountStore(DEFAULT_BALANCE));
+		final Path csv = directory.resolve("accounts.csv");
+		final Path ndjson = directory.resolve("accounts.ndjson");
+		writeAccounts(csv, Format.CSV, 0, CHUNKED_ACCOUNTS);
+		writeAccounts(ndjson, Format.NDJSON, CHUNKED_ACCOUNTS, CHUNKED_ACCOUNTS);
+		final AccountBulkService service = new AccountBulkService(accountDao, 3);
+
+		// When
+		final AccountImportStats csvStats = service.importFile(csv, Format.CSV);
+		final AccountImportStats ndjsonStats = service.importFile(ndjson, Format.NDJSON);
+
+		// Then
+		assertTrue(Files.size(csv) > 2 * (8 << 20));
+		assertTrue(Files.size(ndjson) > 2 * (8 << 20));
+		assertEquals(CHUNKED_ACCOUNTS, csvStats.getCreated());
+		assertEquals(CHUNKED_ACCOUNTS, ndjsonStats.getCreated());
+		assertEquals(2 * CHUNKED_ACCOUNTS, accountDao.size());
+		final long[] total = new long[1];
+		accountDao.forEach(account -> {
+			assertEquals(balance(Long.parseLong(account.getNumber()) - 1_000_000_000_000L), account.readBalance());
+			total[0]++;
+		});
+		assertEquals(2 * CHUNKED_ACCOUNTS, total[0]);
+		assertEquals(0, service.importFile(csv, Format.CSV).getCreated());
+	}
+
+	private Path write(final String name, final String content) throws IOException {
+		return Files.writeString(directory.resolve(name), content);
+	}
+
+	/**
+	 * Writes accounts with 13-digit numbers and balances derived from the numbers.
+	 */
+	private static void writeAccounts(final Path file, final Format format, final int first, final int count)
+			throws IOException {
+		try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			if (format == Format.CSV) {
+				writer.write("number,balance\n");
+			}
+			for (int i = first; i < first + count; i++) {
+				final long number = 1_000_000_000_000L + i;
+				final long cents = balance(i) % 100;
+				final String balance = balance(i) / 100 + (cents < 10 ? ".0" : ".") + cents;
+				writer.write(format == Format.CSV ? number + "," + balance + "\n"
+						: "{\"number\":\"" + number + "\",\"balance\":" + balance + "}\n");
+			}
+		}
+	}
+
+	private static long balance(final long index) {
+		return index * 7 % 1_000_000;
+	}
+
+	private static String export(final AccountDao accountDao, final Format format) {
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		new AccountBulkService(accountDao).export(output, format);
+		return output.toString(StandardCharsets.UTF_8);
+	}
+
+	private static Map<String, Long> balances(final AccountDao accountDao) {
+		return accountDao.getAll().stream().collect(Collectors.toMap(Account::getNumber, Account::readBalance));
+	}
+}
@@ -2,10 +2,12 @@ package pl.com.salsoft.exercise2.service;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doReturn;
 
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 
@@ -114,6 +116,28 @@ public class AccountServiceTest {
 		assertEquals(accounts, result);
 	}
 
+	@Test
+	public void testGetAccountsPage() {
+		// Given
+		final var accounts = List.of(
+				Account.builder().number("1").build(),
+				Account.builder().number("2").build()
+				);
+
+		doReturn(accounts).when(accountDao).page(eq("0"), eq(2));
+		doReturn(List.of()).when(accountDao).page(eq("2"), eq(2));
+
+		// When
+		final var result1 = service.getAccounts("0", 2);
+		final var result2 = service.getAccounts("2", 2);
+
+		// Then
+		assertEquals(accounts, result1.getAccounts());
+		assertEquals("2", result1.getNext());
+		assertTrue(result2.getAccounts().isEmpty());
+		assertNull(result2.getNext());
+	}
+
 	@Test
 	public void testGetAccountsEmpty() {
 		// Given
@@ -0,0 +1,175 @@
+package pl.com.salsoft.exercise2.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import pl.com.salsoft.exercise2.dao.AccountDao;
+import pl.com.salsoft.exercise2.dao.Journal;
+import pl.com.salsoft.exercise2.model.AsyncPaymentStats;
+import pl.com.salsoft.exercise2.model.PaymentRequest;
+import pl.com.salsoft.exercise2.model.PaymentResult;
+import pl.com.salsoft.exercise2.rest.ErrorMessages;
+
+public class AsyncPaymentServiceTest {
+	private static final long DEFAULT_BALANCE = 10000;
+
+	private final CountDownLatch release = new CountDownLatch(1);
+	private AsyncPaymentService service;
+
+	@After
+	public void afterTest() {
+		release.countDown();
+		service.close();
+	}
+
+	@Test
+	public void testPaymentProcessed() throws InterruptedException {
+		// Given
+		service = new AsyncPaymentService(new PaymentService(new AccountDao(DEFAULT_BALANCE)),
+				new PaymentResultStore(100, 1, TimeUnit.MINUTES), 10, 1);
+
+		// When
+		final long id = service.submit(createRequest()).orElseThrow();
+		while (service.isPending(id)) {
+			Thread.sleep(1);
+		}
+
+		// Then
+		final PaymentResult result = service.getResult(id).orElseThrow();
+		assertTrue(result.getSuccess());
+		assertEquals(new BigDecimal("87.66"), result.getBalance());
+		assertEquals(1, service.getStats().getCompleted());
+		assertFalse(service.getResult(id == 1 ? 2 : 1).isPresent());
+	}
+
+	@Test
+	public void testFullQueueRejects() throws InterruptedException {
+		// Given
+		service = new AsyncPaymentService(createBlockedPaymentService(), new PaymentResultStore(100, 1, TimeUnit.MINUTES), 2, 1);
+		final long first = service.submit(createRequest()).orElseThrow();
+		while (service.getStats().getQueueDepth() > 0) {
+			Thread.sleep(1); // Worker takes the first payment and blocks
+		}
+		service.submit(createRequest()).orElseThrow();
+		service.submit(createRequest()).orElseThrow();
+		Thread.sleep(20);
+
+		// When
+		final OptionalLong rejected = service.submit(createRequest());
+		final AsyncPaymentStats stats = service.getStats();
+
+		// Then
+		assertFalse(rejected.isPresent());
+		assertTrue(service.isPending(first));
+		assertEquals(2, stats.getQueueDepth());
+		assertEquals(2, stats.getQueueCapacity());
+		assertEquals(3, stats.getAccepted());
+		assertEquals(1, stats.getRejected());
+		assertTrue(stats.getOldestQueuedMillis() >= 20);
+	}
+
+	@Test
+	public void testIdsAreNotSequential() {
+		// Given
+		service = new AsyncPaymentService(new PaymentService(new AccountDao(DEFAULT_BALANCE)),
+				new PaymentResultStore(100, 1, TimeUnit.MINUTES), 10, 1);
+
+		// When
+		final long first = service.submit(createRequest()).orElseThrow();
+		final long second = service.submit(createRequest()).orElseThrow();
+
+		// Then
+		assertTrue(first > 0 && second > 0);
+		assertTrue(Math.abs(second - first) > 1);
+		assertEquals(2, service.getStats().getAccepted());
+	}
+
+	@Test
+	public void testDurabilityFailureKeepsResults() throws InterruptedException {
+		// Given
+		final Journal journal = new Journal() {
+			@Override
+			public void awaitDurable(final long position) {
+				throw new UncheckedIOException(new IOException("Disk full"));
+			}
+
+			@Override
+			public long created(final String number, final long balance) {
+				return 0;
+			}
+
+			@Override
+			public long deleted(final String number) {
+				return 0;
+			}
+
+			@Override
+			public long position() {
+				return 0;
+			}
+
+			@Override
+			public long transferred(final String sourceNumber, final String targetNumber, final long amount) {
+				return 0;
+			}
+		};
+		service = new AsyncPaymentService(new PaymentService(new AccountDao(DEFAULT_BALANCE), journal),
+				new PaymentResultStore(100, 1, TimeUnit.MINUTES), 10, 1);
+		final PaymentRequest tooMuch = PaymentRequest.builder()
+				.sourceAccount("333")
+				.targetAccount("222")
+				.amount(new BigDecimal("1000.00"))
+				.build();
+
+		// When
+		final long made = service.submit(createRequest()).orElseThrow();
+		final long failed = service.submit(tooMuch).orElseThrow();
+		while (service.isPending(made) || service.isPending(failed)) {
+			Thread.sleep(1);
+		}
+
+		// Then
+		final PaymentResult madeResult = service.getResult(made).orElseThrow();
+		assertTrue(madeResult.getSuccess());
+		assertEquals(new BigDecimal("87.66"), madeResult.getBalance());
+		assertEquals(ErrorMessages.DURABILITY_UNKNOWN_MESSAGE, madeResult.getMessage());
+		final PaymentResult failedResult = service.getResult(failed).orElseThrow();
+		assertFalse(failedResult.getSuccess());
+		assertEquals(ErrorMessages.INSUFFICIENT_FUNDS_MESSAGE, failedResult.getMessage());
+	}
+
+	private PaymentService createBlockedPaymentService() {
+		final AccountDao accountDao = new AccountDao(DEFAULT_BALANCE);
+		return new PaymentService(new CasPaymentEngine(accountDao, Journal.NONE) {
+			@Override
+			public List<PaymentResult> transfer(final List<PaymentRequest> payments) {
+				try {
+					release.await();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return super.transfer(payments);
+			}
+		}, Journal.NONE);
+	}
+
+	private static PaymentRequest createRequest() {
+		return PaymentRequest.builder()
+				.sourceAccount("111")
+				.targetAccount("222")
+				.amount(new BigDecimal("12.34"))
+				.build();
+	}
+}
@@ -0,0 +1,172 @@
+package pl.com.salsoft.exercise2.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+
+import lombok.NonNull;
+import pl.com.salsoft.exercise2.dao.AccountDao;
+import pl.com.salsoft.exercise2.dao.Journal;
+import pl.com.salsoft.exercise2.dao.MapAccountStore;
+import pl.com.salsoft.exercise2.model.Account;
+import pl.com.salsoft.exercise2.model.PaymentRequest;
+import pl.com.salsoft.exercise2.model.PaymentResult;
+import pl.com.salsoft.exercise2.rest.ErrorMessages;
+
+public class AtomicPaymentEnginesTest {
+	private static final long DEFAULT_BALANCE = 10000;
+	private static final int ACCOUNTS = 50;
+	private static final int THREADS = 4;
+	private static final int PAYMENTS_PER_THREAD = 5000;
+
+	@Test
+	public void testStripedLockTransfer() {
+		testTransfer(StripedLockPaymentEngine::new);
+	}
+
+	@Test
+	public void testOptimisticTransfer() {
+		testTransfer(OptimisticPaymentEngine::new);
+	}
+
+	@Test
+	public void testStripedLockConservesMoneyWithDeletes() throws Exception {
+		assertEquals(0, runWithDeletes(StripedLockPaymentEngine::new));
+	}
+
+	@Test
+	public void testOptimisticConservesMoneyWithDeletes() throws Exception {
+		assertEquals(0, runWithDeletes(OptimisticPaymentEngine::new));
+	}
+
+	private static void testTransfer(final EngineFactory factory) {
+		// Given
+		final AccountDao accountDao = new AccountDao(DEFAULT_BALANCE);
+		final PaymentEngine engine = factory.create(accountDao, Journal.NONE);
+
+		// When
+		final PaymentResult success = engine.transfer(createRequest("111", "222", "60.00"));
+		// Both accounts in the same stripe.
+		final PaymentResult sameStripe = engine.transfer(createRequest("111", "111", "10.00"));
+		final PaymentResult insufficient = engine.transfer(createRequest("111", "222", "60.00"));
+		final PaymentResult invalid = engine.transfer(createRequest("111", "222", "0"));
+		final boolean deleted = engine.delete("222");
+		final boolean deletedAgain = engine.delete("222");
+
+		// Then
+		assertTrue(success.getSuccess());
+		assertEquals(new BigDecimal("40.00"), success.getBalance());
+		assertTrue(sameStripe.getSuccess());
+		assertFalse(insufficient.getSuccess());
+		assertEquals(ErrorMessages.INSUFFICIENT_FUNDS_MESSAGE, insufficient.getMessage());
+		assertEquals(new BigDecimal("40.00"), insufficient.getBalance());
+		assertEquals(ErrorMessages.INVALID_AMOUNT_MESSAGE, invalid.getMessage());
+		assertTrue(deleted);
+		assertFalse(deletedAgain);
+		assertEquals(4000, accountDao.get("111").orElseThrow().readBalance());
+	}
+
+	/**
+	 * Runs random payments between few accounts in many threads, while another thread keeps deleting accounts.
+	 * Every created account brings the default balance and every deleted one takes its balance away
+	 * (as seen by the store at the moment of deletion), so whatever is left has to match exactly.
+	 * @return Money lost (or created, if negative) in cents.
+	 */
+	private static long runWithDeletes(final EngineFactory factory) throws Exception {
+		// Given
+		final CountingStore store = new CountingStore();
+		final AccountDao accountDao = new AccountDao(store);
+		final PaymentEngine engine = factory.create(accountDao, Journal.NONE);
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final ExecutorService deleter = Executors.newSingleThreadExecutor();
+		final Future<?> deletes = deleter.submit(() -> {
+			while (running.get()) {
+				engine.delete("" + ThreadLocalRandom.current().nextInt(ACCOUNTS));
+				Thread.yield();
+			}
+		});
+
+		// When
+		runPayments(engine);
+		running.set(false);
+		deletes.get();
+		deleter.shutdown();
+
+		// Then
+		final long left = accountDao.getAll().stream().mapToLong(Account::readBalance).sum();
+		return store.created.get() * DEFAULT_BALANCE - store.deletedBalance.get() - left;
+	}
+
+	private static void runPayments(final PaymentEngine engine) throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		final List<Future<?>> futures = new ArrayList<>();
+		for (int thread = 0; thread < THREADS; thread++) {
+			futures.add(executor.submit(() -> {
+				final ThreadLocalRandom random = ThreadLocalRandom.current();
+				for (int i = 0; i < PAYMENTS_PER_THREAD; i++) {
+					engine.transfer(createRequest("" + random.nextInt(ACCOUNTS), "" + random.nextInt(ACCOUNTS),
+							new BigDecimal(random.nextInt(1, 5000)).movePointLeft(2).toString()));
+				}
+			}));
+		}
+		for (final Future<?> future : futures) {
+			future.get();
+		}
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.MINUTES);
+	}
+
+	private static PaymentRequest createRequest(final String source, final String target, final String amount) {
+		return PaymentRequest.builder()
+				.sourceAccount(source)
+				.targetAccount(target)
+				.amount(new BigDecimal(amount))
+				.build();
+	}
+
+	private interface EngineFactory {
+		PaymentEngine create(AccountDao accountDao, Journal journal);
+	}
+
+	/**
+	 * Store counting created accounts and balances of deleted accounts, atomically with creation and deletion.
+	 */
+	private static class CountingStore extends MapAccountStore {
+		private final AtomicLong created = new AtomicLong();
+		private final AtomicLong deletedBalance = new AtomicLong();
+
+		private CountingStore() {
+			super(DEFAULT_BALANCE);
+		}
+
+		@Override
+		public Account getOrCreate(final String number, @NonNull final Consumer<Account> onCreate) {
+			return super.getOrCreate(number, account -> {
+				created.incrementAndGet();
+				onCreate.accept(account);
+			});
+		}
+
+		@Override
+		public boolean delete(@NonNull final String number, @NonNull final Consumer<Account> onDelete) {
+			return super.delete(number, account -> {
+				deletedBalance.addAndGet(account.readBalance());
+				onDelete.accept(account);
+			});
+		}
+	}
+}
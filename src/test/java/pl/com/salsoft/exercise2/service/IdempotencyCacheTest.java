@@ -0,0 +1,150 @@
+package pl.com.salsoft.exercise2.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import pl.com.salsoft.exercise2.model.IdempotencyStats;
+import pl.com.salsoft.exercise2.model.PaymentRequest;
+import pl.com.salsoft.exercise2.model.PaymentResult;
+
+public class IdempotencyCacheTest {
+	private final AtomicLong clock = new AtomicLong();
+	private final AtomicInteger executions = new AtomicInteger();
+	private final IdempotencyCache cache = new IdempotencyCache(3, 10, TimeUnit.SECONDS, clock::get);
+
+	@Test
+	public void testDuplicateReplayed() {
+		// Given
+		final PaymentResult first = cache.execute("key", createRequest("111"), this::pay);
+
+		// When
+		final PaymentResult second = cache.execute("key", createRequest("111"), this::pay);
+
+		// Then
+		assertSame(first, second);
+		assertEquals(1, executions.get());
+		final IdempotencyStats stats = cache.getStats();
+		assertEquals(1, stats.getHits());
+		assertEquals(1, stats.getMisses());
+		assertEquals(0.5, stats.getHitRate(), 0);
+	}
+
+	@Test
+	public void testConcurrentDuplicatesWaitForFirst() throws Exception {
+		// Given
+		final int threads = 8;
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		final List<Future<PaymentResult>> results = new ArrayList<>();
+
+		// When
+		results.add(executor.submit(() -> cache.execute("key", createRequest("111"), () -> {
+			started.countDown();
+			await(release);
+			return pay();
+		})));
+		started.await();
+		for (int i = 1; i < threads; i++) {
+			results.add(executor.submit(() -> cache.execute("key", createRequest("111"), this::pay)));
+		}
+		while (cache.getStats().getInFlightWaits() < threads - 1) {
+			Thread.sleep(1);
+		}
+		release.countDown();
+
+		// Then
+		for (final Future<PaymentResult> result : results) {
+			assertSame(results.get(0).get(), result.get());
+		}
+		assertEquals(1, executions.get());
+		executor.shutdown();
+	}
+
+	@Test(expected = IdempotencyKeyConflictException.class)
+	public void testKeyReusedForDifferentPayment() {
+		// Given
+		cache.execute("key", createRequest("111"), this::pay);
+
+		// When
+		cache.execute("key", createRequest("222"), this::pay);
+
+		// Then
+		// Exception is thrown
+	}
+
+	@Test
+	public void testFailedPaymentReleasesKey() {
+		// Given
+		try {
+			cache.execute("key", createRequest("111"), () -> {
+				throw new IllegalArgumentException();
+			});
+		} catch (final IllegalArgumentException e) {
+			// Expected
+		}
+
+		// When
+		cache.execute("key", createRequest("111"), this::pay);
+
+		// Then
+		assertEquals(1, executions.get());
+		assertEquals(1, cache.getStats().getEntries());
+	}
+
+	@Test
+	public void testEvictedBySizeAndTime() {
+		// Given
+		for (int i = 0; i < 5; i++) {
+			cache.execute("key" + i, createRequest("111"), this::pay);
+		}
+		final IdempotencyStats full = cache.getStats();
+
+		// When
+		clock.addAndGet(TimeUnit.SECONDS.toNanos(10));
+		cache.execute("key4", createRequest("111"), this::pay);
+
+		// Then
+		assertEquals(3, full.getEntries());
+		assertTrue(full.getEstimatedBytes() > 3 * 200);
+		assertEquals(6, executions.get());
+		final IdempotencyStats stats = cache.getStats();
+		assertEquals(1, stats.getEntries());
+		assertEquals(full.getEstimatedBytes() / 3, stats.getEstimatedBytes());
+	}
+
+	private PaymentResult pay() {
+		executions.incrementAndGet();
+		return PaymentResult.success("111", 100);
+	}
+
+	private static void await(final CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static PaymentRequest createRequest(final String source) {
+		return PaymentRequest.builder()
+				.sourceAccount(source)
+				.targetAccount("999")
+				.amount(new BigDecimal("1.00"))
+				.build();
+	}
+}
@@ -0,0 +1,179 @@
+package pl.com.salsoft.exercise2.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import pl.com.salsoft.exercise2.model.Account;
+import pl.com.salsoft.exercise2.model.PaymentRequest;
+import pl.com.salsoft.exercise2.model.PaymentResult;
+import pl.com.salsoft.exercise2.rest.ErrorMessages;
+
+public class JsonServiceTest {
+	private final JsonService jsonService = new JsonService();
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	@Test
+	public void testWriteSameAsDatabind() throws Exception {
+		// Given
+		final List<Object> values = List.of(createRequest(), createResult(), createFailure(), createAccount(),
+				List.of(createResult(), createFailure()), Map.of("key", "value"));
+
+		for (final Object value : values) {
+			// When
+			final String json = jsonService.map(value);
+
+			// Then
+			assertEquals(mapper.writeValueAsString(value), json);
+		}
+	}
+
+	@Test
+	public void testReadPaymentRequest() {
+		// Given
+		final String json = "{\"sourceAccount\":\"111\",\"targetAccount\":222,\"amount\":12.3}";
+
+		// When
+		final PaymentRequest request = jsonService.map(json, PaymentRequest.class);
+
+		// Then
+		assertEquals("111", request.getSourceAccount());
+		assertEquals("222", request.getTargetAccount());
+		assertEquals(1230, request.getAmount());
+	}
+
+	@Test
+	public void testReadPaymentRequests() {
+		// Given
+		final String json = jsonService.map(List.of(createRequest(), createRequest()));
+
+		// When
+		final PaymentRequest[] requests = jsonService.map(json, PaymentRequest[].class);
+
+		// Then
+		assertEquals(2, requests.length);
+		assertEquals(1234, requests[1].getAmount());
+	}
+
+	@Test
+	public void testReadPaymentResult() {
+		// Given
+		final String json = jsonService.map(createFailure());
+
+		// When
+		final PaymentResult result = jsonService.map(json, PaymentResult.class);
+
+		// Then
+		assertEquals(createFailure(), result);
+		assertEquals(new BigDecimal("12.34"), result.getBalance());
+		assertEquals(ErrorMessages.INSUFFICIENT_FUNDS_MESSAGE, result.getMessage());
+	}
+
+	@Test
+	public void testReadAccount() {
+		// Given
+		final String json = "{\"number\":\"111\",\"balance\":40.5}";
+
+		// When
+		final Account account = jsonService.map(json, Account.class);
+
+		// Then
+		assertEquals("111", account.getNumber());
+		assertEquals(4050, account.readBalance());
+	}
+
+	@Test
+	public void testReadNull() {
+		// Given
+		// Nothing
+
+		// When
+		final PaymentRequest request = jsonService.map("null", PaymentRequest.class);
+
+		// Then
+		assertNull(request);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testReadUnknownField() {
+		// Given
+		final String json = "{\"sourceAccount\":\"111\",\"targetAccount\":\"222\",\"amount\":1,\"other\":1}";
+
+		// When
+		jsonService.map(json, PaymentRequest.class);
+
+		// Then
+		// Exception is thrown
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testReadTooPreciseAmount() {
+		// Given
+		final String json = "{\"sourceAccount\":\"111\",\"targetAccount\":\"222\",\"amount\":1.001}";
+
+		// When
+		jsonService.map(json, PaymentRequest.class);
+
+		// Then
+		// Exception is thrown
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testReadTrailingContent() {
+		// Given
+		final String json = "{\"sourceAccount\":\"111\",\"targetAccount\":\"222\",\"amount\":1}{}";
+
+		// When
+		jsonService.map(json, PaymentRequest.class);
+
+		// Then
+		// Exception is thrown
+	}
+
+	@Test
+	public void testWriteArray() {
+		// Given
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+		// When
+		jsonService.<Account>writeArray(output, consumer -> {
+			consumer.accept(createAccount());
+			consumer.accept(createAccount());
+		});
+
+		// Then
+		assertEquals("[{\"number\":\"111\",\"balance\":40.50},{\"number\":\"111\",\"balance\":40.50}]", output.toString());
+	}
+
+	private static PaymentRequest createRequest() {
+		return PaymentRequest.builder()
+				.sourceAccount("111")
+				.targetAccount("222")
+				.amount(new BigDecimal("12.34"))
+				.build();
+	}
+
+	private static PaymentResult createResult() {
+		return PaymentResult.success("111", 1234);
+	}
+
+	private static PaymentResult createFailure() {
+		return PaymentResult.failure("111", 1234, ErrorMessages.INSUFFICIENT_FUNDS_MESSAGE);
+	}
+
+	private static Account createAccount() {
+		return Account.builder()
+				.number("111")
+				.balance(new AtomicLong(4050))
+				.build();
+	}
+}
@@ -0,0 +1,113 @@
+package pl.com.salsoft.exercise2.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import pl.com.salsoft.exercise2.dao.AccountDao;
+import pl.com.salsoft.exercise2.dao.Journal;
+import pl.com.salsoft.exercise2.model.Account;
+import pl.com.salsoft.exercise2.model.PaymentRequest;
+import pl.com.salsoft.exercise2.model.PaymentResult;
+import pl.com.salsoft.exercise2.rest.ErrorMessages;
+
+public class PartitionedPaymentEngineTest {
+	private static final long DEFAULT_BALANCE = 10000;
+	private static final int ACCOUNTS = 1000;
+
+	@Test
+	public void testBatchAcrossShards() {
+		// Given
+		final AccountDao accountDao = new AccountDao(DEFAULT_BALANCE);
+		final PartitionedPaymentEngine engine = new PartitionedPaymentEngine(accountDao, Journal.NONE, 4);
+		final PaymentService paymentService = new PaymentService(engine, Journal.NONE);
+
+		// When
+		final List<PaymentResult> results = paymentService.newPayments(List.of(
+				createRequest("111", "222", "60.00"),
+				createRequest("222", "333", "150.00"),
+				createRequest("111", "333", "60.00"),
+				createRequest("111", "333", "0")));
+		engine.close();
+
+		// Then
+		assertTrue(results.get(0).getSuccess());
+		assertEquals(new BigDecimal("40.00"), results.get(0).getBalance());
+		assertFalse(results.get(2).getSuccess());
+		assertEquals(ErrorMessages.INSUFFICIENT_FUNDS_MESSAGE, results.get(2).getMessage());
+		assertEquals(ErrorMessages.INVALID_AMOUNT_MESSAGE, results.get(3).getMessage());
+		final long total = accountDao.getAll().stream().mapToLong(Account::readBalance).sum();
+		assertEquals(3 * DEFAULT_BALANCE, total);
+		assertEquals(4000, accountDao.get("111").orElseThrow().readBalance());
+	}
+
+	@Test
+	public void testCutsConsistentAcrossShards() throws Exception {
+		for (final int shards : new int[] {1, 4}) {
+			// Given
+			final AccountDao accountDao = new AccountDao(DEFAULT_BALANCE);
+			final PartitionedPaymentEngine engine = new PartitionedPaymentEngine(accountDao, Journal.NONE, shards);
+			final PaymentService paymentService = new PaymentService(engine, Journal.NONE);
+			final AtomicBoolean running = new AtomicBoolean(true);
+			final ExecutorService reader = Executors.newSingleThreadExecutor();
+			// Consistent cuts taken all the time must never see money between shards.
+			final Future<?> cuts = reader.submit(() -> {
+				while (running.get()) {
+					final var accounts = accountDao.getAll();
+					assertEquals(DEFAULT_BALANCE * accounts.size(), accounts.stream().mapToLong(Account::readBalance).sum());
+				}
+			});
+
+			// When
+			runPayments(paymentService, 4, 2000);
+			running.set(false);
+			cuts.get();
+			reader.shutdown();
+			engine.close();
+
+			// Then
+			final var accounts = accountDao.getAll();
+			assertEquals(DEFAULT_BALANCE * accounts.size(), accounts.stream().mapToLong(Account::readBalance).sum());
+		}
+	}
+
+	private static PaymentRequest createRequest(final String source, final String target, final String amount) {
+		return PaymentRequest.builder()
+				.sourceAccount(source)
+				.targetAccount(target)
+				.amount(new BigDecimal(amount))
+				.build();
+	}
+
+	private static void runPayments(final PaymentService paymentService, final int threads, final int paymentsPerThread)
+			throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		final List<Future<?>> futures = new ArrayList<>();
+		for (int thread = 0; thread < threads; thread++) {
+			futures.add(executor.submit(() -> {
+				final ThreadLocalRandom random = ThreadLocalRandom.current();
+				for (int i = 0; i < paymentsPerThread; i++) {
+					paymentService.newPayment(createRequest("" + random.nextInt(ACCOUNTS), "" + random.nextInt(ACCOUNTS),
+							new BigDecimal(random.nextInt(1, 5000)).movePointLeft(2).toString()));
+				}
+			}));
+		}
+		for (final Future<?> future : futures) {
+			future.get();
+		}
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.MINUTES);
+	}
+}
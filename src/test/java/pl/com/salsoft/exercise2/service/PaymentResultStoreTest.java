@@ -0,0 +1,66 @@
+package pl.com.salsoft.exercise2.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import pl.com.salsoft.exercise2.model.PaymentResult;
+
+public class PaymentResultStoreTest {
+	private final AtomicLong clock = new AtomicLong();
+
+	@Test
+	public void testExpiredResultsEvicted() {
+		// Given
+		final PaymentResultStore store = new PaymentResultStore(100, 10, TimeUnit.SECONDS, clock::get);
+		store.put(1, PaymentResult.success("111", 100));
+		clock.addAndGet(TimeUnit.SECONDS.toNanos(5));
+		store.put(2, PaymentResult.success("222", 200));
+
+		// When
+		clock.addAndGet(TimeUnit.SECONDS.toNanos(6));
+		store.put(3, PaymentResult.success("333", 300));
+
+		// Then
+		assertFalse(store.get(1).isPresent());
+		assertEquals("222", store.get(2).orElseThrow().getAccountNumber());
+		assertTrue(store.get(3).isPresent());
+		assertEquals(2, store.size());
+	}
+
+	@Test
+	public void testOldestResultsEvictedAboveLimit() {
+		// Given
+		final PaymentResultStore store = new PaymentResultStore(3, 10, TimeUnit.SECONDS, clock::get);
+
+		// When
+		for (int id = 1; id <= 5; id++) {
+			store.put(id, PaymentResult.success("111", id));
+		}
+
+		// Then
+		assertEquals(3, store.size());
+		assertFalse(store.get(1).isPresent());
+		assertFalse(store.get(2).isPresent());
+		assertTrue(store.get(3).isPresent());
+		assertTrue(store.get(5).isPresent());
+	}
+
+	@Test
+	public void testExpiredResultNotReturnedBeforeEviction() {
+		// Given
+		final PaymentResultStore store = new PaymentResultStore(100, 10, TimeUnit.SECONDS, clock::get);
+		store.put(1, PaymentResult.success("111", 100));
+
+		// When
+		clock.addAndGet(TimeUnit.SECONDS.toNanos(10));
+
+		// Then
+		assertFalse(store.get(1).isPresent());
+	}
+}
@@ -5,11 +5,18 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doReturn;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.junit.Before;
@@ -19,6 +26,11 @@ import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import pl.com.salsoft.exercise2.dao.AccountDao;
+import pl.com.salsoft.exercise2.dao.AccountVersions;
+import pl.com.salsoft.exercise2.dao.ChangeFeed;
+import pl.com.salsoft.exercise2.dao.Epochs;
+import pl.com.salsoft.exercise2.dao.Journal;
+import pl.com.salsoft.exercise2.dao.TransactionHistory;
 import pl.com.salsoft.exercise2.model.Account;
 import pl.com.salsoft.exercise2.model.PaymentRequest;
 import pl.com.salsoft.exercise2.model.PaymentResult;
@@ -26,12 +38,19 @@ import pl.com.salsoft.exercise2.model.PaymentResult;
 @RunWith(MockitoJUnitRunner.class)
 public class PaymentServiceTest {
 	private PaymentService service;
+	private AccountVersions versions;
 
 	@Mock
 	private AccountDao accountDao;
 
 	@Before
 	public void setup() {
+		doReturn(new Epochs()).when(accountDao).getEpochs();
+		doReturn(TransactionHistory.NONE).when(accountDao).getHistory();
+		versions = new AccountVersions();
+		doReturn(versions).when(accountDao).getVersions();
+		doReturn(ChangeFeed.NONE).when(accountDao).getChanges();
+		doReturn(true).when(accountDao).isSupported(anyString());
 		service = new PaymentService(accountDao);
 	}
 
@@ -49,6 +68,8 @@ public class PaymentServiceTest {
 		doReturn(targetAccount).when(accountDao).getOrCreate(eq(targetAccountNumber));
 
 		final PaymentRequest request = createRequest(sourceAccountNumber, targetAccountNumber, "15.25");
+		final long globalVersion = versions.global();
+		final long sourceVersion = versions.of(sourceAccountNumber);
 
 		// When
 		final PaymentResult result = service.newPayment(request);
@@ -64,6 +85,106 @@ public class PaymentServiceTest {
 		assertEquals(targetBalanceAfterwards, targetAccount.getBalance().get());
 		assertTrue(result.getSuccess());
 		assertNull(result.getMessage());
+		assertEquals(globalVersion + 2, versions.global());
+		assertEquals(sourceVersion + 1, versions.of(sourceAccountNumber));
+	}
+
+	@Test
+	public void testNewPayments() {
+		// Given
+		final Account account1 = createAccount("111", 10000);
+		final Account account2 = createAccount("222", 1000);
+		final Account account3 = createAccount("333", 0);
+
+		doReturn(account1).when(accountDao).getOrCreate(eq("111"));
+		doReturn(account2).when(accountDao).getOrCreate(eq("222"));
+		doReturn(account3).when(accountDao).getOrCreate(eq("333"));
+
+		final List<PaymentRequest> requests = List.of(
+				createRequest("111", "333", "20.00"),
+				createRequest("222", "333", "6.00"),
+				createRequest("111", "222", "30.00"),
+				createRequest("222", "333", "35.00"),
+				createRequest("111", "333", "-1"));
+
+		// When
+		final List<PaymentResult> results = service.newPayments(requests);
+
+		// Then
+		assertEquals(5, results.size());
+		assertTrue(results.get(0).getSuccess());
+		assertEquals(new BigDecimal("80.00"), results.get(0).getBalance());
+		assertTrue(results.get(1).getSuccess());
+		assertEquals(new BigDecimal("34.00"), results.get(1).getBalance());
+		assertTrue(results.get(2).getSuccess());
+		assertEquals(new BigDecimal("50.00"), results.get(2).getBalance());
+		assertFalse(results.get(3).getSuccess());
+		assertEquals("222", results.get(3).getAccountNumber());
+		assertEquals(new BigDecimal("34.00"), results.get(3).getBalance());
+		assertFalse(results.get(4).getSuccess());
+		assertEquals(new BigDecimal("50.00"), results.get(4).getBalance());
+		assertEquals(5000, account1.getBalance().get());
+		assertEquals(3400, account2.getBalance().get());
+		assertEquals(2600, account3.getBalance().get());
+		assertEquals(3, service.getSucceededCount());
+		assertEquals(1, service.getInsufficientFundsCount());
+		assertEquals(1, service.getInvalidAmountCount());
+	}
+
+	@Test
+	public void testIdempotentPaymentNotRepeatedWhenDurabilityFails() {
+		// Given
+		final Account sourceAccount = createAccount("111", 10000);
+		final Account targetAccount = createAccount("222", 10000);
+		doReturn(sourceAccount).when(accountDao).getOrCreate(eq("111"));
+		doReturn(targetAccount).when(accountDao).getOrCreate(eq("222"));
+		final AtomicInteger failures = new AtomicInteger(1);
+		final Journal journal = new Journal() {
+			@Override
+			public void awaitDurable(final long position) {
+				if (failures.getAndDecrement() > 0) {
+					throw new UncheckedIOException(new IOException("Disk failure"));
+				}
+			}
+
+			@Override
+			public long created(final String number, final long balance) {
+				return 0;
+			}
+
+			@Override
+			public long deleted(final String number) {
+				return 0;
+			}
+
+			@Override
+			public long position() {
+				return 0;
+			}
+
+			@Override
+			public long transferred(final String sourceNumber, final String targetNumber, final long amount) {
+				return 0;
+			}
+		};
+		final PaymentService journaledService = new PaymentService(accountDao, journal);
+		final IdempotencyCache cache = new IdempotencyCache(10, 1, TimeUnit.MINUTES);
+		final PaymentRequest request = createRequest("111", "222", "15.25");
+		try {
+			journaledService.newPayment(request, "key", cache);
+			fail("Failure of the journal was not reported.");
+		} catch (final UncheckedIOException e) {
+			// Expected
+		}
+
+		// When
+		final PaymentResult retried = journaledService.newPayment(request, "key", cache);
+
+		// Then
+		assertTrue(retried.getSuccess());
+		assertEquals(8475, sourceAccount.getBalance().get());
+		assertEquals(11525, targetAccount.getBalance().get());
+		assertEquals(1, journaledService.getSucceededCount());
 	}
 
 	@Test(expected = NullPointerException.class)
@@ -92,6 +213,7 @@ public class PaymentServiceTest {
 		doReturn(targetAccount).when(accountDao).getOrCreate(eq(targetAccountNumber));
 
 		final PaymentRequest request = createRequest(sourceAccountNumber, targetAccountNumber, "500");
+		final long globalVersion = versions.global();
 
 		// When
 		final PaymentResult result = service.newPayment(request);
@@ -107,6 +229,7 @@ public class PaymentServiceTest {
 		assertEquals(targetBalanceAfterwards, targetAccount.getBalance().get());
 		assertFalse(result.getSuccess());
 		assertNotNull(result.getMessage());
+		assertEquals(globalVersion, versions.global());
 	}
 
 	@Test
@@ -0,0 +1,105 @@
+package pl.com.salsoft.exercise2.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import pl.com.salsoft.exercise2.dao.AccountDao;
+import pl.com.salsoft.exercise2.dao.Journal;
+import pl.com.salsoft.exercise2.model.Account;
+import pl.com.salsoft.exercise2.model.PaymentRequest;
+import pl.com.salsoft.exercise2.model.PaymentResult;
+import pl.com.salsoft.exercise2.rest.ErrorMessages;
+
+public class RingBufferPaymentEngineTest {
+	private static final long DEFAULT_BALANCE = 10000;
+	private static final int ACCOUNTS = 1000;
+	private AccountDao accountDao;
+	private RingBufferPaymentEngine engine;
+
+	@After
+	public void afterTest() {
+		engine.close();
+	}
+
+	@Before
+	public void beforeTest() {
+		accountDao = new AccountDao(DEFAULT_BALANCE);
+		engine = new RingBufferPaymentEngine(accountDao, Journal.NONE, 16);
+	}
+
+	@Test
+	public void testTransfer() {
+		// Given
+		final PaymentService paymentService = new PaymentService(engine, Journal.NONE);
+
+		// When
+		final PaymentResult result1 = paymentService.newPayment(createRequest("111", "222", "60.00"));
+		final PaymentResult result2 = paymentService.newPayment(createRequest("111", "222", "60.00"));
+
+		// Then
+		assertTrue(result1.getSuccess());
+		assertEquals(new BigDecimal("40.00"), result1.getBalance());
+		assertFalse(result2.getSuccess());
+		assertEquals(ErrorMessages.INSUFFICIENT_FUNDS_MESSAGE, result2.getMessage());
+		assertEquals(4000, accountDao.get("111").orElseThrow().readBalance());
+		assertEquals(16000, accountDao.get("222").orElseThrow().readBalance());
+	}
+
+	@Test
+	public void testConcurrentPaymentsConserveMoney() throws Exception {
+		// Given
+		final int threads = 4;
+		final int paymentsPerThread = 2000;
+		// 90% of payments go between 4 hot accounts.
+		final IntSupplier skewed = () -> ThreadLocalRandom.current().nextInt(10) == 0
+				? ThreadLocalRandom.current().nextInt(ACCOUNTS) : ThreadLocalRandom.current().nextInt(4);
+
+		// When
+		runPayments(new PaymentService(engine, Journal.NONE), threads, paymentsPerThread, skewed);
+
+		// Then
+		final var accounts = accountDao.getAll();
+		assertEquals(DEFAULT_BALANCE * accounts.size(), accounts.stream().mapToLong(Account::readBalance).sum());
+	}
+
+	private static PaymentRequest createRequest(final String source, final String target, final String amount) {
+		return PaymentRequest.builder()
+				.sourceAccount(source)
+				.targetAccount(target)
+				.amount(new BigDecimal(amount))
+				.build();
+	}
+
+	private static void runPayments(final PaymentService paymentService, final int threads, final int paymentsPerThread,
+			final IntSupplier accounts) throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		final List<Future<?>> futures = new ArrayList<>();
+		for (int thread = 0; thread < threads; thread++) {
+			futures.add(executor.submit(() -> {
+				for (int i = 0; i < paymentsPerThread; i++) {
+					paymentService.newPayment(createRequest("" + accounts.getAsInt(), "" + accounts.getAsInt(), "0.17"));
+				}
+			}));
+		}
+		for (final Future<?> future : futures) {
+			future.get();
+		}
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.MINUTES);
+	}
+}
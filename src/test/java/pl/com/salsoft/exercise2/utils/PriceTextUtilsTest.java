@@ -0,0 +1,203 @@
+package pl.com.salsoft.exercise2.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PriceTextUtilsTest {
+	private static final int SAMPLES = 200_000;
+
+	@Test
+	public void testFromPrice() {
+		// Given
+		final String price = "100.25";
+
+		// When
+		final long result = PriceTextUtils.fromPrice(price);
+
+		// Then
+		assertEquals(10025, result);
+	}
+
+	@Test
+	public void testFromPriceForms() {
+		// Given
+		// Nothing
+
+		// When
+		// Then
+		assertEquals(10000, PriceTextUtils.fromPrice("100"));
+		assertEquals(10020, PriceTextUtils.fromPrice("100.2"));
+		assertEquals(-3, PriceTextUtils.fromPrice("-0.03"));
+		assertEquals(10025, PriceTextUtils.fromPrice("100.250000"));
+		assertEquals(150, PriceTextUtils.fromPrice("1.5e0"));
+		assertEquals(12000, PriceTextUtils.fromPrice("1.2E2"));
+		assertEquals(123, PriceTextUtils.fromPrice("12.3e-1"));
+		assertEquals(0, PriceTextUtils.fromPrice("0e-50"));
+		assertEquals(Long.MAX_VALUE, PriceTextUtils.fromPrice("92233720368547758.07"));
+		assertEquals(Long.MIN_VALUE, PriceTextUtils.fromPrice("-92233720368547758.08"));
+	}
+
+	@Test
+	public void testFromPriceSubrange() {
+		// Given
+		final char[] text = "{\"amount\":12.34}".toCharArray();
+
+		// When
+		final long result = PriceTextUtils.fromPrice(text, 10, 5);
+
+		// Then
+		assertEquals(1234, result);
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void testFromPriceTooManyDecimals() {
+		// Given
+		// Nothing
+
+		// When
+		PriceTextUtils.fromPrice("100.256");
+
+		// Then
+		// Exception is thrown
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void testFromPriceTooManyDecimalsWithExponent() {
+		// Given
+		// Nothing
+
+		// When
+		PriceTextUtils.fromPrice("1.25e-1");
+
+		// Then
+		// Exception is thrown
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void testFromPriceOutOfRange() {
+		// Given
+		// Nothing
+
+		// When
+		PriceTextUtils.fromPrice("92233720368547758.08");
+
+		// Then
+		// Exception is thrown
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void testFromPriceOutOfRangeWithExponent() {
+		// Given
+		// Nothing
+
+		// When
+		PriceTextUtils.fromPrice("1e18");
+
+		// Then
+		// Exception is thrown
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void testFromPriceNotNumber() {
+		// Given
+		// Nothing
+
+		// When
+		PriceTextUtils.fromPrice("12a");
+
+		// Then
+		// Exception is thrown
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void testFromPriceEmpty() {
+		// Given
+		// Nothing
+
+		// When
+		PriceTextUtils.fromPrice("-");
+
+		// Then
+		// Exception is thrown
+	}
+
+	@Test
+	public void testToPrice() {
+		// Given
+		// Nothing
+
+		// When
+		// Then
+		assertEquals("123.45", PriceTextUtils.toPrice(12345));
+		assertEquals("0.03", PriceTextUtils.toPrice(3));
+		assertEquals("0.00", PriceTextUtils.toPrice(0));
+		assertEquals("-123.45", PriceTextUtils.toPrice(-12345));
+		assertEquals("-0.05", PriceTextUtils.toPrice(-5));
+		assertEquals("92233720368547758.07", PriceTextUtils.toPrice(Long.MAX_VALUE));
+		assertEquals("-92233720368547758.08", PriceTextUtils.toPrice(Long.MIN_VALUE));
+	}
+
+	@Test
+	public void testToPriceMatchesBigDecimalUtils() {
+		// Given
+		final Random random = new Random(42);
+
+		for (int i = 0; i < SAMPLES; i++) {
+			final long value = randomValue(random);
+
+			// When
+			final String result = PriceTextUtils.toPrice(value);
+
+			// Then
+			assertEquals(BigDecimalUtils.toPrice(value).toPlainString(), result);
+		}
+	}
+
+	@Test
+	public void testFromPriceMatchesBigDecimalUtils() {
+		// Given
+		final Random random = new Random(42);
+
+		for (int i = 0; i < SAMPLES; i++) {
+			final BigDecimal price = BigDecimalUtils.toPrice(randomValue(random));
+			// Same value written in different forms: plain, without trailing zeros, scientific.
+			for (final String text : new String[] {price.toPlainString(), price.stripTrailingZeros().toPlainString(),
+					price.toString(), price.stripTrailingZeros().toString(), price.scaleByPowerOfTen(-3).toPlainString() + "e3"}) {
+
+				// When
+				final long result = PriceTextUtils.fromPrice(text);
+
+				// Then
+				assertEquals(text, BigDecimalUtils.fromPrice(new BigDecimal(text)), result);
+			}
+		}
+	}
+
+	@Test
+	public void testFromPriceRoundTrip() {
+		// Given
+		final Random random = new Random(7);
+
+		for (int i = 0; i < SAMPLES; i++) {
+			final long value = randomValue(random);
+
+			// When
+			final long result = PriceTextUtils.fromPrice(PriceTextUtils.toPrice(value));
+
+			// Then
+			assertEquals(value, result);
+		}
+	}
+
+	/**
+	 * Values of all magnitudes, from single cents up to the whole long range.
+	 */
+	private static long randomValue(final Random random) {
+		final long value = random.nextLong() >> random.nextInt(64);
+		return random.nextInt(10) == 0 ? value / 100 * 100 : value;
+	}
+}